@@ -2,6 +2,12 @@ package test.buffer;
 
 import txDB.Config;
 import txDB.buffer.BufferManager;
+import txDB.buffer.BufferPoolMetrics;
+import txDB.buffer.BufferPoolWarmer;
+import txDB.buffer.BufferRing;
+import txDB.buffer.PageCleaner;
+import txDB.buffer.ReadAhead;
+import txDB.buffer.Replacer;
 import txDB.storage.disk.DiskManager;
 import txDB.storage.page.Page;
 import txDB.storage.page.TablePage;
@@ -11,7 +17,13 @@ import static org.junit.Assert.*;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
 import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
 
 public class BufferManagerTest {
     String dbName = "test";
@@ -177,4 +189,556 @@ public class BufferManagerTest {
 
         diskManager.dropFile(dbName);
     }
+
+    @Test
+    public void partitionedMultithreadTest() throws InterruptedException {
+        class FetchThread extends Thread {
+            private BufferManager bufferManager;
+            private int pageNum;
+            private boolean whetherCorrect = true;
+
+            private FetchThread(BufferManager bufferManager, int pageNum) {
+                this.bufferManager = bufferManager;
+                this.pageNum = pageNum;
+            }
+
+            public void run() {
+                int i;
+                Page page;
+                for (i = 0; i < 1000; i++) {
+                    page = this.bufferManager.fetchPage(i % pageNum);
+                    if (page == null || ByteBuffer.wrap(page.getPageData()).getInt(0) != i % pageNum) {
+                        whetherCorrect = false;
+                        return;
+                    }
+                    this.bufferManager.unpinPage(i % pageNum, false);
+                }
+            }
+        }
+
+        int partitionNum = 4, pageNum = 2 * partitionNum;
+        BufferManager bufferManager = new BufferManager(Config.BUFFER_SIZE, partitionNum, diskManager, null, Replacer.ReplacerType.CLOCK);
+
+        int i;
+        Page page;
+        for (i = 0; i < pageNum; i++) {
+            assertNotNull(page = bufferManager.newPage());
+            assertEquals(i, page.getPageId());
+            ByteBuffer.wrap(page.getPageData()).putInt(0, i);
+            assertTrue(bufferManager.unpinPage(i, true));
+        }
+        assertEquals(pageNum, bufferManager.getSize());
+
+        for (i = 0; i < pageNum; i++) {
+            assertTrue(bufferManager.flushPage(i));
+        }
+        assertEquals(0, bufferManager.getSize());
+
+        // all threads start with missed pages, so some of them wait for reads done by others
+        FetchThread[] fetchThreads = new FetchThread[4];
+        for (i = 0; i < fetchThreads.length; i++) {
+            fetchThreads[i] = new FetchThread(bufferManager, pageNum);
+            fetchThreads[i].start();
+        }
+        for (i = 0; i < fetchThreads.length; i++) {
+            fetchThreads[i].join();
+            assertTrue(fetchThreads[i].whetherCorrect);
+        }
+        assertEquals(pageNum, bufferManager.getSize());
+
+        diskManager.close();
+        diskManager.dropFile(dbName);
+    }
+
+    @Test
+    public void frameRecycleTest() {
+        BufferManager bufferManager = new BufferManager(Config.BUFFER_SIZE, diskManager, null);
+        Set<ByteBuffer> frames = Collections.newSetFromMap(new IdentityHashMap<>());
+
+        int i, pageNum = Config.BUFFER_SIZE * 3;
+        Page page;
+        for (i = 0; i < pageNum; i++) {
+            assertNotNull(page = bufferManager.newPage());
+            frames.add(page.getPageBuffer());
+            ByteBuffer.wrap(page.getPageData()).putInt(0, i);
+            assertTrue(bufferManager.unpinPage(i, true));
+        }
+        // evicted pages give their frames to new pages
+        assertEquals(Config.BUFFER_SIZE, frames.size());
+
+        for (i = 0; i < pageNum; i++) {
+            assertNotNull(page = bufferManager.fetchPage(i));
+            assertTrue(frames.contains(page.getPageBuffer()));
+            assertSame(page.getPageData(), page.getPageBuffer().array());
+            assertEquals(i, ByteBuffer.wrap(page.getPageData()).getInt(0));
+            assertTrue(bufferManager.unpinPage(i, false));
+        }
+        assertEquals(Config.BUFFER_SIZE, frames.size());
+
+        diskManager.close();
+        diskManager.dropFile(dbName);
+    }
+
+    @Test
+    public void pageCleanerTest() throws InterruptedException {
+        BufferManager bufferManager = new BufferManager(Config.BUFFER_SIZE, diskManager, null);
+        int lowWatermark = (int) Math.ceil(Config.BUFFER_SIZE * Config.CLEANER_LOW_WATERMARK);
+        int highWatermark = (int) Math.ceil(Config.BUFFER_SIZE * Config.CLEANER_HIGH_WATERMARK);
+
+        int i;
+        Page page;
+        for (i = 0; i < Config.BUFFER_SIZE / 2; i++) {
+            assertNotNull(bufferManager.newPage());
+            assertTrue(bufferManager.unpinPage(i, true));
+        }
+        // there are still free frames, nothing to clean
+        assertEquals(0, bufferManager.cleanColdPages());
+        for (; i < Config.BUFFER_SIZE; i++) {
+            assertNotNull(bufferManager.newPage());
+            assertTrue(bufferManager.unpinPage(i, true));
+        }
+
+        // one round of the cleaner, its interval does not matter
+        PageCleaner pageCleaner = bufferManager.startPageCleaner();
+        assertSame(pageCleaner, bufferManager.startPageCleaner());
+        assertTrue(pageCleaner.awaitRound(1, Config.LOGGING_TIMEOUT * 10));
+
+        // the coldest pages are written up to the high watermark, the others are left dirty
+        int cleanNum = (int) bufferManager.getMetrics().snapshot().getDirtyWriteCount();
+        assertEquals(highWatermark, cleanNum);
+        assertTrue(cleanNum >= lowWatermark);
+        // enough clean frames at the cold end now
+        assertEquals(0, bufferManager.cleanColdPages());
+        for (i = 0; i < Config.BUFFER_SIZE; i++) {
+            assertNotNull(page = bufferManager.fetchPage(i));
+            assertTrue(bufferManager.unpinPage(i, false));
+        }
+
+        // the cleaner stops with the buffer manager
+        bufferManager.close();
+        assertTrue(pageCleaner.isTerminated());
+
+        diskManager.close();
+        diskManager.dropFile(dbName);
+    }
+
+    @Test
+    public void batchFlushTest() {
+        BufferManager bufferManager = new BufferManager(Config.BUFFER_SIZE, diskManager, null);
+
+        int i;
+        Page page;
+        for (i = 0; i < Config.BUFFER_SIZE; i++) {
+            assertNotNull(page = bufferManager.newPage());
+            ByteBuffer.wrap(page.getPageData()).putInt(0, i + 1);
+            // page 3 stays clean, which splits the dirty pages into two runs
+            assertTrue(bufferManager.unpinPage(i, i != 3));
+        }
+        bufferManager.flushAllPages();
+        assertEquals(0, bufferManager.getSize());
+
+        byte[] pageData;
+        for (i = 0; i < Config.BUFFER_SIZE; i++) {
+            if (i == 3) continue;
+            assertNotNull(pageData = diskManager.readPage(i));
+            assertEquals(i + 1, ByteBuffer.wrap(pageData).getInt(0));
+        }
+        assertEquals(0, ByteBuffer.wrap(diskManager.readPage(3)).getInt(0));
+
+        // a pinned page is written but keeps its frame, a crash does not take it either
+        assertNotNull(page = bufferManager.fetchPage(0));
+        ByteBuffer.wrap(page.getPageData()).putInt(0, Config.BUFFER_SIZE + 1);
+        page.setDirty(true);
+        bufferManager.flushAllPages();
+        assertEquals(1, bufferManager.getSize());
+        assertEquals(Config.BUFFER_SIZE + 1, ByteBuffer.wrap(diskManager.readPage(0)).getInt(0));
+        bufferManager.bufferCrash();
+        assertTrue(bufferManager.isResident(0));
+        assertTrue(bufferManager.unpinPage(0, false));
+        bufferManager.bufferCrash();
+        assertEquals(0, bufferManager.getSize());
+
+        diskManager.close();
+        diskManager.dropFile(dbName);
+    }
+
+    @Test
+    public void concurrentFlushTest() throws InterruptedException {
+        BufferManager bufferManager = new BufferManager(Config.BUFFER_SIZE, diskManager, null);
+
+        int i, pageNum = 4, writeNum = 2000, counterOffset = 100;
+        for (i = 0; i < pageNum; i++) {
+            assertNotNull(bufferManager.newPage());
+            assertTrue(bufferManager.unpinPage(i, true));
+        }
+
+        // every writer counts in its own page, viewing it as a table page, while pages are flushed
+        Thread[] writers = new Thread[pageNum];
+        for (i = 0; i < pageNum; i++) {
+            int pageId = i;
+            writers[i] = new Thread(() -> {
+                for (int j = 0; j < writeNum; j++) {
+                    TablePage tablePage = new TablePage(bufferManager.fetchPage(pageId));
+                    bufferManager.replacePage(tablePage);
+                    tablePage.writeLatch();
+                    ByteBuffer pageBuffer = ByteBuffer.wrap(tablePage.getPageData());
+                    pageBuffer.putInt(counterOffset, pageBuffer.getInt(counterOffset) + 1);
+                    tablePage.writeUnlatch();
+                    bufferManager.unpinPage(pageId, true);
+                }
+            });
+            writers[i].start();
+        }
+        boolean whetherWriting = true;
+        while (whetherWriting) {
+            bufferManager.flushAllPages();
+            whetherWriting = false;
+            for (Thread writer : writers) whetherWriting |= writer.isAlive();
+        }
+        for (Thread writer : writers) writer.join();
+
+        // no count is lost on disk, no pin is left behind
+        bufferManager.flushAllPages();
+        assertEquals(0, bufferManager.getSize());
+        for (i = 0; i < pageNum; i++) {
+            assertEquals(writeNum, ByteBuffer.wrap(diskManager.readPage(i)).getInt(counterOffset));
+        }
+
+        diskManager.close();
+        diskManager.dropFile(dbName);
+    }
+
+    @Test
+    public void readAheadTest() throws InterruptedException {
+        BufferManager bufferManager = new BufferManager(Config.BUFFER_SIZE, diskManager, null);
+
+        // a chain of table pages larger than the buffer pool
+        int i, pageNum = Config.BUFFER_SIZE * 3;
+        TablePage tablePage;
+        for (i = 0; i < pageNum; i++) {
+            assertNotNull(tablePage = new TablePage(bufferManager.newPage()));
+            tablePage.setNextPageId(i == pageNum - 1 ? Config.INVALID_PAGE_ID : i + 1);
+            assertTrue(bufferManager.unpinPage(i, true));
+        }
+        bufferManager.flushAllPages();
+
+        ReadAhead readAhead = new ReadAhead(bufferManager, page -> TablePage.getNextPageId(page));
+        int pageId = 0, visitedNum = 0, residentNum = 0;
+        Page page;
+        while (pageId != Config.INVALID_PAGE_ID) {
+            readAhead.hint(pageId);
+            // give read-ahead some time, as if tuples of the page were being processed
+            Thread.sleep(5);
+            if (bufferManager.isResident(pageId)) residentNum++;
+            assertNotNull(page = bufferManager.fetchPage(pageId));
+            assertEquals(pageId, page.getPageId());
+            int nextPageId = TablePage.getNextPageId(page);
+            assertTrue(bufferManager.unpinPage(pageId, false));
+            pageId = nextPageId;
+            visitedNum++;
+        }
+        readAhead.close();
+
+        assertEquals(pageNum, visitedNum);
+        // most pages are already loaded when the scan reaches them
+        assertTrue(residentNum > pageNum / 2);
+        assertTrue(readAhead.getDepth() >= 1);
+
+        diskManager.close();
+        diskManager.dropFile(dbName);
+    }
+
+    @Test
+    public void bufferRingTest() {
+        BufferManager bufferManager = new BufferManager(Config.BUFFER_SIZE, diskManager, null);
+
+        int i, hotPageNum = Config.BUFFER_SIZE / 2, pageNum = Config.BUFFER_SIZE * 4;
+        for (i = 0; i < pageNum; i++) {
+            assertNotNull(bufferManager.newPage());
+            assertTrue(bufferManager.unpinPage(i, true));
+        }
+        bufferManager.flushAllPages();
+
+        // working set of others
+        for (i = 0; i < hotPageNum; i++) {
+            assertNotNull(bufferManager.fetchPage(i));
+            assertTrue(bufferManager.unpinPage(i, false));
+        }
+
+        // a large scan only recycles the frames of its own ring
+        BufferRing bufferRing = new BufferRing(BufferRing.ringSize(Config.BUFFER_SIZE));
+        Page page;
+        for (i = hotPageNum; i < pageNum; i++) {
+            assertNotNull(page = bufferManager.fetchPage(i, bufferRing));
+            assertEquals(i, page.getPageId());
+            assertTrue(bufferManager.unpinPage(i, false));
+        }
+
+        for (i = 0; i < hotPageNum; i++) {
+            assertTrue(bufferManager.isResident(i));
+        }
+        assertTrue(bufferManager.getSize() <= hotPageNum + bufferRing.size());
+
+        // the page leaving a partitioned ring is in the partition of the page coming in
+        BufferRing partitionedRing = new BufferRing(3, 2);
+        assertEquals(3, partitionedRing.size());
+        for (i = 0; i < 20; i++) {
+            int oldPageId = partitionedRing.advance(i);
+            assertTrue(oldPageId == Config.INVALID_PAGE_ID || oldPageId % 2 == i % 2);
+        }
+
+        // a bulk load recycles the frames of its ring within the partition of every new page
+        BufferManager partitionedBufferManager = new BufferManager(12, 2, diskManager, null, Replacer.ReplacerType.CLOCK);
+        hotPageNum = 8;
+        for (i = 0; i < hotPageNum; i++) {
+            assertNotNull(partitionedBufferManager.fetchPage(i));
+            assertTrue(partitionedBufferManager.unpinPage(i, false));
+        }
+        BufferRing bulkRing = partitionedBufferManager.newBufferRing();
+        for (i = 0; i < pageNum; i++) {
+            assertNotNull(page = partitionedBufferManager.newPage(Config.INVALID_PAGE_ID, bulkRing));
+            assertTrue(partitionedBufferManager.unpinPage(page.getPageId(), true));
+        }
+        for (i = 0; i < hotPageNum; i++) {
+            assertTrue(partitionedBufferManager.isResident(i));
+        }
+        // every new page found a frame freed by the ring, nothing else was evicted
+        assertEquals(0, partitionedBufferManager.getMetrics().snapshot().getEvictionCount());
+
+        diskManager.close();
+        diskManager.dropFile(dbName);
+    }
+
+    @Test
+    public void metricsTest() throws Exception {
+        BufferManager bufferManager = new BufferManager(Config.BUFFER_SIZE, diskManager, null);
+
+        int i, pageNum = Config.BUFFER_SIZE * 2;
+        for (i = 0; i < pageNum; i++) {
+            assertNotNull(bufferManager.newPage());
+            assertTrue(bufferManager.unpinPage(i, true));
+        }
+        // pages still in the buffer pool are hits
+        for (i = Config.BUFFER_SIZE; i < pageNum; i++) {
+            assertNotNull(bufferManager.fetchPage(i));
+            assertTrue(bufferManager.unpinPage(i, false));
+        }
+        assertNotNull(bufferManager.fetchPage(0));
+
+        BufferPoolMetrics.Snapshot snapshot = bufferManager.getMetrics().snapshot();
+        System.out.println(snapshot);
+        assertEquals(pageNum, snapshot.getNewPageCount());
+        assertEquals(Config.BUFFER_SIZE + 1, snapshot.getFetchCount());
+        assertEquals(Config.BUFFER_SIZE, snapshot.getHitCount());
+        assertEquals(1, snapshot.getMissCount());
+        assertEquals((double) Config.BUFFER_SIZE / (Config.BUFFER_SIZE + 1), snapshot.getHitRatio(), 1e-9);
+        assertEquals(Config.BUFFER_SIZE + 1, snapshot.getEvictionCount());
+        assertEquals(Config.BUFFER_SIZE, snapshot.getDirtyEvictionCount());
+        // dirty hits are written as well
+        assertEquals(Config.BUFFER_SIZE * 2, snapshot.getDirtyWriteCount());
+        assertEquals(0, snapshot.getWalForcedFlushCount());
+        assertTrue(snapshot.getMissLatency().getPercentileNanos(99) > 0);
+
+        // every frame is pinned
+        for (i = Config.BUFFER_SIZE + 1; i < pageNum; i++) {
+            assertNotNull(bufferManager.fetchPage(i));
+        }
+        try {
+            bufferManager.fetchPage(1);
+            fail();
+        } catch (RuntimeException e) {
+            assertEquals("BUFFER EXCEEDED ERROR", e.getMessage());
+        }
+        assertEquals(1, bufferManager.getMetrics().snapshot().getBufferExceededCount());
+
+        // registered under the database name by the buffer manager, until it is closed
+        MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+        ObjectName objectName = new ObjectName("txDB:type=BufferPool,name=" + ObjectName.quote(dbName));
+        assertEquals(snapshot.getHitCount() + pageNum - Config.BUFFER_SIZE - 1, mBeanServer.getAttribute(objectName, "HitCount"));
+        assertEquals(1L, mBeanServer.getAttribute(objectName, "BufferExceededCount"));
+
+        // a later buffer manager of the database takes the name over, closing the earlier one leaves it
+        BufferManager laterBufferManager = new BufferManager(Config.BUFFER_SIZE, diskManager, null);
+        bufferManager.close();
+        assertTrue(mBeanServer.isRegistered(objectName));
+        assertEquals(0L, mBeanServer.getAttribute(objectName, "BufferExceededCount"));
+        laterBufferManager.close();
+        assertFalse(mBeanServer.isRegistered(objectName));
+
+        diskManager.close();
+        diskManager.dropFile(dbName);
+    }
+
+    @Test
+    public void resizeTest() {
+        int bufferSize = 10;
+        BufferManager bufferManager = new BufferManager(bufferSize, diskManager, null);
+
+        int i;
+        Page page;
+        for (i = 0; i < bufferSize; i++) {
+            assertNotNull(page = bufferManager.newPage());
+            ByteBuffer.wrap(page.getPageData()).putInt(0, i);
+            assertTrue(bufferManager.unpinPage(i, true));
+        }
+
+        // growing takes effect at once, nothing is evicted
+        bufferManager.resize(bufferSize * 2);
+        assertEquals(bufferSize * 2, bufferManager.getBufferSize());
+        for (i = bufferSize; i < bufferSize * 2; i++) {
+            assertNotNull(page = bufferManager.newPage());
+            ByteBuffer.wrap(page.getPageData()).putInt(0, i);
+            assertTrue(bufferManager.unpinPage(i, true));
+        }
+        assertEquals(bufferSize * 2, bufferManager.getSize());
+        assertEquals(0, bufferManager.getMetrics().snapshot().getEvictionCount());
+
+        // shrinking drains unpinned pages, but leaves pinned ones
+        int pinnedNum = bufferSize / 2;
+        for (i = 0; i < pinnedNum; i++) {
+            assertNotNull(bufferManager.fetchPage(i));
+        }
+        bufferManager.resize(pinnedNum / 2);
+        assertEquals(pinnedNum, bufferManager.getSize());
+        for (i = 0; i < pinnedNum; i++) {
+            assertTrue(bufferManager.unpinPage(i, false));
+        }
+
+        // frames of pinned pages go away when those pages are evicted
+        for (i = 0; i < bufferSize * 2; i++) {
+            assertNotNull(page = bufferManager.fetchPage(i));
+            assertEquals(i, ByteBuffer.wrap(page.getPageData()).getInt(0));
+            assertTrue(bufferManager.unpinPage(i, false));
+        }
+        assertEquals(pinnedNum / 2, bufferManager.getSize());
+
+        diskManager.close();
+        diskManager.dropFile(dbName);
+    }
+
+    @Test
+    public void warmRestartTest() {
+        int bufferSize = 20;
+        BufferManager bufferManager = new BufferManager(bufferSize, diskManager, null);
+
+        int i;
+        Page page;
+        for (i = 0; i < bufferSize * 2; i++) {
+            assertNotNull(page = bufferManager.newPage());
+            ByteBuffer.wrap(page.getPageData()).putInt(0, i);
+            assertTrue(bufferManager.unpinPage(i, true));
+        }
+        // pages 0 to 9 are the hottest
+        for (i = 0; i < bufferSize / 2; i++) {
+            assertNotNull(bufferManager.fetchPage(i));
+            assertTrue(bufferManager.unpinPage(i, false));
+        }
+        bufferManager.close();
+        assertEquals(0, bufferManager.getSize());
+
+        // restart with a smaller buffer pool, only the hottest pages fit
+        int newBufferSize = bufferSize / 4;
+        bufferManager = new BufferManager(newBufferSize, diskManager, null);
+        BufferPoolWarmer bufferPoolWarmer = new BufferPoolWarmer(bufferManager, diskManager);
+        bufferPoolWarmer.startWarmerService();
+        assertTrue(bufferPoolWarmer.awaitWarmerService());
+        assertEquals(newBufferSize, bufferPoolWarmer.getTotalPageNum());
+        assertEquals(newBufferSize, bufferPoolWarmer.getLoadedPageNum());
+        assertEquals(newBufferSize, bufferManager.getSize());
+
+        int hitNum = 0;
+        for (i = 0; i < bufferSize / 2; i++) {
+            if (bufferManager.isResident(i)) hitNum++;
+        }
+        assertEquals(newBufferSize, hitNum);
+        for (i = 0; i < bufferSize / 2; i++) {
+            if (!bufferManager.isResident(i)) continue;
+            assertNotNull(page = bufferManager.fetchPage(i));
+            assertEquals(i, ByteBuffer.wrap(page.getPageData()).getInt(0));
+            assertTrue(bufferManager.unpinPage(i, false));
+        }
+        assertEquals(newBufferSize, bufferManager.getMetrics().snapshot().getHitCount());
+        assertEquals(0, bufferManager.getMetrics().snapshot().getMissCount());
+
+        // a cancelled warm restart loads nothing
+        bufferManager.flushAllPages();
+        bufferPoolWarmer = new BufferPoolWarmer(bufferManager, diskManager);
+        bufferPoolWarmer.cancelWarmerService();
+        bufferPoolWarmer.startWarmerService();
+        assertFalse(bufferPoolWarmer.awaitWarmerService());
+        assertEquals(0, bufferManager.getSize());
+
+        diskManager.close();
+        diskManager.dropFile(dbName);
+    }
+
+    @Test
+    public void freePageMapTest() throws IOException {
+        int bufferSize = 20;
+        BufferManager bufferManager = new BufferManager(bufferSize, diskManager, null);
+
+        int i;
+        Page page;
+        for (i = 0; i < bufferSize; i++) {
+            assertNotNull(page = bufferManager.newPage());
+            assertEquals(i, page.getPageId());
+            assertTrue(bufferManager.unpinPage(i, true));
+        }
+        bufferManager.flushAllPages();
+
+        // free a whole extent, and a page in another one
+        for (i = Config.EXTENT_SIZE; i < Config.EXTENT_SIZE * 2; i++) {
+            assertNotNull(bufferManager.fetchPage(i));
+            assertTrue(bufferManager.unpinPage(i, false));
+            assertTrue(bufferManager.deletePage(i));
+        }
+        assertNotNull(bufferManager.fetchPage(1));
+        assertTrue(bufferManager.unpinPage(1, false));
+        assertTrue(bufferManager.deletePage(1));
+        assertEquals(Config.EXTENT_SIZE + 1, diskManager.getFreePageNum());
+
+        // free pages survive a restart
+        bufferManager.flushAllPages();
+        diskManager.close();
+        diskManager = new DiskManager();
+        diskManager.useFile(dbName);
+        bufferManager = new BufferManager(bufferSize, diskManager, null);
+        assertEquals(Config.EXTENT_SIZE + 1, diskManager.getFreePageNum());
+
+        // a page near page 0 takes the free page of its extent, the next table takes the free extent
+        assertNotNull(page = bufferManager.newPage(0));
+        assertEquals(1, page.getPageId());
+        assertTrue(bufferManager.unpinPage(1, true));
+        assertNotNull(page = bufferManager.newPage(bufferSize - 1));
+        assertEquals(Config.EXTENT_SIZE, page.getPageId());
+        assertTrue(bufferManager.unpinPage(Config.EXTENT_SIZE, true));
+        assertNotNull(page = bufferManager.newPage(Config.EXTENT_SIZE));
+        assertEquals(Config.EXTENT_SIZE + 1, page.getPageId());
+        assertTrue(bufferManager.unpinPage(Config.EXTENT_SIZE + 1, true));
+
+        // the file grows only when no page is free
+        for (i = 0; i < Config.EXTENT_SIZE - 2; i++) {
+            assertNotNull(page = bufferManager.newPage());
+            assertTrue(page.getPageId() < bufferSize);
+            assertTrue(bufferManager.unpinPage(page.getPageId(), true));
+        }
+        assertEquals(0, diskManager.getFreePageNum());
+        assertNotNull(page = bufferManager.newPage());
+        assertEquals(bufferSize, page.getPageId());
+        assertTrue(bufferManager.unpinPage(bufferSize, true));
+
+        // growing for a table keeps the rest of its extent, another page starts the next extent
+        assertNotNull(page = bufferManager.newPage(bufferSize));
+        assertEquals(bufferSize + 1, page.getPageId());
+        assertTrue(bufferManager.unpinPage(bufferSize + 1, true));
+        assertNotNull(page = bufferManager.newPage());
+        assertEquals(Config.EXTENT_SIZE * 3, page.getPageId());
+        assertTrue(bufferManager.unpinPage(Config.EXTENT_SIZE * 3, true));
+        assertNotNull(page = bufferManager.newPage(bufferSize + 1));
+        assertEquals(bufferSize + 2, page.getPageId());
+        assertTrue(bufferManager.unpinPage(bufferSize + 2, true));
+
+        diskManager.close();
+        diskManager.dropFile(dbName);
+    }
 }
@@ -0,0 +1,167 @@
+package test.buffer;
+
+import txDB.Config;
+import txDB.buffer.ClockReplacer;
+import txDB.buffer.LRUKReplacer;
+import txDB.buffer.LRUReplacer;
+import txDB.buffer.Replacer;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+import java.util.HashSet;
+import java.util.Random;
+
+public class ReplacerTest {
+    @Test
+    public void lruReplacerTest() {
+        Replacer replacer = new LRUReplacer(5);
+        int i;
+        for (i = 0; i < 5; i++) {
+            replacer.insert(i);
+        }
+        assertEquals(5, replacer.size());
+
+        // page 0 is the least recently used one
+        assertEquals(0, replacer.victim(pageId -> true));
+
+        replacer.access(0);
+        assertEquals(1, replacer.victim(pageId -> true));
+
+        // pinned pages are skipped
+        assertEquals(2, replacer.victim(pageId -> pageId != 1));
+
+        replacer.remove(1);
+        replacer.remove(2);
+        assertEquals(3, replacer.size());
+        assertEquals(3, replacer.victim(pageId -> true));
+        assertEquals(Config.INVALID_PAGE_ID, replacer.victim(pageId -> false));
+    }
+
+    @Test
+    public void clockReplacerTest() {
+        Replacer replacer = new ClockReplacer(5);
+        int i;
+        for (i = 0; i < 5; i++) {
+            replacer.insert(i);
+        }
+        assertEquals(5, replacer.size());
+
+        // every reference bit is set, the first round clears them all
+        assertEquals(0, replacer.victim(pageId -> true));
+        replacer.remove(0);
+
+        // page 1 is accessed again, so it gets a second chance
+        replacer.access(1);
+        assertEquals(2, replacer.victim(pageId -> true));
+        replacer.remove(2);
+
+        replacer.insert(5);
+        replacer.insert(6);
+        assertEquals(5, replacer.size());
+
+        // pinned pages are skipped
+        assertEquals(4, replacer.victim(pageId -> pageId != 3));
+        assertEquals(Config.INVALID_PAGE_ID, replacer.victim(pageId -> false));
+    }
+
+    @Test
+    public void clockReplacerGrowTest() {
+        Replacer replacer = new ClockReplacer(2);
+        int i;
+        for (i = 0; i < 100; i++) {
+            replacer.insert(i);
+        }
+        assertEquals(100, replacer.size());
+
+        HashSet<Integer> victims = new HashSet<>();
+        int victim;
+        for (i = 0; i < 100; i++) {
+            assertNotEquals(Config.INVALID_PAGE_ID, victim = replacer.victim(pageId -> true));
+            replacer.remove(victim);
+            victims.add(victim);
+        }
+        assertEquals(100, victims.size());
+        assertEquals(0, replacer.size());
+    }
+
+    @Test
+    public void lruKReplacerTest() {
+        Replacer replacer = new LRUKReplacer(5, 2);
+        int i;
+        for (i = 0; i < 5; i++) {
+            replacer.insert(i);
+        }
+        replacer.access(0);
+        replacer.access(1);
+        replacer.access(2);
+
+        // pages 3 and 4 are accessed only once, so their backward 2-distance is infinite
+        assertEquals(3, replacer.victim(pageId -> true));
+        replacer.remove(3);
+        assertEquals(4, replacer.victim(pageId -> true));
+        replacer.remove(4);
+
+        // page 0 has the oldest second most recent access
+        assertEquals(0, replacer.victim(pageId -> true));
+        replacer.access(0);
+        assertEquals(1, replacer.victim(pageId -> true));
+
+        // pinned pages are skipped
+        assertEquals(2, replacer.victim(pageId -> pageId != 1));
+        assertEquals(Config.INVALID_PAGE_ID, replacer.victim(pageId -> false));
+        assertEquals(3, replacer.size());
+    }
+
+    /**
+     * A mixed workload of point lookups on a small hot set (e.g., B+ tree inner pages and page 0)
+     * and repeated sequential scans over a table much larger than the buffer pool.
+     */
+    @Test
+    public void hitRatioBenchmarkTest() {
+        int bufferSize = 100;
+        double lruHitRatio = simulateHitRatio(new LRUReplacer(bufferSize), bufferSize);
+        double clockHitRatio = simulateHitRatio(new ClockReplacer(bufferSize), bufferSize);
+        double lruKHitRatio = simulateHitRatio(new LRUKReplacer(bufferSize, 2), bufferSize);
+
+        // a scan larger than the buffer pool flushes the hot pages out of LRU and CLOCK, not out of LRU-2
+        assertTrue(lruKHitRatio > lruHitRatio);
+        assertTrue(lruKHitRatio > clockHitRatio);
+        // CLOCK approximates LRU
+        assertTrue(clockHitRatio >= lruHitRatio);
+    }
+
+    private double simulateHitRatio(Replacer replacer, int bufferSize) {
+        Random random = new Random(2550);
+        HashSet<Integer> residentPages = new HashSet<>();
+        int hotPageNum = bufferSize / 2, tablePageNum = bufferSize * 10;
+        int round, i, pageId, hit = 0, access = 0;
+        for (round = 0; round < 20; round++) {
+            for (i = 0; i < 2000; i++) {
+                pageId = random.nextInt(hotPageNum);
+                if (simulateAccess(replacer, residentPages, pageId, bufferSize)) hit++;
+                access++;
+            }
+            for (i = 0; i < tablePageNum; i++) {
+                pageId = hotPageNum + i;
+                if (simulateAccess(replacer, residentPages, pageId, bufferSize)) hit++;
+                access++;
+            }
+        }
+        return (double) hit / access;
+    }
+
+    private boolean simulateAccess(Replacer replacer, HashSet<Integer> residentPages, int pageId, int bufferSize) {
+        if (residentPages.contains(pageId)) {
+            replacer.access(pageId);
+            return true;
+        }
+        if (residentPages.size() >= bufferSize) {
+            int victim = replacer.victim(id -> true);
+            replacer.remove(victim);
+            residentPages.remove(victim);
+        }
+        replacer.insert(pageId);
+        residentPages.add(pageId);
+        return false;
+    }
+}
@@ -6,8 +6,12 @@ import txDB.buffer.BufferManager;
 import txDB.concurrency.LockManager;
 import txDB.concurrency.Transaction;
 import txDB.concurrency.TransactionManager;
+import txDB.recovery.ActiveTxnsAndDirtyPages;
 import txDB.recovery.CheckpointManager;
+import txDB.recovery.LogDecoder;
+import txDB.recovery.LogFormat;
 import txDB.recovery.LogManager;
+import txDB.recovery.LogRecord;
 import txDB.storage.disk.DiskManager;
 import txDB.storage.page.MetaDataPage;
 import txDB.storage.page.Page;
@@ -20,6 +24,8 @@ import java.time.Duration;
 import java.time.Instant;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
+import java.util.concurrent.CompletableFuture;
 
 import static org.junit.Assert.*;
 
@@ -104,47 +110,21 @@ public class LogManagerTest {
 
         logManager.closeFlushService();
 
-        int offset = 0, index = 0, bufferStart = 0;
-        byte[] logBytes;
-        ByteBuffer logBuffer;
-        boolean whetherBeyond = false;
+        LogDecoder logDecoder = new LogDecoder(diskManager, 0);
+        LogRecord logRecord;
         i = 0;
         int j = 0;
-        while ((logBytes = diskManager.readLog(Config.LOG_SIZE, offset)) != null) {
-            logBuffer = ByteBuffer.wrap(logBytes);
-            while (logBuffer.getInt(index) != 0) {
-
-                if (index + logBuffer.getInt(index) >= Config.LOG_SIZE) {
-                    whetherBeyond = true;
-                    bufferStart += index;
-                    offset = bufferStart;
-                    break;
-                }
-
-//                System.out.println(index + ", " +
-//                        logBuffer.getInt(index) + ", " +
-//                        logBuffer.getInt(index + 4) + ", " +
-//                        logBuffer.getInt(index + 8) + ", " +
-//                        logBuffer.get(index + 12) + ", " +
-//                        logBuffer.get(index + 16));
-                if (logBuffer.get(index + 16) == 73) {
-//                    System.out.println(logBuffer.getInt(index + 24) + ", " +
-//                            logBuffer.getInt(index + 28));
-
-                    // number of commit
-                    i++;
-                } else if (logBuffer.get(index + 16) == 69) {
-                    // number of end
-                    j++;
-                }
-
-                index += logBuffer.getInt(index);
-            }
-            index = 0;
-            if (!whetherBeyond) {
-                offset += Config.LOG_SIZE;
-            } else {
-                whetherBeyond = false;
+        while ((logRecord = logDecoder.next()) != null) {
+//            System.out.println(logRecord);
+            if (logRecord.getLogRecordType() == LogRecord.LogRecordType.INSERT) {
+//                System.out.println(logRecord.getRecordID().getPageId() + ", " +
+//                        logRecord.getRecordID().getTupleIndex());
+
+                // number of insert
+                i++;
+            } else if (logRecord.getLogRecordType() == LogRecord.LogRecordType.END) {
+                // number of end
+                j++;
             }
         }
         assertEquals(num, i);
@@ -250,65 +230,29 @@ public class LogManagerTest {
         checkpointManager.closeCheckpointService();
         logManager.closeFlushService();
 
-        int offset = 0, index = 0, bufferStart = 0;
-        byte[] logBytes;
-        ByteBuffer logBuffer;
-        boolean whetherBeyond = false;
+        LogDecoder logDecoder = new LogDecoder(diskManager, 0);
+        LogRecord logRecord;
         Tuple res;
         i = 0;
         int j = 0, k = 0;
-        while ((logBytes = diskManager.readLog(Config.LOG_SIZE, offset)) != null) {
-            logBuffer = ByteBuffer.wrap(logBytes);
-            while (logBuffer.getInt(index) != 0) {
-
-                if (index + logBuffer.getInt(index) >= Config.LOG_SIZE) {
-                    whetherBeyond = true;
-                    bufferStart += index;
-                    offset = bufferStart;
-                    break;
-                }
-
-//                System.out.println(index + ", " +
-//                        logBuffer.getInt(index) + ", " +
-//                        logBuffer.getInt(index + 4) + ", " +
-//                        logBuffer.getInt(index + 8) + ", " +
-//                        logBuffer.get(index + 12) + ", " +
-//                        logBuffer.get(index + 16));
-                if (logBuffer.get(index + 16) == 73) {
-//                    System.out.println(logBuffer.getInt(index + 24) + ", " +
-//                            logBuffer.getInt(index + 28));
-                } else if (logBuffer.get(index + 16) == 85) {
-//                    System.out.println(logBuffer.getInt(index + 24) + ", " +
-//                            logBuffer.getInt(index + 28));
-                    recordID.setRecordId(logBuffer.getInt(index + 24), logBuffer.getInt(index + 28));
-                    int logSize = logBuffer.getInt(index);
-                    int oldTupleSize = logBuffer.getInt(index + 32);
-                    int newTupleSize = logBuffer.getInt(index + 36 + oldTupleSize);
-//                    System.out.println(logSize + ", " + oldTupleSize + ", " + newTupleSize);
-                    res = new Tuple(Arrays.copyOfRange(logBytes, index + 40 + oldTupleSize, index + logSize), recordID, newTupleSize, true);
-                    assertNotNull(res);
-                    assertEquals(new Integer(i * 3 + 100), res.getValue(scheme, 0));
-                    assertEquals(new Integer(i * 3 + 200), res.getValue(scheme, 1));
-                    assertEquals( "hello " + (i + 100), res.getValue(scheme, 2));
-                    assertEquals( "hello world " + (i + 100), res.getValue(scheme, 3));
-
-                    // number of update
-                    i++;
-                } else if (logBuffer.get(index + 16) == 67) {
-                    // number of commit
-                    j++;
-                } else if (logBuffer.get(index + 16) == 69) {
-                    // number of end
-                    k++;
-                }
-
-                index += logBuffer.getInt(index);
-            }
-            index = 0;
-            if (!whetherBeyond) {
-                offset += Config.LOG_SIZE;
-            } else {
-                whetherBeyond = false;
+        while ((logRecord = logDecoder.next()) != null) {
+//            System.out.println(logRecord);
+            if (logRecord.getLogRecordType() == LogRecord.LogRecordType.UPDATE) {
+                res = logRecord.getNewTuple();
+                assertNotNull(res);
+                assertEquals(new Integer(i * 3 + 100), res.getValue(scheme, 0));
+                assertEquals(new Integer(i * 3 + 200), res.getValue(scheme, 1));
+                assertEquals( "hello " + (i + 100), res.getValue(scheme, 2));
+                assertEquals( "hello world " + (i + 100), res.getValue(scheme, 3));
+
+                // number of update
+                i++;
+            } else if (logRecord.getLogRecordType() == LogRecord.LogRecordType.COMMIT) {
+                // number of commit
+                j++;
+            } else if (logRecord.getLogRecordType() == LogRecord.LogRecordType.END) {
+                // number of end
+                k++;
             }
         }
         assertEquals(num, i);
@@ -425,42 +369,15 @@ public class LogManagerTest {
 
         logManager.closeFlushService();
 
-        int offset = 0, index = 0, bufferStart = 0;
-        byte[] logBytes;
-        ByteBuffer logBuffer;
-        boolean whetherBeyond = false;
+        LogDecoder logDecoder = new LogDecoder(diskManager, 0);
+        LogRecord logRecord;
         i = 0;
         int j = 0, k = 0, q = 0, p = 0;
-        while ((logBytes = diskManager.readLog(Config.LOG_SIZE, offset)) != null) {
-            logBuffer = ByteBuffer.wrap(logBytes);
-
-            while (logBuffer.getInt(index) != 0) {
-
-                if (index + logBuffer.getInt(index) >= Config.LOG_SIZE) {
-                    whetherBeyond = true;
-                    bufferStart += index;
-                    offset = bufferStart;
-                    break;
-                }
-
-//                System.out.println(index + ", " +
-//                        logBuffer.getInt(index) + ", " +
-//                        logBuffer.getInt(index + 4) + ", " +
-//                        logBuffer.getInt(index + 8) + ", " +
-//                        logBuffer.get(index + 12) + ", " +
-//                        logBuffer.get(index + 16));
-                if (logBuffer.get(index + 16) == 73) {
-//                    System.out.println(logBuffer.getInt(index + 24) + ", " +
-//                            logBuffer.getInt(index + 28));
-                } else if (logBuffer.get(index + 16) == 85) {
-//                    System.out.println(logBuffer.getInt(index + 24) + ", " +
-//                            logBuffer.getInt(index + 28));
-                    recordID.setRecordId(logBuffer.getInt(index + 24), logBuffer.getInt(index + 28));
-                    int logSize = logBuffer.getInt(index);
-                    int oldTupleSize = logBuffer.getInt(index + 32);
-                    int newTupleSize = logBuffer.getInt(index + 36 + oldTupleSize);
-//                    System.out.println(logSize + ", " + oldTupleSize + ", " + newTupleSize);
-                    res = new Tuple(Arrays.copyOfRange(logBytes, index + 40 + oldTupleSize, index + logSize), recordID, newTupleSize, true);
+        while ((logRecord = logDecoder.next()) != null) {
+//            System.out.println(logRecord);
+            switch (logRecord.getLogRecordType()) {
+                case UPDATE:
+                    res = logRecord.getNewTuple();
                     assertNotNull(res);
                     assertEquals(new Integer(i * 3 + 100), res.getValue(scheme, 0));
                     assertEquals(new Integer(i * 3 + 200), res.getValue(scheme, 1));
@@ -469,13 +386,9 @@ public class LogManagerTest {
 
                     // number of update
                     i++;
-                } else if (logBuffer.get(index + 17) == 76) {
-                    recordID.setRecordId(logBuffer.getInt(index + 24), logBuffer.getInt(index + 28));
-                    int logSize = logBuffer.getInt(index);
-                    int oldTupleSize = logBuffer.getInt(index + 32);
-                    int newTupleSize = logBuffer.getInt(index + 36 + oldTupleSize);
-//                    System.out.println(logSize + ", " + oldTupleSize + ", " + newTupleSize);
-                    res = new Tuple(Arrays.copyOfRange(logBytes, index + 40 + oldTupleSize, index + logSize - 4), recordID, newTupleSize, true);
+                    break;
+                case CLR:
+                    res = logRecord.getNewTuple();
                     assertNotNull(res);
                     assertEquals(new Integer((num - j - 1) * 3 + 1), res.getValue(scheme, 0));
                     assertEquals(new Integer((num - j - 1) * 3 + 2), res.getValue(scheme, 1));
@@ -484,24 +397,19 @@ public class LogManagerTest {
 
                     // number of CLR
                     j++;
-                } else if (logBuffer.get(index + 17) == 79) {
+                    break;
+                case COMMIT:
                     // number of commit
                     k++;
-                } else if (logBuffer.get(index + 16) == 65) {
+                    break;
+                case ABORT:
                     // number of abort
                     q++;
-                } else if (logBuffer.get(index + 16) == 69) {
+                    break;
+                case END:
                     // number of end
                     p++;
-                }
-
-                index += logBuffer.getInt(index);
-            }
-            index = 0;
-            if (!whetherBeyond) {
-                offset += Config.LOG_SIZE;
-            } else {
-                whetherBeyond = false;
+                    break;
             }
         }
         assertEquals(num, i);
@@ -612,43 +520,16 @@ public class LogManagerTest {
         checkpointManager.closeCheckpointService();
         logManager.closeFlushService();
 
-        int offset = 0, index = 0, bufferStart = 0;
-        byte[] logBytes;
-        ByteBuffer logBuffer;
-        boolean whetherBeyond = false;
+        LogDecoder logDecoder = new LogDecoder(diskManager, 0);
+        LogRecord logRecord;
+        Tuple res;
         i = 0;
         int j = 0, k = 0, q = 0, p = 0;
-        Tuple res;
-        while ((logBytes = diskManager.readLog(Config.LOG_SIZE, offset)) != null) {
-            logBuffer = ByteBuffer.wrap(logBytes);
-
-            while (logBuffer.getInt(index) != 0) {
-
-                if (Config.LOG_SIZE - index <= 4 || index + logBuffer.getInt(index) >= Config.LOG_SIZE) {
-                    whetherBeyond = true;
-                    bufferStart += index;
-                    offset = bufferStart;
-                    break;
-                }
-
-//                System.out.println(index + ", " +
-//                        logBuffer.getInt(index) + ", " +
-//                        logBuffer.getInt(index + 4) + ", " +
-//                        logBuffer.getInt(index + 8) + ", " +
-//                        logBuffer.get(index + 12) + ", " +
-//                        logBuffer.get(index + 16));
-                if (logBuffer.get(index + 16) == 73) {
-//                    System.out.println(logBuffer.getInt(index + 24) + ", " +
-//                            logBuffer.getInt(index + 28));
-                } else if (logBuffer.get(index + 16) == 85) {
-//                    System.out.println(logBuffer.getInt(index + 24) + ", " +
-//                            logBuffer.getInt(index + 28));
-                    recordID.setRecordId(logBuffer.getInt(index + 24), logBuffer.getInt(index + 28));
-                    int logSize = logBuffer.getInt(index);
-                    int oldTupleSize = logBuffer.getInt(index + 32);
-                    int newTupleSize = logBuffer.getInt(index + 36 + oldTupleSize);
-//                    System.out.println(logSize + ", " + oldTupleSize + ", " + newTupleSize);
-                    res = new Tuple(Arrays.copyOfRange(logBytes, index + 40 + oldTupleSize, index + logSize), recordID, newTupleSize, true);
+        while ((logRecord = logDecoder.next()) != null) {
+//            System.out.println(logRecord);
+            switch (logRecord.getLogRecordType()) {
+                case UPDATE:
+                    res = logRecord.getNewTuple();
                     assertNotNull(res);
                     assertEquals(new Integer(i * 3 + 100), res.getValue(scheme, 0));
                     assertEquals(new Integer(i * 3 + 200), res.getValue(scheme, 1));
@@ -657,13 +538,9 @@ public class LogManagerTest {
 
                     // number of update
                     i++;
-                } else if (logBuffer.get(index + 17) == 76) {
-                    recordID.setRecordId(logBuffer.getInt(index + 24), logBuffer.getInt(index + 28));
-                    int logSize = logBuffer.getInt(index);
-                    int oldTupleSize = logBuffer.getInt(index + 32);
-                    int newTupleSize = logBuffer.getInt(index + 36 + oldTupleSize);
-//                    System.out.println(logSize + ", " + oldTupleSize + ", " + newTupleSize);
-                    res = new Tuple(Arrays.copyOfRange(logBytes, index + 40 + oldTupleSize, index + logSize), recordID, newTupleSize, true);
+                    break;
+                case CLR:
+                    res = logRecord.getNewTuple();
                     assertNotNull(res);
                     assertEquals(new Integer((num - j - 1) * 3 + 1), res.getValue(scheme, 0));
                     assertEquals(new Integer((num - j - 1) * 3 + 2), res.getValue(scheme, 1));
@@ -672,16 +549,21 @@ public class LogManagerTest {
 
                     // number of CLR
                     j++;
-                } else if (logBuffer.get(index + 17) == 79) {
+                    break;
+                case COMMIT:
                     // number of commit
                     k++;
-                } else if (logBuffer.get(index + 16) == 65) {
+                    break;
+                case ABORT:
                     // number of abort
                     q++;
-                } else if (logBuffer.get(index + 16) == 69) {
+                    break;
+                case END:
                     // number of end
                     p++;
-                } else if (logBuffer.get(index + 12) == 67) {
+                    break;
+                case CBEGIN:
+                case CEND:
                     Page page = bufferManager.fetchPage(0);
                     ByteArrayInputStream bis = new ByteArrayInputStream(page.getPageData());
                     try {
@@ -691,15 +573,7 @@ public class LogManagerTest {
                     } catch (IOException | ClassNotFoundException e) {
                         e.printStackTrace();
                     }
-                }
-
-                index += logBuffer.getInt(index);
-            }
-            index = 0;
-            if (!whetherBeyond) {
-                offset += Config.LOG_SIZE;
-            } else {
-                whetherBeyond = false;
+                    break;
             }
         }
         assertEquals(num, i);
@@ -710,4 +584,345 @@ public class LogManagerTest {
 
         diskManager.close();
     }
+
+    @Test
+    public void concurrentAppendTest() throws InterruptedException {
+        int threadNum = 8, num = 20000;
+        logManager.startFlushService();
+
+        // records of all threads fill many log buffers, their writers switch buffers
+        Thread[] threads = new Thread[threadNum];
+        int i;
+        Instant start = Instant.now();
+        for (i = 0; i < threadNum; i++) {
+            int txnId = i;
+            threads[i] = new Thread(() -> {
+                int prevLsn = Config.INVALID_LSN;
+                int k;
+                for (k = 0; k < num; k++) {
+                    LogRecord logRecord = new LogRecord(prevLsn, txnId, LogRecord.LogRecordType.BEGIN);
+                    prevLsn = logManager.appendLogRecord(logRecord, false, false);
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread thread : threads) thread.join();
+        Instant end = Instant.now();
+        System.out.println("Time elapsed: " + Duration.between(start, end).toMillis());
+        assertEquals(threadNum * num, logManager.getNextLsn());
+
+        logManager.closeFlushService();
+        assertEquals(threadNum * num - 1, logManager.getFlushedLsn());
+
+        // lsns have no gaps and follow the order in the log, records of a thread are chained in it
+        LogDecoder logDecoder = new LogDecoder(diskManager, 0);
+        int[] prevLsns = new int[threadNum];
+        Arrays.fill(prevLsns, Config.INVALID_LSN);
+        for (i = 0; i < threadNum * num; i++) {
+            LogRecord logRecord = logDecoder.next();
+            assertNotNull(logRecord);
+            assertEquals(i, logRecord.getLsn());
+            int txnId = logRecord.getTxnId();
+            assertEquals(prevLsns[txnId], logRecord.getPrevLsn());
+            prevLsns[txnId] = i;
+        }
+        assertNull(logDecoder.next());
+
+        diskManager.close();
+    }
+
+    @Test
+    public void groupCommitTest() throws InterruptedException {
+        int threadNum = 8, num = 500;
+        logManager.startFlushService();
+
+        // one commit at a time pays a flush each
+        Instant start = Instant.now();
+        int i;
+        for (i = 0; i < num; i++) transactionManager.commit(transactionManager.begin());
+        long serialTime = Duration.between(start, Instant.now()).toMillis();
+        assertEquals(num, logManager.getFlushNum());
+
+        // a lone commit does not wait for the window
+        int groupCommitWindow = Config.GROUP_COMMIT_WINDOW;
+        Config.GROUP_COMMIT_WINDOW = 1000000;
+        start = Instant.now();
+        for (i = 0; i < 5; i++) transactionManager.commit(transactionManager.begin());
+        assertTrue(Duration.between(start, Instant.now()).toMillis() < Config.GROUP_COMMIT_WINDOW / 1000);
+        Config.GROUP_COMMIT_WINDOW = groupCommitWindow;
+
+        // concurrent commits share flushes
+        long flushNum = logManager.getFlushNum();
+        Thread[] threads = new Thread[threadNum];
+        start = Instant.now();
+        for (i = 0; i < threadNum; i++) {
+            threads[i] = new Thread(() -> {
+                int k;
+                for (k = 0; k < num; k++) transactionManager.commit(transactionManager.begin());
+            });
+            threads[i].start();
+        }
+        for (Thread thread : threads) thread.join();
+        long groupTime = Duration.between(start, Instant.now()).toMillis();
+        long groupFlushNum = logManager.getFlushNum() - flushNum;
+        assertTrue(groupFlushNum < threadNum * num);
+
+        // asynchronous commits of a single thread, too
+        flushNum = logManager.getFlushNum();
+        ArrayList<CompletableFuture<Void>> commits = new ArrayList<>();
+        ArrayList<Transaction> txns = new ArrayList<>();
+        start = Instant.now();
+        for (i = 0; i < num; i++) {
+            Transaction txn = transactionManager.begin();
+            txns.add(txn);
+            commits.add(transactionManager.commitAsync(txn));
+        }
+        CompletableFuture.allOf(commits.toArray(new CompletableFuture[0])).join();
+        long asyncTime = Duration.between(start, Instant.now()).toMillis();
+        long asyncFlushNum = logManager.getFlushNum() - flushNum;
+        assertTrue(asyncFlushNum < num);
+        for (Transaction txn : txns) {
+            assertEquals(Transaction.TransactionState.COMMITTED, txn.getTransactionState());
+            assertNull(transactionManager.getTransaction(txn.getTxnId()));
+        }
+
+        System.out.println("serial commits: " + num + " in " + serialTime + " ms, " + num + " flushes");
+        System.out.println("concurrent commits: " + threadNum * num + " in " + groupTime + " ms, " + groupFlushNum + " flushes");
+        System.out.println("asynchronous commits: " + num + " in " + asyncTime + " ms, " + asyncFlushNum + " flushes");
+
+        logManager.closeFlushService();
+        diskManager.close();
+    }
+
+    @Test
+    public void durabilityTest() throws InterruptedException {
+        int num = 200;
+        logManager.startFlushService();
+        assertEquals(LogManager.Durability.GROUP, logManager.getDurability());
+
+        // every synchronous commit forces the log itself
+        logManager.setDurability(LogManager.Durability.SYNC);
+        long flushNum = logManager.getFlushNum();
+        Instant start = Instant.now();
+        int i;
+        for (i = 0; i < num; i++) transactionManager.commit(transactionManager.begin());
+        long syncTime = Duration.between(start, Instant.now()).toMillis();
+        assertEquals(num, logManager.getFlushNum() - flushNum);
+        assertEquals(num, logManager.getSyncLatency().getCount());
+
+        // asynchronous commits are acknowledged at once, then forced within the window
+        logManager.setDurability(LogManager.Durability.ASYNC);
+        flushNum = logManager.getFlushNum();
+        start = Instant.now();
+        Transaction txn = null;
+        for (i = 0; i < num; i++) {
+            txn = transactionManager.begin();
+            assertTrue(transactionManager.commitAsync(txn).isDone());
+            assertNull(transactionManager.getTransaction(txn.getTxnId()));
+        }
+        long asyncTime = Duration.between(start, Instant.now()).toMillis();
+        assertTrue(logManager.getFlushNum() - flushNum < num);
+        Thread.sleep(Config.ASYNC_COMMIT_WINDOW * 3);
+        // the END record of the last one may not be forced yet, its commit record is
+        assertTrue(logManager.getFlushedLsn() >= txn.getPrevLsn() - 1);
+        long asyncFlushNum = logManager.getFlushNum() - flushNum;
+
+        // a transaction overrides the durability of the database
+        txn = transactionManager.begin();
+        int beginLsn = txn.getPrevLsn();
+        txn.setDurability(LogManager.Durability.SYNC);
+        flushNum = logManager.getFlushNum();
+        transactionManager.commit(txn);
+        assertEquals(flushNum + 1, logManager.getFlushNum());
+        assertTrue(logManager.getFlushedLsn() > beginLsn);
+
+        System.out.println("sync commits: " + num + " in " + syncTime + " ms");
+        System.out.println("async commits: " + num + " in " + asyncTime + " ms, " + asyncFlushNum + " flushes");
+        System.out.println("fsync latency: " + logManager.getSyncLatency());
+        System.out.println("commits per fsync: " + logManager.getCommitsPerFlush());
+
+        logManager.closeFlushService();
+        diskManager.close();
+    }
+
+    @Test
+    public void largeRecordTest() {
+        int num = 100, tupleSize = 3 * Config.PAGE_SIZE / 4;
+        logManager.startFlushService();
+
+        // tuples larger than a kilobyte, records encoded in place are the same as encoded on their own
+        ArrayList<LogRecord> logRecords = new ArrayList<>();
+        int prevLsn = Config.INVALID_LSN;
+        int i;
+        for (i = 0; i < num; i++) {
+            byte[] oldTupleData = new byte[tupleSize], newTupleData = new byte[tupleSize + i];
+            Arrays.fill(oldTupleData, (byte) i);
+            Arrays.fill(newTupleData, (byte) (i + 1));
+            RecordID recordID = new RecordID(i, i % 7);
+            Tuple oldTuple = new Tuple(oldTupleData, recordID, oldTupleData.length, true);
+            Tuple newTuple = new Tuple(newTupleData, recordID, newTupleData.length, true);
+            LogRecord logRecord;
+            switch (i % 4) {
+                case 0:
+                    logRecord = new LogRecord(prevLsn, i, LogRecord.LogRecordType.INSERT, recordID, newTuple);
+                    break;
+                case 1:
+                    logRecord = new LogRecord(prevLsn, i, LogRecord.LogRecordType.UPDATE, recordID, oldTuple, newTuple);
+                    break;
+                case 2:
+                    logRecord = new LogRecord(prevLsn, i, LogRecord.LogRecordType.CLR, recordID, oldTuple, newTuple, prevLsn);
+                    break;
+                default:
+                    logRecord = new LogRecord(prevLsn, i, LogRecord.LogRecordType.COMMIT);
+            }
+            prevLsn = logManager.appendLogRecord(logRecord, false, false);
+            logRecords.add(logRecord);
+        }
+        logManager.closeFlushService();
+        assertEquals(num - 1, logManager.getFlushedLsn());
+
+        int offset = 0;
+        for (LogRecord logRecord : logRecords) {
+            byte[] logBytes = diskManager.readLog(logRecord.getLogSize(), offset);
+            assertNotNull(logBytes);
+            assertArrayEquals(logRecord.getLogRecordBuffer().array(), logBytes);
+            offset += logRecord.getLogSize();
+        }
+
+        // decoded as built
+        LogDecoder logDecoder = new LogDecoder(diskManager, 0);
+        for (LogRecord logRecord : logRecords) {
+            LogRecord decodedLogRecord = logDecoder.next();
+            assertNotNull(decodedLogRecord);
+            assertEquals(logRecord.getLogRecordType(), decodedLogRecord.getLogRecordType());
+            assertEquals(logRecord.getLsn(), decodedLogRecord.getLsn());
+            assertEquals(logRecord.getPrevLsn(), decodedLogRecord.getPrevLsn());
+            assertEquals(logRecord.getTxnId(), decodedLogRecord.getTxnId());
+            assertEquals(logRecord.getUndoNext(), decodedLogRecord.getUndoNext());
+            assertEquals(logRecord.getLogSize(), decodedLogRecord.getLogSize());
+        }
+        assertNull(logDecoder.next());
+        LogRecord logRecord = new LogDecoder(diskManager, logRecords.get(0).getLogSize() + logRecords.get(1).getLogSize()).next();
+        assertEquals(LogRecord.LogRecordType.CLR, logRecord.getLogRecordType());
+        assertEquals(2, logRecord.getRecordID().getTupleIndex());
+        assertEquals(1, logRecord.getUndoNext());
+        assertArrayEquals(logRecords.get(2).getOldTuple().getTupleData(), logRecord.getOldTuple().getTupleData());
+        assertArrayEquals(logRecords.get(2).getNewTuple().getTupleData(), logRecord.getNewTuple().getTupleData());
+
+        diskManager.close();
+    }
+
+    @Test
+    public void logFormatTest() {
+        // transaction records take a few bytes, prevLsn is a delta back from the lsn
+        LogRecord logRecord = new LogRecord(1000000, 7, LogRecord.LogRecordType.COMMIT);
+        logRecord.setLsn(1000003);
+        assertEquals(LogFormat.HEADER_SIZE + 3 + 1 + 1, logRecord.getLogSize());
+        logRecord = new LogRecord(Config.INVALID_LSN, Integer.MAX_VALUE, LogRecord.LogRecordType.BEGIN);
+        logRecord.setLsn(Integer.MAX_VALUE);
+
+        // checkpoint tables are encoded by hand
+        HashMap<Integer, Transaction.TransactionState> activeTxnMap = new HashMap<>();
+        HashMap<Integer, Integer> dirtyPageMap = new HashMap<>();
+        int i;
+        for (i = 0; i < 100; i++) {
+            activeTxnMap.put(i * 1000, Transaction.TransactionState.values()[i % 4]);
+            dirtyPageMap.put(i << 20, i == 0 ? Config.INVALID_LSN : i * 12345);
+        }
+        LogRecord checkpointRecord = new LogRecord(5, LogRecord.LogRecordType.CEND, new ActiveTxnsAndDirtyPages(activeTxnMap, dirtyPageMap));
+        checkpointRecord.setLsn(5);
+
+        byte[] logData = new byte[logRecord.getLogSize() + checkpointRecord.getLogSize() + 4];
+        logRecord.writeTo(logData, 0);
+        checkpointRecord.writeTo(logData, logRecord.getLogSize());
+        LogDecoder logDecoder = new LogDecoder(logData, 0, logData.length);
+        LogRecord decodedLogRecord = logDecoder.next();
+        assertEquals(LogRecord.LogRecordType.BEGIN, decodedLogRecord.getLogRecordType());
+        assertEquals(Integer.MAX_VALUE, decodedLogRecord.getLsn());
+        assertEquals(Config.INVALID_LSN, decodedLogRecord.getPrevLsn());
+        assertEquals(Integer.MAX_VALUE, decodedLogRecord.getTxnId());
+        decodedLogRecord = logDecoder.next();
+        assertEquals(LogRecord.LogRecordType.CEND, decodedLogRecord.getLogRecordType());
+        assertEquals(activeTxnMap, decodedLogRecord.getActiveTxnsAndDirtyPages().getActiveTxnMap());
+        assertEquals(dirtyPageMap, decodedLogRecord.getActiveTxnsAndDirtyPages().getDirtyPageMap());
+        assertNull(logDecoder.next());
+        assertEquals(logData.length - 4, logDecoder.getOffset());
+
+        // a torn record ends the log
+        logData[logRecord.getLogSize() + checkpointRecord.getLogSize() / 2] ^= 1;
+        logDecoder = new LogDecoder(logData, 0, logData.length);
+        assertNotNull(logDecoder.next());
+        assertNull(logDecoder.next());
+
+        // records of another format version are not decoded
+        logData[LogFormat.OPCODE_OFFSET] = (byte) ((LogFormat.FORMAT_VERSION + 1) << 4 | LogRecord.LogRecordType.BEGIN.ordinal());
+        LogFormat.putInt(logData, LogFormat.CHECKSUM_OFFSET, LogFormat.checksumOf(logData, 0, logRecord.getLogSize()));
+        try {
+            new LogDecoder(logData, 0, logData.length).next();
+            fail();
+        } catch (RuntimeException e) {
+            System.out.println(e.getMessage());
+        }
+
+        // an undefined record type or transaction state fails decoding too
+        logData[LogFormat.OPCODE_OFFSET] = (byte) (LogFormat.FORMAT_VERSION << 4 | 0x0F);
+        LogFormat.putInt(logData, LogFormat.CHECKSUM_OFFSET, LogFormat.checksumOf(logData, 0, logRecord.getLogSize()));
+        try {
+            new LogDecoder(logData, 0, logData.length).next();
+            fail();
+        } catch (RuntimeException e) {
+            assertNotNull(e.getMessage());
+        }
+        activeTxnMap.clear();
+        activeTxnMap.put(1, Transaction.TransactionState.GROWING);
+        checkpointRecord = new LogRecord(5, LogRecord.LogRecordType.CEND, new ActiveTxnsAndDirtyPages(activeTxnMap, new HashMap<>()));
+        checkpointRecord.setLsn(5);
+        logData = new byte[checkpointRecord.getLogSize()];
+        checkpointRecord.writeTo(logData, 0);
+        // | Lsn | PrevLsn | ActiveTxnNum | TxnId | TxnState |
+        logData[LogFormat.HEADER_SIZE + 4] = (byte) -1;
+        LogFormat.putInt(logData, LogFormat.CHECKSUM_OFFSET, LogFormat.checksumOf(logData, 0, logData.length));
+        try {
+            new LogDecoder(logData, 0, logData.length).next();
+            fail();
+        } catch (RuntimeException e) {
+            assertNotNull(e.getMessage());
+        }
+    }
+
+    @Test
+    public void tupleLogFormatTest() {
+        // only the first tupleSize bytes of tuple data are the tuple, as in a tuple sharing a larger buffer
+        int i, tupleSize = 20;
+        byte[] tupleData = new byte[64], newTupleData = new byte[64];
+        for (i = 0; i < tupleData.length; i++) {
+            tupleData[i] = (byte) (i + 1);
+            newTupleData[i] = (byte) -(i + 1);
+        }
+        RecordID recordID = new RecordID(3, 5);
+        LogRecord insertRecord = new LogRecord(Config.INVALID_LSN, 7, LogRecord.LogRecordType.INSERT,
+                recordID, new Tuple(tupleData, recordID, tupleSize, true));
+        insertRecord.setLsn(1);
+        LogRecord updateRecord = new LogRecord(1, 7, LogRecord.LogRecordType.UPDATE,
+                recordID, new Tuple(tupleData, recordID, tupleSize, true), new Tuple(newTupleData, recordID, tupleSize, true));
+        updateRecord.setLsn(2);
+
+        byte[] logData = new byte[insertRecord.getLogSize() + updateRecord.getLogSize()];
+        insertRecord.writeTo(logData, 0);
+        updateRecord.writeTo(logData, insertRecord.getLogSize());
+        LogDecoder logDecoder = new LogDecoder(logData, 0, logData.length);
+        LogRecord decodedLogRecord = logDecoder.next();
+        assertEquals(LogRecord.LogRecordType.INSERT, decodedLogRecord.getLogRecordType());
+        assertEquals(tupleSize, decodedLogRecord.getTuple().getTupleSize());
+        assertArrayEquals(Arrays.copyOf(tupleData, tupleSize),
+                Arrays.copyOf(decodedLogRecord.getTuple().getTupleData(), tupleSize));
+        decodedLogRecord = logDecoder.next();
+        assertEquals(LogRecord.LogRecordType.UPDATE, decodedLogRecord.getLogRecordType());
+        assertEquals(tupleSize, decodedLogRecord.getOldTuple().getTupleSize());
+        assertEquals(tupleSize, decodedLogRecord.getNewTuple().getTupleSize());
+        assertArrayEquals(Arrays.copyOf(newTupleData, tupleSize),
+                Arrays.copyOf(decodedLogRecord.getNewTuple().getTupleData(), tupleSize));
+        assertNull(logDecoder.next());
+        assertEquals(logData.length, logDecoder.getOffset());
+    }
 }
@@ -0,0 +1,601 @@
+package test.storage.disk;
+
+import org.junit.Test;
+import txDB.Config;
+import txDB.buffer.BufferManager;
+import txDB.recovery.LogRecord;
+import txDB.storage.disk.DiskManager;
+import txDB.storage.disk.PageIoEngine;
+import txDB.storage.disk.Tablespace;
+import txDB.storage.page.Page;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class DiskManagerTest {
+    String dbName = "test";
+    DiskManager diskManager = new DiskManager();
+
+    public DiskManagerTest() throws IOException {
+        diskManager.createFile(dbName);
+        diskManager.useFile(dbName);
+    }
+
+    private static ByteBuffer pageOf(int pageId) {
+        ByteBuffer pageBuffer = ByteBuffer.allocate(Config.PAGE_SIZE);
+        pageBuffer.putInt(0, pageId);
+        pageBuffer.putInt(Config.PAGE_SIZE - 4, ~pageId);
+        return pageBuffer;
+    }
+
+    private static void assertPage(int pageId, ByteBuffer pageBuffer) {
+        assertEquals(pageId, pageBuffer.getInt(0));
+        assertEquals(~pageId, pageBuffer.getInt(Config.PAGE_SIZE - 4));
+    }
+
+    /**
+     * The file is sparse, only pages written take disk space
+     */
+    @Test
+    public void largeFileTest() throws IOException {
+        int pagesOf2GB = (int) ((2L << 30) / Config.PAGE_SIZE);
+        int pagesOf4GB = (int) ((4L << 30) / Config.PAGE_SIZE);
+        int[] pageIds = {0, pagesOf2GB - 1, pagesOf2GB, pagesOf2GB + 1, pagesOf4GB - 1, pagesOf4GB, pagesOf4GB + 1};
+
+        for (int pageId : pageIds) diskManager.writePage(pageId, pageOf(pageId));
+        ByteBuffer pageBuffer = ByteBuffer.allocate(Config.PAGE_SIZE);
+        for (int pageId : pageIds) {
+            assertTrue(diskManager.readPage(pageId, pageBuffer));
+            assertPage(pageId, pageBuffer);
+        }
+
+        // gathering write and scattering read across the 4 GB boundary
+        int i;
+        ByteBuffer[] pageBuffers = new ByteBuffer[4];
+        for (i = 0; i < pageBuffers.length; i++) pageBuffers[i] = pageOf(pagesOf4GB - 2 + i);
+        diskManager.writePages(pagesOf4GB - 2, pageBuffers);
+        for (i = 0; i < pageBuffers.length; i++) pageBuffers[i] = ByteBuffer.allocate(Config.PAGE_SIZE);
+        assertEquals(pageBuffers.length, diskManager.readPages(pagesOf4GB - 2, pageBuffers));
+        for (i = 0; i < pageBuffers.length; i++) assertPage(pagesOf4GB - 2 + i, pageBuffers[i]);
+
+        // the 2 GB page is not overwritten by a wrapped offset
+        assertTrue(diskManager.readPage(pagesOf2GB, pageBuffer));
+        assertPage(pagesOf2GB, pageBuffer);
+        assertFalse(diskManager.readPage(pagesOf4GB + 2, pageBuffer));
+        assertNull(diskManager.readLog(Config.PAGE_SIZE, 5L << 30));
+
+        // next page id comes from the high-water mark after reopening
+        diskManager.close();
+        diskManager = new DiskManager();
+        diskManager.useFile(dbName);
+        assertEquals(pagesOf4GB + 2, diskManager.allocatePage());
+
+        diskManager.close();
+        diskManager.dropFile(dbName);
+    }
+
+    @Test
+    public void preallocationTest() throws IOException {
+        int pageNumOfExtent = Config.PREALLOCATION_SIZE / Config.PAGE_SIZE;
+        long headerSize = diskManager.getFileLength();
+        int i;
+        for (i = 0; i < 10; i++) diskManager.writePage(i, pageOf(i));
+
+        // the file grows by a whole extent, pages beyond the high-water mark are not in the database
+        assertEquals(10, diskManager.getHighWaterMark());
+        assertEquals(headerSize + Config.PREALLOCATION_SIZE, diskManager.getFileLength());
+        ByteBuffer pageBuffer = ByteBuffer.allocate(Config.PAGE_SIZE);
+        assertTrue(diskManager.readPage(9, pageBuffer));
+        assertPage(9, pageBuffer);
+        assertFalse(diskManager.readPage(10, pageBuffer));
+        ByteBuffer[] pageBuffers = new ByteBuffer[4];
+        for (i = 0; i < pageBuffers.length; i++) pageBuffers[i] = ByteBuffer.allocate(Config.PAGE_SIZE);
+        assertEquals(2, diskManager.readPages(8, pageBuffers));
+
+        // the next extent is taken only when the current one is used up
+        for (i = 10; i <= pageNumOfExtent; i++) diskManager.writePage(i, pageOf(i));
+        assertEquals(headerSize + 2L * Config.PREALLOCATION_SIZE, diskManager.getFileLength());
+
+        // next page id comes from the high-water mark, not the file length, after reopening
+        diskManager.close();
+        diskManager = new DiskManager();
+        diskManager.useFile(dbName);
+        assertEquals(pageNumOfExtent + 1, diskManager.getHighWaterMark());
+        assertEquals(pageNumOfExtent + 1, diskManager.allocatePage());
+        assertFalse(diskManager.readPage(pageNumOfExtent + 1, pageBuffer));
+
+        diskManager.close();
+        diskManager.dropFile(dbName);
+    }
+
+    @Test
+    public void headerForceTest() throws IOException {
+        int pageNumOfExtent = Config.PREALLOCATION_SIZE / Config.PAGE_SIZE;
+        int i, pageNum = pageNumOfExtent * 4;
+        long forceNum = diskManager.getHeaderForceNum();
+        for (i = 0; i < pageNum; i++) diskManager.writePage(i, pageOf(i));
+
+        // sequential growth forces the header once per extent, not once per page
+        assertEquals(pageNum, diskManager.getHighWaterMark());
+        assertEquals(4, diskManager.getHeaderForceNum() - forceNum);
+
+        // after a crash, pages up to the end of the extent are in the database and read as zeros
+        diskManager.writePage(pageNum, pageOf(pageNum));
+        DiskManager crashedDiskManager = new DiskManager();
+        crashedDiskManager.useFile(dbName);
+        assertEquals(pageNum + pageNumOfExtent, crashedDiskManager.getHighWaterMark());
+        ByteBuffer pageBuffer = ByteBuffer.allocate(Config.PAGE_SIZE);
+        assertTrue(crashedDiskManager.readPage(pageNum, pageBuffer));
+        assertPage(pageNum, pageBuffer);
+        assertTrue(crashedDiskManager.readPage(pageNum + 1, pageBuffer));
+        assertEquals(0, pageBuffer.getInt(0));
+        assertEquals(0, pageBuffer.getInt(Config.PAGE_SIZE - 4));
+        crashedDiskManager.close();
+
+        // the exact mark is recorded on close
+        diskManager.close();
+        diskManager = new DiskManager();
+        diskManager.useFile(dbName);
+        assertEquals(pageNum + 1, diskManager.getHighWaterMark());
+
+        diskManager.close();
+        diskManager.dropFile(dbName);
+    }
+
+    @Test
+    public void pageIoEngineTest() throws InterruptedException {
+        PageIoEngine pageIoEngine = diskManager.getPageIoEngine();
+        int pageNum = 256, i;
+
+        // every write is submitted before waiting on any
+        ArrayList<CompletableFuture<Void>> writeList = new ArrayList<>();
+        for (i = 0; i < pageNum; i++) {
+            if (i % 4 == 0) {
+                ByteBuffer[] pageBuffers = {pageOf(i), pageOf(i + 1)};
+                writeList.add(pageIoEngine.writePages(i, pageBuffers));
+                i++;
+            } else {
+                writeList.add(pageIoEngine.writePage(i, pageOf(i)));
+            }
+        }
+        for (CompletableFuture<Void> write : writeList) write.join();
+        assertEquals(writeList.size(), pageIoEngine.getWriteLatency().getCount());
+
+        ArrayList<CompletableFuture<Boolean>> readList = new ArrayList<>();
+        ByteBuffer[] pageBuffers = new ByteBuffer[pageNum];
+        for (i = 0; i < pageNum; i++) {
+            pageBuffers[i] = ByteBuffer.allocate(Config.PAGE_SIZE);
+            readList.add(pageIoEngine.readPage(i, pageBuffers[i]));
+        }
+        for (i = 0; i < pageNum; i++) {
+            assertTrue(readList.get(i).join());
+            assertPage(i, pageBuffers[i]);
+        }
+        assertFalse(pageIoEngine.readPage(pageNum, ByteBuffer.allocate(Config.PAGE_SIZE)).join());
+
+        // runs are positional, so many of them are in flight at once
+        ArrayList<CompletableFuture<Integer>> runList = new ArrayList<>();
+        ByteBuffer[][] runBuffers = new ByteBuffer[pageNum / 8][8];
+        int k;
+        for (i = 0; i < runBuffers.length; i++) {
+            for (k = 0; k < 8; k++) runBuffers[i][k] = ByteBuffer.allocate(Config.PAGE_SIZE);
+            runList.add(pageIoEngine.readPages(i * 8, runBuffers[i]));
+        }
+        for (i = 0; i < runBuffers.length; i++) {
+            assertEquals(8, (int) runList.get(i).join());
+            for (k = 0; k < 8; k++) assertPage(i * 8 + k, runBuffers[i][k]);
+        }
+        assertEquals(0, pageIoEngine.getPendingNum());
+
+        // a submitter blocks while the queue is full
+        PageIoEngine boundedEngine = new PageIoEngine(diskManager, 1, 2);
+        CountDownLatch ioBlocked = new CountDownLatch(1);
+        CountDownLatch ioThreadBlocked = new CountDownLatch(1);
+        Thread testThread = Thread.currentThread();
+        int blockingReadNum = 0;
+        // a read done before its callback is attached runs the callback here, so read again until the I/O thread blocks
+        do {
+            blockingReadNum++;
+            boundedEngine.readPage(0, ByteBuffer.allocate(Config.PAGE_SIZE)).thenRun(() -> {
+                if (Thread.currentThread() == testThread) return;
+                ioThreadBlocked.countDown();
+                try {
+                    ioBlocked.await();
+                } catch (InterruptedException e) {
+                    e.printStackTrace();
+                }
+            });
+        } while (!ioThreadBlocked.await(100, TimeUnit.MILLISECONDS));
+        boundedEngine.readPage(1, ByteBuffer.allocate(Config.PAGE_SIZE));
+        boundedEngine.readPage(2, ByteBuffer.allocate(Config.PAGE_SIZE));
+        Thread submitter = new Thread(() -> boundedEngine.readPage(3, ByteBuffer.allocate(Config.PAGE_SIZE)).join());
+        submitter.start();
+        Thread.sleep(100);
+        assertEquals(2, boundedEngine.getPendingNum());
+        assertTrue(submitter.isAlive());
+        ioBlocked.countDown();
+        submitter.join();
+        boundedEngine.close();
+        assertEquals(blockingReadNum + 3, boundedEngine.getReadLatency().getCount());
+
+        diskManager.close();
+        // no engine is started again for a closed file
+        try {
+            diskManager.getPageIoEngine();
+            fail();
+        } catch (RuntimeException e) {
+            assertNotNull(e.getMessage());
+        }
+        diskManager.dropFile(dbName);
+    }
+
+    /**
+     * Direct I/O against buffered I/O on 32 MB of pages, write MB/s and random read ops/s of both are printed,
+     * in direct mode, pages written and read do not grow the OS page cache, and the log is written by aligned blocks
+     */
+    @Test
+    public void directIoTest() throws IOException {
+        boolean enableDirectIo = Config.ENABLE_DIRECT_IO;
+        try {
+            Config.ENABLE_DIRECT_IO = false;
+            runDirectIo("benchBuffered");
+            Config.ENABLE_DIRECT_IO = true;
+            runDirectIo("benchDirect");
+        } finally {
+            Config.ENABLE_DIRECT_IO = enableDirectIo;
+        }
+
+        diskManager.close();
+        diskManager.dropFile(dbName);
+    }
+
+    private void runDirectIo(String benchDbName) throws IOException {
+        DiskManager benchDiskManager = new DiskManager();
+        benchDiskManager.dropFile(benchDbName);
+        benchDiskManager.createFile(benchDbName);
+        benchDiskManager.useFile(benchDbName);
+        if (!Config.ENABLE_DIRECT_IO) assertFalse(benchDiskManager.isDirectIo());
+        // not every file system can bypass the page cache
+        boolean whetherDirectIo = benchDiskManager.isDirectIo();
+
+        int pageNum = 8192, runLength = 32, i, j;
+        long cachedBefore = pageCacheBytes();
+        ByteBuffer[] pageBuffers = new ByteBuffer[runLength];
+        // written pages are synced, so that buffered writes are not timed into the page cache only
+        Instant start = Instant.now();
+        for (i = 0; i < pageNum; i += runLength) {
+            for (j = 0; j < runLength; j++) pageBuffers[j] = pageOf(i + j);
+            benchDiskManager.writePages(i, pageBuffers);
+        }
+        benchDiskManager.syncPages();
+        long writeNanos = Math.max(1, Duration.between(start, Instant.now()).toNanos());
+
+        Random random = new Random(2550);
+        ByteBuffer pageBuffer = ByteBuffer.allocate(Config.PAGE_SIZE);
+        start = Instant.now();
+        for (i = 0; i < pageNum; i++) {
+            int pageId = random.nextInt(pageNum);
+            assertTrue(benchDiskManager.readPage(pageId, pageBuffer));
+            assertPage(pageId, pageBuffer);
+        }
+        long readNanos = Math.max(1, Duration.between(start, Instant.now()).toNanos());
+        // a run reaching the end of file is read short
+        for (i = 0; i < runLength; i++) pageBuffers[i] = ByteBuffer.allocate(Config.PAGE_SIZE);
+        assertEquals(runLength / 2, benchDiskManager.readPages(pageNum - runLength / 2, pageBuffers));
+        for (i = 0; i < runLength / 2; i++) assertPage(pageNum - runLength / 2 + i, pageBuffers[i]);
+        long cachedAfter = pageCacheBytes();
+        System.out.println((whetherDirectIo ? "direct" : "buffered") + " I/O: "
+                + pageNum + " pages written in " + writeNanos / 1000000 + " ms, "
+                + (long) pageNum * Config.PAGE_SIZE * 1000000000L / writeNanos / (1 << 20) + " MB/s, "
+                + pageNum + " random reads in " + readNanos / 1000000 + " ms, "
+                + pageNum * 1000000000L / readNanos + " ops/s, "
+                + "page cache grown by " + (cachedBefore < 0 ? "unknown" : (cachedAfter - cachedBefore) / (1 << 20) + " MB"));
+        if (whetherDirectIo && cachedBefore >= 0) {
+            assertTrue(cachedAfter - cachedBefore < (long) pageNum * Config.PAGE_SIZE / 2);
+        }
+
+        // log records of any length are read back, also after reopening, when they follow a partial block
+        byte[] logData = logDataOf(0, 100);
+        benchDiskManager.writeLog(logData, false);
+        benchDiskManager.syncLog();
+        assertArrayEquals(logData, benchDiskManager.readLog(logData.length, 0));
+        benchDiskManager.close();
+        benchDiskManager = new DiskManager();
+        benchDiskManager.useFile(benchDbName);
+        byte[] moreLogData = logDataOf(100, 50);
+        assertEquals(logData.length, benchDiskManager.writeLog(moreLogData, true));
+        benchDiskManager.syncLog();
+        assertArrayEquals(logData, benchDiskManager.readLog(logData.length, 0));
+        assertArrayEquals(moreLogData, benchDiskManager.readLog(moreLogData.length, logData.length));
+
+        benchDiskManager.close();
+        benchDiskManager.dropFile(benchDbName);
+    }
+
+    private static byte[] logDataOf(int firstTxnId, int num) {
+        ArrayList<LogRecord> logRecords = new ArrayList<>();
+        int logSize = 0, i;
+        for (i = 0; i < num; i++) {
+            LogRecord logRecord = new LogRecord(Config.INVALID_LSN, firstTxnId + i, LogRecord.LogRecordType.BEGIN);
+            logRecord.setLsn(firstTxnId + i);
+            logRecords.add(logRecord);
+            logSize += logRecord.getLogSize();
+        }
+        byte[] logData = new byte[logSize];
+        int offset = 0;
+        for (LogRecord logRecord : logRecords) {
+            logRecord.writeTo(logData, offset);
+            offset += logRecord.getLogSize();
+        }
+        return logData;
+    }
+
+    /**
+     * Size of the OS page cache on Linux
+     * @return -1 if unknown
+     */
+    private static long pageCacheBytes() {
+        try (BufferedReader reader = new BufferedReader(new FileReader("/proc/meminfo"))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith("Cached:")) return Long.parseLong(line.replaceAll("[^0-9]", "")) * 1024;
+            }
+        } catch (IOException | NumberFormatException e) {
+            return -1;
+        }
+        return -1;
+    }
+
+    @Test
+    public void pageSizeTest() throws IOException {
+        String largePageDbName = "test16k";
+        int pageSize = 16 * 1024;
+        DiskManager largePageDiskManager = new DiskManager();
+        largePageDiskManager.dropFile(largePageDbName);
+        largePageDiskManager.createFile(largePageDbName, pageSize);
+        largePageDiskManager.useFile(largePageDbName);
+        assertEquals(pageSize, largePageDiskManager.getPageSize());
+        assertEquals(Config.PAGE_SIZE, diskManager.getPageSize());
+
+        // frames follow the page size of the database
+        BufferManager bufferManager = new BufferManager(Config.BUFFER_SIZE, largePageDiskManager, null);
+        int i;
+        Page page;
+        for (i = 0; i < Config.BUFFER_SIZE * 2; i++) {
+            assertNotNull(page = bufferManager.newPage());
+            assertEquals(pageSize, page.getPageData().length);
+            ByteBuffer.wrap(page.getPageData()).putInt(pageSize - 4, i);
+            assertTrue(bufferManager.unpinPage(i, true));
+        }
+        bufferManager.flushAllPages();
+        largePageDiskManager.close();
+
+        // the page size comes from the file header after reopening
+        largePageDiskManager = new DiskManager();
+        largePageDiskManager.useFile(largePageDbName);
+        assertEquals(pageSize, largePageDiskManager.getPageSize());
+        assertEquals(Config.BUFFER_SIZE * 2, largePageDiskManager.allocatePage());
+        bufferManager = new BufferManager(Config.BUFFER_SIZE, largePageDiskManager, null);
+        for (i = 0; i < Config.BUFFER_SIZE * 2; i++) {
+            assertNotNull(page = bufferManager.fetchPage(i));
+            assertEquals(i, ByteBuffer.wrap(page.getPageData()).getInt(pageSize - 4));
+            assertTrue(bufferManager.unpinPage(i, false));
+        }
+
+        // a frame of another size is refused
+        try {
+            largePageDiskManager.writePage(0, ByteBuffer.allocate(Config.PAGE_SIZE));
+            fail();
+        } catch (RuntimeException e) {
+            assertNotNull(e.getMessage());
+        }
+        try {
+            largePageDiskManager.createFile(largePageDbName, 3000);
+            fail();
+        } catch (RuntimeException e) {
+            assertNotNull(e.getMessage());
+        }
+
+        largePageDiskManager.close();
+        largePageDiskManager.dropFile(largePageDbName);
+        diskManager.close();
+        diskManager.dropFile(dbName);
+    }
+
+    @Test
+    public void compressionTest() throws IOException {
+        String compressedDbName = "testz";
+        int pageNum = 1000;
+        DiskManager compressedDiskManager = new DiskManager();
+        compressedDiskManager.dropFile(compressedDbName);
+        compressedDiskManager.createFile(compressedDbName, Config.PAGE_SIZE, true);
+        compressedDiskManager.useFile(compressedDbName);
+        assertTrue(compressedDiskManager.isCompressed());
+        assertFalse(diskManager.isCompressed());
+
+        // mostly empty pages take a small slot each
+        int i;
+        for (i = 0; i < pageNum; i++) compressedDiskManager.writePage(i, pageOf(i));
+        assertEquals(pageNum, compressedDiskManager.getHighWaterMark());
+        assertEquals(pageNum, compressedDiskManager.getCompressedPageStore().getPageNum());
+        assertTrue(compressedDiskManager.getFileLength() < (long) pageNum * Config.PAGE_SIZE / 4);
+        ByteBuffer pageBuffer = ByteBuffer.allocate(Config.PAGE_SIZE);
+        for (i = 0; i < pageNum; i++) {
+            assertTrue(compressedDiskManager.readPage(i, pageBuffer));
+            assertPage(i, pageBuffer);
+        }
+        assertFalse(compressedDiskManager.readPage(pageNum, pageBuffer));
+
+        // a page that does not shrink is stored as is, rewrites go out of place
+        ByteBuffer randomPage = ByteBuffer.allocate(Config.PAGE_SIZE);
+        new Random(0).nextBytes(randomPage.array());
+        compressedDiskManager.writePage(0, randomPage);
+        compressedDiskManager.writePage(1, pageOf(2));
+        assertTrue(compressedDiskManager.readPage(0, pageBuffer));
+        assertArrayEquals(randomPage.array(), pageBuffer.array());
+        ByteBuffer[] pageBuffers = new ByteBuffer[4];
+        for (i = 0; i < pageBuffers.length; i++) pageBuffers[i] = ByteBuffer.allocate(Config.PAGE_SIZE);
+        assertEquals(4, compressedDiskManager.readPages(1, pageBuffers));
+        assertPage(2, pageBuffers[0]);
+        for (i = 1; i < pageBuffers.length; i++) assertPage(i + 1, pageBuffers[i]);
+
+        // old slots are not reused before the new ones are forced
+        long endOffset = compressedDiskManager.getFileLength();
+        compressedDiskManager.writePage(5, pageOf(5));
+        assertTrue(compressedDiskManager.getFileLength() > endOffset);
+        compressedDiskManager.syncPages();
+        endOffset = compressedDiskManager.getFileLength();
+        compressedDiskManager.writePage(6, pageOf(6));
+        assertEquals(endOffset, compressedDiskManager.getFileLength());
+
+        // the slot map is persisted at close
+        compressedDiskManager.close();
+        compressedDiskManager = new DiskManager();
+        compressedDiskManager.useFile(compressedDbName);
+        assertTrue(compressedDiskManager.isCompressed());
+        assertEquals(pageNum, compressedDiskManager.allocatePage());
+        assertTrue(compressedDiskManager.readPage(0, pageBuffer));
+        assertArrayEquals(randomPage.array(), pageBuffer.array());
+        assertTrue(compressedDiskManager.readPage(1, pageBuffer));
+        assertPage(2, pageBuffer);
+        assertTrue(compressedDiskManager.readPage(pageNum - 1, pageBuffer));
+        assertPage(pageNum - 1, pageBuffer);
+
+        // a deallocated page gives its slot back
+        compressedDiskManager.deAllocatePage(pageNum - 1);
+        assertEquals(pageNum - 1, compressedDiskManager.getCompressedPageStore().getPageNum());
+        assertTrue(compressedDiskManager.readPage(pageNum - 1, pageBuffer));
+        assertArrayEquals(new byte[Config.PAGE_SIZE], pageBuffer.array());
+
+        // without a clean close, the slot map is rebuilt by scanning slots, the latest slot of a page wins,
+        // the slot of the deallocated page is not reused yet, so it is found again until the page is reused
+        compressedDiskManager.writePage(1, pageOf(1));
+        compressedDiskManager.writePage(2, pageOf(3));
+        DiskManager crashedDiskManager = compressedDiskManager;
+        compressedDiskManager = new DiskManager();
+        compressedDiskManager.useFile(compressedDbName);
+        assertEquals(pageNum, compressedDiskManager.getCompressedPageStore().getPageNum());
+        assertTrue(compressedDiskManager.readPage(0, pageBuffer));
+        assertArrayEquals(randomPage.array(), pageBuffer.array());
+        assertTrue(compressedDiskManager.readPage(1, pageBuffer));
+        assertPage(1, pageBuffer);
+        assertTrue(compressedDiskManager.readPage(2, pageBuffer));
+        assertPage(3, pageBuffer);
+        for (i = 3; i < pageNum; i++) {
+            assertTrue(compressedDiskManager.readPage(i, pageBuffer));
+            assertPage(i, pageBuffer);
+        }
+
+        crashedDiskManager.close();
+        compressedDiskManager.close();
+        compressedDiskManager.dropFile(compressedDbName);
+        diskManager.close();
+        diskManager.dropFile(dbName);
+    }
+
+    @Test
+    public void tablespaceTest() throws IOException {
+        String[] dataDirs = {
+                System.getProperty("java.io.tmpdir") + "/txdb_disk0",
+                System.getProperty("java.io.tmpdir") + "/txdb_disk1"
+        };
+        Tablespace tablespace = diskManager.createTablespace("ts", dataDirs);
+        assertEquals(1, tablespace.getTablespaceId());
+        assertSame(tablespace, diskManager.getTablespace("ts"));
+        assertNull(diskManager.getTablespace("none"));
+
+        // a tablespace claims segments from the top of the page id space, pages of the database file do not move
+        int pageNum = 3 * Config.EXTENT_SIZE + 4;
+        int firstPageId = diskManager.allocatePageIn(tablespace.getTablespaceId());
+        assertEquals((Tablespace.SEGMENT_NUM - 1) * Tablespace.SEGMENT_SIZE, firstPageId);
+        assertEquals(tablespace.getTablespaceId(), diskManager.tablespaceIdOf(firstPageId));
+        assertEquals(0, diskManager.allocatePage());
+        assertEquals(Tablespace.DEFAULT_TABLESPACE_ID, diskManager.tablespaceIdOf(0));
+        int i;
+        for (i = 1; i < pageNum; i++) assertEquals(firstPageId + i, diskManager.allocatePage(firstPageId + i - 1));
+        ByteBuffer[] pageBuffers = new ByteBuffer[pageNum];
+        for (i = 0; i < pageNum; i++) pageBuffers[i] = pageOf(firstPageId + i);
+        diskManager.writePages(firstPageId, pageBuffers);
+        diskManager.writePage(0, pageOf(0));
+
+        // extents go to data files in turn
+        File[] dataFiles = tablespace.getDataFiles();
+        assertEquals(2L * Config.EXTENT_SIZE * Config.PAGE_SIZE, dataFiles[0].length());
+        assertEquals((long) (Config.EXTENT_SIZE + 4) * Config.PAGE_SIZE, dataFiles[1].length());
+        for (i = 0; i < pageNum; i++) pageBuffers[i] = ByteBuffer.allocate(Config.PAGE_SIZE);
+        assertEquals(pageNum, diskManager.readPages(firstPageId, pageBuffers));
+        for (i = 0; i < pageNum; i++) assertPage(firstPageId + i, pageBuffers[i]);
+        ByteBuffer pageBuffer = ByteBuffer.allocate(Config.PAGE_SIZE);
+        assertTrue(diskManager.readPage(0, pageBuffer));
+        assertPage(0, pageBuffer);
+        assertFalse(diskManager.readPage(firstPageId + pageNum, pageBuffer));
+
+        // freed pages are reused within their tablespace
+        diskManager.deAllocatePage(firstPageId + 5);
+        assertEquals(1, tablespace.getFreePageNum());
+        assertEquals(0, diskManager.getFreePageNum());
+        assertEquals(1, diskManager.allocatePage());
+        assertEquals(firstPageId + 5, diskManager.allocatePage(firstPageId));
+
+        // pages of a table follow its first page through the buffer pool,
+        // the rest of the extent the table grew into is kept for it, a new table starts the next extent
+        int growPageId = firstPageId + 4 * Config.EXTENT_SIZE;
+        BufferManager bufferManager = new BufferManager(Config.BUFFER_SIZE, diskManager, null);
+        Page page = bufferManager.newPageIn(tablespace.getTablespaceId());
+        assertEquals(growPageId, page.getPageId());
+        assertTrue(bufferManager.unpinPage(page.getPageId(), true));
+        page = bufferManager.newPage(growPageId);
+        assertEquals(growPageId + 1, page.getPageId());
+        ByteBuffer.wrap(page.getPageData()).putInt(0, page.getPageId());
+        assertTrue(bufferManager.unpinPage(page.getPageId(), true));
+        bufferManager.flushAllPages();
+
+        // the catalog is persisted, the number of pages comes from data files after reopening
+        diskManager.close();
+        diskManager = new DiskManager();
+        diskManager.useFile(dbName);
+        tablespace = diskManager.getTablespace("ts");
+        assertNotNull(tablespace);
+        assertEquals(growPageId - firstPageId + 2, tablespace.getPageNum());
+        assertTrue(diskManager.readPage(growPageId + 1, pageBuffer));
+        assertEquals(growPageId + 1, pageBuffer.getInt(0));
+        assertTrue(diskManager.readPage(firstPageId + 3, pageBuffer));
+        assertPage(firstPageId + 3, pageBuffer);
+
+        // a full segment is followed by the one below it, the tablespace is not limited by a segment
+        int lastPageId = firstPageId;
+        do {
+            lastPageId = diskManager.allocatePage(lastPageId);
+        } while (lastPageId >= firstPageId);
+        assertEquals((Tablespace.SEGMENT_NUM - 2) * Tablespace.SEGMENT_SIZE, lastPageId);
+        assertEquals(tablespace.getTablespaceId(), diskManager.tablespaceIdOf(lastPageId));
+        diskManager.writePage(lastPageId, pageOf(lastPageId));
+        // pages just below the segment are still of the database file
+        assertEquals(Tablespace.DEFAULT_TABLESPACE_ID, diskManager.tablespaceIdOf(lastPageId - 1));
+        assertFalse(diskManager.readPage(lastPageId - 1, pageBuffer));
+
+        diskManager.close();
+        diskManager = new DiskManager();
+        diskManager.useFile(dbName);
+        assertTrue(diskManager.readPage(lastPageId, pageBuffer));
+        assertPage(lastPageId, pageBuffer);
+        assertEquals(Tablespace.SEGMENT_SIZE + 1, diskManager.getTablespace("ts").getPageNum());
+
+        diskManager.close();
+        diskManager.dropFile(dbName);
+        assertFalse(dataFiles[0].exists());
+        assertFalse(dataFiles[1].exists());
+    }
+}
@@ -285,6 +285,35 @@ public class BPlusTreeIndexTest {
         }
     }
 
+    @Test
+    public void pageSizeFanOutTest() throws IOException {
+        String largePageDbName = "test32k";
+        int pageSize = 32 * 1024;
+        DiskManager largePageDiskManager = new DiskManager();
+        largePageDiskManager.dropFile(largePageDbName);
+        largePageDiskManager.createFile(largePageDbName, pageSize);
+        largePageDiskManager.useFile(largePageDbName);
+        BufferManager bufferManager = new BufferManager(1000, largePageDiskManager, logManager);
+
+        // larger pages hold more entries, so the tree is lower
+        int entrySize = 20;
+        assertTrue(BPlusTreeIndex.maxDegreeOf(pageSize, entrySize) > 4 * BPlusTreeIndex.maxDegreeOf(Config.PAGE_SIZE, entrySize));
+        BPlusTreeIndex<Integer, Integer> bpti = new BPlusTreeIndex<>(bufferManager, Config.INVALID_PAGE_ID, entrySize);
+        Transaction txn0 = transactionManager.begin();
+
+        int max = 10000, i;
+        for (i = 0; i < max; i++) {
+            bpti.insert(i, i, txn0);
+        }
+        bufferManager.flushAllPages();
+        for (i = 0; i < max; i++) {
+            assertEquals(bpti.find(i, txn0), new Integer(i));
+        }
+
+        largePageDiskManager.close();
+        largePageDiskManager.dropFile(largePageDbName);
+    }
+
     @Test
     public void insertPersistScaleTest() throws IOException, ClassNotFoundException, InterruptedException {
         int bufferSize = 100000;
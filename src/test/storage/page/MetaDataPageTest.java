@@ -11,6 +11,7 @@ import txDB.type.Type.ColumnValueType;
 
 import java.io.*;
 import java.util.ArrayList;
+import java.util.Base64;
 
 import static org.junit.Assert.*;
 
@@ -86,4 +87,58 @@ public class MetaDataPageTest {
             diskManager.dropFile(dbName);
         }
     }
+
+    /**
+     * Page 0 serialized by MetaDataPage with the int lastCheckpointOffset, set to 123456,
+     * and relation table0 of one integer column rooted at page 1
+     */
+    private static final String OLD_META_DATA_PAGE =
+            "rO0ABXNyAB50eERCLnN0b3JhZ2UucGFnZS5NZXRhRGF0YVBhZ2VFEa2daaPovwIABkkAFGxhc3RDaGVja3BvaW50T2Zmc2V0SQAK"
+            + "bmV4dFBhZ2VJZEkACnByZXZQYWdlSWRMAAhmcmVlTGlzdHQAEExqYXZhL3V0aWwvTGlzdDtMABBpbmRleE1ldGFEYXRhTWFwdAAT"
+            + "TGphdmEvdXRpbC9IYXNoTWFwO0wAE3JlbGF0aW9uTWV0YURhdGFNYXBxAH4AAnhwAAHiQAAAAAAAAAAAc3IAE2phdmEudXRpbC5B"
+            + "cnJheUxpc3R4gdIdmcdhnQMAAUkABHNpemV4cAAAAAB3BAAAAAB4c3IAEWphdmEudXRpbC5IYXNoTWFwBQfawcMWYNEDAAJGAAps"
+            + "b2FkRmFjdG9ySQAJdGhyZXNob2xkeHA/QAAAAAAAAHcIAAAAEAAAAAB4c3EAfgAGP0AAAAAAAAx3CAAAABAAAAABdAAGdGFibGUw"
+            + "c3IAL3R4REIuc3RvcmFnZS5wYWdlLk1ldGFEYXRhUGFnZSRSZWxhdGlvbk1ldGFEYXRh87oMgFXOeCACAARJABJyb290UmVsYXRp"
+            + "b25QYWdlSWRMAAxyZWxhdGlvbk5hbWV0ABJMamF2YS9sYW5nL1N0cmluZztMAAZzY2hlbWV0ABtMdHhEQi9zdG9yYWdlL3RhYmxl"
+            + "L1NjaGVtZTtMAAZ0aGlzJDB0ACBMdHhEQi9zdG9yYWdlL3BhZ2UvTWV0YURhdGFQYWdlO3hwAAAAAXEAfgAJc3IAGXR4REIuc3Rv"
+            + "cmFnZS50YWJsZS5TY2hlbWXqONXCMGxmHgIAA0kAA2xlbkwAB2NvbHVtbnN0ABVMamF2YS91dGlsL0FycmF5TGlzdDtMAA51bmxp"
+            + "bmVkQ29sdW1uc3EAfgAQeHAAAAAEc3EAfgAEAAAAAXcEAAAAAXNyABl0eERCLnN0b3JhZ2UudGFibGUuQ29sdW1uRlT1bS0D0HIC"
+            + "AAVJAAxjb2x1bW5PZmZzZXRJAAhmaXhlZExlbkkAC3ZhcmlhYmxlTGVuTAAKY29sdW1uTmFtZXEAfgALTAAPY29sdW1uVmFsdWVU"
+            + "eXBldAAgTHR4REIvdHlwZS9UeXBlJENvbHVtblZhbHVlVHlwZTt4cAAAAAAAAAAEAAAAAHQABGNvbDB+cgAedHhEQi50eXBlLlR5"
+            + "cGUkQ29sdW1uVmFsdWVUeXBlAAAAAAAAAAASAAB4cgAOamF2YS5sYW5nLkVudW0AAAAAAAAAABIAAHhwdAAHSU5URUdFUnhzcQB+"
+            + "AAQAAAAAdwQAAAAAeHEAfgADeA==";
+
+    @Test
+    public void oldMetaDataPageTest() throws IOException, ClassNotFoundException {
+        int bufferSize = 100;
+        BufferManager bufferManager = new BufferManager(bufferSize, diskManager, null);
+
+        Page page0 = bufferManager.newPage();
+        page0.setPageData(Base64.getDecoder().decode(OLD_META_DATA_PAGE));
+        bufferManager.unpinPage(page0.getPageId(), true);
+        bufferManager.flushPage(page0.getPageId());
+
+        page0 = bufferManager.fetchPage(0);
+        ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(page0.getPageData()));
+        MetaDataPage metaDataPage = (MetaDataPage) in.readObject();
+        assertEquals(123456, metaDataPage.getLastCheckpointOffset());
+        assertEquals(1, metaDataPage.getRelationMetaData("table0").getRootRelationPageId());
+        assertEquals("col0", metaDataPage.getRelationMetaData("table0").getScheme().getColumns().get(0).getColumnName());
+        assertNotNull(metaDataPage.getFreeList());
+
+        // written again, the offset is kept as a long
+        metaDataPage.setLastCheckpointOffset(5L << 30);
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bos);
+        out.writeObject(metaDataPage);
+        page0.setPageData(bos.toByteArray());
+        in = new ObjectInputStream(new ByteArrayInputStream(page0.getPageData()));
+        metaDataPage = (MetaDataPage) in.readObject();
+        assertEquals(5L << 30, metaDataPage.getLastCheckpointOffset());
+        assertEquals(1, metaDataPage.getRelationMetaData("table0").getRootRelationPageId());
+        bufferManager.unpinPage(0, true);
+
+        diskManager.close();
+        diskManager.dropFile(dbName);
+    }
 }
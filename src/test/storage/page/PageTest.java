@@ -0,0 +1,85 @@
+package test.storage.page;
+
+import org.junit.Test;
+import txDB.storage.page.Page;
+import txDB.storage.page.TablePage;
+
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.*;
+
+public class PageTest {
+
+    @Test
+    public void optimisticReadLatchTest() {
+        Page page = new Page();
+
+        long version = page.optimisticReadLatch();
+        assertNotEquals(version, 0);
+        page.getPageData()[0] = 1;
+        // nothing is write latched, the read stays valid
+        assertTrue(page.validateReadLatch(version));
+
+        // read latches never fail optimistic readers
+        page.readLatch();
+        assertTrue(page.validateReadLatch(version));
+        page.readUnlatch();
+
+        page.writeLatch();
+        assertEquals(page.optimisticReadLatch(), 0);
+        assertFalse(page.validateReadLatch(version));
+        page.writeUnlatch();
+        assertFalse(page.validateReadLatch(version));
+        assertFalse(page.validateReadLatch(0));
+
+        // write latch is reentrant, the version is released by the outermost unlatch only
+        page.writeLatch();
+        page.writeLatch();
+        page.writeUnlatch();
+        assertEquals(page.optimisticReadLatch(), 0);
+        page.writeUnlatch();
+        version = page.optimisticReadLatch();
+        assertTrue(page.validateReadLatch(version));
+    }
+
+    @Test
+    public void sharedLatchTest() throws InterruptedException {
+        Page page = new Page();
+        TablePage tablePage = new TablePage(page);
+
+        long version = page.optimisticReadLatch();
+        tablePage.writeLatch();
+        assertFalse(page.validateReadLatch(version));
+
+        // the frame and its table page view exclude each other
+        CountDownLatch readLatched = new CountDownLatch(1);
+        Thread reader = new Thread(() -> {
+            page.readLatch();
+            readLatched.countDown();
+            page.readUnlatch();
+        });
+        reader.start();
+        Thread.sleep(100);
+        assertEquals(readLatched.getCount(), 1);
+
+        tablePage.writeUnlatch();
+        reader.join();
+        assertEquals(readLatched.getCount(), 0);
+
+        version = tablePage.optimisticReadLatch();
+        assertTrue(page.validateReadLatch(version));
+    }
+
+    @Test
+    public void evictedPageTest() {
+        Page page = new Page();
+        TablePage tablePage = new TablePage(page);
+
+        // the frame may hold another page once evicted, reads of either view fail for good
+        long version = page.optimisticReadLatch();
+        tablePage.markEvicted();
+        assertTrue(page.isEvicted());
+        assertFalse(page.validateReadLatch(version));
+        assertFalse(page.validateReadLatch(page.optimisticReadLatch()));
+    }
+}
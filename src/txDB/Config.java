@@ -7,8 +7,32 @@ public class Config {
      * Here, I just use 1kb = 1024byte.
      */
     public static int BUFFER_SIZE = 10;
+    public static int BUFFER_PARTITIONS = 1;        // number of buffer pool partitions, each one has its own lock
     public static boolean ENABLE_LOGGING;
     public static boolean ENABLE_FUZZY_CHECKPOINT = true;
+    public static int LRU_K = 2;                    // K of LRU-K replacer
+    public static double CLEANER_LOW_WATERMARK = 0.1;   // page cleaner starts when clean evictable frames fall below this fraction of a partition
+    public static double CLEANER_HIGH_WATERMARK = 0.2;  // page cleaner stops when clean evictable frames reach this fraction of a partition
+    public static int CLEANER_INTERVAL = 100;       // page cleaner wakes up every 100 ms
+    public static boolean ENABLE_PAGE_CLEANER = false;  // every buffer manager runs a page cleaner from its creation until it is closed
+    public static boolean ENABLE_READ_AHEAD = true;
+    public static int READ_AHEAD_MIN_DEPTH = 2;     // pages loaded ahead of a sequential scan at first
+    public static int READ_AHEAD_MAX_DEPTH = 64;    // read-ahead never takes more than a quarter of the buffer pool either
+    public static int READ_AHEAD_THREADS = 2;
+    public static int BUFFER_RING_SIZE = 32;        // frames recycled by a bulk operation, at most a quarter of the buffer pool
+    public static double BUFFER_RING_THRESHOLD = 0.25;  // a scan switches to a buffer ring after visiting this fraction of the buffer pool
+    public static int OPTIMISTIC_READ_RETRIES = 3;  // optimistic index lookups retried before taking read latches
+    public static int WARM_RESTART_THREADS = 4;     // parallel readers loading hot pages after a restart
+    public static int WARM_RESTART_IO_PAGES = 32;   // consecutive pages loaded by one read in warm restart
+    public static int EXTENT_SIZE = 8;              // pages of a table are allocated close together within extents of 8 pages
+    public static int PREALLOCATION_SIZE = 1 << 20; // the database file grows by 1 MB of zeros at a time, 0 grows it page by page
+    public static int IO_THREADS = 4;               // I/O threads of the asynchronous page I/O engine
+    public static int IO_QUEUE_DEPTH = 32;          // page I/O requests queued or in flight at most, submitters block beyond it
+    public static boolean ENABLE_DIRECT_IO = false; // the database file bypasses the OS page cache, pages must be whole file system blocks
+    public static boolean ENABLE_PAGE_COMPRESSION = false;  // databases created from now on store pages compressed on disk
+    public static int GROUP_COMMIT_WINDOW = 1000;   // commits arriving within 1000 microseconds of the first waiting one share a log write and fsync, a lone commit does not wait
+    public static int GROUP_COMMIT_BYTES = 64 * 1024;   // a group commit is flushed early once this many log bytes wait
+    public static int ASYNC_COMMIT_WINDOW = 100;    // asynchronous commits are forced within 100 ms, a crash loses at most those of the last 100 ms
 
     public static final int PAGE_SIZE = 4096;       // page size in byte, 4 KB
     public static final int LOG_SIZE = (BUFFER_SIZE + 1) * PAGE_SIZE; // 209715200;   // log size in byte, 200 MB
@@ -3,18 +3,30 @@ package txDB.buffer;
 import txDB.Config;
 import txDB.recovery.LogManager;
 import txDB.storage.disk.DiskManager;
+import txDB.storage.disk.PageIoEngine;
 import txDB.storage.page.Page;
 
 import java.io.Serializable;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
-import java.util.LinkedList;
-
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * The buffer pool is split into partitions chosen by page id,
+ * each partition has its own page table, replacer and lock,
+ * so threads working on different partitions do not block each other.
+ * Note that a partition can be full while others still have room.
+ */
 public class BufferManager implements Serializable {
-    private transient LRUBufferPool lruBufferPool;
+    private transient LRUBufferPool[] lruBufferPools;
     private transient DiskManager diskManager;
-    private LinkedList<Page> freeList;
     private transient LogManager logManager;
+    private transient BufferPoolMetrics metrics;
+    private transient PageCleaner pageCleaner;
 
     /**
      *
@@ -22,10 +34,7 @@ public class BufferManager implements Serializable {
      * @param diskManager
      */
     public BufferManager(int bufferSize, DiskManager diskManager, LogManager logManager) {
-        this.lruBufferPool = new LRUBufferPool(bufferSize, diskManager, logManager);
-        this.diskManager = diskManager;
-        this.freeList = new LinkedList<>();
-        this.logManager = logManager;
+        this(bufferSize, Config.BUFFER_PARTITIONS, diskManager, logManager, Replacer.ReplacerType.CLOCK);
     }
 
     /**
@@ -35,58 +44,233 @@ public class BufferManager implements Serializable {
      * @param diskManager
      */
     public BufferManager(int bufferSize, float loadFactor, DiskManager diskManager, LogManager logManager) {
-        this.lruBufferPool = new LRUBufferPool(bufferSize, loadFactor, diskManager, logManager);
+        int partitionNum = Config.BUFFER_PARTITIONS;
+        this.lruBufferPools = new LRUBufferPool[partitionNum];
+        int i;
+        for (i = 0; i < partitionNum; i++) {
+            this.lruBufferPools[i] = new LRUBufferPool(
+                    partitionSize(bufferSize, partitionNum, i), loadFactor, diskManager, logManager);
+        }
         this.diskManager = diskManager;
-        this.freeList = new LinkedList<>();
         this.logManager = logManager;
+        this.metrics = new BufferPoolMetrics();
+        for (LRUBufferPool lruBufferPool : this.lruBufferPools) lruBufferPool.setMetrics(this.metrics);
+        if (diskManager.getDbName() != null) this.metrics.register(diskManager.getDbName());
+        if (Config.ENABLE_PAGE_CLEANER) this.startPageCleaner();
     }
 
     /**
-     * Fetch a page
+     *
+     * @param bufferSize
+     * @param diskManager
+     * @param logManager
+     * @param replacerType
+     */
+    public BufferManager(int bufferSize, DiskManager diskManager, LogManager logManager, Replacer.ReplacerType replacerType) {
+        this(bufferSize, Config.BUFFER_PARTITIONS, diskManager, logManager, replacerType);
+    }
+
+    /**
+     *
+     * @param bufferSize
+     * @param partitionNum
+     * @param diskManager
+     * @param logManager
+     * @param replacerType
+     */
+    public BufferManager(int bufferSize, int partitionNum, DiskManager diskManager, LogManager logManager, Replacer.ReplacerType replacerType) {
+        if (partitionNum < 1) throw new RuntimeException("Number of buffer partitions must be positive.");
+        if (bufferSize < partitionNum) throw new RuntimeException("Buffer size must be at least the number of partitions.");
+        this.lruBufferPools = new LRUBufferPool[partitionNum];
+        int i;
+        for (i = 0; i < partitionNum; i++) {
+            this.lruBufferPools[i] = new LRUBufferPool(
+                    partitionSize(bufferSize, partitionNum, i), diskManager, logManager, replacerType);
+        }
+        this.diskManager = diskManager;
+        this.logManager = logManager;
+        this.metrics = new BufferPoolMetrics();
+        for (LRUBufferPool lruBufferPool : this.lruBufferPools) lruBufferPool.setMetrics(this.metrics);
+        if (diskManager.getDbName() != null) this.metrics.register(diskManager.getDbName());
+        if (Config.ENABLE_PAGE_CLEANER) this.startPageCleaner();
+    }
+
+    /**
+     * Spread the whole buffer size over partitions, the first ones take the remainder
+     */
+    private static int partitionSize(int bufferSize, int partitionNum, int partitionIndex) {
+        return bufferSize / partitionNum + (partitionIndex < bufferSize % partitionNum ? 1 : 0);
+    }
+
+    private LRUBufferPool partitionOf(int pageId) {
+        return this.lruBufferPools[Math.floorMod(pageId, this.lruBufferPools.length)];
+    }
+
+    /**
+     * Fetch a page,
+     * the disk read is done outside the partition lock,
+     * other threads fetching the same page wait on the page until data is ready
      * @param pageId
      * @return
      */
     public Page fetchPage(int pageId) {
-        synchronized (this) {
-            Page requestPage;
-            if ((requestPage = this.lruBufferPool.get(pageId, true)) != null) {
-                if (requestPage.getIsDirty()) {
-                    if (Config.ENABLE_LOGGING && logManager.getFlushedLsn() < requestPage.getLsn()) {
-//                        System.out.println("buffer manager wait for log flush");
-                        logManager.flushLogBuffer(true, false);
-                    }
-                    assert logManager.getFlushedLsn() >= requestPage.getLsn();
-                    this.diskManager.writePage(pageId, requestPage.getPageData());
+        return this.fetchPage(pageId, false, null);
+    }
+
+    /**
+     * Fetch a page for a bulk operation, see `BufferRing`
+     * @param pageId
+     * @param bufferRing null for normal access
+     * @return
+     */
+    public Page fetchPage(int pageId, BufferRing bufferRing) {
+        return this.fetchPage(pageId, false, bufferRing);
+    }
+
+    /**
+     * Load a page for read-ahead and pin it,
+     * a resident page is neither written nor counted as accessed,
+     * the caller gives the pin back by `releasePage`
+     * @param pageId
+     * @return
+     */
+    public Page prefetchPage(int pageId) {
+        return this.fetchPage(pageId, true, null);
+    }
+
+    public Page prefetchPage(int pageId, BufferRing bufferRing) {
+        return this.fetchPage(pageId, true, bufferRing);
+    }
+
+    /**
+     * Load a page for read-ahead without waiting for the disk read,
+     * so that the caller can keep several reads in flight, see `prefetchPage`
+     * @param pageId
+     * @param bufferRing null for normal access
+     * @return completes with the pinned page, or null if it cannot be loaded
+     */
+    public CompletableFuture<Page> prefetchPageAsync(int pageId, BufferRing bufferRing) {
+        return this.fetchPageAsync(pageId, true, bufferRing);
+    }
+
+    private Page fetchPage(int pageId, boolean whetherPrefetch, BufferRing bufferRing) {
+        return this.fetchPageAsync(pageId, whetherPrefetch, bufferRing).join();
+    }
+
+    private CompletableFuture<Page> fetchPageAsync(int pageId, boolean whetherPrefetch, BufferRing bufferRing) {
+        long startTime = System.nanoTime();
+        // a page coming in through a ring takes the frame of the oldest page in the ring
+        if (bufferRing != null && !this.isResident(pageId)) this.recycleRingPage(bufferRing.advance(pageId));
+
+        LRUBufferPool lruBufferPool = this.partitionOf(pageId);
+        Page requestPage;
+        boolean whetherRead = false;
+        synchronized (lruBufferPool) {
+            if ((requestPage = lruBufferPool.get(pageId, !whetherPrefetch && bufferRing == null)) != null) {
+                if (!whetherPrefetch && requestPage.getIsDirty()) {
+                    this.forceLogUpTo(requestPage.getLsn());
+                    this.writeDirtyPage(pageId, requestPage.getPageBuffer());
+                    requestPage.setDirty(false);
                 }
+                // pin it first, so that it cannot be evicted while waiting for the read
                 requestPage.incrementPinCount();
-                return requestPage;
+            } else {
+                requestPage = new Page(lruBufferPool.allocateFrame());
+                requestPage.setPageId(pageId);
+                requestPage.setPinCount(1);
+                requestPage.setDirty(false);
+                requestPage.beginIo();
+
+                if (!lruBufferPool.put(pageId, requestPage)) {
+//                    System.out.println("2 unable to fetch page " + pageId);
+                    return CompletableFuture.completedFuture(null);
+                }
+
+                // this thread is responsible for reading the page
+                whetherRead = true;
             }
+        }
 
-            byte[] pageData = this.diskManager.readPage(pageId);
-            if (pageData == null) {
+        if (!whetherRead) {
+            if (requestPage.isIoInProgress()) this.metrics.recordPinWait();
+            if (!requestPage.waitForIo()) {
 //                System.out.println("1 unable to fetch page " + pageId);
-                return null;
+                return CompletableFuture.completedFuture(null);
             }
+            if (!whetherPrefetch) this.metrics.recordHit(System.nanoTime() - startTime);
+            return CompletableFuture.completedFuture(requestPage);
+        }
+
+        // read straight into the frame, read-ahead is background I/O and goes through the I/O engine
+        final Page readPage = requestPage;
+        if (whetherPrefetch) {
+            return this.diskManager.getPageIoEngine().readPage(pageId, readPage.getPageBuffer())
+                    .thenApply(whetherLoaded -> this.endRead(readPage, whetherLoaded) ? readPage : null);
+        }
+        if (!this.endRead(readPage, this.diskManager.readPage(pageId, readPage.getPageBuffer())))
+            return CompletableFuture.completedFuture(null);
+        this.metrics.recordMiss(System.nanoTime() - startTime);
 
-//            requestPage = this.findUnusedPage();
-//
-//            if (requestPage == null) {
-//                requestPage = new Page();
-//            }
+        return CompletableFuture.completedFuture(readPage);
+    }
 
-            requestPage = new Page();
-            requestPage.setPageData(pageData);
-            requestPage.setPageId(pageId);
-            requestPage.setPinCount(1);
-            requestPage.setDirty(false);
+    /**
+     * Finish the read of a page pinned and marked in I/O by `fetchPageAsync`
+     * @param page
+     * @param whetherLoaded
+     * @return whether the page is ready, it is dropped from the buffer pool otherwise
+     */
+    private boolean endRead(Page page, boolean whetherLoaded) {
+        if (whetherLoaded) {
+            page.endIo(true);
+            return true;
+        }
+//        System.out.println("1 unable to fetch page " + page.getPageId());
+        // wake waiters before taking the partition lock, a flush may be waiting on this page with the lock held
+        page.endIo(false);
+        LRUBufferPool lruBufferPool = this.partitionOf(page.getPageId());
+        synchronized (lruBufferPool) {
+            if (lruBufferPool.get(page.getPageId(), false) == page) lruBufferPool.delete(page.getPageId());
+        }
+        return false;
+    }
 
-            if (!this.lruBufferPool.put(pageId, requestPage)) {
-//                System.out.println("2 unable to fetch page " + pageId);
-                return null;
+    /**
+     * Evict a page leaving a buffer ring, unless someone else pinned it in the meantime
+     * @param pageId
+     */
+    private void recycleRingPage(int pageId) {
+        if (pageId == Config.INVALID_PAGE_ID) return;
+        LRUBufferPool lruBufferPool = this.partitionOf(pageId);
+        synchronized (lruBufferPool) {
+            Page page = lruBufferPool.get(pageId, false);
+            if (page == null || page.getPinCount() != 0) return;
+            if (page.getIsDirty()) {
+                this.forceLogUpTo(page.getLsn());
+                this.writeDirtyPage(pageId, page.getPageBuffer());
             }
+            lruBufferPool.delete(pageId);
+        }
+    }
 
-            return requestPage;
+    /**
+     * WAL: log records up to the lsn must be on disk before a page carrying it is written
+     * @param lsn
+     */
+    private void forceLogUpTo(int lsn) {
+        if (Config.ENABLE_LOGGING && logManager.getFlushedLsn() < lsn) {
+//            System.out.println("buffer manager wait for log flush");
+            long startTime = System.nanoTime();
+            logManager.flushLogBuffer(true, false);
+            this.metrics.recordWalForcedFlush(System.nanoTime() - startTime);
         }
+        assert !Config.ENABLE_LOGGING || logManager.getFlushedLsn() >= lsn;
+    }
+
+    private void writeDirtyPage(int pageId, ByteBuffer pageBuffer) {
+        long startTime = System.nanoTime();
+        this.diskManager.writePage(pageId, pageBuffer);
+        this.metrics.recordDirtyWrite(System.nanoTime() - startTime);
     }
 
     /**
@@ -96,56 +280,143 @@ public class BufferManager implements Serializable {
      * @return
      */
     public boolean unpinPage(int pageId, boolean isDirty) {
-        synchronized (this) {
+        LRUBufferPool lruBufferPool = this.partitionOf(pageId);
+        synchronized (lruBufferPool) {
             Page requestPage;
-            if ((requestPage = this.lruBufferPool.get(pageId, false)) == null) return false;
+            if ((requestPage = lruBufferPool.get(pageId, false)) == null) return false;
             if (requestPage.getPinCount() <= 0) return false;
 
 //            System.out.println("enter effective unpin area in page " + pageId + ", dirty: " + isDirty);
 
             requestPage.decrementPinCount();
 //            requestPage.setPinCount(0);
-            requestPage.setDirty(isDirty);
+            // a reader unpinning never cleans a page dirtied by another pin
+            if (isDirty) requestPage.setDirty(true);
 
             return true;
         }
     }
 
+    /**
+     * Give back the pin taken by `prefetchPage`, the dirty flag is left as it is
+     * @param pageId
+     */
+    public void releasePage(int pageId) {
+        LRUBufferPool lruBufferPool = this.partitionOf(pageId);
+        synchronized (lruBufferPool) {
+            Page requestPage = lruBufferPool.get(pageId, false);
+            if (requestPage != null && requestPage.getPinCount() > 0) requestPage.decrementPinCount();
+        }
+    }
+
+    public boolean isResident(int pageId) {
+        LRUBufferPool lruBufferPool = this.partitionOf(pageId);
+        synchronized (lruBufferPool) {
+            return lruBufferPool.get(pageId, false) != null;
+        }
+    }
+
+    /**
+     * Number of frames over all partitions
+     * @return
+     */
+    public int getBufferSize() {
+        int bufferSize = 0;
+        for (LRUBufferPool lruBufferPool : this.lruBufferPools) {
+            synchronized (lruBufferPool) {
+                bufferSize += lruBufferPool.getBufferSize();
+            }
+        }
+        return bufferSize;
+    }
+
+    /**
+     * Resize the buffer pool while it is in use,
+     * growing takes effect at once; shrinking writes back and drops cold unpinned pages at once,
+     * frames of pinned pages are dropped when those pages are evicted later
+     * @param frames
+     */
+    public void resize(int frames) {
+        if (frames < this.lruBufferPools.length)
+            throw new RuntimeException("Buffer size must be at least the number of partitions.");
+        int i;
+        for (i = 0; i < this.lruBufferPools.length; i++) {
+            synchronized (this.lruBufferPools[i]) {
+                this.lruBufferPools[i].resize(partitionSize(frames, this.lruBufferPools.length, i));
+            }
+        }
+    }
+
+    /**
+     * A ring for a bulk operation on this buffer pool, split over its partitions
+     * @return
+     */
+    public BufferRing newBufferRing() {
+        return new BufferRing(BufferRing.ringSize(this.getBufferSize()), this.lruBufferPools.length);
+    }
+
     /**
      * New a page
      */
     public Page newPage() {
-        // Allocating next page is thread safe based on atomicInteger
-        int pageId = this.diskManager.allocatePage();
+        return this.newPage(Config.INVALID_PAGE_ID, null);
+    }
 
-        synchronized (this) {
+    /**
+     * New a page physically close to another page, e.g., the last page of the same table
+     * @param nearPageId
+     */
+    public Page newPage(int nearPageId) {
+        return this.newPage(nearPageId, null);
+    }
+
+    /**
+     * New a page in a tablespace, later pages of the same table follow it by `newPage(int)`
+     * @param tablespaceId see `Tablespace`
+     */
+    public Page newPageIn(int tablespaceId) {
+        long startTime = System.nanoTime();
+        return this.newPage(this.diskManager.allocatePageIn(tablespaceId), null, startTime);
+    }
 
-            // The following case can be ignored,
-            // as checking whether all pinned will take place in `lruBufferPool.put` method
-            // if (this.lruBufferPool.allPinned()) return null;
+    /**
+     * New a page for a bulk operation, e.g., bulk insert, see `BufferRing`
+     * @param nearPageId
+     * @param bufferRing null for normal access
+     */
+    public Page newPage(int nearPageId, BufferRing bufferRing) {
+        long startTime = System.nanoTime();
+        // a deleted page is reused if there is one, see `DiskManager.allocatePage`
+        return this.newPage(this.diskManager.allocatePage(nearPageId), bufferRing, startTime);
+    }
 
-            Page requestPage = this.findUnusedPage();
+    private Page newPage(int pageId, BufferRing bufferRing, long startTime) {
 
-            if (requestPage == null) {
-                requestPage = new Page();
-                requestPage.setPageId(pageId);
-            } else {
-                pageId = requestPage.getPageId();
-            }
+        // The following case can be ignored,
+        // as checking whether all pinned will take place in `lruBufferPool.allocateFrame` method
+        // if (this.lruBufferPool.allPinned()) return null;
 
-            requestPage.setPinCount(1);
+        if (bufferRing != null) this.recycleRingPage(bufferRing.advance(pageId));
 
-            if (!this.lruBufferPool.put(pageId, requestPage)) {
+        LRUBufferPool lruBufferPool = this.partitionOf(pageId);
+        Page requestPage = null;
+        try {
+            synchronized (lruBufferPool) {
+                requestPage = new Page(lruBufferPool.allocateFrame());
+                requestPage.resetData();
+                requestPage.setPageId(pageId);
+                requestPage.setPinCount(1);
+                lruBufferPool.put(pageId, requestPage);
+            }
+        } finally {
+            if (requestPage == null) {
 //                System.out.println("unable to new page");
-                requestPage.setPinCount(0);
-                this.diskManager.revokeAllocatedPage();
-                return null;
+                this.diskManager.revokeAllocatedPage(pageId);
             }
-
-            this.freeList.poll();
-
-            return requestPage;
         }
+        this.metrics.recordNewPage(System.nanoTime() - startTime);
+
+        return requestPage;
     }
 
     /**
@@ -154,20 +425,20 @@ public class BufferManager implements Serializable {
      * @return
      */
     public boolean flushPage(int pageId) {
-        synchronized (this) {
-            Page requestPage = this.lruBufferPool.get(pageId, false);
+        LRUBufferPool lruBufferPool = this.partitionOf(pageId);
+        synchronized (lruBufferPool) {
+            Page requestPage = lruBufferPool.get(pageId, false);
             if (requestPage == null) return false;
             if (requestPage.getPinCount() != 0) {
                 System.out.println("pinCount: " + requestPage.getPinCount());
                 return false;
             }
 
+            // a single page, bulk flushes go through `writeBatch`
             if (requestPage.getIsDirty())
-                // TODO: writing page one by one is not efficient,
-                //  batch writing should be used to do this
-                this.diskManager.writePage(pageId, requestPage.getPageData());
+                this.writeDirtyPage(pageId, requestPage.getPageBuffer());
 
-            this.lruBufferPool.delete(pageId);
+            lruBufferPool.delete(pageId);
 
             return true;
         }
@@ -177,28 +448,359 @@ public class BufferManager implements Serializable {
      * Flush all existing dirty pages to disk if full checkpoint scheme is enabled
      */
     public HashMap<Integer, Integer> flushAllDirtyPages(boolean whetherFuzzy) {
-        synchronized (this) {
-            HashMap<Integer, Integer> dirtyPageMap = new HashMap<>();
-            for (int pageId: this.lruBufferPool.getAll()) {
-//                System.out.println(pageId+ ": " + this.lruBufferPool.get(pageId, false).getPinCount());
-                Page page = this.lruBufferPool.get(pageId, false);
-                if (page.getIsDirty()) {
-                    if (!whetherFuzzy) {
-                        // WAL must still be followed here
-                        if (Config.ENABLE_LOGGING && logManager.getFlushedLsn() < page.getLsn()) {
-//                        System.out.println("buffer manager wait for log flush");
-                            logManager.flushLogBuffer(true, false);
-                        }
-                        assert logManager.getFlushedLsn() >= page.getLsn();
-                        this.diskManager.writePage(pageId, page.getPageData());
+        HashMap<Integer, Integer> dirtyPageMap = new HashMap<>();
+        if (whetherFuzzy) {
+            // only the dirty page table is needed, one partition at a time
+            for (LRUBufferPool lruBufferPool : this.lruBufferPools) {
+                synchronized (lruBufferPool) {
+                    for (int pageId : lruBufferPool.getAll()) {
+                        Page page = lruBufferPool.get(pageId, false);
+                        if (page.getIsDirty()) dirtyPageMap.put(pageId, page.getLsn());
                     }
-//                    System.out.println("page " + pageId + " is flushed");
-                    dirtyPageMap.put(pageId, page.getLsn());
                 }
             }
-
+            // pages written since the last checkpoint are durable
+            this.diskManager.syncPages();
             return dirtyPageMap;
         }
+
+        // dirty pages are taken at one point under the locks, then written outside of them
+        ArrayList<Page> flushList = new ArrayList<>();
+        this.withAllPartitionsLocked(0, () -> {
+            for (LRUBufferPool lruBufferPool : this.lruBufferPools) {
+                for (int pageId : lruBufferPool.getAll()) {
+//                    System.out.println(pageId+ ": " + lruBufferPool.get(pageId, false).getPinCount());
+                    Page page = lruBufferPool.get(pageId, false);
+                    page.waitForIo();
+                    if (page.getIsDirty()) {
+                        dirtyPageMap.put(pageId, page.getLsn());
+                        page.incrementPinCount();
+                        flushList.add(page);
+                    }
+                }
+            }
+        });
+        this.writeSnapshots(flushList);
+        this.diskManager.syncPages();
+
+        return dirtyPageMap;
+    }
+
+    /**
+     * Write pages in page id order, runs of consecutive pages are merged into one gathering write,
+     * and the log is forced only once, up to the largest page lsn of the batch
+     * @param flushList
+     */
+    private void writeBatch(List<Page> flushList) {
+        if (flushList.isEmpty()) return;
+        flushList.sort(Comparator.comparingInt(Page::getPageId));
+
+        // log records up to the largest page lsn must be on disk first
+        int maxLsn = Config.INVALID_LSN;
+        for (Page page : flushList) maxLsn = Math.max(maxLsn, page.getLsn());
+        this.forceLogUpTo(maxLsn);
+
+        // runs are all submitted before waiting, so that many of them are in flight
+        PageIoEngine pageIoEngine = this.diskManager.getPageIoEngine();
+        ArrayList<CompletableFuture<Void>> writeList = new ArrayList<>();
+        int i = 0, j, k;
+        while (i < flushList.size()) {
+            j = i + 1;
+            while (j < flushList.size() && flushList.get(j).getPageId() == flushList.get(j - 1).getPageId() + 1) j++;
+            final int runLength = j - i;
+            final long startTime = System.nanoTime();
+            CompletableFuture<Void> write;
+            if (runLength == 1) {
+                write = pageIoEngine.writePage(flushList.get(i).getPageId(), flushList.get(i).getPageBuffer());
+            } else {
+                ByteBuffer[] pageBuffers = new ByteBuffer[runLength];
+                for (k = i; k < j; k++) pageBuffers[k - i] = flushList.get(k).getPageBuffer();
+                write = pageIoEngine.writePages(flushList.get(i).getPageId(), pageBuffers);
+            }
+            // every page of the run takes its share of the gathering write, waiting in the queue included
+            writeList.add(write.thenRun(() -> {
+                long pageNanos = (System.nanoTime() - startTime) / runLength;
+                int l;
+                for (l = 0; l < runLength; l++) this.metrics.recordDirtyWrite(pageNanos);
+            }));
+//            System.out.println("pages " + flushList.get(i).getPageId() + " to " + flushList.get(j - 1).getPageId() + " are flushed");
+            i = j;
+        }
+        for (CompletableFuture<Void> write : writeList) write.join();
+    }
+
+    /**
+     * Pin a dirty page and mark it in I/O, under the lock of its partition, so that it is written outside of the lock,
+     * threads fetching it wait only on this page
+     * @param page
+     */
+    private void beginWrite(Page page) {
+        page.incrementPinCount();
+        page.beginIo();
+    }
+
+    /**
+     * Write pages taken by `beginWrite`, then mark them clean, end their I/O and unpin them
+     * @param writeList
+     */
+    private void writeInIo(List<Page> writeList) {
+        boolean whetherWritten = false;
+        try {
+            this.writeBatch(writeList);
+            whetherWritten = true;
+        } finally {
+            for (Page page : writeList) {
+                // page data is intact either way, a page not written stays dirty
+                LRUBufferPool lruBufferPool = this.partitionOf(page.getPageId());
+                synchronized (lruBufferPool) {
+                    Page currentPage = lruBufferPool.get(page.getPageId(), false);
+                    if (whetherWritten) currentPage.setDirty(false);
+                    page.endIo(true);
+                    currentPage.decrementPinCount();
+                }
+            }
+        }
+    }
+
+    /**
+     * Write pages others may hold and write meanwhile, pinned under the partition locks:
+     * every page is copied under its read latch, one page at a time, and marked clean along with the copy,
+     * so a change after the copy dirties it again, then the copies are written.
+     * A holder may have replaced the page object in the pool, see `replacePage`,
+     * so the dirty flag, lsn and pin are taken from the object in the pool
+     * @param flushList
+     */
+    private void writeSnapshots(List<Page> flushList) {
+        ArrayList<Page> snapshotList = new ArrayList<>();
+        boolean whetherWritten = false;
+        try {
+            for (Page page : flushList) {
+                // latching either view latches the frame
+                page.readLatch();
+                try {
+                    LRUBufferPool lruBufferPool = this.partitionOf(page.getPageId());
+                    Page currentPage;
+                    synchronized (lruBufferPool) {
+                        currentPage = lruBufferPool.get(page.getPageId(), false);
+                        if (!currentPage.getIsDirty()) continue;
+                        currentPage.setDirty(false);
+                    }
+                    ByteBuffer snapshotBuffer = ByteBuffer.allocate(page.getPageBuffer().capacity());
+                    System.arraycopy(page.getPageData(), 0, snapshotBuffer.array(), 0, snapshotBuffer.capacity());
+                    Page snapshot = new Page(snapshotBuffer);
+                    snapshot.setPageId(page.getPageId());
+                    snapshot.setLsn(currentPage.getLsn());
+                    snapshotList.add(snapshot);
+                } finally {
+                    page.readUnlatch();
+                }
+            }
+            this.writeBatch(snapshotList);
+            whetherWritten = true;
+        } finally {
+            for (Page snapshot : whetherWritten ? Collections.<Page>emptyList() : snapshotList) {
+                // not written, the page is dirty again
+                LRUBufferPool lruBufferPool = this.partitionOf(snapshot.getPageId());
+                synchronized (lruBufferPool) {
+                    lruBufferPool.get(snapshot.getPageId(), false).setDirty(true);
+                }
+            }
+            for (Page page : flushList) this.unpinCurrentPage(page.getPageId());
+        }
+    }
+
+    /**
+     * Give back a pin taken by a flush on the page object in the pool,
+     * which a holder of the page may have replaced meanwhile, see `replacePage`
+     * @param pageId
+     */
+    private void unpinCurrentPage(int pageId) {
+        LRUBufferPool lruBufferPool = this.partitionOf(pageId);
+        synchronized (lruBufferPool) {
+            lruBufferPool.get(pageId, false).decrementPinCount();
+        }
+    }
+
+    /**
+     * Partitions are always locked in index order, so this cannot deadlock with another full flush
+     * @param partitionIndex
+     * @param action
+     */
+    private void withAllPartitionsLocked(int partitionIndex, Runnable action) {
+        if (partitionIndex == this.lruBufferPools.length) {
+            action.run();
+            return;
+        }
+        synchronized (this.lruBufferPools[partitionIndex]) {
+            this.withAllPartitionsLocked(partitionIndex + 1, action);
+        }
+    }
+
+    /**
+     * One round of the page cleaner:
+     * in every partition whose clean evictable frames fall below the low watermark,
+     * dirty unpinned pages at the cold end are written until the high watermark is reached,
+     * so that evictions in the foreground seldom have to write.
+     * Pages being written are pinned and marked in I/O, threads fetching them wait only on those pages.
+     * @return number of pages written
+     */
+    public int cleanColdPages() {
+        // candidates of all partitions are written by one batch, so that writes of partitions overlap
+        ArrayList<Page> cleanList = new ArrayList<>();
+        for (LRUBufferPool lruBufferPool : this.lruBufferPools) {
+            synchronized (lruBufferPool) {
+                int lowWatermark = (int) Math.ceil(lruBufferPool.getBufferSize() * Config.CLEANER_LOW_WATERMARK);
+                int highWatermark = Math.max(lowWatermark,
+                        (int) Math.ceil(lruBufferPool.getBufferSize() * Config.CLEANER_HIGH_WATERMARK));
+                for (Page page : lruBufferPool.getCleanCandidates(lowWatermark, highWatermark)) {
+                    this.beginWrite(page);
+                    cleanList.add(page);
+                }
+            }
+        }
+        if (cleanList.isEmpty()) return 0;
+
+        this.writeInIo(cleanList);
+
+        return cleanList.size();
+    }
+
+    /**
+     * Persist resident page ids, hottest first, for `BufferPoolWarmer` to load after a restart.
+     * Partitions are taken in turn, so the list starts with the hottest pages of every partition
+     */
+    public void dumpHotPages() {
+        int[][] partitionHotPages = new int[this.lruBufferPools.length][];
+        int i, j, pageNum = 0;
+        for (i = 0; i < this.lruBufferPools.length; i++) {
+            synchronized (this.lruBufferPools[i]) {
+                partitionHotPages[i] = this.lruBufferPools[i].getHotPages();
+            }
+            pageNum += partitionHotPages[i].length;
+        }
+
+        int[] hotPages = new int[pageNum];
+        int k = 0;
+        for (j = 0; k < pageNum; j++) {
+            for (i = 0; i < partitionHotPages.length; i++) {
+                if (j < partitionHotPages[i].length) hotPages[k++] = partitionHotPages[i][j];
+            }
+        }
+        this.diskManager.writeHotPageList(hotPages);
+    }
+
+    /**
+     * Load pages for warm restart, runs of consecutive ids are read by one request each,
+     * and all runs are submitted before waiting, so that many of them are in flight.
+     * Resident pages are skipped and nothing is evicted,
+     * a page whose partition has no free frame is skipped as well.
+     * Loaded pages are left unpinned.
+     * @param pageIds page ids in ascending order
+     * @param maxRunLength pages read by one request at most
+     * @return number of pages loaded
+     */
+    public int loadPages(int[] pageIds, int maxRunLength) {
+        ArrayList<List<Page>> runList = new ArrayList<>();
+        ArrayList<CompletableFuture<Integer>> readList = new ArrayList<>();
+        ArrayList<Page> loadList = new ArrayList<>();
+        for (int pageId : pageIds) {
+            if (!loadList.isEmpty() && (pageId != loadList.get(loadList.size() - 1).getPageId() + 1
+                    || loadList.size() == maxRunLength)) {
+                this.submitRun(loadList, runList, readList);
+                loadList = new ArrayList<>();
+            }
+
+            LRUBufferPool lruBufferPool = this.partitionOf(pageId);
+            Page page = null;
+            synchronized (lruBufferPool) {
+                ByteBuffer frame;
+                if (lruBufferPool.get(pageId, false) == null && (frame = lruBufferPool.allocateFreeFrame()) != null) {
+                    page = new Page(frame);
+                    page.setPageId(pageId);
+                    page.setPinCount(1);
+                    page.setDirty(false);
+                    page.beginIo();
+                    lruBufferPool.put(pageId, page);
+                }
+            }
+
+            if (page != null) {
+                loadList.add(page);
+            } else {
+                // the run breaks here, read what is gathered so far
+                this.submitRun(loadList, runList, readList);
+                loadList = new ArrayList<>();
+            }
+        }
+        this.submitRun(loadList, runList, readList);
+
+        int loadedNum = 0;
+        int i;
+        for (i = 0; i < runList.size(); i++) loadedNum += this.endRun(runList.get(i), readList.get(i).join());
+
+        return loadedNum;
+    }
+
+    /**
+     * Submit the read of pages with consecutive ids, which are pinned and marked in I/O
+     * @param loadList
+     * @param runList
+     * @param readList
+     */
+    private void submitRun(List<Page> loadList, List<List<Page>> runList, List<CompletableFuture<Integer>> readList) {
+        if (loadList.isEmpty()) return;
+        ByteBuffer[] pageBuffers = new ByteBuffer[loadList.size()];
+        int i;
+        for (i = 0; i < loadList.size(); i++) pageBuffers[i] = loadList.get(i).getPageBuffer();
+        readList.add(this.diskManager.getPageIoEngine().readPages(loadList.get(0).getPageId(), pageBuffers));
+        runList.add(loadList);
+    }
+
+    /**
+     * Unpin pages of a run once it is read, pages not read are dropped
+     * @param loadList
+     * @param readNum
+     * @return number of pages read
+     */
+    private int endRun(List<Page> loadList, int readNum) {
+        int i;
+        for (i = 0; i < loadList.size(); i++) {
+            Page page = loadList.get(i);
+            // wake waiters before taking the partition lock, as `fetchPage` does
+            page.endIo(i < readNum);
+            LRUBufferPool lruBufferPool = this.partitionOf(page.getPageId());
+            synchronized (lruBufferPool) {
+                if (i < readNum) page.decrementPinCount();
+                else if (lruBufferPool.get(page.getPageId(), false) == page) lruBufferPool.delete(page.getPageId());
+            }
+        }
+
+        return readNum;
+    }
+
+    /**
+     * Start the page cleaner of the buffer pool, if it is not running yet, it runs until `close`
+     * @return
+     */
+    public synchronized PageCleaner startPageCleaner() {
+        if (this.pageCleaner == null) {
+            this.pageCleaner = new PageCleaner(this);
+            this.pageCleaner.startCleanerService();
+        }
+        return this.pageCleaner;
+    }
+
+    /**
+     * Clean shutdown: stop the page cleaner, remember hot pages, then flush and clean the buffer pool
+     */
+    public void close() {
+        synchronized (this) {
+            if (this.pageCleaner != null) this.pageCleaner.closeCleanerService();
+            this.pageCleaner = null;
+        }
+        this.dumpHotPages();
+        this.flushAllPages();
+        this.metrics.unregister();
     }
 
     /**
@@ -207,8 +809,9 @@ public class BufferManager implements Serializable {
      * @return
      */
     public boolean deletePage(int pageId) {
-        synchronized (this) {
-            Page requestPage = this.lruBufferPool.get(pageId, false);
+        LRUBufferPool lruBufferPool = this.partitionOf(pageId);
+        synchronized (lruBufferPool) {
+            Page requestPage = lruBufferPool.get(pageId, false);
             if (requestPage == null) return false;
             if (requestPage.getPinCount() != 0) return false;
 
@@ -216,74 +819,109 @@ public class BufferManager implements Serializable {
             requestPage.setPinCount(0);
             requestPage.resetData();
 
-            this.freeList.addLast(requestPage);
-            this.lruBufferPool.delete(pageId);
-            this.diskManager.deAllocatePage(pageId);
-
-            return true;
+            lruBufferPool.delete(pageId);
         }
+        // the free page map is synced to disk, do not hold the partition meanwhile
+        this.diskManager.deAllocatePage(pageId);
+
+        return true;
     }
 
     public void replacePage(Page page) {
-        synchronized (this) {
-            this.lruBufferPool.replace(page);
+        LRUBufferPool lruBufferPool = this.partitionOf(page.getPageId());
+        synchronized (lruBufferPool) {
+            lruBufferPool.replace(page);
         }
     }
 
-    private Page findUnusedPage() {
-        synchronized (this) {
-            if (!this.freeList.isEmpty()) {
-                return this.freeList.getFirst();
-            }
-            return null;
-        }
+    /**
+     * Tablespace of a page, see `DiskManager.tablespaceIdOf`
+     * @param pageId
+     * @return
+     */
+    public int tablespaceIdOf(int pageId) {
+        return this.diskManager.tablespaceIdOf(pageId);
+    }
+
+    /**
+     * Page size of the database, which is also the frame size
+     * @return
+     */
+    public int getPageSize() {
+        return this.diskManager.getPageSize();
+    }
+
+    public BufferPoolMetrics getMetrics() {
+        return this.metrics;
     }
 
     // belows are test helper functions
 
     public int getSize() {
-        return this.lruBufferPool.getAll().size();
+        int size = 0;
+        for (LRUBufferPool lruBufferPool : this.lruBufferPools) {
+            synchronized (lruBufferPool) {
+                size += lruBufferPool.getAll().size();
+            }
+        }
+        return size;
     }
 
     /**
-     * Simulate a system crash that the buffer pool is cleaned
+     * Simulate a system crash that the buffer pool is cleaned,
+     * pinned pages are left, their frames are still in use
      */
     public void bufferCrash() {
-        synchronized (this) {
-            ArrayList<Integer> flushList = new ArrayList<>(this.lruBufferPool.getAll());
-
-            int i;
-            for (i = 0; i < flushList.size(); i++) {
-                this.lruBufferPool.delete(flushList.get(i));
+        for (LRUBufferPool lruBufferPool : this.lruBufferPools) {
+            synchronized (lruBufferPool) {
+                ArrayList<Integer> flushList = new ArrayList<>(lruBufferPool.getAll());
+
+                int i;
+                for (i = 0; i < flushList.size(); i++) {
+                    Page page = lruBufferPool.get(flushList.get(i), false);
+                    page.waitForIo();
+                    if (page.getPinCount() != 0) continue;
+                    lruBufferPool.delete(flushList.get(i));
+                }
             }
         }
     }
 
     /**
-     * Flush all existing dirty pages to disk, and clean the buffer pool
+     * Flush all existing dirty pages to disk, and clean the buffer pool,
+     * pinned pages are written but left in the buffer pool
      */
     public void flushAllPages() {
-        synchronized (this) {
-            ArrayList<Integer> flushList = new ArrayList<>();
-            for (int pageId: this.lruBufferPool.getAll()) {
-//                System.out.println(pageId+ ": " + this.lruBufferPool.get(pageId, false).getPinCount());
-                Page page = this.lruBufferPool.get(pageId, false);
-                flushList.add(pageId);
-                if (page.getIsDirty()) {
-                    if (Config.ENABLE_LOGGING && logManager.getFlushedLsn() < page.getLsn()) {
-//                        System.out.println("buffer manager wait for log flush");
-                        logManager.flushLogBuffer(true, false);
+        // dirty pages are taken under the locks, the log is forced and pages are written outside of them
+        ArrayList<Page> flushList = new ArrayList<>();
+        this.withAllPartitionsLocked(0, () -> {
+            for (LRUBufferPool lruBufferPool : this.lruBufferPools) {
+                for (int pageId : lruBufferPool.getAll()) {
+//                    System.out.println(pageId+ ": " + lruBufferPool.get(pageId, false).getPinCount());
+                    Page page = lruBufferPool.get(pageId, false);
+                    // the page cleaner may still be writing from this frame
+                    page.waitForIo();
+                    if (page.getIsDirty()) {
+                        page.incrementPinCount();
+                        flushList.add(page);
                     }
-                    assert logManager.getFlushedLsn() >= page.getLsn();
-                    this.diskManager.writePage(pageId, page.getPageData());
-//                    System.out.println("page " + pageId + " is flushed");
                 }
             }
-
-            int i;
-            for (i = 0; i < flushList.size(); i++) {
-//                System.out.println("page " + flushList.get(i) + " is deleted");
-                this.lruBufferPool.delete(flushList.get(i));
+        });
+        this.writeSnapshots(flushList);
+
+        for (LRUBufferPool lruBufferPool : this.lruBufferPools) {
+            synchronized (lruBufferPool) {
+                ArrayList<Integer> deleteList = new ArrayList<>(lruBufferPool.getAll());
+                int i;
+                for (i = 0; i < deleteList.size(); i++) {
+                    Page page = lruBufferPool.get(deleteList.get(i), false);
+                    page.waitForIo();
+                    // in use, or dirtied again while the others were written
+                    if (page.getPinCount() != 0 || page.getIsDirty()) continue;
+//                    System.out.println("page " + deleteList.get(i) + " is deleted");
+                    lruBufferPool.delete(deleteList.get(i));
+                }
             }
         }
     }
@@ -0,0 +1,56 @@
+package txDB.buffer;
+
+/**
+ * Buffer pool statistics exposed over JMX, latencies are in nanoseconds
+ */
+public interface BufferPoolMXBean {
+    long getFetchCount();
+
+    long getHitCount();
+
+    long getMissCount();
+
+    double getHitRatio();
+
+    long getEvictionCount();
+
+    long getDirtyEvictionCount();
+
+    long getDirtyWriteCount();
+
+    long getWalForcedFlushCount();
+
+    long getPinWaitCount();
+
+    long getBufferExceededCount();
+
+    long getNewPageCount();
+
+    double getFetchLatencyMean();
+
+    long getFetchLatencyP99();
+
+    double getHitLatencyMean();
+
+    long getHitLatencyP99();
+
+    double getMissLatencyMean();
+
+    long getMissLatencyP99();
+
+    double getEvictLatencyMean();
+
+    long getEvictLatencyP99();
+
+    double getDirtyWriteLatencyMean();
+
+    long getDirtyWriteLatencyP99();
+
+    double getWalForcedFlushLatencyMean();
+
+    long getWalForcedFlushLatencyP99();
+
+    double getNewPageLatencyMean();
+
+    long getNewPageLatencyP99();
+}
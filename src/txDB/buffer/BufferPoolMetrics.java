@@ -0,0 +1,362 @@
+package txDB.buffer;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters and latency histograms of one buffer manager,
+ * recording only touches striped counters, so it is cheap on the hot path.
+ * Counts of fetches, hits, misses, evictions, dirty writes, WAL-forced flushes and new pages
+ * are the counts of their histograms.
+ */
+public class BufferPoolMetrics implements BufferPoolMXBean {
+    private LatencyHistogram fetchLatency;
+    private LatencyHistogram hitLatency;
+    private LatencyHistogram missLatency;
+    private LatencyHistogram evictLatency;
+    private LatencyHistogram dirtyWriteLatency;
+    private LatencyHistogram walForcedFlushLatency;
+    private LatencyHistogram newPageLatency;
+    private LongAdder dirtyEvictionCount;
+    private LongAdder pinWaitCount;
+    private LongAdder bufferExceededCount;
+    private ObjectName objectName;
+    // metrics registered under every name, so that only the owner of a name unregisters it
+    private static final HashMap<ObjectName, BufferPoolMetrics> registeredMetrics = new HashMap<>();
+
+    public BufferPoolMetrics() {
+        this.fetchLatency = new LatencyHistogram();
+        this.hitLatency = new LatencyHistogram();
+        this.missLatency = new LatencyHistogram();
+        this.evictLatency = new LatencyHistogram();
+        this.dirtyWriteLatency = new LatencyHistogram();
+        this.walForcedFlushLatency = new LatencyHistogram();
+        this.newPageLatency = new LatencyHistogram();
+        this.dirtyEvictionCount = new LongAdder();
+        this.pinWaitCount = new LongAdder();
+        this.bufferExceededCount = new LongAdder();
+    }
+
+    public void recordHit(long nanos) {
+        this.fetchLatency.record(nanos);
+        this.hitLatency.record(nanos);
+    }
+
+    public void recordMiss(long nanos) {
+        this.fetchLatency.record(nanos);
+        this.missLatency.record(nanos);
+    }
+
+    public void recordEviction(long nanos, boolean whetherDirty) {
+        this.evictLatency.record(nanos);
+        if (whetherDirty) this.dirtyEvictionCount.increment();
+    }
+
+    public void recordDirtyWrite(long nanos) {
+        this.dirtyWriteLatency.record(nanos);
+    }
+
+    public void recordWalForcedFlush(long nanos) {
+        this.walForcedFlushLatency.record(nanos);
+    }
+
+    public void recordNewPage(long nanos) {
+        this.newPageLatency.record(nanos);
+    }
+
+    public void recordPinWait() {
+        this.pinWaitCount.increment();
+    }
+
+    public void recordBufferExceeded() {
+        this.bufferExceededCount.increment();
+    }
+
+    /**
+     * Register as "txDB:type=BufferPool,name=<name>" to the platform MBean server,
+     * taking the name over from metrics registered before
+     * @param name
+     */
+    public void register(String name) {
+        synchronized (registeredMetrics) {
+            this.unregister();
+            try {
+                MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+                ObjectName objectName = new ObjectName("txDB:type=BufferPool,name=" + ObjectName.quote(name));
+                if (mBeanServer.isRegistered(objectName)) mBeanServer.unregisterMBean(objectName);
+                mBeanServer.registerMBean(this, objectName);
+                BufferPoolMetrics previousMetrics = registeredMetrics.put(objectName, this);
+                if (previousMetrics != null) previousMetrics.objectName = null;
+                this.objectName = objectName;
+            } catch (JMException e) {
+                throw new RuntimeException("Unable to register buffer pool MXBean.", e);
+            }
+        }
+    }
+
+    /**
+     * Unregister, unless the name has been taken over by other metrics
+     */
+    public void unregister() {
+        synchronized (registeredMetrics) {
+            if (this.objectName == null) return;
+            registeredMetrics.remove(this.objectName);
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(this.objectName);
+            } catch (JMException e) {
+                e.printStackTrace();
+            }
+            this.objectName = null;
+        }
+    }
+
+    public Snapshot snapshot() {
+        return new Snapshot(this);
+    }
+
+    /**
+     * Metrics at one moment, for tests and benchmarks to assert on
+     */
+    public static class Snapshot {
+        private final LatencyHistogram.Snapshot fetchLatency;
+        private final LatencyHistogram.Snapshot hitLatency;
+        private final LatencyHistogram.Snapshot missLatency;
+        private final LatencyHistogram.Snapshot evictLatency;
+        private final LatencyHistogram.Snapshot dirtyWriteLatency;
+        private final LatencyHistogram.Snapshot walForcedFlushLatency;
+        private final LatencyHistogram.Snapshot newPageLatency;
+        private final long dirtyEvictionCount;
+        private final long pinWaitCount;
+        private final long bufferExceededCount;
+
+        private Snapshot(BufferPoolMetrics metrics) {
+            this.fetchLatency = metrics.fetchLatency.snapshot();
+            this.hitLatency = metrics.hitLatency.snapshot();
+            this.missLatency = metrics.missLatency.snapshot();
+            this.evictLatency = metrics.evictLatency.snapshot();
+            this.dirtyWriteLatency = metrics.dirtyWriteLatency.snapshot();
+            this.walForcedFlushLatency = metrics.walForcedFlushLatency.snapshot();
+            this.newPageLatency = metrics.newPageLatency.snapshot();
+            this.dirtyEvictionCount = metrics.dirtyEvictionCount.sum();
+            this.pinWaitCount = metrics.pinWaitCount.sum();
+            this.bufferExceededCount = metrics.bufferExceededCount.sum();
+        }
+
+        public long getFetchCount() {
+            return this.fetchLatency.getCount();
+        }
+
+        public long getHitCount() {
+            return this.hitLatency.getCount();
+        }
+
+        public long getMissCount() {
+            return this.missLatency.getCount();
+        }
+
+        public double getHitRatio() {
+            long fetchCount = this.getHitCount() + this.getMissCount();
+            return fetchCount == 0 ? 0 : (double) this.getHitCount() / fetchCount;
+        }
+
+        public long getEvictionCount() {
+            return this.evictLatency.getCount();
+        }
+
+        public long getDirtyEvictionCount() {
+            return this.dirtyEvictionCount;
+        }
+
+        public long getDirtyWriteCount() {
+            return this.dirtyWriteLatency.getCount();
+        }
+
+        public long getWalForcedFlushCount() {
+            return this.walForcedFlushLatency.getCount();
+        }
+
+        public long getPinWaitCount() {
+            return this.pinWaitCount;
+        }
+
+        public long getBufferExceededCount() {
+            return this.bufferExceededCount;
+        }
+
+        public long getNewPageCount() {
+            return this.newPageLatency.getCount();
+        }
+
+        public LatencyHistogram.Snapshot getFetchLatency() {
+            return this.fetchLatency;
+        }
+
+        public LatencyHistogram.Snapshot getHitLatency() {
+            return this.hitLatency;
+        }
+
+        public LatencyHistogram.Snapshot getMissLatency() {
+            return this.missLatency;
+        }
+
+        public LatencyHistogram.Snapshot getEvictLatency() {
+            return this.evictLatency;
+        }
+
+        public LatencyHistogram.Snapshot getDirtyWriteLatency() {
+            return this.dirtyWriteLatency;
+        }
+
+        public LatencyHistogram.Snapshot getWalForcedFlushLatency() {
+            return this.walForcedFlushLatency;
+        }
+
+        public LatencyHistogram.Snapshot getNewPageLatency() {
+            return this.newPageLatency;
+        }
+
+        @Override
+        public String toString() {
+            return "hit ratio: " + this.getHitRatio()
+                    + "\nfetch: " + this.fetchLatency
+                    + "\nhit: " + this.hitLatency
+                    + "\nmiss: " + this.missLatency
+                    + "\nevict: " + this.evictLatency + ", dirty: " + this.dirtyEvictionCount
+                    + "\ndirty write: " + this.dirtyWriteLatency
+                    + "\nWAL forced flush: " + this.walForcedFlushLatency
+                    + "\nnew page: " + this.newPageLatency
+                    + "\npin wait: " + this.pinWaitCount + ", buffer exceeded: " + this.bufferExceededCount;
+        }
+    }
+
+    // belows are MXBean attributes
+
+    @Override
+    public long getFetchCount() {
+        return this.fetchLatency.snapshot().getCount();
+    }
+
+    @Override
+    public long getHitCount() {
+        return this.hitLatency.snapshot().getCount();
+    }
+
+    @Override
+    public long getMissCount() {
+        return this.missLatency.snapshot().getCount();
+    }
+
+    @Override
+    public double getHitRatio() {
+        return this.snapshot().getHitRatio();
+    }
+
+    @Override
+    public long getEvictionCount() {
+        return this.evictLatency.snapshot().getCount();
+    }
+
+    @Override
+    public long getDirtyEvictionCount() {
+        return this.dirtyEvictionCount.sum();
+    }
+
+    @Override
+    public long getDirtyWriteCount() {
+        return this.dirtyWriteLatency.snapshot().getCount();
+    }
+
+    @Override
+    public long getWalForcedFlushCount() {
+        return this.walForcedFlushLatency.snapshot().getCount();
+    }
+
+    @Override
+    public long getPinWaitCount() {
+        return this.pinWaitCount.sum();
+    }
+
+    @Override
+    public long getBufferExceededCount() {
+        return this.bufferExceededCount.sum();
+    }
+
+    @Override
+    public long getNewPageCount() {
+        return this.newPageLatency.snapshot().getCount();
+    }
+
+    @Override
+    public double getFetchLatencyMean() {
+        return this.fetchLatency.snapshot().getMeanNanos();
+    }
+
+    @Override
+    public long getFetchLatencyP99() {
+        return this.fetchLatency.snapshot().getPercentileNanos(99);
+    }
+
+    @Override
+    public double getHitLatencyMean() {
+        return this.hitLatency.snapshot().getMeanNanos();
+    }
+
+    @Override
+    public long getHitLatencyP99() {
+        return this.hitLatency.snapshot().getPercentileNanos(99);
+    }
+
+    @Override
+    public double getMissLatencyMean() {
+        return this.missLatency.snapshot().getMeanNanos();
+    }
+
+    @Override
+    public long getMissLatencyP99() {
+        return this.missLatency.snapshot().getPercentileNanos(99);
+    }
+
+    @Override
+    public double getEvictLatencyMean() {
+        return this.evictLatency.snapshot().getMeanNanos();
+    }
+
+    @Override
+    public long getEvictLatencyP99() {
+        return this.evictLatency.snapshot().getPercentileNanos(99);
+    }
+
+    @Override
+    public double getDirtyWriteLatencyMean() {
+        return this.dirtyWriteLatency.snapshot().getMeanNanos();
+    }
+
+    @Override
+    public long getDirtyWriteLatencyP99() {
+        return this.dirtyWriteLatency.snapshot().getPercentileNanos(99);
+    }
+
+    @Override
+    public double getWalForcedFlushLatencyMean() {
+        return this.walForcedFlushLatency.snapshot().getMeanNanos();
+    }
+
+    @Override
+    public long getWalForcedFlushLatencyP99() {
+        return this.walForcedFlushLatency.snapshot().getPercentileNanos(99);
+    }
+
+    @Override
+    public double getNewPageLatencyMean() {
+        return this.newPageLatency.snapshot().getMeanNanos();
+    }
+
+    @Override
+    public long getNewPageLatencyP99() {
+        return this.newPageLatency.snapshot().getPercentileNanos(99);
+    }
+}
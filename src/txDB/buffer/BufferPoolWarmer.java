@@ -0,0 +1,113 @@
+package txDB.buffer;
+
+import txDB.Config;
+import txDB.storage.disk.DiskManager;
+
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Warm restart: load pages which were hot before shutdown or the last checkpoint,
+ * see `BufferManager.dumpHotPages`, so that the buffer pool does not refill one miss at a time.
+ * The hottest pages are chosen up to the free frames of the buffer pool, so nothing is evicted,
+ * then they are loaded in page id order, by large reads of consecutive pages.
+ * Every warmer thread takes a batch of pages and keeps all its reads in flight at once,
+ * so the I/O engine sees about its whole queue depth.
+ * It should be started and awaited before accepting transactions, and can be cancelled any time.
+ */
+public class BufferPoolWarmer {
+    private BufferManager bufferManager;
+    private DiskManager diskManager;
+    private ExecutorService warmerService;
+    private volatile boolean whetherCancelled;
+    private AtomicInteger loadedPageNum;
+    private int totalPageNum;
+
+    public BufferPoolWarmer(BufferManager bufferManager, DiskManager diskManager) {
+        this.bufferManager = bufferManager;
+        this.diskManager = diskManager;
+        this.warmerService = Executors.newFixedThreadPool(Config.WARM_RESTART_THREADS);
+        this.whetherCancelled = false;
+        this.loadedPageNum = new AtomicInteger(0);
+        this.totalPageNum = 0;
+    }
+
+    private class warmerThread implements Runnable {
+        private int[] pageIds;
+
+        private warmerThread(int[] pageIds) {
+            this.pageIds = pageIds;
+        }
+
+        @Override
+        public void run() {
+            if (whetherCancelled) return;
+            loadedPageNum.addAndGet(bufferManager.loadPages(pageIds, Config.WARM_RESTART_IO_PAGES));
+        }
+    }
+
+    public void startWarmerService() {
+        if (this.whetherCancelled) return;
+        // the list may repeat a page when it is dumped while pages move between partitions
+        LinkedHashSet<Integer> hotPages = new LinkedHashSet<>();
+        for (int pageId : this.diskManager.readHotPageList()) {
+            if (pageId != Config.INVALID_PAGE_ID) hotPages.add(pageId);
+        }
+
+        // stay within the frames still free
+        int[] pageIds = new int[Math.min(hotPages.size(),
+                Math.max(0, this.bufferManager.getBufferSize() - this.bufferManager.getSize()))];
+        int i = 0;
+        for (int pageId : hotPages) {
+            if (i == pageIds.length) break;
+            pageIds[i++] = pageId;
+        }
+        Arrays.sort(pageIds);
+        this.totalPageNum = pageIds.length;
+        System.out.println("warm restart: loading " + this.totalPageNum + " hot pages");
+
+        // enough runs for every thread to fill its share of the I/O queue, fewer cancel sooner
+        int batchSize = Config.WARM_RESTART_IO_PAGES * Math.max(1, Config.IO_QUEUE_DEPTH / Config.WARM_RESTART_THREADS);
+        for (i = 0; i < pageIds.length; i += batchSize) {
+            this.warmerService.submit(new warmerThread(Arrays.copyOfRange(pageIds, i, Math.min(pageIds.length, i + batchSize))));
+        }
+        this.warmerService.shutdown();
+    }
+
+    /**
+     * Wait until warm restart finishes or is cancelled, reporting progress meanwhile
+     * @return whether every run of pages was loaded
+     */
+    public boolean awaitWarmerService() {
+        try {
+            while (!this.warmerService.awaitTermination(Config.LOGGING_TIMEOUT, TimeUnit.MILLISECONDS)) {
+                System.out.println("warm restart: " + this.getLoadedPageNum() + " / " + this.totalPageNum + " pages loaded");
+            }
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+        System.out.println("warm restart: " + this.getLoadedPageNum() + " / " + this.totalPageNum + " pages loaded, "
+                + (this.whetherCancelled ? "cancelled" : "finished"));
+        return !this.whetherCancelled;
+    }
+
+    /**
+     * Batches not started yet are skipped, a batch being read is finished, since interrupting would close the file channel
+     */
+    public void cancelWarmerService() {
+        this.whetherCancelled = true;
+        this.warmerService.shutdown();
+    }
+
+    public int getLoadedPageNum() {
+        return this.loadedPageNum.get();
+    }
+
+    public int getTotalPageNum() {
+        return this.totalPageNum;
+    }
+}
@@ -0,0 +1,73 @@
+package txDB.buffer;
+
+import txDB.Config;
+
+import java.util.Arrays;
+
+/**
+ * Access strategy for bulk operations, e.g., large sequential scans:
+ * pages the operation brings in are remembered in a small ring,
+ * and before the ring takes another page, the page in the oldest slot is evicted if nobody uses it,
+ * so the operation keeps recycling a few frames instead of flushing the working set of others.
+ * Pages brought in through a ring are not promoted in the replacer on access.
+ * With a partitioned buffer pool the ring is split the same way,
+ * so the page leaving the ring frees a frame in the partition the next page comes into.
+ */
+public class BufferRing {
+    // one ring per buffer pool partition, chosen by page id as `BufferManager` does
+    private int[][] pageIds;
+    private int[] positions;
+    private int ringSize;
+
+    public BufferRing(int ringSize) {
+        this(ringSize, 1);
+    }
+
+    /**
+     *
+     * @param ringSize frames of the whole ring
+     * @param partitionNum partitions of the buffer pool, see `BufferManager.newBufferRing`
+     */
+    public BufferRing(int ringSize, int partitionNum) {
+        if (ringSize < 1) throw new RuntimeException("Size of buffer ring must be positive.");
+        if (partitionNum < 1) throw new RuntimeException("Number of buffer partitions must be positive.");
+        this.pageIds = new int[partitionNum][];
+        this.positions = new int[partitionNum];
+        this.ringSize = 0;
+        int i;
+        for (i = 0; i < partitionNum; i++) {
+            // every partition takes a share of the ring, at least a frame
+            this.pageIds[i] = new int[Math.max(1, ringSize / partitionNum + (i < ringSize % partitionNum ? 1 : 0))];
+            Arrays.fill(this.pageIds[i], Config.INVALID_PAGE_ID);
+            this.ringSize += this.pageIds[i].length;
+        }
+    }
+
+    /**
+     * Ring size for a buffer pool, a small fraction of it, yet at least 2 frames
+     * @param bufferSize
+     * @return
+     */
+    public static int ringSize(int bufferSize) {
+        return Math.max(2, Math.min(Config.BUFFER_RING_SIZE, bufferSize / 4));
+    }
+
+    /**
+     * Put a page into the oldest slot of its partition
+     * @param pageId
+     * @return the page leaving the ring, which should be recycled, it is in the same partition
+     */
+    public synchronized int advance(int pageId) {
+        int partitionIndex = Math.floorMod(pageId, this.pageIds.length);
+        int[] partitionPageIds = this.pageIds[partitionIndex];
+        int position = this.positions[partitionIndex];
+        int oldPageId = partitionPageIds[position];
+        partitionPageIds[position] = pageId;
+        this.positions[partitionIndex] = (position + 1) % partitionPageIds.length;
+        return oldPageId;
+    }
+
+    public int size() {
+        return this.ringSize;
+    }
+}
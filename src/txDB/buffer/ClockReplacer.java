@@ -0,0 +1,115 @@
+package txDB.buffer;
+
+import txDB.Config;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.function.IntPredicate;
+
+/**
+ * CLOCK (second chance) replacement:
+ * every resident page owns a slot with a reference bit,
+ * a hit only sets the bit, and the hand sweeps the slots clearing bits
+ * until it meets an unpinned page whose bit is already cleared.
+ * Eviction is therefore amortized O(1) instead of walking a whole list.
+ */
+public class ClockReplacer implements Replacer {
+    private int[] slots;
+    private boolean[] refBits;
+    private HashMap<Integer, Integer> slotMap;
+    private ArrayDeque<Integer> freeSlots;
+    private int usedSlots;
+    private int hand;
+
+    public ClockReplacer(int bufferSize) {
+        int capacity = Math.max(bufferSize, 1);
+        this.slots = new int[capacity];
+        this.refBits = new boolean[capacity];
+        Arrays.fill(this.slots, Config.INVALID_PAGE_ID);
+        this.slotMap = new HashMap<>(capacity);
+        this.freeSlots = new ArrayDeque<>();
+        this.usedSlots = 0;
+        this.hand = 0;
+    }
+
+    @Override
+    public void insert(int pageId) {
+        Integer slot = this.slotMap.get(pageId);
+        if (slot == null) {
+            if (!this.freeSlots.isEmpty()) {
+                slot = this.freeSlots.poll();
+            } else {
+                if (this.usedSlots == this.slots.length) this.grow();
+                slot = this.usedSlots++;
+            }
+            this.slots[slot] = pageId;
+            this.slotMap.put(pageId, slot);
+        }
+        this.refBits[slot] = true;
+    }
+
+    @Override
+    public void access(int pageId) {
+        Integer slot = this.slotMap.get(pageId);
+        if (slot != null) this.refBits[slot] = true;
+    }
+
+    @Override
+    public void remove(int pageId) {
+        Integer slot = this.slotMap.remove(pageId);
+        if (slot == null) return;
+        this.slots[slot] = Config.INVALID_PAGE_ID;
+        this.refBits[slot] = false;
+        this.freeSlots.add(slot);
+    }
+
+    @Override
+    public int victim(IntPredicate isEvictable) {
+        if (this.slotMap.isEmpty()) return Config.INVALID_PAGE_ID;
+
+        // at most two rounds: the first one may only clear reference bits
+        int i, pageId;
+        for (i = 0; i < 2 * this.usedSlots; i++) {
+            if (this.hand >= this.usedSlots) this.hand = 0;
+            pageId = this.slots[this.hand];
+            if (pageId != Config.INVALID_PAGE_ID && isEvictable.test(pageId)) {
+                if (!this.refBits[this.hand]) {
+                    this.hand++;
+                    return pageId;
+                }
+                this.refBits[this.hand] = false;
+            }
+            this.hand++;
+        }
+        return Config.INVALID_PAGE_ID;
+    }
+
+    @Override
+    public int[] coldPages(int num) {
+        int[] res = new int[Math.min(num, this.slotMap.size())];
+        // pages without reference bit come first, as the hand takes them in its first round
+        int i = 0, round, j, slot;
+        for (round = 0; round < 2; round++) {
+            for (j = 0; j < this.usedSlots && i < res.length; j++) {
+                slot = (this.hand + j) % this.usedSlots;
+                if (this.slots[slot] != Config.INVALID_PAGE_ID && this.refBits[slot] == (round == 1)) {
+                    res[i++] = this.slots[slot];
+                }
+            }
+        }
+        return res;
+    }
+
+    @Override
+    public int size() {
+        return this.slotMap.size();
+    }
+
+    private void grow() {
+        int capacity = this.slots.length * 2;
+        this.slots = Arrays.copyOf(this.slots, capacity);
+        this.refBits = Arrays.copyOf(this.refBits, capacity);
+        Arrays.fill(this.slots, this.usedSlots, capacity, Config.INVALID_PAGE_ID);
+    }
+}
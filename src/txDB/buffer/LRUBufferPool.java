@@ -6,200 +6,293 @@ import txDB.storage.disk.DiskManager;
 import txDB.storage.page.Page;
 //import txDB.storage.page.TablePage;
 
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Set;
 //import java.util.concurrent.ConcurrentHashMap;
 
+/**
+ * One partition of the buffer pool with its own page table and replacer,
+ * callers must synchronize on the partition itself.
+ * Page memory lives in frames owned by the partition: at most bufferSize frames are ever created,
+ * then frames of evicted pages are recycled, so page I/O does not allocate.
+ * When the partition shrinks, frames beyond bufferSize are dropped as soon as their pages leave.
+ */
 public class LRUBufferPool {
-    private HashMap<Integer, DLinkedNode> bufferPool;
-    private DLinkedNode head, tail;
+    private HashMap<Integer, Page> bufferPool;
+    private Replacer replacer;
     private int bufferSize;
     private int currentSize;
+    // frames currently owned, may exceed bufferSize for a while after shrinking
+    private int frameNum;
+    private ArrayDeque<ByteBuffer> freeFrames;
     private DiskManager diskManager;
     private LogManager logManager;
+    private BufferPoolMetrics metrics;
 
     public LRUBufferPool(int bufferSize, DiskManager diskManager, LogManager logManager) {
-        this.diskManager = diskManager;
-        this.logManager = logManager;
-        this.bufferPool = new HashMap<>(Config.BUFFER_SIZE);
-        this.bufferSize = Config.BUFFER_SIZE;
-        this.currentSize = 0;
-
-        this.head = new DLinkedNode();
-        // head.prev = null;
-
-        this.tail = new DLinkedNode();
-        // tail.next = null;
-
-        this.head.next = this.tail;
-        this.tail.prev = this.head;
+        this(bufferSize, diskManager, logManager, Replacer.ReplacerType.CLOCK);
     }
 
     public LRUBufferPool(int bufferSize, float loadFactor, DiskManager diskManager, LogManager logManager) {
+        this(bufferSize, loadFactor, diskManager, logManager, Replacer.ReplacerType.CLOCK);
+    }
+
+    public LRUBufferPool(int bufferSize, DiskManager diskManager, LogManager logManager, Replacer.ReplacerType replacerType) {
         this.diskManager = diskManager;
         this.logManager = logManager;
-        this.bufferPool = new HashMap<>(Config.BUFFER_SIZE, loadFactor);
-        this.bufferSize = Config.BUFFER_SIZE;
+        this.bufferPool = new HashMap<>(bufferSize);
+        this.bufferSize = bufferSize;
         this.currentSize = 0;
-
-        this.head = new DLinkedNode();
-        // head.prev = null;
-
-        this.tail = new DLinkedNode();
-        // tail.next = null;
-
-        this.head.next = this.tail;
-        this.tail.prev = this.head;
-    }
-
-    private class DLinkedNode {
-        int key;
-        Page value;
-        DLinkedNode prev;
-        DLinkedNode next;
-    }
-
-    private void addNode(DLinkedNode node) {
-        /**
-         * Always add the new node right after head.
-         */
-        node.prev = head;
-        node.next = head.next;
-
-        head.next.prev = node;
-        head.next = node;
+        this.frameNum = 0;
+        this.freeFrames = new ArrayDeque<>();
+        this.replacer = newReplacer(replacerType, this.bufferSize);
     }
 
-    private void removeNode(DLinkedNode node) {
-        /**
-         * Remove an existing node from the linked list.
-         */
-        DLinkedNode prev = node.prev;
-        DLinkedNode next = node.next;
-
-        prev.next = next;
-        next.prev = prev;
-    }
-
-    private void moveToHead(DLinkedNode node) {
-        /**
-         * Move certain node in between to the head.
-         */
-        this.removeNode(node);
-        this.addNode(node);
+    public LRUBufferPool(int bufferSize, float loadFactor, DiskManager diskManager, LogManager logManager, Replacer.ReplacerType replacerType) {
+        this.diskManager = diskManager;
+        this.logManager = logManager;
+        this.bufferPool = new HashMap<>(bufferSize, loadFactor);
+        this.bufferSize = bufferSize;
+        this.currentSize = 0;
+        this.frameNum = 0;
+        this.freeFrames = new ArrayDeque<>();
+        this.replacer = newReplacer(replacerType, this.bufferSize);
     }
 
-//    private DLinkedNode popTail() {
-//        /**
-//         * Pop the current tail.
-//         */
-//        DLinkedNode res = this.tail.prev;
-//        this.removeNode(res);
-//        return res;
-//    }
-
-    // TODO: linear searching to find a victim page may be a bottleneck in the future !!!
-    private DLinkedNode victim() {
-        DLinkedNode cur = this.tail.prev;
-        DLinkedNode res = null;
-        while (cur != this.head) {
-            if (cur.value.getPinCount() == 0) {
-                res = cur;
+    private static Replacer newReplacer(Replacer.ReplacerType replacerType, int bufferSize) {
+        switch (replacerType) {
+            case LRU:
+                return new LRUReplacer(bufferSize);
+            case CLOCK:
+                return new ClockReplacer(bufferSize);
+            case LRU_K:
+                return new LRUKReplacer(bufferSize, Config.LRU_K);
+            default:
                 break;
-            }
-            cur = cur.prev;
         }
-        return res;
+        throw new RuntimeException("Unsupported replacer type.");
     }
 
-//    public Page victim() {
-//        DLinkedNode evictNode = this.victimHelper();
-//        if (this.currentSize >= this.bufferSize && evictNode == null)
-//            return null;
-//        else return evictNode.value;
-//    }
+    private int victim() {
+        return this.replacer.victim(pageId -> this.bufferPool.get(pageId).getPinCount() == 0);
+    }
 
 //    public boolean allPinned() {
 //        if (this.currentSize < this.bufferSize)
 //            return false;
 //
-//        return this.victim() == null;
+//        return this.victim() == Config.INVALID_PAGE_ID;
 //    }
 
     public Page get(int key, boolean applyLRU) {
-        DLinkedNode node = this.bufferPool.get(key);
-        if (node == null) return null;
+        Page page = this.bufferPool.get(key);
+        if (page == null) return null;
 
-        // if applyLRU is true, move the accessed node to the head;
-        if (applyLRU) this.moveToHead(node);
+        // if applyLRU is true, tell the replacer that the page is accessed;
+        if (applyLRU) this.replacer.access(key);
 
-        return node.value;
+        return page;
     }
 
-    public boolean put(int key, Page value) {
-        DLinkedNode node = this.bufferPool.get(key);
-
-        if(node == null) {
+    /**
+     * Take a frame for a page that is about to be put,
+     * a victim is evicted when every frame is used
+     * @return
+     */
+    public ByteBuffer allocateFrame() {
+        ByteBuffer frame = this.allocateFreeFrame();
+        if (frame != null) return frame;
+
+        // frames of victims are dropped while the partition is above its size after shrinking
+        while (this.freeFrames.isEmpty()) {
             /**
              * when there is no evict page, and
              * currentSize will be large than bufferSize,
              * in other words, when all pages are currently pinned,
              * new page cannot be put.
              */
-            DLinkedNode evictNode = new DLinkedNode();
-            // when currentSize < bufferSize, we do not need to do victim() for efficiency issues
-            if (this.currentSize >= this.bufferSize)
-                if ((evictNode = this.victim()) == null)
-                    // we do not throw RuntimeException here to keep system going
-                    throw new RuntimeException("BUFFER EXCEEDED ERROR");
-//                    return false;
-
-            DLinkedNode newNode = new DLinkedNode();
-            newNode.key = key;
-            newNode.value = value;
-
-            this.bufferPool.put(key, newNode);
-            this.addNode(newNode);
-
-            this.currentSize++;
-
-            if (this.currentSize > this.bufferSize) {
-//                System.out.println("currentSize > bufferSize");
-//                System.out.println(evictNode.value.getPageId() + ": " + evictNode.value.getIsDirty());
-                if (evictNode.value.getIsDirty()) {
-//                    System.out.println("page " + evictNode.key + " is flushed");
-                    if (Config.ENABLE_LOGGING && logManager.getFlushedLsn() < evictNode.value.getLsn()) {
-                        System.out.println("buffer manager wait for log flush when evicting pages");
-                        logManager.flushLogBuffer(true, false);
-                    }
-                    assert logManager.getFlushedLsn() >= evictNode.value.getLsn();
-                    this.diskManager.writePage(evictNode.key, evictNode.value.getPageData());
-                }
-                this.removeNode(evictNode);
-                this.bufferPool.remove(evictNode.key);
-                this.currentSize--;
+            if (!this.evictVictim()) {
+                this.metrics.recordBufferExceeded();
+                // we do not throw RuntimeException here to keep system going
+                throw new RuntimeException("BUFFER EXCEEDED ERROR");
+//                return null;
+            }
+        }
+
+        return this.freeFrames.pop();
+    }
+
+    /**
+     * Take a frame only if one is free, nothing is evicted
+     * @return null if every frame is used
+     */
+    public ByteBuffer allocateFreeFrame() {
+        if (!this.freeFrames.isEmpty()) return this.freeFrames.pop();
+
+        if (this.frameNum < this.bufferSize) {
+            // frames are created on first use, then kept until the partition shrinks
+            this.frameNum++;
+            // frames are as large as pages of the database
+            return ByteBuffer.allocate(this.diskManager.getPageSize());
+        }
+
+        return null;
+    }
+
+    /**
+     * Evict the victim chosen by the replacer, writing it back if dirty
+     * @return false if every page is pinned
+     */
+    private boolean evictVictim() {
+        long startTime = System.nanoTime();
+        int evictKey = this.victim();
+        if (evictKey == Config.INVALID_PAGE_ID) return false;
+
+        Page evictPage = this.bufferPool.get(evictKey);
+//        System.out.println(evictPage.getPageId() + ": " + evictPage.getIsDirty());
+        boolean whetherDirty = evictPage.getIsDirty();
+        if (whetherDirty) {
+//            System.out.println("page " + evictKey + " is flushed");
+            if (Config.ENABLE_LOGGING && logManager.getFlushedLsn() < evictPage.getLsn()) {
+                System.out.println("buffer manager wait for log flush when evicting pages");
+                long flushStartTime = System.nanoTime();
+                logManager.flushLogBuffer(true, false);
+                this.metrics.recordWalForcedFlush(System.nanoTime() - flushStartTime);
             }
+            assert !Config.ENABLE_LOGGING || logManager.getFlushedLsn() >= evictPage.getLsn();
+            long writeStartTime = System.nanoTime();
+            this.diskManager.writePage(evictKey, evictPage.getPageBuffer());
+            this.metrics.recordDirtyWrite(System.nanoTime() - writeStartTime);
         }
+        this.delete(evictKey);
+        this.metrics.recordEviction(System.nanoTime() - startTime, whetherDirty);
 
         return true;
     }
 
-    public void delete(int key) {
-        DLinkedNode node = this.bufferPool.get(key);
+    /**
+     * Give back a frame taken by `allocateFrame` but not used
+     * @param frame
+     */
+    public void releaseFrame(ByteBuffer frame) {
+        if (this.frameNum > this.bufferSize) {
+            // the partition has shrunk, let the frame go
+            this.frameNum--;
+            return;
+        }
+        this.freeFrames.push(frame);
+    }
+
+    /**
+     * Grow at once, or shrink by draining cold unpinned pages with write-back,
+     * frames of pinned pages are dropped later, when their pages are evicted
+     * @param bufferSize
+     */
+    public void resize(int bufferSize) {
+        if (bufferSize < 1) throw new RuntimeException("Size of buffer pool partition must be positive.");
+        this.bufferSize = bufferSize;
+
+        while (this.frameNum > this.bufferSize && !this.freeFrames.isEmpty()) {
+            this.freeFrames.pop();
+            this.frameNum--;
+        }
+        while (this.frameNum > this.bufferSize) {
+            if (!this.evictVictim()) break;
+        }
+    }
+
+    /**
+     * Put a page whose frame comes from `allocateFrame`
+     * @param key
+     * @param value
+     * @return
+     */
+    public boolean put(int key, Page value) {
+        if (this.bufferPool.containsKey(key)) return true;
 
-        if (node != null) {
-            this.removeNode(node);
-            this.bufferPool.remove(node.key);
+        this.bufferPool.put(key, value);
+        this.replacer.insert(key);
+        this.currentSize++;
+
+        return true;
+    }
+
+    public void delete(int key) {
+        Page page = this.bufferPool.remove(key);
+        if (page != null) {
+            this.replacer.remove(key);
+            // before the frame is given to another page
+            page.markEvicted();
+            this.releaseFrame(page.getPageBuffer());
             this.currentSize--;
         }
     }
 
+    /**
+     * Dirty unpinned pages at the cold end that the page cleaner should write,
+     * coldest first; nothing is returned while clean evictable frames are not below the low watermark
+     * @param lowWatermark
+     * @param highWatermark
+     * @return
+     */
+    public ArrayList<Page> getCleanCandidates(int lowWatermark, int highWatermark) {
+        ArrayList<Page> candidates = new ArrayList<>();
+        // free frames and frames not created yet need no write at all
+        int cleanNum = this.freeFrames.size() + Math.max(0, this.bufferSize - this.frameNum);
+        if (cleanNum >= lowWatermark) return candidates;
+
+        for (int pageId : this.replacer.coldPages(highWatermark)) {
+            Page page = this.bufferPool.get(pageId);
+            if (page.getPinCount() != 0) continue;
+            if (page.getIsDirty()) candidates.add(page);
+            else cleanNum++;
+        }
+        if (cleanNum >= lowWatermark) candidates.clear();
+        while (cleanNum + candidates.size() > highWatermark && !candidates.isEmpty())
+            candidates.remove(candidates.size() - 1);
+
+        return candidates;
+    }
+
+    /**
+     * Resident pages in the reverse order of eviction, the hottest first
+     * @return
+     */
+    public int[] getHotPages() {
+        int[] coldPages = this.replacer.coldPages(this.replacer.size());
+        int[] hotPages = new int[coldPages.length];
+        int i;
+        for (i = 0; i < coldPages.length; i++) hotPages[i] = coldPages[coldPages.length - 1 - i];
+        return hotPages;
+    }
+
+    /**
+     * Share the metrics of the buffer manager owning this partition
+     * @param metrics
+     */
+    void setMetrics(BufferPoolMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    public int getBufferSize() {
+        return this.bufferSize;
+    }
+
     public Set<Integer> getAll() {
         return this.bufferPool.keySet();
     }
 
     public void replace(Page page) {
-        DLinkedNode node = this.bufferPool.get(page.getPageId());
-        node.value = page;
+        Page oldPage = this.bufferPool.get(page.getPageId());
+        if (oldPage == null) return;
+        if (oldPage.getPageBuffer() != page.getPageBuffer())
+            throw new RuntimeException("Replacing page must share the frame.");
+        // pins and the dirty flag may have changed since the replacing page copied them
+        page.setPinCount(oldPage.getPinCount());
+        page.setDirty(oldPage.getIsDirty() || page.getIsDirty());
+        this.bufferPool.put(page.getPageId(), page);
     }
 }
@@ -0,0 +1,116 @@
+package txDB.buffer;
+
+import txDB.Config;
+
+import java.util.HashMap;
+import java.util.TreeSet;
+import java.util.function.IntPredicate;
+
+/**
+ * LRU-K replacement (O'Neil et al.):
+ * the victim is the page whose backward K-distance, i.e., the time since its K-th most recent access,
+ * is the largest. Pages accessed less than K times have an infinite distance and are evicted first,
+ * oldest first, so a single sequential scan cannot push out pages that are accessed repeatedly.
+ */
+public class LRUKReplacer implements Replacer {
+    private final int k;
+    private long currentTimestamp;
+    private HashMap<Integer, HistoryNode> nodeMap;
+    private TreeSet<HistoryNode> evictOrder;
+
+    public LRUKReplacer(int bufferSize, int k) {
+        if (k < 1) throw new RuntimeException("K of LRU-K must be positive.");
+        this.k = k;
+        this.currentTimestamp = 0;
+        this.nodeMap = new HashMap<>(bufferSize);
+        this.evictOrder = new TreeSet<>((a, b) -> {
+            // pages with infinite backward K-distance go first
+            if (a.hasKHistory() != b.hasKHistory()) return a.hasKHistory() ? 1 : -1;
+            int res = Long.compare(a.orderTimestamp(), b.orderTimestamp());
+            if (res != 0) return res;
+            return Integer.compare(a.pageId, b.pageId);
+        });
+    }
+
+    private class HistoryNode {
+        int pageId;
+        // ring buffer of the last K access timestamps
+        long[] history = new long[k];
+        int accessCount;
+
+        HistoryNode(int pageId) {
+            this.pageId = pageId;
+        }
+
+        void record(long timestamp) {
+            history[accessCount % k] = timestamp;
+            accessCount++;
+        }
+
+        boolean hasKHistory() {
+            return accessCount >= k;
+        }
+
+        /**
+         * The K-th most recent access when there are K accesses,
+         * otherwise the earliest access.
+         * @return
+         */
+        long orderTimestamp() {
+            if (hasKHistory()) return history[accessCount % k];
+            return history[0];
+        }
+    }
+
+    @Override
+    public void insert(int pageId) {
+        HistoryNode node = this.nodeMap.get(pageId);
+        if (node == null) {
+            node = new HistoryNode(pageId);
+            node.record(this.currentTimestamp++);
+            this.nodeMap.put(pageId, node);
+            this.evictOrder.add(node);
+            return;
+        }
+        this.access(pageId);
+    }
+
+    @Override
+    public void access(int pageId) {
+        HistoryNode node = this.nodeMap.get(pageId);
+        if (node == null) return;
+        this.evictOrder.remove(node);
+        node.record(this.currentTimestamp++);
+        this.evictOrder.add(node);
+    }
+
+    @Override
+    public void remove(int pageId) {
+        HistoryNode node = this.nodeMap.remove(pageId);
+        if (node != null) this.evictOrder.remove(node);
+    }
+
+    @Override
+    public int victim(IntPredicate isEvictable) {
+        for (HistoryNode node : this.evictOrder) {
+            if (isEvictable.test(node.pageId)) return node.pageId;
+        }
+        return Config.INVALID_PAGE_ID;
+    }
+
+    @Override
+    public int[] coldPages(int num) {
+        int[] res = new int[Math.min(num, this.nodeMap.size())];
+        int i = 0;
+        for (HistoryNode node : this.evictOrder) {
+            if (i == res.length) break;
+            res[i++] = node.pageId;
+        }
+        return res;
+    }
+
+    @Override
+    public int size() {
+        return this.nodeMap.size();
+    }
+}
@@ -0,0 +1,118 @@
+package txDB.buffer;
+
+import txDB.Config;
+
+import java.util.HashMap;
+import java.util.function.IntPredicate;
+
+/**
+ * Plain LRU based on a doubly linked list,
+ * the most recently accessed page is always right after head.
+ */
+public class LRUReplacer implements Replacer {
+    private HashMap<Integer, DLinkedNode> nodeMap;
+    private DLinkedNode head, tail;
+
+    public LRUReplacer(int bufferSize) {
+        this.nodeMap = new HashMap<>(bufferSize);
+
+        this.head = new DLinkedNode();
+        // head.prev = null;
+
+        this.tail = new DLinkedNode();
+        // tail.next = null;
+
+        this.head.next = this.tail;
+        this.tail.prev = this.head;
+    }
+
+    private class DLinkedNode {
+        int key;
+        DLinkedNode prev;
+        DLinkedNode next;
+    }
+
+    private void addNode(DLinkedNode node) {
+        /**
+         * Always add the new node right after head.
+         */
+        node.prev = head;
+        node.next = head.next;
+
+        head.next.prev = node;
+        head.next = node;
+    }
+
+    private void removeNode(DLinkedNode node) {
+        /**
+         * Remove an existing node from the linked list.
+         */
+        DLinkedNode prev = node.prev;
+        DLinkedNode next = node.next;
+
+        prev.next = next;
+        next.prev = prev;
+    }
+
+    private void moveToHead(DLinkedNode node) {
+        /**
+         * Move certain node in between to the head.
+         */
+        this.removeNode(node);
+        this.addNode(node);
+    }
+
+    @Override
+    public void insert(int pageId) {
+        DLinkedNode node = this.nodeMap.get(pageId);
+        if (node != null) {
+            this.moveToHead(node);
+            return;
+        }
+
+        node = new DLinkedNode();
+        node.key = pageId;
+        this.nodeMap.put(pageId, node);
+        this.addNode(node);
+    }
+
+    @Override
+    public void access(int pageId) {
+        DLinkedNode node = this.nodeMap.get(pageId);
+        if (node != null) this.moveToHead(node);
+    }
+
+    @Override
+    public void remove(int pageId) {
+        DLinkedNode node = this.nodeMap.remove(pageId);
+        if (node != null) this.removeNode(node);
+    }
+
+    @Override
+    public int victim(IntPredicate isEvictable) {
+        // pinned pages near the tail are skipped, so this is linear in the worst case
+        DLinkedNode cur = this.tail.prev;
+        while (cur != this.head) {
+            if (isEvictable.test(cur.key)) return cur.key;
+            cur = cur.prev;
+        }
+        return Config.INVALID_PAGE_ID;
+    }
+
+    @Override
+    public int[] coldPages(int num) {
+        int[] res = new int[Math.min(num, this.nodeMap.size())];
+        DLinkedNode cur = this.tail.prev;
+        int i;
+        for (i = 0; i < res.length; i++) {
+            res[i] = cur.key;
+            cur = cur.prev;
+        }
+        return res;
+    }
+
+    @Override
+    public int size() {
+        return this.nodeMap.size();
+    }
+}
@@ -0,0 +1,95 @@
+package txDB.buffer;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latency histogram with power-of-two buckets in nanoseconds,
+ * bucket i holds latencies in [2^(i-1), 2^i), bucket 0 holds 0.
+ * Every bucket is a striped counter, so recording from many threads does not contend.
+ */
+public class LatencyHistogram {
+    private static final int BUCKET_NUM = 64;
+    private LongAdder[] buckets;
+    private LongAdder count;
+    private LongAdder totalNanos;
+
+    public LatencyHistogram() {
+        this.buckets = new LongAdder[BUCKET_NUM];
+        int i;
+        for (i = 0; i < BUCKET_NUM; i++) {
+            this.buckets[i] = new LongAdder();
+        }
+        this.count = new LongAdder();
+        this.totalNanos = new LongAdder();
+    }
+
+    public void record(long nanos) {
+        if (nanos < 0) nanos = 0;
+        this.buckets[BUCKET_NUM - Long.numberOfLeadingZeros(nanos)].increment();
+        this.count.increment();
+        this.totalNanos.add(nanos);
+    }
+
+    /**
+     * Counters are read one by one, a snapshot taken under load is only approximately consistent
+     * @return
+     */
+    public Snapshot snapshot() {
+        long[] bucketCounts = new long[BUCKET_NUM];
+        int i;
+        for (i = 0; i < BUCKET_NUM; i++) {
+            bucketCounts[i] = this.buckets[i].sum();
+        }
+        return new Snapshot(this.count.sum(), this.totalNanos.sum(), bucketCounts);
+    }
+
+    public static class Snapshot {
+        private final long count;
+        private final long totalNanos;
+        private final long[] bucketCounts;
+
+        private Snapshot(long count, long totalNanos, long[] bucketCounts) {
+            this.count = count;
+            this.totalNanos = totalNanos;
+            this.bucketCounts = bucketCounts;
+        }
+
+        public long getCount() {
+            return this.count;
+        }
+
+        public long getTotalNanos() {
+            return this.totalNanos;
+        }
+
+        public double getMeanNanos() {
+            return this.count == 0 ? 0 : (double) this.totalNanos / this.count;
+        }
+
+        /**
+         * Upper bound of the bucket holding the given percentile
+         * @param percentile in (0, 100]
+         * @return
+         */
+        public long getPercentileNanos(double percentile) {
+            long total = 0;
+            for (long bucketCount : this.bucketCounts) total += bucketCount;
+            if (total == 0) return 0;
+
+            long rank = (long) Math.ceil(total * percentile / 100);
+            long seen = 0;
+            int i;
+            for (i = 0; i < BUCKET_NUM; i++) {
+                seen += this.bucketCounts[i];
+                if (seen >= rank) return i == 0 ? 0 : (i == BUCKET_NUM - 1 ? Long.MAX_VALUE : (1L << i) - 1);
+            }
+            return Long.MAX_VALUE;
+        }
+
+        @Override
+        public String toString() {
+            return "count: " + this.count + ", mean: " + (long) this.getMeanNanos()
+                    + " ns, p50: " + this.getPercentileNanos(50) + " ns, p99: " + this.getPercentileNanos(99) + " ns";
+        }
+    }
+}
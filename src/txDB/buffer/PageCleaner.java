@@ -0,0 +1,100 @@
+package txDB.buffer;
+
+import txDB.Config;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Background page cleaner:
+ * it wakes up periodically and writes dirty pages near the cold end of each partition,
+ * so that a page fault seldom has to write a dirty victim before reading.
+ * WAL is followed in `BufferManager.cleanColdPages`.
+ * A buffer manager starts its cleaner with Config.ENABLE_PAGE_CLEANER, or `BufferManager.startPageCleaner`,
+ * and stops it on `BufferManager.close`.
+ */
+public class PageCleaner {
+    private BufferManager bufferManager;
+    private ExecutorService cleanerService;
+    private volatile boolean ENABLE_CLEANER;
+    // rounds done so far, guarded by the cleaner
+    private long roundNum;
+
+    public PageCleaner(BufferManager bufferManager) {
+        this.bufferManager = bufferManager;
+        cleanerService = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "page-cleaner");
+            // never keep the process alive for cleaning
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    private class cleanerThread implements Runnable {
+        @Override
+        public void run() {
+            System.out.println("page cleaner thread is on");
+            while (ENABLE_CLEANER && !Thread.interrupted()) {
+                try {
+                    bufferManager.cleanColdPages();
+                    synchronized (PageCleaner.this) {
+                        roundNum++;
+                        PageCleaner.this.notifyAll();
+                        // woken up early when the cleaner is closed, it is never interrupted in the middle of I/O
+                        if (ENABLE_CLEANER) PageCleaner.this.wait(Config.CLEANER_INTERVAL);
+                    }
+                } catch (InterruptedException e) {
+                    break;
+                }
+            }
+            System.out.println("page cleaner thread is off");
+        }
+    }
+
+    public void startCleanerService() {
+        ENABLE_CLEANER = true;
+        cleanerService.submit(new cleanerThread());
+    }
+
+    public void closeCleanerService() {
+        synchronized (this) {
+            ENABLE_CLEANER = false;
+            this.notifyAll();
+        }
+        cleanerService.shutdown();
+        try {
+            while (!cleanerService.awaitTermination(Config.LOGGING_TIMEOUT, TimeUnit.MILLISECONDS)) {
+                System.out.println("waiting for page cleaner service to terminate");
+            }
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+        System.out.println("page cleaner service is terminated");
+    }
+
+    public synchronized long getRoundNum() {
+        return this.roundNum;
+    }
+
+    /**
+     * Wait until the cleaner has done rounds up to roundNum
+     * @param roundNum
+     * @param timeout in milliseconds
+     * @return false if it has not by the timeout
+     * @throws InterruptedException
+     */
+    public synchronized boolean awaitRound(long roundNum, long timeout) throws InterruptedException {
+        long endTime = System.currentTimeMillis() + timeout;
+        while (this.roundNum < roundNum) {
+            long waitTime = endTime - System.currentTimeMillis();
+            if (waitTime <= 0) return false;
+            this.wait(waitTime);
+        }
+        return true;
+    }
+
+    public boolean isTerminated() {
+        return cleanerService.isTerminated();
+    }
+}
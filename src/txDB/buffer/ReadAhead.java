@@ -0,0 +1,197 @@
+package txDB.buffer;
+
+import txDB.Config;
+import txDB.storage.page.Page;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.ToIntFunction;
+
+/**
+ * Sequential read-ahead of one scan over a chain of pages, e.g., the heap of a table.
+ * The scan hints every page id right before fetching it,
+ * read-ahead then follows the chain in the background and loads the next pages into unpinned frames,
+ * so the scan finds them resident.
+ * The depth adapts to how fast the scan consumes pages:
+ * it doubles when the scan reaches a page that is not loaded ahead,
+ * and halves when a page loaded ahead is already evicted when the scan reaches it.
+ * The next page id is only known once a page is loaded, so while the chain runs through consecutive ids,
+ * as it does within extents, the following ids are guessed and read together, keeping several reads in flight.
+ * Guessed pages found off the chain are left unpinned in the buffer pool.
+ */
+public class ReadAhead {
+    // shared by all scans
+    private static ExecutorService readAheadService;
+
+    private BufferManager bufferManager;
+    private ToIntFunction<Page> nextPageIdOf;
+    private volatile BufferRing bufferRing;
+    private int minDepth;
+    private int maxDepth;
+    private int depth;
+    // pages loaded or being loaded ahead, which the scan has not reached yet
+    private HashSet<Integer> aheadPages;
+    private int nextAheadPageId;
+    private int lastHintedPageId;
+    // bumped whenever read-ahead restarts, so that a stale loading task stops
+    private int generation;
+    private boolean whetherLoading;
+
+    /**
+     *
+     * @param bufferManager
+     * @param nextPageIdOf how to find the next page id of the chain in a loaded page
+     */
+    public ReadAhead(BufferManager bufferManager, ToIntFunction<Page> nextPageIdOf) {
+        this.bufferManager = bufferManager;
+        this.nextPageIdOf = nextPageIdOf;
+        this.maxDepth = Math.max(1, Math.min(Config.READ_AHEAD_MAX_DEPTH, bufferManager.getBufferSize() / 4));
+        this.minDepth = Math.max(1, Math.min(Config.READ_AHEAD_MIN_DEPTH, this.maxDepth));
+        this.depth = this.minDepth;
+        this.aheadPages = new HashSet<>();
+        this.nextAheadPageId = Config.INVALID_PAGE_ID;
+        this.lastHintedPageId = Config.INVALID_PAGE_ID;
+        this.generation = 0;
+        this.whetherLoading = false;
+    }
+
+    private static synchronized ExecutorService getReadAheadService() {
+        if (readAheadService == null) {
+            readAheadService = Executors.newFixedThreadPool(Config.READ_AHEAD_THREADS, runnable -> {
+                Thread thread = new Thread(runnable, "read-ahead");
+                // never keep the process alive for read-ahead
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return readAheadService;
+    }
+
+    /**
+     * The scan is about to fetch this page
+     * @param pageId
+     */
+    public void hint(int pageId) {
+        if (!Config.ENABLE_READ_AHEAD || pageId == Config.INVALID_PAGE_ID) return;
+
+        synchronized (this) {
+            if (this.aheadPages.remove(pageId)) {
+                // loaded so far ahead that it is evicted before use
+                if (!this.bufferManager.isResident(pageId)) this.depth = Math.max(this.minDepth, this.depth / 2);
+            } else {
+                // the scan outran read-ahead, or it just starts, follow the chain from here
+                if (this.lastHintedPageId != Config.INVALID_PAGE_ID) this.depth = Math.min(this.maxDepth, this.depth * 2);
+                this.generation++;
+                this.aheadPages.clear();
+                this.nextAheadPageId = pageId;
+                this.whetherLoading = false;
+            }
+            this.lastHintedPageId = pageId;
+
+            if (!this.whetherLoading && this.nextAheadPageId != Config.INVALID_PAGE_ID
+                    && this.aheadPages.size() <= this.depth / 2) {
+                this.whetherLoading = true;
+                final int currentGeneration = this.generation;
+                getReadAheadService().execute(() -> this.load(currentGeneration));
+            }
+        }
+    }
+
+    /**
+     * Follow the chain until depth pages are ahead of the scan
+     * @param loadGeneration
+     */
+    private void load(int loadGeneration) {
+        // whether the chain went on to the next page id at the last step
+        boolean whetherSequential = false;
+        while (true) {
+            int[] pageIds;
+            synchronized (this) {
+                if (loadGeneration != this.generation) return;
+                int room = this.depth - this.aheadPages.size();
+                if (room <= 0 || this.nextAheadPageId == Config.INVALID_PAGE_ID) {
+                    this.whetherLoading = false;
+                    return;
+                }
+                pageIds = new int[whetherSequential ? room : 1];
+                int i;
+                for (i = 0; i < pageIds.length; i++) {
+                    pageIds[i] = this.nextAheadPageId + i;
+                    // the page hinted last is fetched by the scan itself
+                    if (pageIds[i] != this.lastHintedPageId) this.aheadPages.add(pageIds[i]);
+                }
+            }
+
+            ArrayList<CompletableFuture<Page>> prefetchList = new ArrayList<>();
+            for (int pageId : pageIds) {
+                try {
+                    prefetchList.add(this.bufferManager.prefetchPageAsync(pageId, this.bufferRing));
+                } catch (RuntimeException e) {
+                    // every frame is pinned, give up until the next restart
+                    break;
+                }
+            }
+
+            int nextPageId = Config.INVALID_PAGE_ID;
+            int chainNum = 0;
+            int i;
+            for (i = 0; i < prefetchList.size(); i++) {
+                Page page;
+                try {
+                    page = prefetchList.get(i).join();
+                } catch (RuntimeException e) {
+                    page = null;
+                }
+                // guessed pages count only as long as the chain goes through them
+                if (i == chainNum && (i == 0 || nextPageId == pageIds[i])) {
+                    chainNum++;
+                    nextPageId = page != null ? this.nextPageIdOf.applyAsInt(page) : Config.INVALID_PAGE_ID;
+                }
+                if (page != null) this.bufferManager.releasePage(pageIds[i]);
+            }
+            if (chainNum == 0) nextPageId = Config.INVALID_PAGE_ID;
+            whetherSequential = chainNum > 0 && nextPageId == pageIds[chainNum - 1] + 1;
+
+            synchronized (this) {
+                if (loadGeneration != this.generation) return;
+                for (i = chainNum; i < pageIds.length; i++) this.aheadPages.remove(pageIds[i]);
+                this.nextAheadPageId = nextPageId;
+            }
+        }
+    }
+
+    /**
+     * Pages are loaded through the ring of the scan from now on,
+     * depth is kept within half of the ring, so that pages loaded ahead are not recycled before use
+     * @param bufferRing
+     */
+    public void useBufferRing(BufferRing bufferRing) {
+        synchronized (this) {
+            this.bufferRing = bufferRing;
+            this.maxDepth = Math.max(1, Math.min(this.maxDepth, bufferRing.size() / 2));
+            this.minDepth = Math.min(this.minDepth, this.maxDepth);
+            this.depth = Math.min(this.depth, this.maxDepth);
+        }
+    }
+
+    /**
+     * The scan is done, pages already loaded stay in the buffer pool
+     */
+    public void close() {
+        synchronized (this) {
+            this.generation++;
+            this.aheadPages.clear();
+            this.nextAheadPageId = Config.INVALID_PAGE_ID;
+            this.whetherLoading = false;
+        }
+    }
+
+    public int getDepth() {
+        synchronized (this) {
+            return this.depth;
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package txDB.buffer;
+
+import java.util.function.IntPredicate;
+
+/**
+ * A replacer only decides which resident page should be evicted,
+ * the buffer pool itself keeps page table, pin counts and disk writes.
+ * All methods are called while the buffer pool partition is synchronized,
+ * so implementations do not need to be thread safe.
+ */
+public interface Replacer {
+    enum ReplacerType {LRU, CLOCK, LRU_K}
+
+    /**
+     * A page becomes resident in the buffer pool
+     * @param pageId
+     */
+    void insert(int pageId);
+
+    /**
+     * A resident page is accessed
+     * @param pageId
+     */
+    void access(int pageId);
+
+    /**
+     * A page leaves the buffer pool
+     * @param pageId
+     */
+    void remove(int pageId);
+
+    /**
+     * Choose a page to evict, the page is not removed from the replacer
+     * @param isEvictable tells whether a page can be evicted, e.g., its pin count is 0
+     * @return page id of the victim, or Config.INVALID_PAGE_ID if every page is pinned
+     */
+    int victim(IntPredicate isEvictable);
+
+    /**
+     * Pages at the cold end, in the order they would be chosen as victims, nothing is changed
+     * @param num maximal number of pages
+     * @return
+     */
+    int[] coldPages(int num);
+
+    int size();
+}
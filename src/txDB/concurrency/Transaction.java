@@ -1,6 +1,7 @@
 package txDB.concurrency;
 
 import txDB.Config;
+import txDB.recovery.LogManager;
 import txDB.storage.page.Page;
 import txDB.storage.table.RecordID;
 import txDB.storage.table.Table;
@@ -16,6 +17,7 @@ public class Transaction implements Serializable {
     private int txnId;
     private int prevLsn;
     private TransactionState transactionState;
+    private LogManager.Durability durability;   // null for the durability of the database
     private Queue<Page> indexPageQueue;         // index page latched
     private HashSet<RecordID> sharedLockSet;    // tuple shared locked
     private HashSet<RecordID> exclusiveLockSet; // tuple exclusive locked
@@ -121,6 +123,18 @@ public class Transaction implements Serializable {
         this.prevLsn = prevLsn;
     }
 
+    public LogManager.Durability getDurability() {
+        return durability;
+    }
+
+    /**
+     * Commit durability of this transaction only, see `LogManager.Durability`
+     * @param durability null for the durability of the database
+     */
+    public void setDurability(LogManager.Durability durability) {
+        this.durability = durability;
+    }
+
     public List<WriteRecord> getWriteRecordList() {
         return writeRecordList;
     }
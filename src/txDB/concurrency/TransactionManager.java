@@ -3,6 +3,8 @@ package txDB.concurrency;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import txDB.Config;
@@ -14,13 +16,14 @@ public class TransactionManager {
     // TODO
     private LockManager lockManager;
     private LogManager logManager;
-    private HashMap<Integer, Transaction> activeTxnMap;
+    // a commit finishes on the thread flushing its log record, without the monitor
+    private ConcurrentHashMap<Integer, Transaction> activeTxnMap;
     private AtomicInteger nextTxnId;
 
     public TransactionManager(LockManager lockManager, LogManager logManager) {
         this.lockManager = lockManager;
         this.logManager = logManager;
-        this.activeTxnMap = new HashMap<>();
+        this.activeTxnMap = new ConcurrentHashMap<>();
         this.nextTxnId = new AtomicInteger(0);
     }
 
@@ -46,26 +49,40 @@ public class TransactionManager {
      * @param txn
      */
     public void commit(Transaction txn) {
-        // TODO
-        synchronized (this) {
-            txn.setTransactionState(Transaction.TransactionState.COMMITTED);
+        this.commitAsync(txn).join();
+    }
 
-            if (Config.ENABLE_LOGGING) {
-                // append commit record
-                LogRecord logRecord = new LogRecord(txn.getPrevLsn(), txn.getTxnId(), LogRecord.LogRecordType.COMMIT);
-                int lsn = logManager.appendLogRecord(logRecord, true, false);
-                txn.setPrevLsn(lsn);
+    /**
+     * Commit without waiting for the commit record to be durable, see `LogManager.Durability`.
+     * Locks are held until the commit can be acknowledged, and the future is completed after they are released
+     * @param txn
+     * @return
+     */
+    public CompletableFuture<Void> commitAsync(Transaction txn) {
+        txn.setTransactionState(Transaction.TransactionState.COMMITTED);
+        if (!Config.ENABLE_LOGGING) {
+            this.endTransaction(txn);
+            return CompletableFuture.completedFuture(null);
+        }
 
-                // append TXN-END record
-                logRecord = new LogRecord(txn.getPrevLsn(), txn.getTxnId(), LogRecord.LogRecordType.END);
-                lsn = logManager.appendLogRecord(logRecord, false, false);
-                txn.setPrevLsn(lsn);
-            }
+        // append commit record
+        LogRecord logRecord = new LogRecord(txn.getPrevLsn(), txn.getTxnId(), LogRecord.LogRecordType.COMMIT);
+        int lsn = logManager.appendLogRecord(logRecord, false, false);
+        txn.setPrevLsn(lsn);
+
+        LogManager.Durability durability = txn.getDurability() != null ? txn.getDurability() : logManager.getDurability();
+        return logManager.commitAsync(lsn, durability).thenRun(() -> {
+            // append TXN-END record
+            LogRecord endLogRecord = new LogRecord(txn.getPrevLsn(), txn.getTxnId(), LogRecord.LogRecordType.END);
+            txn.setPrevLsn(logManager.appendLogRecord(endLogRecord, false, false));
+            this.endTransaction(txn);
+        });
+    }
 
-            releaseAllLocks(txn);
+    private void endTransaction(Transaction txn) {
+        releaseAllLocks(txn);
 
-            activeTxnMap.remove(txn.getTxnId());
-        }
+        activeTxnMap.remove(txn.getTxnId());
     }
 
     /**
@@ -2,6 +2,8 @@ package txDB.execution.executors;
 
 import txDB.Config;
 import txDB.buffer.BufferManager;
+import txDB.buffer.BufferRing;
+import txDB.buffer.ReadAhead;
 import txDB.concurrency.LockManager;
 import txDB.concurrency.Transaction;
 import txDB.execution.plans.SeqScanPlan;
@@ -29,6 +31,9 @@ public class SeqScanExecutor extends Executor {
     private int curPageId;
     private int curCount;
     private int nextPageId;
+    private ReadAhead readAhead;
+    private BufferRing bufferRing;
+    private int visitedPageNum;
 
     public SeqScanExecutor(SeqScanPlan seqScanPlan,
                            DiskManager diskManager,
@@ -55,60 +60,95 @@ public class SeqScanExecutor extends Executor {
             curIndex = 0;
             curCount = 0;
 
+            // heap pages are visited along the chain, let read-ahead load them before they are reached
+            readAhead = new ReadAhead(bufferManager, page -> TablePage.getNextPageId(page));
+            readAhead.hint(curPageId);
+            bufferRing = null;
+            visitedPageNum = 1;
             Page page = bufferManager.fetchPage(curPageId);
             if (page == null) {
-                // abort this transaction
-                txn.setTransactionState(Transaction.TransactionState.ABORTED);
+                this.abort();
                 return;
             }
 
             TablePage tablePage = new TablePage(page);
-            tablePage.readLatch();
             bufferManager.replacePage(tablePage);
-            tupleCount = tablePage.getTupleCount();
-            nextPageId = tablePage.getNextPageId();
+            readPageHeader(tablePage);
 //            System.out.println("tupleCount: " + tupleCount + ", nextPageId: " + nextPageId);
-            tablePage.readUnlatch();
 
         } catch (IOException | ClassNotFoundException e) {
             e.printStackTrace();
         }
     }
 
+    /**
+     * Read tuple count and next page id optimistically,
+     * take the read latch only if the page is written meanwhile
+     * @param tablePage
+     */
+    private void readPageHeader(TablePage tablePage) {
+        long version = tablePage.optimisticReadLatch();
+        tupleCount = tablePage.getTupleCount();
+        nextPageId = tablePage.getNextPageId();
+        if (!tablePage.validateReadLatch(version)) {
+            tablePage.readLatch();
+            tupleCount = tablePage.getTupleCount();
+            nextPageId = tablePage.getNextPageId();
+            tablePage.readUnlatch();
+        }
+    }
+
     public Tuple next() {
 //        System.out.println("curCount: " + curCount);
         if (curCount == tupleCount) {
             bufferManager.unpinPage(curPageId, false);
 
             if (nextPageId == Config.INVALID_PAGE_ID) {
+                this.close();
                 return null;
             }
 
-            Page page = bufferManager.fetchPage(nextPageId);
+            // the table turns out to be large, do not let it flush the working set of others
+            if (bufferRing == null && ++visitedPageNum > bufferManager.getBufferSize() * Config.BUFFER_RING_THRESHOLD) {
+                bufferRing = bufferManager.newBufferRing();
+                readAhead.useBufferRing(bufferRing);
+            }
+
+            readAhead.hint(nextPageId);
+            Page page = bufferManager.fetchPage(nextPageId, bufferRing);
             if (page == null) {
-                // abort this transaction
-                txn.setTransactionState(Transaction.TransactionState.ABORTED);
+                this.abort();
                 return null;
             }
 
             TablePage tablePage = new TablePage(page);
-            tablePage.readLatch();
             bufferManager.replacePage(tablePage);
-            tupleCount = tablePage.getTupleCount();
             curPageId = nextPageId;
-            nextPageId = tablePage.getNextPageId();
+            readPageHeader(tablePage);
 //            System.out.println("tupleCount: " + tupleCount + ", nextPageId: " + nextPageId);
             curIndex = 0;
             curCount = 0;
-            tablePage.readUnlatch();
         }
 
         RecordID recordID = new RecordID(curPageId, curIndex);
         curCount++;
         curIndex++;
-        Tuple res = table.getTuple(recordID, txn);
+        Tuple res = table.getTuple(recordID, txn, bufferRing);
         // TODO: unlock temporarily lie here
 //        lockManager.unlock(txn, recordID);
         return res;
     }
+
+    /**
+     * Stop read-ahead of the scan, e.g., when it is left before the end of the table
+     */
+    public void close() {
+        if (readAhead != null) readAhead.close();
+    }
+
+    private void abort() {
+        // abort this transaction
+        txn.setTransactionState(Transaction.TransactionState.ABORTED);
+        this.close();
+    }
 }
@@ -75,7 +75,8 @@ public class CheckpointManager {
             // TODO: stop updates when full checkpoint is enabled
 //            System.out.println("start appending begin record");
             LogRecord logRecord = new LogRecord(logManager.getNextLsn(), LogRecord.LogRecordType.CBEGIN);
-            int logFileLength = logManager.appendLogRecord(logRecord, true, true);
+            logManager.appendLogRecord(logRecord, true, true);
+            long logFileLength = logManager.getLogFileLength();
 
             System.out.println("log length: " + logFileLength);
 
@@ -108,6 +109,8 @@ public class CheckpointManager {
                     logManager.getNextLsn(), LogRecord.LogRecordType.CEND,
                     new ActiveTxnsAndDirtyPages(transactionManager.getActiveTxnMap(), bufferManager.flushAllDirtyPages(Config.ENABLE_FUZZY_CHECKPOINT)));
             logManager.appendLogRecord(logRecord, true, true);
+            // for warm restart
+            bufferManager.dumpHotPages();
 
             // TODO: resume updates when full checkpoint is enabled
 
@@ -0,0 +1,188 @@
+package txDB.recovery;
+
+import txDB.Config;
+import txDB.concurrency.Transaction;
+import txDB.storage.disk.DiskManager;
+import txDB.storage.table.RecordID;
+import txDB.storage.table.Tuple;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Reads log records in the format of `LogFormat` back, in log order, for recovery and tools.
+ * Decoding stops at the end of the log: a size of 0, a record cut short by the end of the data,
+ * or a record failing its checksum, which is a torn write of the last flush before a crash.
+ * A record of another format version is not skipped, it fails decoding.
+ */
+public class LogDecoder {
+    private DiskManager diskManager;
+    // log file offset of logData, reading from the log file only
+    private long logDataOffset;
+    private byte[] logData;
+    private int logDataEnd;
+    // the next record in logData
+    private int position;
+    // within the record being decoded
+    private int cursor;
+    private int recordEnd;
+
+    /**
+     * Decode the log file
+     * @param diskManager
+     * @param offset log file offset of a record, e.g., 0 or the last checkpoint offset
+     */
+    public LogDecoder(DiskManager diskManager, long offset) {
+        this.diskManager = diskManager;
+        this.logDataOffset = offset;
+        this.logData = new byte[0];
+    }
+
+    /**
+     * Decode log data in memory, e.g., a log buffer
+     * @param logData
+     * @param offset
+     * @param length
+     */
+    public LogDecoder(byte[] logData, int offset, int length) {
+        this.logData = logData;
+        this.position = offset;
+        this.logDataEnd = offset + length;
+    }
+
+    /**
+     *
+     * @return the next record with its lsn set, null at the end of the log
+     */
+    public LogRecord next() {
+        if (!this.fill(LogFormat.HEADER_SIZE)) return null;
+        int logSize = LogFormat.getInt(this.logData, this.position);
+        if (logSize <= LogFormat.HEADER_SIZE || logSize > Config.LOG_SIZE) return null;
+        if (!this.fill(logSize)) return null;
+        if (LogFormat.getInt(this.logData, this.position + LogFormat.CHECKSUM_OFFSET)
+                != LogFormat.checksumOf(this.logData, this.position, logSize)) {
+//            System.out.println("torn log record at " + this.getOffset());
+            return null;
+        }
+
+        LogRecord logRecord = this.decode(logSize);
+        this.position += logSize;
+        return logRecord;
+    }
+
+    /**
+     * Log file offset of the next record, or offset in the log data in memory
+     * @return
+     */
+    public long getOffset() {
+        return this.logDataOffset + this.position;
+    }
+
+    /**
+     * Make the next size bytes from the position available
+     * @param size
+     * @return false if the log ends before
+     */
+    private boolean fill(int size) {
+        if (this.position + size <= this.logDataEnd) return true;
+        if (this.diskManager == null) return false;
+
+        // read again from the record, a record never takes more than a log buffer
+        this.logDataOffset += this.position;
+        this.position = 0;
+        this.logData = this.diskManager.readLog(Math.max(size, Config.LOG_SIZE), this.logDataOffset);
+        if (this.logData == null) {
+            this.logData = new byte[0];
+            this.logDataEnd = 0;
+            return false;
+        }
+        this.logDataEnd = this.logData.length;
+        return size <= this.logDataEnd;
+    }
+
+    private LogRecord decode(int logSize) {
+        int end = this.position + logSize;
+        this.recordEnd = end;
+        int opcode = this.logData[this.position + LogFormat.OPCODE_OFFSET];
+        if (LogFormat.versionOf(opcode) != LogFormat.FORMAT_VERSION)
+            throw new RuntimeException("Log record format version " + LogFormat.versionOf(opcode) + " is not supported.");
+        LogRecord.LogRecordType logRecordType = LogFormat.logRecordTypeOf(opcode);
+
+        this.cursor = this.position + LogFormat.HEADER_SIZE;
+        int lsn = this.readVarInt();
+        int prevLsn = lsn - LogFormat.unZigZag(this.readVarInt());
+        LogRecord logRecord;
+        if (logRecordType == LogRecord.LogRecordType.CBEGIN) {
+            logRecord = new LogRecord(prevLsn, logRecordType);
+        } else if (logRecordType == LogRecord.LogRecordType.CEND) {
+            logRecord = new LogRecord(prevLsn, logRecordType, this.readCheckpoint());
+        } else {
+            int txnId = this.readVarInt();
+            if (logRecordType == LogRecord.LogRecordType.INSERT
+                    || logRecordType == LogRecord.LogRecordType.UPDATE || logRecordType == LogRecord.LogRecordType.CLR) {
+                RecordID recordID = new RecordID(this.readVarInt(), this.readVarInt());
+                if (logRecordType == LogRecord.LogRecordType.INSERT) {
+                    logRecord = new LogRecord(prevLsn, txnId, logRecordType, recordID, this.readTuple(recordID, end - this.cursor));
+                } else {
+                    int undoNext = logRecordType == LogRecord.LogRecordType.CLR
+                            ? lsn - LogFormat.unZigZag(this.readVarInt()) : Config.INVALID_LSN;
+                    Tuple oldTuple = this.readTuple(recordID, this.readVarInt());
+                    Tuple newTuple = this.readTuple(recordID, end - this.cursor);
+                    if (logRecordType == LogRecord.LogRecordType.CLR) {
+                        logRecord = new LogRecord(prevLsn, txnId, logRecordType, recordID, oldTuple, newTuple, undoNext);
+                    } else {
+                        logRecord = new LogRecord(prevLsn, txnId, logRecordType, recordID, oldTuple, newTuple);
+                    }
+                }
+            } else {
+                logRecord = new LogRecord(prevLsn, txnId, logRecordType);
+            }
+        }
+        if (this.cursor > end) throw new RuntimeException("Log record at " + this.getOffset() + " overruns its size.");
+
+        logRecord.setLsn(lsn);
+        return logRecord;
+    }
+
+    private int readVarInt() {
+        int value = 0;
+        int shift;
+        for (shift = 0; shift < 7 * LogFormat.MAX_VAR_INT_SIZE; shift += 7) {
+            if (this.cursor >= this.recordEnd) break;
+            byte b = this.logData[this.cursor++];
+            value |= (b & 0x7F) << shift;
+            if (b >= 0) return value;
+        }
+        throw new RuntimeException("Log record at " + this.getOffset() + " has a malformed varint.");
+    }
+
+    private Tuple readTuple(RecordID recordID, int tupleSize) {
+        if (tupleSize < 0 || this.cursor + tupleSize > this.recordEnd)
+            throw new RuntimeException("Log record at " + this.getOffset() + " has a malformed tuple.");
+        byte[] tupleData = Arrays.copyOfRange(this.logData, this.cursor, this.cursor + tupleSize);
+        this.cursor += tupleSize;
+        return new Tuple(tupleData, recordID, tupleSize, true);
+    }
+
+    private ActiveTxnsAndDirtyPages readCheckpoint() {
+        Transaction.TransactionState[] transactionStates = Transaction.TransactionState.values();
+        HashMap<Integer, Transaction.TransactionState> activeTxnMap = new HashMap<>();
+        int i, num = this.readVarInt();
+        for (i = 0; i < num; i++) {
+            int txnId = this.readVarInt();
+            // a byte read back is signed
+            int state = this.cursor < this.recordEnd ? this.logData[this.cursor++] & 0xFF : transactionStates.length;
+            if (state >= transactionStates.length)
+                throw new RuntimeException("Log record at " + this.getOffset() + " has a malformed transaction state.");
+            activeTxnMap.put(txnId, transactionStates[state]);
+        }
+        HashMap<Integer, Integer> dirtyPageMap = new HashMap<>();
+        num = this.readVarInt();
+        for (i = 0; i < num; i++) {
+            int pageId = this.readVarInt();
+            dirtyPageMap.put(pageId, this.readVarInt());
+        }
+
+        return new ActiveTxnsAndDirtyPages(activeTxnMap, dirtyPageMap);
+    }
+}
@@ -0,0 +1,157 @@
+package txDB.recovery;
+
+import java.util.zip.Checksum;
+
+/**
+ * Binary format of log records, shared by `LogRecord`, which encodes them, and `LogDecoder`:
+ * | Size (4) | CRC32C (4) | Opcode (1) | Lsn | PrevLsn | TxnId | Body |
+ * Size is of the whole record, a size of 0 ends the log. The checksum covers the size and the bytes after the checksum.
+ * The opcode holds the format version in its high 4 bits and the `LogRecordType` in its low 4 bits.
+ * Integers after the opcode are varints, 7 bits a byte, low bits first.
+ * PrevLsn and undoNext are zigzag deltas back from Lsn, 1 or 2 bytes within the chain of a transaction.
+ * Checkpoint records have no TxnId. Bodies:
+ * INSERT | PageId | TupleIndex | Tuple ... |
+ * UPDATE | PageId | TupleIndex | OldTupleSize | OldTuple | NewTuple ... |
+ * CLR    | PageId | TupleIndex | UndoNext | OldTupleSize | OldTuple | NewTuple ... |
+ * CEND   | ActiveTxnNum | (TxnId | TxnState (1))* | DirtyPageNum | (PageId | RecLsn)* |
+ */
+public class LogFormat {
+    public static final int FORMAT_VERSION = 1;
+    public static final int CHECKSUM_OFFSET = 4;
+    public static final int OPCODE_OFFSET = 8;
+    public static final int HEADER_SIZE = 9;
+    public static final int MAX_VAR_INT_SIZE = 5;
+
+    // one per thread, records are encoded by their writers in parallel
+    private static final ThreadLocal<Checksum> checksums = ThreadLocal.withInitial(LogFormat::newChecksum);
+
+    public static int opcodeOf(LogRecord.LogRecordType logRecordType) {
+        return (FORMAT_VERSION << 4) | logRecordType.ordinal();
+    }
+
+    public static int versionOf(int opcode) {
+        return (opcode & 0xFF) >>> 4;
+    }
+
+    public static LogRecord.LogRecordType logRecordTypeOf(int opcode) {
+        int ordinal = opcode & 0x0F;
+        if (ordinal >= LogRecord.LogRecordType.values().length)
+            throw new RuntimeException("Log record opcode " + (opcode & 0xFF) + " is not defined.");
+        return LogRecord.LogRecordType.values()[ordinal];
+    }
+
+    public static int varIntSize(int value) {
+        if ((value & ~0x7F) == 0) return 1;
+        if ((value & ~0x3FFF) == 0) return 2;
+        if ((value & ~0x1FFFFF) == 0) return 3;
+        if ((value & ~0xFFFFFFF) == 0) return 4;
+        return 5;
+    }
+
+    /**
+     *
+     * @param logData
+     * @param offset
+     * @param value taken as unsigned
+     * @return offset after the varint
+     */
+    public static int putVarInt(byte[] logData, int offset, int value) {
+        while ((value & ~0x7F) != 0) {
+            logData[offset++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        logData[offset++] = (byte) value;
+        return offset;
+    }
+
+    /**
+     * Small negative numbers take few bytes too
+     * @param value
+     * @return
+     */
+    public static int zigZag(int value) {
+        return (value << 1) ^ (value >> 31);
+    }
+
+    public static int unZigZag(int value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    public static void putInt(byte[] logData, int offset, int value) {
+        logData[offset] = (byte) (value >>> 24);
+        logData[offset + 1] = (byte) (value >>> 16);
+        logData[offset + 2] = (byte) (value >>> 8);
+        logData[offset + 3] = (byte) value;
+    }
+
+    public static int getInt(byte[] logData, int offset) {
+        return ((logData[offset] & 0xFF) << 24) | ((logData[offset + 1] & 0xFF) << 16)
+                | ((logData[offset + 2] & 0xFF) << 8) | (logData[offset + 3] & 0xFF);
+    }
+
+    /**
+     * CRC32C of an encoded record, see the class comment for the bytes covered
+     * @param logData
+     * @param offset start of the record
+     * @param logSize
+     * @return
+     */
+    public static int checksumOf(byte[] logData, int offset, int logSize) {
+        Checksum checksum = checksums.get();
+        checksum.reset();
+        checksum.update(logData, offset, CHECKSUM_OFFSET);
+        checksum.update(logData, offset + OPCODE_OFFSET, logSize - OPCODE_OFFSET);
+        return (int) checksum.getValue();
+    }
+
+    /**
+     * CRC32C is not in Java 8, so it is looked up at runtime, with the same checksum computed by a table otherwise
+     * @return
+     */
+    private static Checksum newChecksum() {
+        try {
+            return (Checksum) Class.forName("java.util.zip.CRC32C").getConstructor().newInstance();
+        } catch (ReflectiveOperationException e) {
+            return new TableCrc32c();
+        }
+    }
+
+    /**
+     * CRC32C, Castagnoli polynomial, a byte at a time
+     */
+    private static class TableCrc32c implements Checksum {
+        private static final int[] table = new int[256];
+        static {
+            int i, k;
+            for (i = 0; i < 256; i++) {
+                int crc = i;
+                for (k = 0; k < 8; k++) crc = (crc & 1) != 0 ? (crc >>> 1) ^ 0x82F63B78 : crc >>> 1;
+                table[i] = crc;
+            }
+        }
+        private int crc = 0xFFFFFFFF;
+
+        @Override
+        public void update(int b) {
+            this.crc = (this.crc >>> 8) ^ table[(this.crc ^ b) & 0xFF];
+        }
+
+        @Override
+        public void update(byte[] b, int off, int len) {
+            int crc = this.crc;
+            int end = off + len;
+            while (off < end) crc = (crc >>> 8) ^ table[(crc ^ b[off++]) & 0xFF];
+            this.crc = crc;
+        }
+
+        @Override
+        public long getValue() {
+            return ~this.crc & 0xFFFFFFFFL;
+        }
+
+        @Override
+        public void reset() {
+            this.crc = 0xFFFFFFFF;
+        }
+    }
+}
@@ -2,6 +2,7 @@ package txDB.recovery;
 
 import txDB.Config;
 import txDB.buffer.BufferManager;
+import txDB.buffer.LatencyHistogram;
 import txDB.storage.disk.DiskManager;
 import txDB.storage.page.MetaDataPage;
 import txDB.storage.page.Page;
@@ -9,93 +10,181 @@ import txDB.storage.page.Page;
 import java.io.*;
 import java.nio.ByteBuffer;
 import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * This is a runtime log manager, group commit is used here;
  * For thread coordination, please refer to relative knowledge accordingly,
  * which is very hard and meanwhile important.
+ *
+ * Appending takes no lock: a writer reserves its LSN and its bytes in the active log buffer together,
+ * by a single compare-and-set on `reservation`, | NextLsn (32) | Offset in the active buffer (32) |,
+ * the size of a record depends on its LSN, which the writer reads first, see `LogFormat`,
+ * so records are in LSN order in the buffer, then encodes its record in parallel with other writers
+ * and publishes it once every record before it is published, so the published part of a buffer is always a prefix.
+ * Flushing writes out only published prefixes, in order, under the monitor of the log manager.
+ *
+ * The writer whose record overflows the active buffer switches buffers: the full buffer is sealed and handed to the flush thread,
+ * the other one, written out first if it is still sealed, becomes active with the overflowing record at its start.
+ * Writers reserving meanwhile find the buffer full and retry after the switch.
+ *
+ * Every flush is a write of the published records plus an fsync, after which they are durable, see `getFlushedLsn`.
+ * Group commit: a commit waits for its record by `flushAsync`, and the flush thread lets commits arriving
+ * within Config.GROUP_COMMIT_WINDOW of the first one, or until Config.GROUP_COMMIT_BYTES of log wait, share one flush.
+ * A lone commit, with no other writer appending, is flushed at once instead of waiting for the window.
+ * How long a commit waits is up to its `Durability`, set for the database and overridden by a transaction.
  */
 public class LogManager implements Serializable {
     // TODO
-//    private ByteBuffer testFlushLogBuffer;
-//    private ByteBuffer testAppendLogBuffer;
-    private transient ByteBuffer flushLogBuffer;
-    private transient ByteBuffer appendLogBuffer;
-    private transient ByteBuffer tmpLogBuffer;
-    private transient ByteBuffer curFlushLogBuffer;
+    /**
+     * SYNC: a commit is acknowledged after the log is forced by the committing thread itself
+     * GROUP: a commit is acknowledged after the log is forced, forces are shared in a group commit
+     * ASYNC: a commit is acknowledged at once, the log is forced in the background within Config.ASYNC_COMMIT_WINDOW,
+     *        so a crash may lose commits acknowledged in that window, but never leaves a torn transaction
+     */
+    public enum Durability {SYNC, GROUP, ASYNC}
+    private transient LogBuffer[] logBuffers;
+    private transient volatile LogBuffer appendLogBuffer;
+    // full and not on disk yet, guarded by the monitor
+    private transient LogBuffer sealedLogBuffer;
     private transient DiskManager diskManager;
     private transient ExecutorService flushService;
-    private AtomicInteger nextLsn;
+    private transient Object flushRequest;
+    private AtomicLong reservation;
     private AtomicBoolean whetherFlush;
-    private AtomicInteger lastLsn;
     private AtomicInteger flushedLsn;
-    private AtomicBoolean whetherCheckpoint;
-    private AtomicInteger logFileLength;
+    private AtomicLong logFileLength;
+    private AtomicLong flushNum;
+    private AtomicLong commitNum;
+    private transient LatencyHistogram syncLatency;
+    private volatile Durability durability;
+    // futures of flushAsync by lsn
+    private transient ConcurrentNavigableMap<Integer, CompletableFuture<Void>> flushWaiters;
+    // when the first of the waiting commits arrived, guarded by flushRequest
+    private transient long groupStartTime;
+    // when the first asynchronous commit not forced yet arrived, 0 if there is none, guarded by flushRequest
+    private transient long asyncCommitTime;
+    private transient int asyncCommitLsn;
+
+    /**
+     * A log buffer, records are appended at reserved offsets
+     * and published in order, see `publish`
+     */
+    private static class LogBuffer {
+        private final byte[] logData;
+        // | LastLsn (32) | PublishedOffset (32) |, both in one word so the flusher reads a consistent prefix
+        private final AtomicLong published;
+        // bytes already written to the log file, written under the monitor of the log manager
+        private volatile int flushedOffset;
+
+        LogBuffer(int size) {
+            this.logData = new byte[size];
+            this.published = new AtomicLong(publishedOf(Config.INVALID_LSN, 0));
+        }
+
+        private static long publishedOf(int lsn, int offset) {
+            return ((long) lsn << 32) | offset;
+        }
+
+        /**
+         * Wait until records before the offset are published
+         * @param offset
+         */
+        void awaitPublished(int offset) {
+            // records are copied in short, the writers before are about to publish
+            while ((int) this.published.get() != offset) Thread.yield();
+        }
+
+        /**
+         * Publish a record copied in after the records before it
+         * @param offset
+         * @param logSize
+         * @param lsn
+         */
+        void publish(int offset, int logSize, int lsn) {
+            this.awaitPublished(offset);
+            this.published.set(publishedOf(lsn, offset + logSize));
+        }
+
+        void reset() {
+            this.published.set(publishedOf(Config.INVALID_LSN, 0));
+            this.flushedOffset = 0;
+        }
+    }
 
     /**
      *
      * @param diskManager
      */
     public LogManager(DiskManager diskManager) {
-        flushLogBuffer = ByteBuffer.allocate(Config.LOG_SIZE);
-        appendLogBuffer = ByteBuffer.allocate(Config.LOG_SIZE);
-        curFlushLogBuffer = appendLogBuffer;
-//        testAppendLogBuffer = appendLogBuffer;
-//        testFlushLogBuffer = flushLogBuffer;
+        logBuffers = new LogBuffer[]{new LogBuffer(Config.LOG_SIZE), new LogBuffer(Config.LOG_SIZE)};
+        appendLogBuffer = logBuffers[0];
+        sealedLogBuffer = null;
         this.diskManager = diskManager;
         // TODO: lsn should be persisted on disk
-        nextLsn = new AtomicInteger(0);
-        lastLsn = new AtomicInteger(Config.INVALID_LSN);
+        reservation = new AtomicLong(0);
         flushedLsn = new AtomicInteger(Config.INVALID_LSN);
 
         whetherFlush = new AtomicBoolean(false);
         flushService = Executors.newSingleThreadExecutor();
-        whetherCheckpoint = new AtomicBoolean(false);
-        logFileLength = new AtomicInteger(0);
+        flushRequest = new Object();
+        logFileLength = new AtomicLong(0);
+        flushNum = new AtomicLong(0);
+        commitNum = new AtomicLong(0);
+        syncLatency = new LatencyHistogram();
+        durability = Durability.GROUP;
+        flushWaiters = new ConcurrentSkipListMap<>();
+        asyncCommitTime = 0;
+        asyncCommitLsn = Config.INVALID_LSN;
 //        this.periodicalFlushService.execute(new periodicalFlush());
     }
 
     /**
-     *
+     * Flush published records when asked, or after timeout
      */
     private class flushThread implements Runnable {
-        private final LogManager logManager;
-
-        public flushThread(LogManager logManager) {
-            this.logManager = logManager;
-        }
 
         @Override
         public void run() {
             System.out.println("flush thread is on");
             while (Config.ENABLE_LOGGING && !Thread.interrupted()) {
-                synchronized (this) {
-                    while (!whetherFlush.get()) {
-                        try {
-                            this.wait(Config.LOGGING_TIMEOUT);
-//                            System.out.println("flush after timeout");
-                            // flush after timeout
-                            _flushLogBuffer();
-                        } catch (InterruptedException e) {
-                            e.printStackTrace();
+                synchronized (flushRequest) {
+                    try {
+                        long idleStartTime = System.nanoTime();
+                        while (Config.ENABLE_LOGGING && !whetherFlush.get() && flushWaiters.isEmpty()) {
+                            // an asynchronous commit is forced within its window
+                            long waitTime = asyncCommitTime != 0
+                                    ? asyncCommitTime + Config.ASYNC_COMMIT_WINDOW * 1000000L - System.nanoTime()
+                                    : idleStartTime + Config.LOGGING_TIMEOUT * 1000000L - System.nanoTime();
+                            if (waitTime <= 0) break;
+                            flushRequest.wait(waitTime / 1000000, (int) (waitTime % 1000000));
                         }
-                    }
-
-                    if (whetherFlush.get()) {
-//                        System.out.println("flush not after timeout");
-                        // flush when awaken
-                        _flushLogBuffer();
-                        whetherFlush.set(false);
-                        // must get lock on logManager itself here
-                        synchronized (logManager) {
-                            logManager.notify();
+                        // group commit: commits arriving within the window join the flush
+                        long groupEndTime = groupStartTime + Config.GROUP_COMMIT_WINDOW * 1000L;
+                        while (Config.ENABLE_LOGGING && !whetherFlush.get() && !flushWaiters.isEmpty()
+                                && getUnflushedBytes() < Config.GROUP_COMMIT_BYTES && !whetherLoneCommit()) {
+                            long waitTime = groupEndTime - System.nanoTime();
+                            if (waitTime <= 0) break;
+                            flushRequest.wait(waitTime / 1000000, (int) (waitTime % 1000000));
                         }
+                    } catch (InterruptedException e) {
+                        e.printStackTrace();
                     }
+                    whetherFlush.set(false);
+                }
+                // flush when awaken, e.g., a buffer is sealed or commits wait, or after timeout
+                _flushLogBuffer(false);
+                synchronized (flushRequest) {
+                    if (flushedLsn.get() >= asyncCommitLsn) asyncCommitTime = 0;
                 }
             }
             System.out.println("flush thread is off");
@@ -108,7 +197,7 @@ public class LogManager implements Serializable {
     public void startFlushService() {
         if (Config.ENABLE_LOGGING) return;
         Config.ENABLE_LOGGING = true;
-        this.flushService.execute(new flushThread(this));
+        this.flushService.execute(new flushThread());
     }
 
     /**
@@ -118,75 +207,191 @@ public class LogManager implements Serializable {
      * @return
      */
     public int appendLogRecord(LogRecord logRecord, boolean flushNow, boolean whetherCheckpoint) {
-        // TODO
-        synchronized (this) {
-            if (logRecord.getLogSize() <= 0) return -1;
-            int lsn = nextLsn.getAndIncrement();
+        int lsn, offset, logSize;
+        LogBuffer logBuffer;
+        while (true) {
+            long reserved = this.reservation.get();
+            offset = (int) reserved;
+            if (offset > Config.LOG_SIZE) {
+                // another record overflows the buffer, retry after its writer switches buffers
+                Thread.yield();
+                continue;
+            }
+            lsn = (int) (reserved >>> 32);
+            // the size of a record depends on its lsn, see `LogFormat`
             logRecord.setLsn(lsn);
-//            System.out.println(logRecord.toString() + ", " + appendLogBuffer.position());
-//            System.out.println(lsn + ": " + (appendLogBuffer == testAppendLogBuffer));
-            if (logRecord.getLogSize() > appendLogBuffer.remaining()) {
+            logSize = logRecord.getLogSize();
+            if (logSize <= 0) return -1;
+            if (logSize > Config.LOG_SIZE)
+                throw new RuntimeException("Log record of " + logSize + " bytes does not fit in a log buffer.");
+            if (!this.reservation.compareAndSet(reserved, reserved + (1L << 32) + logSize)) continue;
+
+            if (offset + logSize <= Config.LOG_SIZE) {
+                // not switched before the record is published, see `switchLogBuffer`
+                logBuffer = this.appendLogBuffer;
+            } else {
+                // the record overflows the buffer, the writer of it switches buffers
 //                System.out.println("append buffer is full");
-//                flushLogBuffer();
+                logBuffer = this.switchLogBuffer(offset, lsn, logSize);
+                offset = 0;
+            }
+            break;
+        }
 
-//                if (appendLogBuffer == testAppendLogBuffer) {
-//                    System.out.println("append is full");
-//                } else {
-//                    System.out.println("flush is full");
-//                }
+//        System.out.println(logRecord.toString() + ", " + offset);
+        // encoded in place, the reserved slice belongs to this writer only
+        logRecord.writeTo(logBuffer.logData, offset);
+        logBuffer.publish(offset, logSize, lsn);
 
-                whetherFlush.set(true);
+        if (flushNow) {
+            // flush commit or abort or checkpoint records to disk
+            if (whetherCheckpoint) {
+                System.out.println("appending checkpoint record");
+                _flushLogBuffer(true);
+            } else {
+                // make sure such records are permanently stored on disk, in a group commit
+                flushAsync(lsn).join();
 
-                notify();
+                // here we can tell the outside whether the txn is committed or aborted
+                System.out.println("commit or abort record has been on disk");
+            }
+        }
 
-                while (Config.ENABLE_LOGGING && whetherFlush.get()) {
-//                    System.out.println("waiting");
-                    try {
-                        wait();
-                    } catch (InterruptedException e) {
-                        e.printStackTrace();
+        return lsn;
+    }
+
+    /**
+     * Durability of commits of the database, transactions may override it
+     * @param durability
+     */
+    public void setDurability(Durability durability) {
+        this.durability = durability;
+    }
+
+    public Durability getDurability() {
+        return this.durability;
+    }
+
+    /**
+     * Acknowledge a commit record as its durability allows
+     * @param lsn lsn of the commit record
+     * @param durability
+     * @return completed when the commit can be acknowledged
+     */
+    public CompletableFuture<Void> commitAsync(int lsn, Durability durability) {
+        commitNum.incrementAndGet();
+        switch (durability) {
+            case SYNC:
+                if (flushedLsn.get() < lsn) _flushLogBuffer(false);
+                return CompletableFuture.completedFuture(null);
+            case ASYNC:
+                synchronized (this.flushRequest) {
+                    this.asyncCommitLsn = Math.max(this.asyncCommitLsn, lsn);
+                    if (this.asyncCommitTime == 0) {
+                        this.asyncCommitTime = System.nanoTime();
+                        // the flush thread may be idle for longer than the window
+                        this.flushRequest.notify();
                     }
                 }
+                return CompletableFuture.completedFuture(null);
+            default:
+                return flushAsync(lsn);
+        }
+    }
 
-//                if (appendLogBuffer == testAppendLogBuffer) {
-//                    System.out.println("use append when full");
-//                } else {
-//                    System.out.println("use full when full");
-//                }
-            }
+    /**
+     * Wait for records up to the lsn to be durable, flushed together with records of other waiting commits.
+     * The future is completed by the thread flushing, so actions depending on it must not block on the log manager
+     * @param lsn
+     * @return
+     */
+    public CompletableFuture<Void> flushAsync(int lsn) {
+        if (flushedLsn.get() >= lsn) return CompletableFuture.completedFuture(null);
+        if (!Config.ENABLE_LOGGING) {
+            // no flush thread to wait for
+            _flushLogBuffer(false);
+            return CompletableFuture.completedFuture(null);
+        }
 
-//            System.out.println(lsn + ": " + (appendLogBuffer == testAppendLogBuffer));
-            appendLogBuffer.put(Arrays.copyOfRange(
-                    logRecord.getLogRecordBuffer().array(), 0, logRecord.getLogSize()));
-
-            lastLsn.set(lsn);
-
-            if (flushNow) {
-                // flush commit or abort or checkpoint records to disk
-                if (whetherCheckpoint) {
-                    System.out.println("appending checkpoint record");
-                    flushLogBuffer(true, true);
-                    this.whetherCheckpoint.set(false);
-                    return logFileLength.get();
-                } else {
-                    flushLogBuffer(false, false);
-
-                    // make sure such records are permanently stored on disk
-                    while (Config.ENABLE_LOGGING && whetherFlush.get()) {
-//                    System.out.println("waiting");
-                        try {
-                            wait();
-                        } catch (InterruptedException e) {
-                            e.printStackTrace();
-                        }
-                    }
+        CompletableFuture<Void> future;
+        synchronized (this.flushRequest) {
+            if (this.flushWaiters.isEmpty()) this.groupStartTime = System.nanoTime();
+            future = this.flushWaiters.computeIfAbsent(lsn, waitLsn -> new CompletableFuture<>());
+            // the flush thread checks the byte threshold again
+            this.flushRequest.notify();
+        }
+        // a flush may have taken the lsn meanwhile
+        if (flushedLsn.get() >= lsn) completeFlushWaiters();
 
-                    // here we can tell the outside whether the txn is committed or aborted
-                    System.out.println("commit or abort record has been on disk");
-                }
-            }
+        return future;
+    }
+
+    /**
+     * Whether a single commit waits and no writer is appending a record, so no commit is about to join its flush
+     * @return
+     */
+    private boolean whetherLoneCommit() {
+        if (this.flushWaiters.size() != 1) return false;
+        // reserved records are all published
+        return (int) this.reservation.get() == (int) this.appendLogBuffer.published.get();
+    }
 
-            return lsn;
+    private void completeFlushWaiters() {
+        ConcurrentNavigableMap<Integer, CompletableFuture<Void>> flushedWaiters = this.flushWaiters.headMap(flushedLsn.get(), true);
+        Map.Entry<Integer, CompletableFuture<Void>> flushedWaiter;
+        while ((flushedWaiter = flushedWaiters.pollFirstEntry()) != null) flushedWaiter.getValue().complete(null);
+    }
+
+    /**
+     * Log bytes published but not on disk
+     * @return
+     */
+    private int getUnflushedBytes() {
+        LogBuffer logBuffer = this.appendLogBuffer;
+        int unflushedBytes = (int) logBuffer.published.get() - logBuffer.flushedOffset;
+        // the other buffer is all waiting if it is sealed
+        LogBuffer otherLogBuffer = logBuffer == this.logBuffers[0] ? this.logBuffers[1] : this.logBuffers[0];
+        if (this.sealedLogBuffer == otherLogBuffer) unflushedBytes += Config.LOG_SIZE;
+        return unflushedBytes;
+    }
+
+    /**
+     * Seal the active buffer and make the other one active,
+     * called by the writer of the record overflowing the active buffer only
+     * @param endOffset offset of the overflowing record, where records of the full buffer end
+     * @param lsn lsn of the overflowing record
+     * @param logSize size of the overflowing record
+     * @return the buffer now active, the record takes its start
+     */
+    private LogBuffer switchLogBuffer(int endOffset, int lsn, int logSize) {
+        LogBuffer fullLogBuffer = this.appendLogBuffer;
+        // records reserved before the overflowing one are copied in first
+        fullLogBuffer.awaitPublished(endOffset);
+
+        LogBuffer nextLogBuffer = fullLogBuffer == this.logBuffers[0] ? this.logBuffers[1] : this.logBuffers[0];
+        synchronized (this) {
+            // the other buffer is reused only after it is on disk
+            if (this.sealedLogBuffer != null) _flushLogBuffer(false);
+            this.sealedLogBuffer = fullLogBuffer;
+            nextLogBuffer.reset();
+            // the buffer goes first, writers reserving in it must find it
+            this.appendLogBuffer = nextLogBuffer;
+            // writers reserving meanwhile retry, so lsns have no gaps
+            this.reservation.set(((long) (lsn + 1) << 32) | logSize);
+        }
+        this.requestFlush();
+
+        return nextLogBuffer;
+    }
+
+    /**
+     * Wake the flush thread
+     */
+    private void requestFlush() {
+        if (!Config.ENABLE_LOGGING) return;
+        synchronized (this.flushRequest) {
+            this.whetherFlush.set(true);
+            this.flushRequest.notify();
         }
     }
 
@@ -194,63 +399,65 @@ public class LogManager implements Serializable {
      *
      */
     public void flushLogBuffer(boolean whetherForce, boolean whetherCheckpoint) {
-        synchronized (this) {
-            while (Config.ENABLE_LOGGING && whetherFlush.get()) {
-//                System.out.println("waiting");
-                try {
-                    wait();
-                } catch (InterruptedException e) {
-                    e.printStackTrace();
-                }
-            }
-
-            if (!whetherForce) {
-                // not force, instead of using flush thread
-                whetherFlush.set(true);
-//                this.whetherCheckpoint.set(whetherCheckpoint);
-                notify();
-            } else {
-                // force to flush when writing dirty pages to disk
-                this.whetherCheckpoint.set(whetherCheckpoint);
-                _flushLogBuffer();
-            }
+        if (!whetherForce) {
+            // not force, instead of using flush thread
+            this.requestFlush();
+        } else {
+            // force to flush when writing dirty pages to disk
+            _flushLogBuffer(whetherCheckpoint);
         }
     }
 
-    private void _flushLogBuffer() {
+    /**
+     * Write the sealed buffer, then the published prefix of the active one, and sync them
+     * @param whetherCheckpoint whether to record the log file length before the flush, see `getLogFileLength`
+     */
+    private void _flushLogBuffer(boolean whetherCheckpoint) {
         synchronized (this) {
-//            if (curFlushLogBuffer == testFlushLogBuffer) {
-//                System.out.println("use flush");
-//            } else {
-//                System.out.println("use append");
-//            }
-            if (curFlushLogBuffer.remaining() < Config.LOG_SIZE) {
-//                if (curFlushLogBuffer == testFlushLogBuffer) {
-//                    System.out.println("use flush");
-//                } else {
-//                    System.out.println("use append");
-//                }
-//                diskManager.writeLog(curFlushLogBuffer.array());
-                int logFileLength = diskManager.writeLog(
-                        Arrays.copyOfRange(curFlushLogBuffer.array(), 0, curFlushLogBuffer.position()), whetherCheckpoint.get());
-                if (whetherCheckpoint.get() && logFileLength != -1) {
-//                    System.out.println("record checkpoint");
-                    this.logFileLength.set(logFileLength);
-                }
-//                System.out.println("flush to disk");
-                flushedLsn.set(lastLsn.get());
-                // TODO: optimization needed
-                for (int i = 0; i < curFlushLogBuffer.limit(); i++) {
-                    curFlushLogBuffer.put(i, (byte) 0);
-                }
-                curFlushLogBuffer.clear();
-                curFlushLogBuffer = flushLogBuffer;
-                swapLogBuffer();
+            int lastLsn = Config.INVALID_LSN;
+            // buffers are switched under the monitor, so the sealed buffer is older than the active one
+            LogBuffer sealedLogBuffer = this.sealedLogBuffer;
+            if (sealedLogBuffer != null) {
+                lastLsn = writeLogBuffer(sealedLogBuffer, sealedLogBuffer.published.get(), whetherCheckpoint);
+                if (lastLsn != Config.INVALID_LSN) whetherCheckpoint = false;
+                this.sealedLogBuffer = null;
+            }
+            int activeLastLsn = writeLogBuffer(this.appendLogBuffer, this.appendLogBuffer.published.get(), whetherCheckpoint);
+            if (activeLastLsn != Config.INVALID_LSN) lastLsn = activeLastLsn;
+            if (lastLsn != Config.INVALID_LSN) {
+                // one fsync for all records flushed together
+                long startTime = System.nanoTime();
+                diskManager.syncLog();
+                syncLatency.record(System.nanoTime() - startTime);
+                flushNum.incrementAndGet();
+                flushedLsn.set(lastLsn);
             }
 //            else {
 //                System.out.println("nothing to flush");
 //            }
         }
+        completeFlushWaiters();
+    }
+
+    /**
+     * Must be called while holding the monitor
+     * @param logBuffer
+     * @param published published prefix of the buffer
+     * @param whetherCheckpoint
+     * @return lsn of the last record written, Config.INVALID_LSN if there is nothing new to write
+     */
+    private int writeLogBuffer(LogBuffer logBuffer, long published, boolean whetherCheckpoint) {
+        int publishedOffset = (int) published;
+        if (publishedOffset <= logBuffer.flushedOffset) return Config.INVALID_LSN;
+        long logFileLength = diskManager.writeLog(logBuffer.logData, logBuffer.flushedOffset,
+                publishedOffset - logBuffer.flushedOffset, whetherCheckpoint);
+        if (whetherCheckpoint && logFileLength != -1) {
+//            System.out.println("record checkpoint");
+            this.logFileLength.set(logFileLength);
+        }
+//        System.out.println("flush to disk");
+        logBuffer.flushedOffset = publishedOffset;
+        return (int) (published >> 32);
     }
 
     /**
@@ -258,8 +465,11 @@ public class LogManager implements Serializable {
      */
     public void closeFlushService() {
         if (!Config.ENABLE_LOGGING) return;
-        flushLogBuffer(false, false);
+        flushLogBuffer(true, false);
         Config.ENABLE_LOGGING = false;
+        synchronized (this.flushRequest) {
+            this.flushRequest.notify();
+        }
         this.flushService.shutdown();
         try {
             while (!this.flushService.awaitTermination(Config.LOGGING_TIMEOUT, TimeUnit.MILLISECONDS)) {
@@ -271,18 +481,56 @@ public class LogManager implements Serializable {
         System.out.println("flush service is terminated");
     }
 
+    /**
+     * Log file length right before the last checkpoint record was flushed,
+     * i.e., the offset of the checkpoint in the log file
+     * @return
+     */
+    public long getLogFileLength() {
+        return logFileLength.get();
+    }
+
+    /**
+     * Records up to it are durable
+     * @return
+     */
     public int getFlushedLsn() {
         return flushedLsn.get();
     }
 
-    public int getNextLsn() {
-        return nextLsn.get();
+    /**
+     * Number of flushes, each one a log write with an fsync
+     * @return
+     */
+    public long getFlushNum() {
+        return flushNum.get();
     }
 
-    private void swapLogBuffer() {
-        tmpLogBuffer = appendLogBuffer;
-        appendLogBuffer = flushLogBuffer;
-        flushLogBuffer = tmpLogBuffer;
+    public long getCommitNum() {
+        return commitNum.get();
+    }
+
+    /**
+     * Commits made durable by one fsync on average, including asynchronous ones
+     * @return
+     */
+    public double getCommitsPerFlush() {
+        long flushNum = this.flushNum.get();
+        return flushNum == 0 ? 0 : (double) commitNum.get() / flushNum;
+    }
+
+    /**
+     * Time taken by log forces
+     * @return
+     */
+    public LatencyHistogram.Snapshot getSyncLatency() {
+        return syncLatency.snapshot();
+    }
+
+    public int getNextLsn() {
+        long reserved = reservation.get();
+        // while the active buffer is full, failed reservations are counted too
+        return (int) (reserved >>> 32);
     }
 
     // belows are test helper functions
@@ -292,13 +540,14 @@ public class LogManager implements Serializable {
      */
     public void logCrash() {
         flushService.shutdown();
-        for (int i = 0; i < appendLogBuffer.limit(); i++) {
-            appendLogBuffer.put(i, (byte) 0);
-        }
-        appendLogBuffer.clear();
-        for (int i = 0; i < flushLogBuffer.limit(); i++) {
-            flushLogBuffer.put(i, (byte) 0);
+        synchronized (this) {
+            for (LogBuffer logBuffer : logBuffers) {
+                Arrays.fill(logBuffer.logData, (byte) 0);
+                logBuffer.reset();
+            }
+            sealedLogBuffer = null;
+            appendLogBuffer = logBuffers[0];
+            reservation.set((long) getNextLsn() << 32);
         }
-        flushLogBuffer.clear();
     }
 }
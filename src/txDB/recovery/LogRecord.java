@@ -1,24 +1,29 @@
 package txDB.recovery;
 
 import txDB.Config;
+import txDB.concurrency.Transaction;
 import txDB.storage.table.RecordID;
 import txDB.storage.table.Tuple;
 
 import java.io.*;
 import java.nio.ByteBuffer;
+import java.util.Map;
 
 public class LogRecord implements Serializable {
     /**
-     * TODO: should consider if logRecordBuffer does not have enough space
-     *  one solution is to allocate enough space at the first
+     * A record only computes its size when built, it is encoded by `writeTo` straight into the slice of the log buffer
+     * reserved for it, so records of any size are appended without allocating or copying twice.
+     * The encoding is described in `LogFormat`, records are read back by `LogDecoder`.
+     * Lsns are encoded relative to the lsn of the record, so the size is final only after `setLsn`.
      */
     public enum LogRecordType {INVALID, INSERT, UPDATE, BEGIN, COMMIT, ABORT, CLR, END, CBEGIN, CEND}
     private int logSize = 0;
+    // bytes of the record not depending on its lsn
+    private int fixedSize = 0;
     private LogRecordType logRecordType = LogRecordType.INVALID;
     private int txnId = Config.INVALID_TXN_ID;
     private int lsn = Config.INVALID_LSN;
     private int prevLsn = Config.INVALID_LSN;
-    private ByteBuffer logRecordBuffer = ByteBuffer.allocate(1024);
 
     private RecordID recordID;
 
@@ -32,6 +37,10 @@ public class LogRecord implements Serializable {
     // For CLR
     private int undoNext = Config.INVALID_LSN;
 
+    // For checkpoint end
+    private ActiveTxnsAndDirtyPages activeTxnsAndDirtyPages;
+    private byte[] checkpointBytes;
+
     /**
      * For transaction begin/commit/abort
      * @param txnId
@@ -41,16 +50,8 @@ public class LogRecord implements Serializable {
         this.prevLsn = prevLsn;
         this.txnId = txnId;
         this.logRecordType = logRecordType;
-        logSize = 24;
-
-        logRecordBuffer.putInt(0, logSize);
-        logRecordBuffer.putInt(8, prevLsn);
-        logRecordBuffer.putInt(12, txnId);
-        int i = 0;
-        for (byte v: logRecordType.name().getBytes()) {
-            logRecordBuffer.put(16 + i, v);
-            i++;
-        }
+        fixedSize = LogFormat.HEADER_SIZE + LogFormat.varIntSize(txnId);
+        setLsn(lsn);
     }
 
     /**
@@ -66,25 +67,9 @@ public class LogRecord implements Serializable {
         this.logRecordType = logRecordType;
         this.recordID = recordID;
         this.tuple = tuple;
-
-        logRecordBuffer.putInt(8, prevLsn);
-        logRecordBuffer.putInt(12, txnId);
-        int i = 0;
-        for (byte v: logRecordType.name().getBytes()) {
-            logRecordBuffer.put(16 + i, v);
-            i++;
-        }
-        logRecordBuffer.putInt(24, recordID.getPageId());
-        logRecordBuffer.putInt(28, recordID.getTupleIndex());
-        i = 0;
-        // TODO: length of tuple data should be checked
-        for (byte v: tuple.getTupleData()) {
-            logRecordBuffer.put(32 + i, v);
-            i++;
-        }
-        logSize = 32 + i;
+        fixedSize = LogFormat.HEADER_SIZE + LogFormat.varIntSize(txnId) + recordIDSize() + tuple.getTupleSize();
+        setLsn(lsn);
 //        System.out.println(recordID.getPageId() + ", " + recordID.getTupleIndex() + ": " + logSize);
-        logRecordBuffer.putInt(0, logSize);
     }
 
     /**
@@ -100,27 +85,10 @@ public class LogRecord implements Serializable {
         this.recordID = recordID;
         this.oldTuple = oldTuple;
         this.newTuple = newTuple;
-
-        logRecordBuffer.putInt(8, prevLsn);
-        logRecordBuffer.putInt(12, txnId);
-        int i = 0;
-        for (byte v: logRecordType.name().getBytes()) {
-            logRecordBuffer.put(16 + i, v);
-            i++;
-        }
-        logRecordBuffer.putInt(24, recordID.getPageId());
-        logRecordBuffer.putInt(28, recordID.getTupleIndex());
-        logRecordBuffer.putInt(32, oldTuple.getTupleSize());
-        for (i = 0; i < oldTuple.getTupleSize(); i++) {
-            logRecordBuffer.put(36 + i, oldTuple.getTupleData()[i]);
-        }
-        logRecordBuffer.putInt(36 + oldTuple.getTupleSize(), newTuple.getTupleSize());
-        for (i = 0; i < newTuple.getTupleSize(); i++) {
-            logRecordBuffer.put(40 + oldTuple.getTupleSize() + i, newTuple.getTupleData()[i]);
-        }
-        logSize = 40 + oldTuple.getTupleSize() + i;
+        fixedSize = LogFormat.HEADER_SIZE + LogFormat.varIntSize(txnId) + recordIDSize()
+                + LogFormat.varIntSize(oldTuple.getTupleSize()) + oldTuple.getTupleSize() + newTuple.getTupleSize();
+        setLsn(lsn);
 //        System.out.println(recordID.getPageId() + ", " + recordID.getTupleIndex() + ": " + logSize);
-        logRecordBuffer.putInt(0, logSize);
     }
 
     /**
@@ -141,28 +109,10 @@ public class LogRecord implements Serializable {
         this.oldTuple = oldTuple;
         this.newTuple = newTuple;
         this.undoNext = undoNext;
-
-        logRecordBuffer.putInt(8, prevLsn);
-        logRecordBuffer.putInt(12, txnId);
-        int i = 0;
-        for (byte v: logRecordType.name().getBytes()) {
-            logRecordBuffer.put(16 + i, v);
-            i++;
-        }
-        logRecordBuffer.putInt(24, recordID.getPageId());
-        logRecordBuffer.putInt(28, recordID.getTupleIndex());
-        logRecordBuffer.putInt(32, oldTuple.getTupleSize());
-        for (i = 0; i < oldTuple.getTupleSize(); i++) {
-            logRecordBuffer.put(36 + i, oldTuple.getTupleData()[i]);
-        }
-        logRecordBuffer.putInt(36 + oldTuple.getTupleSize(), newTuple.getTupleSize());
-        for (i = 0; i < newTuple.getTupleSize(); i++) {
-            logRecordBuffer.put(40 + oldTuple.getTupleSize() + i, newTuple.getTupleData()[i]);
-        }
-        logRecordBuffer.putInt(40 + oldTuple.getTupleSize() + i, undoNext);
-        logSize = 44 + oldTuple.getTupleSize() + i;
+        fixedSize = LogFormat.HEADER_SIZE + LogFormat.varIntSize(txnId) + recordIDSize()
+                + LogFormat.varIntSize(oldTuple.getTupleSize()) + oldTuple.getTupleSize() + newTuple.getTupleSize();
+        setLsn(lsn);
 //        System.out.println(recordID.getPageId() + ", " + recordID.getTupleIndex() + ": " + logSize);
-        logRecordBuffer.putInt(0, logSize);
     }
 
     /**
@@ -173,19 +123,12 @@ public class LogRecord implements Serializable {
     public LogRecord(int prevLsn, LogRecordType logRecordType) {
         this.prevLsn = prevLsn;
         this.logRecordType = logRecordType;
-        logSize = 20;
-
-        logRecordBuffer.putInt(0, logSize);
-        logRecordBuffer.putInt(8, prevLsn);
-        int i = 0;
-        for (byte v: logRecordType.name().getBytes()) {
-            logRecordBuffer.put(12 + i, v);
-            i++;
-        }
+        fixedSize = LogFormat.HEADER_SIZE;
+        setLsn(lsn);
     }
 
     /**
-     * For checkpoint end
+     * For checkpoint end, the tables are encoded at once, they are snapshots taken for the record
      * @param prevLsn
      * @param logRecordType
      * @param activeTxnsAndDirtyPages
@@ -193,37 +136,83 @@ public class LogRecord implements Serializable {
     public LogRecord(int prevLsn, LogRecordType logRecordType, ActiveTxnsAndDirtyPages activeTxnsAndDirtyPages) {
         this.prevLsn = prevLsn;
         this.logRecordType = logRecordType;
-
-        logRecordBuffer.putInt(8, prevLsn);
-        int i = 0;
-        for (byte v: logRecordType.name().getBytes()) {
-            logRecordBuffer.put(12 + i, v);
-            i++;
+        this.activeTxnsAndDirtyPages = activeTxnsAndDirtyPages;
+
+        Map<Integer, Transaction.TransactionState> activeTxnMap = activeTxnsAndDirtyPages.getActiveTxnMap();
+        Map<Integer, Integer> dirtyPageMap = activeTxnsAndDirtyPages.getDirtyPageMap();
+        int size = LogFormat.varIntSize(activeTxnMap.size()) + LogFormat.varIntSize(dirtyPageMap.size());
+        for (Map.Entry<Integer, Transaction.TransactionState> activeTxn : activeTxnMap.entrySet())
+            size += LogFormat.varIntSize(activeTxn.getKey()) + 1;
+        for (Map.Entry<Integer, Integer> dirtyPage : dirtyPageMap.entrySet())
+            size += LogFormat.varIntSize(dirtyPage.getKey()) + LogFormat.varIntSize(dirtyPage.getValue());
+
+        checkpointBytes = new byte[size];
+        int offset = LogFormat.putVarInt(checkpointBytes, 0, activeTxnMap.size());
+        for (Map.Entry<Integer, Transaction.TransactionState> activeTxn : activeTxnMap.entrySet()) {
+            offset = LogFormat.putVarInt(checkpointBytes, offset, activeTxn.getKey());
+            checkpointBytes[offset++] = (byte) activeTxn.getValue().ordinal();
         }
+        offset = LogFormat.putVarInt(checkpointBytes, offset, dirtyPageMap.size());
+        for (Map.Entry<Integer, Integer> dirtyPage : dirtyPageMap.entrySet()) {
+            offset = LogFormat.putVarInt(checkpointBytes, offset, dirtyPage.getKey());
+            offset = LogFormat.putVarInt(checkpointBytes, offset, dirtyPage.getValue());
+        }
+//        System.out.println("encoded checkpoint: " + checkpointBytes.length);
 
-//        System.out.println("start serialize object");
-
-        try {
-            ByteArrayOutputStream bos = new ByteArrayOutputStream();
-            ObjectOutput out = new ObjectOutputStream(bos);
-            out.writeObject(activeTxnsAndDirtyPages);
-            byte[] activeTxnMapBytes = bos.toByteArray();
-//            System.out.println("serialized object: " + activeTxnMapBytes.length);
+        fixedSize = LogFormat.HEADER_SIZE + checkpointBytes.length;
+        setLsn(lsn);
+    }
 
-            logRecordBuffer.putInt(20, activeTxnMapBytes.length);
-            for (i = 0; i < activeTxnMapBytes.length; i++) {
-                logRecordBuffer.put(24 + i, activeTxnMapBytes[i]);
-            }
+    public LogRecord() {}
 
-            logSize = 24 + i;
-            logRecordBuffer.putInt(0, logSize);
+    private int recordIDSize() {
+        return LogFormat.varIntSize(recordID.getPageId()) + LogFormat.varIntSize(recordID.getTupleIndex());
+    }
 
-        } catch (IOException e) {
-            e.printStackTrace();
+    /**
+     * Encode the record, its lsn must be set
+     * @param logData
+     * @param offset start of logSize bytes reserved for the record
+     */
+    public void writeTo(byte[] logData, int offset) {
+        logData[offset + LogFormat.OPCODE_OFFSET] = (byte) LogFormat.opcodeOf(logRecordType);
+        int cursor = LogFormat.putVarInt(logData, offset + LogFormat.HEADER_SIZE, lsn);
+        cursor = LogFormat.putVarInt(logData, cursor, LogFormat.zigZag(lsn - prevLsn));
+        if (logRecordType == LogRecordType.CEND) {
+            System.arraycopy(checkpointBytes, 0, logData, cursor, checkpointBytes.length);
+        } else if (logRecordType != LogRecordType.CBEGIN) {
+            cursor = LogFormat.putVarInt(logData, cursor, txnId);
+            if (recordID != null) {
+                cursor = LogFormat.putVarInt(logData, cursor, recordID.getPageId());
+                cursor = LogFormat.putVarInt(logData, cursor, recordID.getTupleIndex());
+                if (logRecordType == LogRecordType.INSERT) {
+                    System.arraycopy(tuple.getTupleData(), 0, logData, cursor, tuple.getTupleSize());
+                } else {
+                    if (logRecordType == LogRecordType.CLR)
+                        cursor = LogFormat.putVarInt(logData, cursor, LogFormat.zigZag(lsn - undoNext));
+                    cursor = LogFormat.putVarInt(logData, cursor, oldTuple.getTupleSize());
+                    System.arraycopy(oldTuple.getTupleData(), 0, logData, cursor, oldTuple.getTupleSize());
+                    cursor += oldTuple.getTupleSize();
+                    System.arraycopy(newTuple.getTupleData(), 0, logData, cursor, newTuple.getTupleSize());
+                }
+            }
         }
+
+        LogFormat.putInt(logData, offset, logSize);
+        LogFormat.putInt(logData, offset + LogFormat.CHECKSUM_OFFSET, LogFormat.checksumOf(logData, offset, logSize));
     }
 
-    public LogRecord() {}
+    /**
+     * Encode the record into a buffer of its own, e.g., for tests
+     * @return
+     */
+    public ByteBuffer getLogRecordBuffer() {
+        byte[] logData = new byte[logSize];
+        writeTo(logData, 0);
+        ByteBuffer logRecordBuffer = ByteBuffer.wrap(logData);
+        logRecordBuffer.position(logSize);
+        return logRecordBuffer;
+    }
 
     public int getTxnId() {
         return txnId;
@@ -245,24 +234,28 @@ public class LogRecord implements Serializable {
         return logRecordType;
     }
 
-    public ByteBuffer getLogRecordBuffer() {
-        return logRecordBuffer;
-    }
-
     public int getLsn() {
         return lsn;
     }
 
+    /**
+     * Set the lsn, the size of the record follows
+     * @param lsn
+     */
     public void setLsn(int lsn) {
         this.lsn = lsn;
-        logRecordBuffer.putInt(4, lsn);
-        logRecordBuffer.position(logSize);
+        logSize = fixedSize + LogFormat.varIntSize(lsn) + LogFormat.varIntSize(LogFormat.zigZag(lsn - prevLsn));
+        if (logRecordType == LogRecordType.CLR) logSize += LogFormat.varIntSize(LogFormat.zigZag(lsn - undoNext));
     }
 
     public RecordID getRecordID() {
         return recordID;
     }
 
+    public Tuple getTuple() {
+        return tuple;
+    }
+
     public Tuple getOldTuple() {
         return oldTuple;
     }
@@ -271,15 +264,22 @@ public class LogRecord implements Serializable {
         return newTuple;
     }
 
+    public int getUndoNext() {
+        return undoNext;
+    }
+
+    public ActiveTxnsAndDirtyPages getActiveTxnsAndDirtyPages() {
+        return activeTxnsAndDirtyPages;
+    }
+
     // For test
     @Override
     public String toString() {
-        return "Log:[size: " + logRecordBuffer.getInt(0)
-                + ", lsn: " + logRecordBuffer.getInt(4)
-                + ", prevLsn: " + logRecordBuffer.getInt(8)
-                + ", txnId: " + logRecordBuffer.getInt(12)
-                + ", type: " + logRecordBuffer.get(16)
-                + ", pos: " + logRecordBuffer.position() + "]";
+        return "Log:[size: " + logSize
+                + ", lsn: " + lsn
+                + ", prevLsn: " + prevLsn
+                + ", txnId: " + txnId
+                + ", type: " + logRecordType + "]";
     }
 
 //    @Override
@@ -290,7 +290,6 @@ public class LogRecord implements Serializable {
 //                ", txnId=" + txnId +
 //                ", lsn=" + lsn +
 //                ", prevLsn=" + prevLsn +
-//                ", logRecordBuffer=" + logRecordBuffer +
 //                ", recordID=" + recordID +
 //                ", tuple=" + tuple +
 //                ", oldTuple=" + oldTuple +
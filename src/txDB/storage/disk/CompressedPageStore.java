@@ -0,0 +1,443 @@
+package txDB.storage.disk;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Pages compressed into variable-size slots of a database file, below `DiskManager`, so page formats do not change.
+ * A slot starts at a multiple of SLOT_ALIGNMENT bytes:
+ * | PageId (4) | StoredLength (4) | Sequence (8) | CRC32 (4) | data ... padding |
+ * data is deflated at the fastest level, or the raw page if it does not shrink.
+ *
+ * A page is never rewritten in place: every write goes to a free slot or the end of the store,
+ * and the old slot is freed only after the new one is forced to disk by `sync`, at a checkpoint, at close,
+ * or when too many freed bytes are pending, so a torn write or a crash never loses the last good copy.
+ * The sequence of every write is larger than all before, so the newest slot of a page wins.
+ * The page id to slot map lives in memory, it is persisted at close and removed while the store is open,
+ * after a crash it is rebuilt by scanning the slots.
+ * Readers do not lock the slot they read, a slot reused or rewritten meanwhile fails its check and is read again.
+ */
+public class CompressedPageStore {
+    private static final int SLOT_ALIGNMENT = 512;
+    private static final int SLOT_HEADER_SIZE = 20;
+    private static final int READ_RETRIES = 3;
+    // freed bytes waiting for a force before the store syncs by itself
+    private static final long MAX_PENDING_FREE_BYTES = 4L << 20;
+
+    private FileChannel dbFileRead;
+    private FileChannel dbFileWrite;
+    private long startOffset;
+    private int pageSize;
+    private File slotMapFile;
+    private HashMap<Integer, Slot> slotMap;
+    // free slots by size in bytes
+    private TreeMap<Integer, ArrayDeque<Long>> freeSlots;
+    // freed slots not reusable before the slots superseding them are forced
+    private ArrayList<Slot> pendingFreeSlots;
+    private long pendingFreeBytes;
+    private long endOffset;
+    private long sequence;
+    private long storedBytes;
+    private ThreadLocal<Deflater> deflaters;
+    private ThreadLocal<Inflater> inflaters;
+
+    private static class Slot {
+        long offset;
+        int size;
+        int storedLength;
+        long sequence;
+
+        Slot(long offset, int size, int storedLength, long sequence) {
+            this.offset = offset;
+            this.size = size;
+            this.storedLength = storedLength;
+            this.sequence = sequence;
+        }
+    }
+
+    /**
+     *
+     * @param dbFileRead
+     * @param dbFileWrite
+     * @param startOffset where slots begin, right after the file header
+     * @param pageSize
+     * @param slotMapFile where the map is kept between a close and the next open
+     */
+    public CompressedPageStore(FileChannel dbFileRead, FileChannel dbFileWrite, long startOffset, int pageSize, File slotMapFile) {
+        this.dbFileRead = dbFileRead;
+        this.dbFileWrite = dbFileWrite;
+        this.startOffset = startOffset;
+        this.pageSize = pageSize;
+        this.slotMapFile = slotMapFile;
+        this.slotMap = new HashMap<>();
+        this.freeSlots = new TreeMap<>();
+        this.pendingFreeSlots = new ArrayList<>();
+        this.deflaters = ThreadLocal.withInitial(() -> new Deflater(Deflater.BEST_SPEED, true));
+        this.inflaters = ThreadLocal.withInitial(() -> new Inflater(true));
+
+        if (!this.readSlotMap()) this.scanSlots();
+        this.collectFreeSlots();
+        // a crash from now on leaves the map stale, the next open scans instead
+        if (this.slotMapFile.isFile() && !this.slotMapFile.delete())
+            throw new RuntimeException("Unable to remove page slot map.");
+    }
+
+    /**
+     *
+     * @param pageId
+     * @param pageBuffer
+     * @return false if the page is not in the store
+     */
+    public boolean readPage(int pageId, ByteBuffer pageBuffer) {
+        int retry;
+        for (retry = 0; retry <= READ_RETRIES; retry++) {
+            Slot slot;
+            synchronized (this) {
+                slot = this.slotMap.get(pageId);
+                if (slot == null) return false;
+            }
+
+            ByteBuffer slotBuffer = ByteBuffer.allocate(SLOT_HEADER_SIZE + slot.storedLength);
+            try {
+                while (slotBuffer.hasRemaining()) {
+                    if (this.dbFileRead.read(slotBuffer, slot.offset + slotBuffer.position()) <= 0) break;
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+                return false;
+            }
+            // rewritten or reused meanwhile, look it up again
+            if (!this.checkSlot(slotBuffer, pageId, slot.storedLength, slot.sequence)) continue;
+
+            this.decompress(slotBuffer.array(), SLOT_HEADER_SIZE, slot.storedLength, pageBuffer.array());
+            pageBuffer.position(this.pageSize);
+            return true;
+        }
+
+        throw new RuntimeException("Page " + pageId + " is corrupted in the compressed page store.");
+    }
+
+    public void writePage(int pageId, ByteBuffer pageBuffer) {
+        boolean whetherSync;
+        synchronized (this) {
+            whetherSync = this.pendingFreeBytes > MAX_PENDING_FREE_BYTES;
+        }
+        if (whetherSync) this.sync();
+
+        byte[] slotData = new byte[SLOT_HEADER_SIZE + this.pageSize];
+        int storedLength = this.compress(pageBuffer.array(), slotData, SLOT_HEADER_SIZE);
+        int size = slotSizeOf(storedLength);
+
+        Slot slot;
+        synchronized (this) {
+            slot = new Slot(this.allocateSlot(size), size, storedLength, ++this.sequence);
+        }
+        ByteBuffer header = ByteBuffer.wrap(slotData);
+        header.putInt(0, pageId);
+        header.putInt(4, storedLength);
+        header.putLong(8, slot.sequence);
+        header.putInt(16, crcOf(slotData, storedLength));
+
+        ByteBuffer slotBuffer = ByteBuffer.wrap(slotData, 0, SLOT_HEADER_SIZE + storedLength);
+        try {
+            while (slotBuffer.hasRemaining()) {
+                this.dbFileWrite.write(slotBuffer, slot.offset + slotBuffer.position());
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+
+        synchronized (this) {
+            Slot oldSlot = this.slotMap.put(pageId, slot);
+            if (oldSlot != null && oldSlot.sequence > slot.sequence) {
+                // a newer write of the page got in first
+                this.slotMap.put(pageId, oldSlot);
+                this.pendFreeSlot(slot);
+                return;
+            }
+            this.storedBytes += storedLength;
+            if (oldSlot != null) {
+                this.storedBytes -= oldSlot.storedLength;
+                this.pendFreeSlot(oldSlot);
+            }
+        }
+    }
+
+    /**
+     * Release the slot of a deallocated page
+     * @param pageId
+     */
+    public synchronized void freePage(int pageId) {
+        Slot slot = this.slotMap.remove(pageId);
+        if (slot == null) return;
+        this.storedBytes -= slot.storedLength;
+        this.pendFreeSlot(slot);
+    }
+
+    /**
+     * Force slots written so far, then make slots freed before reusable
+     */
+    public void sync() {
+        ArrayList<Slot> releasedSlots;
+        synchronized (this) {
+            if (this.pendingFreeSlots.isEmpty()) releasedSlots = null;
+            else {
+                releasedSlots = this.pendingFreeSlots;
+                this.pendingFreeSlots = new ArrayList<>();
+                this.pendingFreeBytes = 0;
+            }
+        }
+        try {
+            // slots superseding the released ones were written before they were pended
+            this.dbFileWrite.force(false);
+        } catch (IOException e) {
+            throw new RuntimeException("Unable to sync compressed page store.", e);
+        }
+        if (releasedSlots == null) return;
+
+        synchronized (this) {
+            for (Slot slot : releasedSlots) this.freeSlot(slot.offset, slot.size);
+        }
+    }
+
+    /**
+     * Must be called while holding the store
+     * @param slot
+     */
+    private void pendFreeSlot(Slot slot) {
+        this.pendingFreeSlots.add(slot);
+        this.pendingFreeBytes += slot.size;
+    }
+
+    /**
+     *
+     * @param page
+     * @param slotData
+     * @param from
+     * @return stored length, the page size if the page is stored raw
+     */
+    private int compress(byte[] page, byte[] slotData, int from) {
+        Deflater deflater = this.deflaters.get();
+        deflater.reset();
+        deflater.setInput(page, 0, this.pageSize);
+        deflater.finish();
+        // one byte short of a raw page, so that a page which does not shrink is told apart
+        int length = 0, maxLength = this.pageSize - 1;
+        while (!deflater.finished() && length < maxLength) {
+            length += deflater.deflate(slotData, from + length, maxLength - length);
+        }
+        if (deflater.finished()) return length;
+
+        System.arraycopy(page, 0, slotData, from, this.pageSize);
+        return this.pageSize;
+    }
+
+    private void decompress(byte[] slotData, int from, int storedLength, byte[] page) {
+        if (storedLength == this.pageSize) {
+            System.arraycopy(slotData, from, page, 0, this.pageSize);
+            return;
+        }
+        Inflater inflater = this.inflaters.get();
+        inflater.reset();
+        inflater.setInput(slotData, from, storedLength);
+        try {
+            int length = 0;
+            while (length < this.pageSize && !inflater.finished()) {
+                int inflated = inflater.inflate(page, length, this.pageSize - length);
+                if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) break;
+                length += inflated;
+            }
+            if (length != this.pageSize) throw new RuntimeException("Compressed page is " + length + " bytes after inflating.");
+        } catch (DataFormatException e) {
+            throw new RuntimeException("Unable to inflate compressed page.", e);
+        }
+    }
+
+    private static int crcOf(byte[] slotData, int storedLength) {
+        CRC32 crc = new CRC32();
+        crc.update(slotData, 0, 16);
+        crc.update(slotData, SLOT_HEADER_SIZE, storedLength);
+        return (int) crc.getValue();
+    }
+
+    private boolean checkSlot(ByteBuffer slotBuffer, int pageId, int storedLength, long sequence) {
+        if (slotBuffer.hasRemaining()) return false;
+        return slotBuffer.getInt(0) == pageId && slotBuffer.getInt(4) == storedLength && slotBuffer.getLong(8) == sequence
+                && slotBuffer.getInt(16) == crcOf(slotBuffer.array(), storedLength);
+    }
+
+    private static int slotSizeOf(int storedLength) {
+        return (SLOT_HEADER_SIZE + storedLength + SLOT_ALIGNMENT - 1) / SLOT_ALIGNMENT * SLOT_ALIGNMENT;
+    }
+
+    /**
+     * Best fit among free slots, the rest of a larger one stays free, otherwise the store grows.
+     * Must be called while holding the store
+     * @param size
+     * @return
+     */
+    private long allocateSlot(int size) {
+        Map.Entry<Integer, ArrayDeque<Long>> freeEntry = this.freeSlots.ceilingEntry(size);
+        if (freeEntry == null) {
+            long offset = this.endOffset;
+            this.endOffset += size;
+            return offset;
+        }
+
+        long offset = freeEntry.getValue().poll();
+        if (freeEntry.getValue().isEmpty()) this.freeSlots.remove(freeEntry.getKey());
+        if (freeEntry.getKey() > size) this.freeSlot(offset + size, freeEntry.getKey() - size);
+        return offset;
+    }
+
+    /**
+     * Must be called while holding the store
+     * @param offset
+     * @param size
+     */
+    private void freeSlot(long offset, int size) {
+        this.freeSlots.computeIfAbsent(size, key -> new ArrayDeque<>()).add(offset);
+    }
+
+    /**
+     * Space between live slots is free, large gaps are cut into slots of a raw page at most
+     */
+    private void collectFreeSlots() {
+        ArrayList<Slot> slots = new ArrayList<>(this.slotMap.values());
+        slots.sort(Comparator.comparingLong(slot -> slot.offset));
+        int maxSize = slotSizeOf(this.pageSize);
+        long offset = this.startOffset;
+        this.endOffset = this.startOffset;
+        this.storedBytes = 0;
+        for (Slot slot : slots) {
+            for (; offset < slot.offset; offset += Math.min(maxSize, slot.offset - offset)) {
+                this.freeSlot(offset, (int) Math.min(maxSize, slot.offset - offset));
+            }
+            offset = slot.offset + slot.size;
+            this.endOffset = offset;
+            this.storedBytes += slot.storedLength;
+        }
+    }
+
+    /**
+     * Rebuild the map from slots on disk, the newest slot of every page wins.
+     * Stale slots left in freed space are older than the slots of the pages they hold, so they never win,
+     * every aligned offset is checked, as a stale slot may overlap a live one reusing part of its space
+     */
+    private void scanSlots() {
+        ByteBuffer header = ByteBuffer.allocate(SLOT_HEADER_SIZE);
+        try {
+            long fileEnd = this.dbFileRead.size();
+            long offset = this.startOffset;
+            while (offset + SLOT_HEADER_SIZE <= fileEnd) {
+                header.clear();
+                while (header.hasRemaining()) {
+                    if (this.dbFileRead.read(header, offset + header.position()) <= 0) break;
+                }
+                int pageId = header.getInt(0), storedLength = header.getInt(4);
+                long slotSequence = header.getLong(8);
+                if (pageId >= 0 && storedLength > 0 && storedLength <= this.pageSize && slotSequence > 0
+                        && offset + SLOT_HEADER_SIZE + storedLength <= fileEnd) {
+                    ByteBuffer slotBuffer = ByteBuffer.allocate(SLOT_HEADER_SIZE + storedLength);
+                    while (slotBuffer.hasRemaining()) {
+                        if (this.dbFileRead.read(slotBuffer, offset + slotBuffer.position()) <= 0) break;
+                    }
+                    if (this.checkSlot(slotBuffer, pageId, storedLength, slotSequence)) {
+                        Slot slot = this.slotMap.get(pageId);
+                        if (slot == null || slot.sequence < slotSequence)
+                            this.slotMap.put(pageId, new Slot(offset, slotSizeOf(storedLength), storedLength, slotSequence));
+                        this.sequence = Math.max(this.sequence, slotSequence);
+                    }
+                }
+                offset += SLOT_ALIGNMENT;
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Unable to scan compressed page store.", e);
+        }
+    }
+
+    /**
+     *
+     * @return whether the map persisted at the last close is loaded
+     */
+    private boolean readSlotMap() {
+        if (!this.slotMapFile.isFile()) return false;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(this.slotMapFile)))) {
+            this.sequence = in.readLong();
+            int slotNum = in.readInt(), i;
+            for (i = 0; i < slotNum; i++) {
+                int pageId = in.readInt();
+                this.slotMap.put(pageId, new Slot(in.readLong(), in.readInt(), in.readInt(), in.readLong()));
+            }
+            return true;
+        } catch (IOException e) {
+            // a broken map only costs a scan
+            e.printStackTrace();
+            this.slotMap.clear();
+            this.sequence = 0;
+        }
+
+        return false;
+    }
+
+    /**
+     * Persist the map, so the next open does not scan, it goes to a temporary file first
+     */
+    public synchronized void close() {
+        File tmpFile = new File(this.slotMapFile.getPath() + ".tmp");
+        try (FileOutputStream fileOut = new FileOutputStream(tmpFile);
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOut))) {
+            out.writeLong(this.sequence);
+            out.writeInt(this.slotMap.size());
+            for (Map.Entry<Integer, Slot> entry : this.slotMap.entrySet()) {
+                out.writeInt(entry.getKey());
+                out.writeLong(entry.getValue().offset);
+                out.writeInt(entry.getValue().size);
+                out.writeInt(entry.getValue().storedLength);
+                out.writeLong(entry.getValue().sequence);
+            }
+            out.flush();
+            // slots must be durable before the map pointing to them
+            this.dbFileWrite.force(false);
+            fileOut.getFD().sync();
+        } catch (IOException e) {
+            e.printStackTrace();
+            return;
+        }
+
+        try {
+            Files.move(tmpFile.toPath(), this.slotMapFile.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    public synchronized int getPageNum() {
+        return this.slotMap.size();
+    }
+
+    /**
+     * Bytes of page data on disk, headers and padding excluded
+     * @return
+     */
+    public synchronized long getStoredBytes() {
+        return this.storedBytes;
+    }
+
+    /**
+     * End of the last slot, i.e., the space the store takes in the file
+     * @return
+     */
+    public synchronized long getEndOffset() {
+        return this.endOffset;
+    }
+}
@@ -1,25 +1,130 @@
 package txDB.storage.disk;
 
 import txDB.Config;
+import txDB.recovery.LogFormat;
 
 import java.io.*;
 import java.util.concurrent.atomic.*;
 import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileStore;
+import java.nio.file.Files;
+import java.nio.file.OpenOption;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
 
+/**
+ * A database file starts with a header of FILE_HEADER_SIZE bytes, which records the page size of the database,
+ * chosen at `createFile` time, pages follow the header.
+ * A file without the header is taken as an old one with Config.PAGE_SIZE pages from offset 0.
+ *
+ * The file grows ahead of use by Config.PREALLOCATION_SIZE bytes of zeros at a time,
+ * so the number of pages in the database, the high-water mark, is kept in the header instead of derived from the file length.
+ * It is raised before a page beyond it is written, pages at or above it read as beyond the end of file.
+ * The mark in the header is raised and forced ahead of it, to the end of the zero-filled extent,
+ * so a crash may leave pages of zeros up to there in the database, and the exact mark is recorded on `close`.
+ * Files of version 1 and older ones have no high-water mark, they grow page by page as before.
+ *
+ * A database created with page compression keeps its pages in a `CompressedPageStore` after the header instead,
+ * which is recorded in the header flags, so the page size, the high-water mark and page formats stay the same.
+ *
+ * With Config.ENABLE_DIRECT_IO, the database file is opened for direct I/O, so pages are cached once, in the buffer pool,
+ * not in the OS page cache as well. Every data file I/O is then a whole number of file system blocks at an aligned offset,
+ * the header is always written as a whole, and pages go through a block-aligned direct buffer of the calling thread.
+ * The log file is written by aligned log blocks too: the partial last block is kept in memory
+ * and written again, padded with zeros, along with the records appended after it, so the log ends at the first zero size.
+ *
+ * Pages freed by `deAllocatePage` are kept in a `FreePageMap`, and `allocatePage` reuses them before growing the database file.
+ *
+ * Tables and indexes may be placed in a `Tablespace` instead, data files of its own striped over several directories,
+ * whose catalog is kept in a side file along with the segments of page ids each tablespace has claimed.
+ * Page I/O is routed by segment: page ids below the lowest claimed segment are of the database file itself, tablespace 0.
+ */
 public class DiskManager {
 
     private final String dbRootPath = "/Users/williamhu/Documents/pitt/CS-2550/db/";
-    private FileInputStream dbFileRead;
-    private FileOutputStream dbFileWrite;
+    private String dbName;
+    private FileChannel dbFileRead;
+    private FileChannel dbFileWrite;
     private FileInputStream logFileRead;
     private FileOutputStream logFileWrite;
     private File logFile;
+    private File hotPageFile;
+    private FreePageMap freePageMap;
+    private File tablespaceCatalogFile;
+    // indexed by tablespace id, 0 is the database file itself
+    private volatile Tablespace[] tablespaces;
+    // owner and segment number within the owner of every segment, valid from the lowest claimed segment up
+    private byte[] segmentTablespaceIds;
+    private int[] segmentLocalNos;
+    private volatile int lowestSegment;
     private AtomicInteger nextPageId;
+    private int pageSize;
+    private int headerSize;
+    private volatile int highWaterMark;
+    // high-water mark recorded in the header, raised ahead of the one in memory by whole extents
+    private int headerMark;
+    private long headerForceNum;
+    private long fileLength;
+    private boolean whetherPreallocate;
+    private PageIoEngine pageIoEngine;
+    private boolean whetherClosed;
+    private boolean whetherDirectIo;
+    private int blockSize;
+    // block-aligned direct buffer of every thread doing direct I/O
+    private ThreadLocal<ByteBuffer> directBuffers;
+    // log file opened for direct I/O, null with buffered log writes
+    private FileChannel logChannel;
+    private ByteBuffer logDirectBuffer;
+    private int logBlockSize;
+    // the partial last log block, from the last block boundary up to logEnd
+    private byte[] logTailBlock;
+    private long logEnd;
+    private CompressedPageStore compressedPageStore;
+    private int headerFlags;
+
+    // header format: | MAGIC (4) | VERSION (4) | PageSize (4) | HighWaterMark (4) | Flags (4) | ... padding to FILE_HEADER_SIZE |
+    private static final int FILE_HEADER_SIZE = 4096;
+    private static final int FILE_MAGIC = 0x74784442;   // "txDB"
+    private static final int FILE_VERSION = 2;
+    private static final int HIGH_WATER_MARK_OFFSET = 12;
+    private static final int FLAGS_OFFSET = 16;
+    private static final int FLAG_COMPRESSED = 1;
+    private static final int MIN_PAGE_SIZE = 1024;
+    private static final int MAX_PAGE_SIZE = 65536;
+    private static final int DIRECT_BUFFER_SIZE = 128 * 1024;
 
     public DiskManager() {
+        this.pageSize = Config.PAGE_SIZE;
+        this.headerSize = 0;
     }
 
     public void createFile(String dbName) throws IOException {
+        this.createFile(dbName, Config.PAGE_SIZE);
+    }
+
+    /**
+     * Create a database with its own page size, e.g., 4 KB for OLTP, 16 or 32 KB for analytic tables
+     * @param dbName
+     * @param pageSize power of two between 1 KB and 64 KB
+     * @throws IOException
+     */
+    public void createFile(String dbName, int pageSize) throws IOException {
+        this.createFile(dbName, pageSize, Config.ENABLE_PAGE_COMPRESSION);
+    }
+
+    /**
+     *
+     * @param dbName
+     * @param pageSize power of two between 1 KB and 64 KB
+     * @param whetherCompressed whether pages are compressed on disk, see `CompressedPageStore`
+     * @throws IOException
+     */
+    public void createFile(String dbName, int pageSize, boolean whetherCompressed) throws IOException {
+        if (pageSize < MIN_PAGE_SIZE || pageSize > MAX_PAGE_SIZE || Integer.bitCount(pageSize) != 1)
+            throw new RuntimeException("Page size must be a power of two between " + MIN_PAGE_SIZE + " and " + MAX_PAGE_SIZE + ".");
         String dbFilePath = this.dbRootPath + dbName + ".db";
         String logFilePath = dbFilePath.split("\\\\.")[0] + ".log";
         File dbFile = new File(dbFilePath);
@@ -30,6 +135,13 @@ public class DiskManager {
             res1 = dbFile.createNewFile();
             res2 = logFile.createNewFile();
         }
+        if (res1) {
+            ByteBuffer header = headerOf(pageSize, 0, whetherCompressed ? FLAG_COMPRESSED : 0);
+            try (RandomAccessFile dbFileHeader = new RandomAccessFile(dbFile, "rw")) {
+                while (header.hasRemaining()) dbFileHeader.getChannel().write(header);
+                dbFileHeader.getFD().sync();
+            }
+        }
 //        if (!logFile.exists() || !logFile.isFile())
 //            res2 = logFile.createNewFile();
 
@@ -51,6 +163,15 @@ public class DiskManager {
         String logFilePath = dbFilePath.split("\\\\.")[0] + ".log";
         File dbFile = new File(dbFilePath);
         File logFile = new File(logFilePath);
+        // the hot page list, free page map and page slot map go silently
+        new File(dbFilePath.split("\\\\.")[0] + ".hot").delete();
+        new File(dbFilePath.split("\\\\.")[0] + ".fsm").delete();
+        new File(dbFilePath.split("\\\\.")[0] + ".pmap").delete();
+        File tablespaceCatalogFile = new File(dbFilePath.split("\\\\.")[0] + ".tsp");
+        for (Tablespace tablespace : readTablespaceCatalog(tablespaceCatalogFile, Config.PAGE_SIZE)) {
+            if (tablespace != null) tablespace.delete();
+        }
+        tablespaceCatalogFile.delete();
 
         if(dbFile.delete()) {
             System.out.println("Drop " + dbName);
@@ -74,6 +195,7 @@ public class DiskManager {
         String logFilePath = dbFilePath.split("\\\\.")[0] + ".log";
         File dbFile = new File(dbFilePath);
         logFile = new File(logFilePath);
+        hotPageFile = new File(dbFilePath.split("\\\\.")[0] + ".hot");
 
         if (!dbFile.exists() || !dbFile.isFile()) {
             throw new FileNotFoundException();
@@ -83,17 +205,669 @@ public class DiskManager {
             throw new FileNotFoundException();
         }
 
-        // nextPageId is based on persisted database file length
-        this.nextPageId = new AtomicInteger((int) (dbFile.length() / Config.PAGE_SIZE));
+        synchronized (this) {
+            this.whetherClosed = false;
+        }
+        this.dbName = dbName;
+        this.fileLength = dbFile.length();
+        this.readFileHeader(dbFile);
+        this.headerMark = this.highWaterMark;
+        // nextPageId is based on the persisted high-water mark
+        this.nextPageId = new AtomicInteger(this.highWaterMark);
+        if (this.freePageMap != null) this.freePageMap.close();
+        this.freePageMap = new FreePageMap(new File(dbFilePath.split("\\\\.")[0] + ".fsm"), this.highWaterMark);
+
+        this.whetherDirectIo = false;
+        if (Config.ENABLE_DIRECT_IO) {
+            // slots are not aligned to blocks
+            if (this.isCompressed()) System.out.println("compressed pages are not aligned to blocks, use buffered I/O");
+            else this.openDirect(dbFile.toPath());
+        }
 
         try {
-            this.dbFileWrite = new FileOutputStream(dbFilePath, true);
-            this.dbFileRead = new FileInputStream(dbFilePath);
-            this.logFileWrite = new FileOutputStream(logFilePath, true);
+            if (!this.whetherDirectIo) {
+                // not in append mode, pages are written at their own offsets
+                this.dbFileWrite = new RandomAccessFile(dbFilePath, "rw").getChannel();
+                this.dbFileRead = new FileInputStream(dbFilePath).getChannel();
+            }
             this.logFileRead = new FileInputStream(logFilePath);
+            this.logChannel = null;
+            if (Config.ENABLE_DIRECT_IO) this.openDirectLog(logFile.toPath());
+            if (this.logChannel == null) this.logFileWrite = new FileOutputStream(logFilePath, true);
         } catch (FileNotFoundException e) {
             e.printStackTrace();
         }
+
+        this.compressedPageStore = null;
+        if (this.isCompressed()) {
+            this.compressedPageStore = new CompressedPageStore(this.dbFileRead, this.dbFileWrite, this.headerSize,
+                    this.pageSize, new File(dbFilePath.split("\\\\.")[0] + ".pmap"));
+        }
+
+        this.tablespaceCatalogFile = new File(dbFilePath.split("\\\\.")[0] + ".tsp");
+        Tablespace[] tablespaces = readTablespaceCatalog(this.tablespaceCatalogFile, this.pageSize);
+        this.segmentTablespaceIds = new byte[Tablespace.SEGMENT_NUM];
+        this.segmentLocalNos = new int[Tablespace.SEGMENT_NUM];
+        int lowestSegment = Tablespace.SEGMENT_NUM;
+        for (Tablespace tablespace : tablespaces) {
+            if (tablespace == null) continue;
+            try {
+                tablespace.open();
+            } catch (IOException e) {
+                throw new RuntimeException("Unable to open tablespace " + tablespace.getName() + ".", e);
+            }
+            int[] segments = tablespace.getSegments();
+            int i;
+            for (i = 0; i < segments.length; i++) {
+                this.segmentTablespaceIds[segments[i]] = (byte) tablespace.getTablespaceId();
+                this.segmentLocalNos[segments[i]] = i;
+                lowestSegment = Math.min(lowestSegment, segments[i]);
+            }
+        }
+        this.tablespaces = tablespaces;
+        this.lowestSegment = lowestSegment;
+        if (this.nextPageId.get() > (long) lowestSegment * Tablespace.SEGMENT_SIZE)
+            throw new RuntimeException("Database file overlaps a tablespace.");
+    }
+
+    /**
+     * Create a tablespace of the database in use, with a data file in each directory, e.g., one on each local disk.
+     * Tables and indexes are placed in it by its id, see `Table` and `BPlusTreeIndex`
+     * @param name
+     * @param dataDirs
+     * @return
+     * @throws IOException
+     */
+    public synchronized Tablespace createTablespace(String name, String... dataDirs) throws IOException {
+        if (this.getTablespace(name) != null) throw new RuntimeException("Tablespace " + name + " already exists.");
+        int tablespaceId = Tablespace.DEFAULT_TABLESPACE_ID + 1;
+        while (tablespaceId <= Tablespace.MAX_TABLESPACE_ID && this.tablespaces[tablespaceId] != null) tablespaceId++;
+        if (tablespaceId > Tablespace.MAX_TABLESPACE_ID) throw new RuntimeException("Too many tablespaces.");
+
+        String dbName = this.tablespaceCatalogFile.getName().split("\\.")[0];
+        File[] dataFiles = new File[dataDirs.length];
+        int i;
+        for (i = 0; i < dataDirs.length; i++) dataFiles[i] = new File(dataDirs[i], dbName + "_" + name + "_" + i + ".tbs");
+        Tablespace tablespace = new Tablespace(tablespaceId, name, dataFiles, this.pageSize, new int[0]);
+        tablespace.open();
+
+        Tablespace[] tablespaces = Arrays.copyOf(this.tablespaces, this.tablespaces.length);
+        tablespaces[tablespaceId] = tablespace;
+        // the catalog goes first, pages are never handed out from a tablespace unknown after a crash
+        writeTablespaceCatalog(this.tablespaceCatalogFile, tablespaces);
+        this.tablespaces = tablespaces;
+        System.out.println("Create tablespace " + name);
+
+        return tablespace;
+    }
+
+    /**
+     *
+     * @param name
+     * @return null if there is no such tablespace
+     */
+    public Tablespace getTablespace(String name) {
+        for (Tablespace tablespace : this.tablespaces) {
+            if (tablespace != null && tablespace.getName().equals(name)) return tablespace;
+        }
+
+        return null;
+    }
+
+    /**
+     *
+     * @param pageId
+     * @return null for pages of the database file itself
+     */
+    private Tablespace tablespaceOf(int pageId) {
+        if (pageId < 0) return null;
+        // the owner of a segment is set before the segment is claimed
+        if ((pageId >>> Tablespace.SEGMENT_BITS) < this.lowestSegment) return null;
+        Tablespace tablespace = this.tablespaces[this.segmentTablespaceIds[pageId >>> Tablespace.SEGMENT_BITS]];
+        if (tablespace == null) throw new RuntimeException("Page " + pageId + " is in no tablespace.");
+        return tablespace;
+    }
+
+    /**
+     *
+     * @param pageId
+     * @return Tablespace.DEFAULT_TABLESPACE_ID for pages of the database file itself and Config.INVALID_PAGE_ID
+     */
+    public int tablespaceIdOf(int pageId) {
+        Tablespace tablespace = this.tablespaceOf(pageId);
+        return tablespace == null ? Tablespace.DEFAULT_TABLESPACE_ID : tablespace.getTablespaceId();
+    }
+
+    /**
+     * Page number within its tablespace
+     * @param pageId
+     * @return
+     */
+    private int pageNoOf(int pageId) {
+        return (this.segmentLocalNos[pageId >>> Tablespace.SEGMENT_BITS] << Tablespace.SEGMENT_BITS)
+                | (pageId & (Tablespace.SEGMENT_SIZE - 1));
+    }
+
+    /**
+     * Claim the segment below the lowest one for a tablespace, unless the database file has grown into it
+     * @param tablespace
+     */
+    private synchronized void claimSegment(Tablespace tablespace) {
+        int segmentNo = this.lowestSegment - 1;
+        if (segmentNo < 0) throw new RuntimeException("Database is full.");
+        this.segmentTablespaceIds[segmentNo] = (byte) tablespace.getTablespaceId();
+        this.segmentLocalNos[segmentNo] = tablespace.getSegments().length;
+        // the database file checks the lowest segment after taking a page id, and this checks the page id after it
+        this.lowestSegment = segmentNo;
+        if (this.nextPageId.get() > (long) segmentNo * Tablespace.SEGMENT_SIZE) {
+            this.lowestSegment = segmentNo + 1;
+            throw new RuntimeException("Database is full.");
+        }
+        tablespace.addSegment(segmentNo);
+        // pages of the segment are handed out only once the catalog has it
+        writeTablespaceCatalog(this.tablespaceCatalogFile, this.tablespaces);
+    }
+
+    /**
+     * The catalog goes to a temporary file first, so a crash never leaves half of it
+     * @param tablespaceCatalogFile
+     * @param tablespaces
+     */
+    private static void writeTablespaceCatalog(File tablespaceCatalogFile, Tablespace[] tablespaces) {
+        File tmpFile = new File(tablespaceCatalogFile.getPath() + ".tmp");
+        try (FileOutputStream fileOut = new FileOutputStream(tmpFile);
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOut))) {
+            int tablespaceNum = 0;
+            for (Tablespace tablespace : tablespaces) if (tablespace != null) tablespaceNum++;
+            out.writeInt(tablespaceNum);
+            for (Tablespace tablespace : tablespaces) {
+                if (tablespace == null) continue;
+                out.writeInt(tablespace.getTablespaceId());
+                out.writeUTF(tablespace.getName());
+                out.writeInt(tablespace.getDataFiles().length);
+                for (File dataFile : tablespace.getDataFiles()) out.writeUTF(dataFile.getPath());
+                out.writeInt(tablespace.getSegments().length);
+                for (int segmentNo : tablespace.getSegments()) out.writeInt(segmentNo);
+            }
+            out.flush();
+            fileOut.getFD().sync();
+        } catch (IOException e) {
+            throw new RuntimeException("Unable to persist tablespace catalog.", e);
+        }
+
+        try {
+            Files.move(tmpFile.toPath(), tablespaceCatalogFile.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new RuntimeException("Unable to persist tablespace catalog.", e);
+        }
+    }
+
+    /**
+     *
+     * @param tablespaceCatalogFile
+     * @param pageSize
+     * @return tablespaces not opened yet, indexed by tablespace id
+     */
+    private static Tablespace[] readTablespaceCatalog(File tablespaceCatalogFile, int pageSize) {
+        Tablespace[] tablespaces = new Tablespace[Tablespace.MAX_TABLESPACE_ID + 1];
+        if (!tablespaceCatalogFile.isFile()) return tablespaces;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(tablespaceCatalogFile)))) {
+            int tablespaceNum = in.readInt();
+            int i, j;
+            for (i = 0; i < tablespaceNum; i++) {
+                int tablespaceId = in.readInt();
+                String name = in.readUTF();
+                File[] dataFiles = new File[in.readInt()];
+                for (j = 0; j < dataFiles.length; j++) dataFiles[j] = new File(in.readUTF());
+                int[] segments = new int[in.readInt()];
+                for (j = 0; j < segments.length; j++) segments[j] = in.readInt();
+                tablespaces[tablespaceId] = new Tablespace(tablespaceId, name, dataFiles, pageSize, segments);
+            }
+        } catch (IOException e) {
+            // unlike the free page map, pages of a lost tablespace cannot be found again
+            throw new RuntimeException("Unable to read tablespace catalog.", e);
+        }
+
+        return tablespaces;
+    }
+
+    /**
+     * Whether pages of the database in use are compressed on disk
+     * @return
+     */
+    public boolean isCompressed() {
+        return (this.headerFlags & FLAG_COMPRESSED) != 0;
+    }
+
+    /**
+     *
+     * @return null if pages of the database in use are not compressed
+     */
+    public CompressedPageStore getCompressedPageStore() {
+        return this.compressedPageStore;
+    }
+
+    /**
+     * Open the database file for direct I/O, which is not in Java 8, so the open option is looked up at runtime.
+     * Buffered I/O is kept if the JVM or the file system does not support it,
+     * or pages are not a whole number of file system blocks
+     * @param dbFilePath
+     */
+    @SuppressWarnings("unchecked")
+    private void openDirect(Path dbFilePath) {
+        try {
+            OpenOption direct = (OpenOption) Enum.valueOf(
+                    (Class<Enum>) Class.forName("com.sun.nio.file.ExtendedOpenOption"), "DIRECT");
+            long blockSize = (long) FileStore.class.getMethod("getBlockSize").invoke(Files.getFileStore(dbFilePath));
+            if (this.pageSize % blockSize != 0 || this.headerSize % blockSize != 0) {
+                System.out.println("pages of " + this.pageSize + " bytes are not aligned to blocks of " + blockSize + " bytes, use buffered I/O");
+                return;
+            }
+            this.dbFileWrite = FileChannel.open(dbFilePath, StandardOpenOption.READ, StandardOpenOption.WRITE, direct);
+            this.dbFileRead = FileChannel.open(dbFilePath, StandardOpenOption.READ, direct);
+            this.blockSize = (int) blockSize;
+            this.directBuffers = new ThreadLocal<>();
+            this.whetherDirectIo = true;
+        } catch (ReflectiveOperationException | IllegalArgumentException | UnsupportedOperationException | IOException e) {
+            if (this.dbFileWrite != null) {
+                try {
+                    this.dbFileWrite.close();
+                } catch (IOException closeException) {
+                    closeException.printStackTrace();
+                }
+                this.dbFileWrite = null;
+            }
+            System.out.println("direct I/O is not supported, use buffered I/O: " + e);
+        }
+    }
+
+    /**
+     * Whether the database file in use bypasses the OS page cache
+     * @return
+     */
+    public boolean isDirectIo() {
+        return this.whetherDirectIo;
+    }
+
+    /**
+     * Aligned slices are not in Java 8 either, direct I/O is never on without them
+     * @return
+     */
+    private ByteBuffer directBuffer() {
+        ByteBuffer directBuffer = this.directBuffers.get();
+        if (directBuffer == null) {
+            directBuffer = alignedBuffer(DIRECT_BUFFER_SIZE, this.blockSize);
+            this.directBuffers.set(directBuffer);
+        }
+        directBuffer.clear();
+        return directBuffer;
+    }
+
+    private static ByteBuffer alignedBuffer(int size, int blockSize) {
+        try {
+            return (ByteBuffer) ByteBuffer.class.getMethod("alignedSlice", int.class)
+                    .invoke(ByteBuffer.allocateDirect(size + blockSize - 1), blockSize);
+        } catch (ReflectiveOperationException e) {
+            throw new RuntimeException("Unable to allocate aligned direct buffer.", e);
+        }
+    }
+
+    /**
+     * Open the log file for direct writes of aligned log blocks, reads stay buffered.
+     * The end of the log is found by following records from the start, a torn record at the end is written over
+     * @param logFilePath
+     */
+    @SuppressWarnings("unchecked")
+    private void openDirectLog(Path logFilePath) {
+        try {
+            OpenOption direct = (OpenOption) Enum.valueOf(
+                    (Class<Enum>) Class.forName("com.sun.nio.file.ExtendedOpenOption"), "DIRECT");
+            int blockSize = (int) (long) FileStore.class.getMethod("getBlockSize").invoke(Files.getFileStore(logFilePath));
+            // a whole log buffer with the partial last block before it
+            ByteBuffer logDirectBuffer = alignedBuffer((Config.LOG_SIZE / blockSize + 2) * blockSize, blockSize);
+            this.logChannel = FileChannel.open(logFilePath, StandardOpenOption.WRITE, direct);
+            this.logDirectBuffer = logDirectBuffer;
+            this.logBlockSize = blockSize;
+        } catch (ReflectiveOperationException | IllegalArgumentException | UnsupportedOperationException | IOException e) {
+            System.out.println("direct I/O is not supported for the log, use buffered I/O: " + e);
+            return;
+        }
+
+        this.logEnd = this.findLogEnd();
+        int tailSize = (int) (this.logEnd % this.logBlockSize);
+        this.logTailBlock = new byte[this.logBlockSize];
+        if (tailSize > 0) {
+            byte[] logData = this.readLog(tailSize, this.logEnd - tailSize);
+            if (logData != null) System.arraycopy(logData, 0, this.logTailBlock, 0, tailSize);
+        }
+    }
+
+    /**
+     * Follow log records by their sizes and checksums, see `LogFormat`
+     * @return offset after the last whole record
+     */
+    private long findLogEnd() {
+        long end = 0, logDataOffset = 0;
+        byte[] logData = new byte[0];
+        while (true) {
+            if (end + LogFormat.HEADER_SIZE > logDataOffset + logData.length
+                    || end + LogFormat.getInt(logData, (int) (end - logDataOffset)) > logDataOffset + logData.length) {
+                // read again from the record, a record never takes more than a log buffer
+                logData = this.readLog(2 * Config.LOG_SIZE, end);
+                if (logData == null) return end;
+                logDataOffset = end;
+            }
+            int position = (int) (end - logDataOffset);
+            int logSize = LogFormat.getInt(logData, position);
+            if (logSize <= LogFormat.HEADER_SIZE || logSize > Config.LOG_SIZE) return end;
+            if (LogFormat.getInt(logData, position + LogFormat.CHECKSUM_OFFSET)
+                    != LogFormat.checksumOf(logData, position, logSize)) return end;
+            end += logSize;
+        }
+    }
+
+    /**
+     * Write log data at the end of the log by whole aligned blocks, the partial last block is written again
+     * @param logData
+     * @param offset
+     * @param length
+     * @throws IOException
+     */
+    private void writeLogDirect(byte[] logData, int offset, int length) throws IOException {
+        ByteBuffer logBuffer = this.logDirectBuffer;
+        while (length > 0) {
+            int tailSize = (int) (this.logEnd % this.logBlockSize);
+            long blockOffset = this.logEnd - tailSize;
+            int size = Math.min(length, logBuffer.capacity() - tailSize);
+            logBuffer.clear();
+            logBuffer.put(this.logTailBlock, 0, tailSize);
+            logBuffer.put(logData, offset, size);
+            int end = logBuffer.position();
+            // zeros after the last record end the log
+            int blockEnd = (end + this.logBlockSize - 1) / this.logBlockSize * this.logBlockSize;
+            while (logBuffer.position() < blockEnd) logBuffer.put((byte) 0);
+            logBuffer.flip();
+            long writeOffset = blockOffset;
+            while (logBuffer.hasRemaining()) {
+                writeOffset += this.logChannel.write(logBuffer, writeOffset);
+            }
+            // keep the new partial last block
+            logBuffer.position(end - end % this.logBlockSize);
+            logBuffer.get(this.logTailBlock, 0, end % this.logBlockSize);
+
+            this.logEnd = blockOffset + end;
+            offset += size;
+            length -= size;
+        }
+    }
+
+    /**
+     * Write buffers back to back from offset, through the direct buffer of the thread
+     * @param buffers
+     * @param offset
+     * @throws IOException
+     */
+    private void writeDirect(ByteBuffer[] buffers, long offset) throws IOException {
+        ByteBuffer directBuffer = this.directBuffer();
+        for (ByteBuffer buffer : buffers) {
+            while (buffer.hasRemaining()) {
+                int length = Math.min(buffer.remaining(), directBuffer.remaining());
+                ByteBuffer part = buffer.duplicate();
+                part.limit(part.position() + length);
+                directBuffer.put(part);
+                buffer.position(buffer.position() + length);
+                if (!directBuffer.hasRemaining()) offset = this.flushDirect(directBuffer, offset);
+            }
+        }
+        this.flushDirect(directBuffer, offset);
+    }
+
+    private long flushDirect(ByteBuffer directBuffer, long offset) throws IOException {
+        directBuffer.flip();
+        while (directBuffer.hasRemaining()) {
+            offset += this.dbFileWrite.write(directBuffer, offset);
+        }
+        directBuffer.clear();
+        return offset;
+    }
+
+    /**
+     * Read buffers back to back from offset, through the direct buffer of the thread,
+     * buffers beyond the end of file are left untouched
+     * @param buffers
+     * @param offset
+     * @throws IOException
+     */
+    private void readDirect(ByteBuffer[] buffers, long offset) throws IOException {
+        ByteBuffer directBuffer = this.directBuffer();
+        int i = 0, j, size, readSize;
+        while (i < buffers.length) {
+            // as many whole buffers as the direct buffer holds
+            size = 0;
+            for (j = i; j < buffers.length && size + buffers[j].remaining() <= directBuffer.capacity(); j++) {
+                size += buffers[j].remaining();
+            }
+            directBuffer.clear();
+            directBuffer.limit(size);
+            while (directBuffer.hasRemaining()) {
+                readSize = this.dbFileRead.read(directBuffer, offset + directBuffer.position());
+                // the end of file, a short read is the end of file too, a read of the rest would not be aligned
+                if (readSize <= 0 || directBuffer.position() % this.blockSize != 0) break;
+            }
+            directBuffer.flip();
+            for (; i < j; i++) {
+                int length = Math.min(buffers[i].remaining(), directBuffer.remaining());
+                ByteBuffer part = directBuffer.duplicate();
+                part.limit(part.position() + length);
+                buffers[i].put(part);
+                directBuffer.position(directBuffer.position() + length);
+            }
+            if (directBuffer.limit() < size) return;
+            offset += size;
+        }
+    }
+
+    /**
+     * Positional reads of buffers back to back from offset,
+     * buffers beyond the end of file are left untouched
+     * @param buffers
+     * @param offset
+     * @throws IOException
+     */
+    private void readFully(ByteBuffer[] buffers, long offset) throws IOException {
+        for (ByteBuffer buffer : buffers) {
+            long bufferOffset = offset;
+            while (buffer.hasRemaining()) {
+                int readSize = this.dbFileRead.read(buffer, offset);
+                if (readSize < 0) return;
+                if (readSize == 0) break;
+                offset += readSize;
+            }
+            offset = bufferOffset + buffer.limit();
+        }
+    }
+
+    /**
+     * Positional write of a whole buffer to the database file
+     * @param buffer
+     * @param offset
+     * @throws IOException
+     */
+    private void writeFully(ByteBuffer buffer, long offset) throws IOException {
+        if (this.whetherDirectIo) {
+            this.writeDirect(new ByteBuffer[]{buffer}, offset);
+            return;
+        }
+        while (buffer.hasRemaining()) {
+            offset += this.dbFileWrite.write(buffer, offset);
+        }
+    }
+
+    /**
+     * Positional writes of whole buffers back to back from offset
+     * @param buffers
+     * @param offset
+     * @throws IOException
+     */
+    private void writeFully(ByteBuffer[] buffers, long offset) throws IOException {
+        for (ByteBuffer buffer : buffers) {
+            long bufferOffset = offset;
+            while (buffer.hasRemaining()) {
+                offset += this.dbFileWrite.write(buffer, offset);
+            }
+            offset = bufferOffset + buffer.limit();
+        }
+    }
+
+    private static ByteBuffer headerOf(int pageSize, int highWaterMark, int headerFlags) {
+        ByteBuffer header = ByteBuffer.allocate(FILE_HEADER_SIZE);
+        header.putInt(0, FILE_MAGIC);
+        header.putInt(4, FILE_VERSION);
+        header.putInt(8, pageSize);
+        header.putInt(HIGH_WATER_MARK_OFFSET, highWaterMark);
+        header.putInt(FLAGS_OFFSET, headerFlags);
+        return header;
+    }
+
+    private void readFileHeader(File dbFile) {
+        this.pageSize = Config.PAGE_SIZE;
+        this.headerSize = 0;
+        this.whetherPreallocate = false;
+        this.headerFlags = 0;
+        this.highWaterMark = (int) (this.fileLength / this.pageSize);
+        if (dbFile.length() < FILE_HEADER_SIZE) return;
+
+        ByteBuffer header = ByteBuffer.allocate(20);
+        try (RandomAccessFile dbFileHeader = new RandomAccessFile(dbFile, "r")) {
+            while (header.hasRemaining()) {
+                if (dbFileHeader.getChannel().read(header) <= 0) break;
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            return;
+        }
+        if (header.getInt(0) != FILE_MAGIC) return;
+        if (header.getInt(4) < 1 || header.getInt(4) > FILE_VERSION)
+            throw new RuntimeException("Unsupported database file version " + header.getInt(4) + ".");
+        this.pageSize = header.getInt(8);
+        this.headerSize = FILE_HEADER_SIZE;
+        if (header.getInt(4) == 1) {
+            this.highWaterMark = (int) ((this.fileLength - this.headerSize) / this.pageSize);
+        } else {
+            this.highWaterMark = header.getInt(HIGH_WATER_MARK_OFFSET);
+            this.headerFlags = header.getInt(FLAGS_OFFSET);
+            this.whetherPreallocate = true;
+        }
+    }
+
+    /**
+     * Make pages below pageNum part of the database before any of them is written.
+     * The high-water mark in the header is raised and forced first, so no written page is ever beyond it after a crash.
+     * It is raised to the end of the extent of zeros the file grows by, so sequential growth forces the header once per extent,
+     * and pages up to there read as zeros if they are never written before a crash
+     * @param pageNum
+     * @throws IOException
+     */
+    private void extendTo(int pageNum) throws IOException {
+        if (pageNum <= this.highWaterMark) return;
+        synchronized (this.dbFileWrite) {
+            if (pageNum <= this.highWaterMark) return;
+            long end = this.offsetOf(pageNum);
+            // the compressed page store grows by slots instead
+            boolean whetherZeroFilled = this.whetherPreallocate && !this.isCompressed() && Config.PREALLOCATION_SIZE > 0;
+            if (whetherZeroFilled && end > this.fileLength) {
+                long newLength = this.headerSize
+                        + (end - this.headerSize + Config.PREALLOCATION_SIZE - 1) / Config.PREALLOCATION_SIZE * Config.PREALLOCATION_SIZE;
+                // a write far beyond the end only fills its own extent, the gap stays a hole
+                this.zeroFill(Math.max(this.fileLength, end - Config.PREALLOCATION_SIZE), newLength);
+                this.fileLength = newLength;
+            }
+            if (this.whetherPreallocate && pageNum > this.headerMark) {
+                int headerMark = whetherZeroFilled ? (int) ((this.fileLength - this.headerSize) / this.pageSize) : pageNum;
+                this.writeHeaderMark(Math.max(pageNum, headerMark));
+            }
+            this.highWaterMark = pageNum;
+        }
+    }
+
+    /**
+     * Record the high-water mark in the header and force it
+     * @param headerMark
+     * @throws IOException
+     */
+    private void writeHeaderMark(int headerMark) throws IOException {
+        // the whole header, a direct write cannot be smaller than a block
+        this.writeFully(headerOf(this.pageSize, headerMark, this.headerFlags), 0);
+        // pages past the old mark may reach the disk before an unforced header
+        this.dbFileWrite.force(false);
+        this.headerMark = headerMark;
+        this.headerForceNum++;
+    }
+
+    /**
+     * Number of times the header is forced for a new high-water mark
+     * @return
+     */
+    public long getHeaderForceNum() {
+        synchronized (this.dbFileWrite) {
+            return this.headerForceNum;
+        }
+    }
+
+    private void zeroFill(long from, long to) throws IOException {
+        ByteBuffer zeros = ByteBuffer.allocate((int) Math.min(to - from, 64 * 1024));
+        long offset = from;
+        while (offset < to) {
+            zeros.clear();
+            if (to - offset < zeros.capacity()) zeros.limit((int) (to - offset));
+            this.writeFully(zeros, offset);
+            offset += zeros.limit();
+        }
+    }
+
+    private long offsetOf(int pageId) {
+        return this.headerSize + (long) pageId * this.pageSize;
+    }
+
+    private void checkFrame(ByteBuffer pageBuffer) {
+        if (pageBuffer.capacity() != this.pageSize)
+            throw new RuntimeException("Frame of " + pageBuffer.capacity() + " bytes does not fit pages of " + this.pageSize + " bytes.");
+    }
+
+    /**
+     * Name of the database in use, null before `useFile`
+     * @return
+     */
+    public String getDbName() {
+        return this.dbName;
+    }
+
+    /**
+     * Page size of the database in use
+     * @return
+     */
+    public int getPageSize() {
+        return this.pageSize;
+    }
+
+    /**
+     * Number of pages ever written to the database, the file may be longer because of preallocation
+     * @return
+     */
+    public int getHighWaterMark() {
+        return this.highWaterMark;
+    }
+
+    /**
+     * Length of the database file, including the header and preallocated space
+     * @return
+     */
+    public long getFileLength() {
+        if (this.compressedPageStore != null) return this.compressedPageStore.getEndOffset();
+        synchronized (this.dbFileWrite) {
+            return Math.max(this.fileLength, this.headerSize + (long) this.highWaterMark * this.pageSize);
+        }
     }
 
     /**
@@ -102,17 +876,51 @@ public class DiskManager {
      * @return
      */
     public byte[] readPage(int pageId) {
-        ByteBuffer pageData = ByteBuffer.allocate(Config.PAGE_SIZE);
-        int offset = pageId * Config.PAGE_SIZE;
+        ByteBuffer pageData = ByteBuffer.allocate(this.pageSize);
+        if (this.readPage(pageId, pageData))
+            return pageData.array();
+
+        return null;
+    }
+
+    /**
+     * read page straight into a buffer pool frame, nothing is allocated here
+     * @param pageId
+     * @param pageBuffer
+     * @return false if the page is beyond the end of file
+     */
+    public boolean readPage(int pageId, ByteBuffer pageBuffer) {
+        long offset = this.offsetOf(pageId);
+        this.checkFrame(pageBuffer);
+        Tablespace tablespace = this.tablespaceOf(pageId);
+        if (tablespace != null) return tablespace.readPage(this.pageNoOf(pageId), pageBuffer);
+        pageBuffer.clear();
+        // preallocated pages are not part of the database yet
+        if (pageId >= this.highWaterMark) return false;
         try {
+            int readSize;
 //            if (this.dbFileRead.read(pageData, offset, Config.PAGE_SIZE) == -1)
-            if (this.dbFileRead.getChannel().read(pageData, offset) != -1)
-                return pageData.array();
+            if (this.compressedPageStore != null) {
+                // a page below the high-water mark never written reads as zeros, as a hole does
+                if (!this.compressedPageStore.readPage(pageId, pageBuffer)) Arrays.fill(pageBuffer.array(), (byte) 0);
+                return true;
+            } else if (this.whetherDirectIo) {
+                this.readDirect(new ByteBuffer[]{pageBuffer}, offset);
+            } else {
+                while (pageBuffer.hasRemaining()
+                        && (readSize = this.dbFileRead.read(pageBuffer, offset + pageBuffer.position())) != -1) {
+                    if (readSize == 0) break;
+                }
+            }
+            if (pageBuffer.position() == 0) return false;
+            // the frame may hold data of an evicted page, clean the rest of it
+            Arrays.fill(pageBuffer.array(), pageBuffer.position(), this.pageSize, (byte) 0);
+            return true;
         } catch (IOException e) {
             e.printStackTrace();
         }
 
-        return null;
+        return false;
     }
 
     /**
@@ -121,9 +929,27 @@ public class DiskManager {
      * @param pageData
      */
     public void writePage(int pageId, byte[] pageData) {
-        int offset = pageId * Config.PAGE_SIZE;
+        this.writePage(pageId, ByteBuffer.wrap(pageData));
+    }
+
+    /**
+     * write page straight from a buffer pool frame
+     * @param pageId
+     * @param pageBuffer
+     */
+    public void writePage(int pageId, ByteBuffer pageBuffer) {
+        long offset = this.offsetOf(pageId);
+        this.checkFrame(pageBuffer);
+        Tablespace tablespace = this.tablespaceOf(pageId);
+        if (tablespace != null) {
+            tablespace.writePage(this.pageNoOf(pageId), pageBuffer);
+            return;
+        }
+        pageBuffer.clear();
         try {
-            this.dbFileWrite.getChannel().write(ByteBuffer.wrap(pageData), offset);
+            this.extendTo(pageId + 1);
+            if (this.compressedPageStore != null) this.compressedPageStore.writePage(pageId, pageBuffer);
+            else this.writeFully(pageBuffer, offset);
             // there is no need to use the method `flush`,
             // as there is no buffered data in memory for OutputStream.
         } catch (IOException e) {
@@ -131,10 +957,172 @@ public class DiskManager {
         }
     }
 
+    /**
+     * write pages with consecutive ids by a single gathering write
+     * @param firstPageId id of the page in pageBuffers[0]
+     * @param pageBuffers
+     */
+    public void writePages(int firstPageId, ByteBuffer[] pageBuffers) {
+        long offset = this.offsetOf(firstPageId);
+        for (ByteBuffer pageBuffer : pageBuffers) {
+            this.checkFrame(pageBuffer);
+            pageBuffer.clear();
+        }
+        int pageNum = this.pageNumInTablespace(firstPageId, pageBuffers.length);
+        if (pageNum < pageBuffers.length) {
+            // the run crosses into another segment, which may be of another tablespace
+            this.writePages(firstPageId, Arrays.copyOf(pageBuffers, pageNum));
+            this.writePages(firstPageId + pageNum, Arrays.copyOfRange(pageBuffers, pageNum, pageBuffers.length));
+            return;
+        }
+        Tablespace tablespace = this.tablespaceOf(firstPageId);
+        if (tablespace != null) {
+            tablespace.writePages(this.pageNoOf(firstPageId), pageBuffers);
+            return;
+        }
+        if (this.compressedPageStore != null) {
+            // every page has a slot of its own
+            int i;
+            for (i = 0; i < pageBuffers.length; i++) this.writePage(firstPageId + i, pageBuffers[i]);
+            return;
+        }
+        if (this.whetherDirectIo) {
+            // positional, through the direct buffer
+            try {
+                this.extendTo(firstPageId + pageBuffers.length);
+                this.writeDirect(pageBuffers, offset);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            return;
+        }
+        // positional, so that concurrent runs, e.g., of a flush, do not serialize on the channel
+        try {
+            this.extendTo(firstPageId + pageBuffers.length);
+            this.writeFully(pageBuffers, offset);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * read pages with consecutive ids, by positional reads
+     * @param firstPageId id of the page going to pageBuffers[0]
+     * @param pageBuffers
+     * @return number of pages read, pages beyond the end of file are not
+     */
+    public int readPages(int firstPageId, ByteBuffer[] pageBuffers) {
+        long offset = this.offsetOf(firstPageId);
+        for (ByteBuffer pageBuffer : pageBuffers) {
+            this.checkFrame(pageBuffer);
+            pageBuffer.clear();
+        }
+        // a run never reads across tablespaces, nor across segments of a tablespace
+        int pageNumInTablespace = this.pageNumInTablespace(firstPageId, pageBuffers.length);
+        if (pageNumInTablespace < pageBuffers.length) pageBuffers = Arrays.copyOf(pageBuffers, pageNumInTablespace);
+        Tablespace tablespace = this.tablespaceOf(firstPageId);
+        if (tablespace != null) return tablespace.readPages(this.pageNoOf(firstPageId), pageBuffers);
+        // preallocated pages are not part of the database yet
+        int pageNum = Math.min(pageBuffers.length, this.highWaterMark - firstPageId);
+        if (pageNum <= 0) return 0;
+        ByteBuffer[] readBuffers = pageNum == pageBuffers.length ? pageBuffers : Arrays.copyOf(pageBuffers, pageNum);
+        if (this.compressedPageStore != null) {
+            // every page has a slot of its own
+            int i;
+            for (i = 0; i < readBuffers.length; i++) this.readPage(firstPageId + i, readBuffers[i]);
+            return readBuffers.length;
+        }
+        if (this.whetherDirectIo) {
+            // positional, through the direct buffer
+            try {
+                this.readDirect(readBuffers, offset);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        } else {
+            // positional, so that concurrent runs, e.g., of warm restart threads, do not serialize on the channel
+            try {
+                this.readFully(readBuffers, offset);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+
+        int readNum = 0;
+        for (ByteBuffer pageBuffer : pageBuffers) {
+            if (pageBuffer.position() == 0) break;
+            // the frame may hold data of an evicted page, clean the rest of it
+            Arrays.fill(pageBuffer.array(), pageBuffer.position(), this.pageSize, (byte) 0);
+            readNum++;
+        }
+        return readNum;
+    }
+
+    /**
+     * Pages of the database file are consecutive up to the lowest segment of tablespaces,
+     * pages of a tablespace only within a segment
+     * @param firstPageId
+     * @param pageNum
+     * @return number of pages from firstPageId that are consecutive in one file or tablespace
+     */
+    private int pageNumInTablespace(int firstPageId, int pageNum) {
+        int lowestSegment = this.lowestSegment;
+        if ((firstPageId >>> Tablespace.SEGMENT_BITS) < lowestSegment)
+            return (int) Math.min(pageNum, (long) lowestSegment * Tablespace.SEGMENT_SIZE - firstPageId);
+        return Math.min(pageNum, Tablespace.SEGMENT_SIZE - (firstPageId & (Tablespace.SEGMENT_SIZE - 1)));
+    }
+
+    /**
+     * Persist ids of pages hot in the buffer pool, hottest first.
+     * The list goes to a temporary file first, so a crash never leaves half of it
+     * @param pageIds
+     */
+    public void writeHotPageList(int[] pageIds) {
+        if (this.hotPageFile == null) return;
+        File tmpFile = new File(this.hotPageFile.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)))) {
+            out.writeInt(pageIds.length);
+            for (int pageId : pageIds) out.writeInt(pageId);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return;
+        }
+
+        try {
+            Files.move(tmpFile.toPath(), this.hotPageFile.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     *
+     * @return ids of hot pages persisted last time, hottest first, empty if there is none
+     */
+    public int[] readHotPageList() {
+        if (this.hotPageFile == null || !this.hotPageFile.isFile()) return new int[0];
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(this.hotPageFile)))) {
+            int pageNum = in.readInt();
+            // a broken count must not allocate more than the file holds
+            if (pageNum < 0 || pageNum > (this.hotPageFile.length() - 4) / 4)
+                throw new IOException("Hot page list of " + pageNum + " pages does not fit in its file.");
+            int[] pageIds = new int[pageNum];
+            int i;
+            for (i = 0; i < pageIds.length; i++) pageIds[i] = in.readInt();
+            return pageIds;
+        } catch (IOException e) {
+            // a broken list only means a cold start
+            e.printStackTrace();
+        }
+
+        return new int[0];
+    }
+
     /**
      * sequence read when reading the log file
      */
-    public byte[] readLog(int size, int offset) {
+    public byte[] readLog(int size, long offset) {
         ByteBuffer logData = ByteBuffer.allocate(size);
         try {
             if (this.logFileRead.getChannel().read(logData, offset) != -1)
@@ -150,13 +1138,32 @@ public class DiskManager {
      * append to the end of the log file
      * @param logData
      */
-    public int writeLog(byte[] logData, boolean whetherCheckpoint) {
-        int logFileLength = -1;
+    public long writeLog(byte[] logData, boolean whetherCheckpoint) {
+        return this.writeLog(logData, 0, logData.length, whetherCheckpoint);
+    }
+
+    /**
+     * append a slice of a log buffer to the end of the log file, without copying it out first
+     * @param logData
+     * @param offset
+     * @param length
+     * @param whetherCheckpoint
+     * @return length of the log file before the append if whetherCheckpoint, -1 otherwise
+     */
+    public long writeLog(byte[] logData, int offset, int length, boolean whetherCheckpoint) {
+        long logFileLength = -1;
         try {
+            if (this.logChannel != null) {
+                synchronized (this.logChannel) {
+                    if (whetherCheckpoint) logFileLength = this.logEnd;
+                    this.writeLogDirect(logData, offset, length);
+                }
+                return logFileLength;
+            }
             if (whetherCheckpoint) {
-                logFileLength = (int) logFile.length();
+                logFileLength = logFile.length();
             }
-            this.logFileWrite.write(logData);
+            this.logFileWrite.write(logData, offset, length);
         } catch (IOException e) {
             e.printStackTrace();
         }
@@ -164,37 +1171,179 @@ public class DiskManager {
         return logFileLength;
     }
 
+    /**
+     * Make log data written so far durable
+     */
+    public void syncLog() {
+        try {
+            // file metadata is not needed to read the log back, except its length, which appends change anyway
+            if (this.logChannel != null) this.logChannel.force(false);
+            else this.logFileWrite.getChannel().force(false);
+        } catch (IOException e) {
+            throw new RuntimeException("Unable to sync log file.", e);
+        }
+    }
+
     /**
      *
      * @return
      */
     public int allocatePage() {
-        int res = this.nextPageId.get();
-        this.nextPageId.incrementAndGet();
-        return res;
+        return this.allocatePage(Config.INVALID_PAGE_ID);
+    }
+
+    /**
+     * Allocate a page, a free page is reused before the file grows.
+     * With a hint, a free page in the extent of the hint is taken first, then one in a wholly free extent,
+     * so that pages of a table stay physically close together, in the tablespace of the hint.
+     * Growing the file for a hint takes the rest of the extent of the new page for the same table
+     * @param nearPageId a page of the same table, or Config.INVALID_PAGE_ID
+     * @return
+     */
+    public int allocatePage(int nearPageId) {
+        Tablespace tablespace = this.tablespaceOf(nearPageId);
+        if (tablespace != null) return this.allocatePageIn(tablespace, nearPageId);
+
+        int pageId = this.freePageMap.allocate(nearPageId);
+        if (pageId != Config.INVALID_PAGE_ID) return pageId;
+
+        // Allocating next pages is thread safe based on atomicInteger
+        int endPageId;
+        do {
+            pageId = this.nextPageId.get();
+            endPageId = nearPageId < 0 ? pageId + 1 : pageId - pageId % Config.EXTENT_SIZE + Config.EXTENT_SIZE;
+            if (((endPageId - 1) >>> Tablespace.SEGMENT_BITS) >= this.lowestSegment) {
+                // the database file reaches the segments of tablespaces
+                throw new RuntimeException("Database is full.");
+            }
+        } while (!this.nextPageId.compareAndSet(pageId, endPageId));
+        if (endPageId > pageId + 1) this.freePageMap.keepForGrowth(pageId + 1);
+        return pageId;
+    }
+
+    /**
+     * Allocate a page in a tablespace
+     * @param tablespaceId Tablespace.DEFAULT_TABLESPACE_ID for the database file itself
+     * @return
+     */
+    public int allocatePageIn(int tablespaceId) {
+        if (tablespaceId == Tablespace.DEFAULT_TABLESPACE_ID) return this.allocatePage(Config.INVALID_PAGE_ID);
+        Tablespace tablespace = tablespaceId > 0 && tablespaceId <= Tablespace.MAX_TABLESPACE_ID ? this.tablespaces[tablespaceId] : null;
+        if (tablespace == null) throw new RuntimeException("There is no tablespace " + tablespaceId + ".");
+        return this.allocatePageIn(tablespace, Config.INVALID_PAGE_ID);
     }
 
-    public void revokeAllocatedPage() {
-        this.nextPageId.decrementAndGet();
+    private int allocatePageIn(Tablespace tablespace, int nearPageId) {
+        int nearPageNo = nearPageId < 0 ? Config.INVALID_PAGE_ID : this.pageNoOf(nearPageId);
+        synchronized (tablespace) {
+            int pageNo = tablespace.allocatePage(nearPageNo);
+            if (pageNo == Config.INVALID_PAGE_ID) {
+                this.claimSegment(tablespace);
+                pageNo = tablespace.allocatePage(nearPageNo);
+            }
+            return tablespace.pageIdOf(pageNo);
+        }
     }
 
     /**
-     *
+     * Give back a page allocated but never used
+     * @param pageId
+     */
+    public void revokeAllocatedPage(int pageId) {
+        this.deAllocatePage(pageId);
+    }
+
+    /**
+     * Free a page, it is reused by later allocations
      * @param pageId
      */
     public void deAllocatePage(int pageId) {
-        // TODO
+        if (pageId < 0) return;
+        Tablespace tablespace = this.tablespaceOf(pageId);
+        if (tablespace != null) {
+            tablespace.deAllocatePage(this.pageNoOf(pageId));
+            return;
+        }
+        if (pageId >= this.nextPageId.get()) return;
+        this.freePageMap.free(pageId);
+        // its slot is reused once the store is synced, see `CompressedPageStore`
+        if (this.compressedPageStore != null) this.compressedPageStore.freePage(pageId);
+    }
+
+    /**
+     * Make pages written so far durable, e.g., at a checkpoint.
+     * Slots freed in a compressed page store are reused only after it
+     */
+    public void syncPages() {
+        if (this.compressedPageStore != null) {
+            this.compressedPageStore.sync();
+        } else {
+            try {
+                this.dbFileWrite.force(false);
+            } catch (IOException e) {
+                throw new RuntimeException("Unable to sync database file.", e);
+            }
+        }
+        this.freePageMap.sync();
+        if (this.tablespaces != null) {
+            for (Tablespace tablespace : this.tablespaces) {
+                if (tablespace != null) tablespace.sync();
+            }
+        }
+    }
+
+    /**
+     * Free pages of the database file itself
+     * @return
+     */
+    public int getFreePageNum() {
+        return this.freePageMap.getFreePageNum();
+    }
+
+    /**
+     * Asynchronous page I/O of the database in use, started on first use
+     * @return
+     */
+    public synchronized PageIoEngine getPageIoEngine() {
+        if (this.whetherClosed) throw new RuntimeException("Database file is closed.");
+        if (this.pageIoEngine == null) this.pageIoEngine = new PageIoEngine(this);
+        return this.pageIoEngine;
     }
 
     /**
-     * Close streams
+     * Close streams, after page I/O in flight is done
      */
     public void close() {
+        synchronized (this) {
+            // no engine is started again for a closed file
+            this.whetherClosed = true;
+            if (this.pageIoEngine != null) this.pageIoEngine.close();
+            this.pageIoEngine = null;
+        }
+        if (this.compressedPageStore != null) this.compressedPageStore.close();
+        this.compressedPageStore = null;
+        this.freePageMap.close();
+        if (this.whetherPreallocate && this.headerMark != this.highWaterMark) {
+            // pages reserved by the header mark beyond the last one written are given back
+            try {
+                synchronized (this.dbFileWrite) {
+                    this.writeHeaderMark(this.highWaterMark);
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        if (this.tablespaces != null) {
+            for (Tablespace tablespace : this.tablespaces) {
+                if (tablespace != null) tablespace.close();
+            }
+        }
         try {
             this.dbFileRead.close();
             this.dbFileWrite.close();
             this.logFileRead.close();
-            this.logFileWrite.close();
+            if (this.logChannel != null) this.logChannel.close();
+            else this.logFileWrite.close();
         } catch (IOException e) {
             e.printStackTrace();
         }
@@ -0,0 +1,289 @@
+package txDB.storage.disk;
+
+import txDB.Config;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Pages freed in a database file, or a tablespace, a bitmap persisted in a side file.
+ * The file is a header followed by the words of the bitmap, and only words changed are written back, in place:
+ * a page is handed out only after the word without it is written and forced, allocations waiting at once share a force,
+ * while freed pages are written back lazily, with the next allocation or `sync`,
+ * so a crash may leak a freed page, but never hands out a page still in use.
+ * Pages are numbered from 0 within their file, or tablespace.
+ *
+ * When the file grows for a table, the rest of the extent of its new page is kept in memory for its next pages,
+ * see `keepForGrowth`, so that tables growing at the same time do not interleave their pages.
+ */
+public class FreePageMap {
+    private static final int MAGIC = 0x46534D32;
+    // the magic, padded so that words are aligned
+    private static final int HEADER_SIZE = 8;
+
+    private File freePageMapFile;
+    private FileChannel freePageMapChannel;
+    private BitSet freePageMap;
+    // whether the file is missing or broken, so it is written again as a whole
+    private boolean whetherRewrite;
+    // words changed since they were last written
+    private BitSet dirtyWords;
+    // extent start to the next page of the extent kept for the table growing into it
+    private HashMap<Integer, Integer> growingExtents;
+    // bumped by every write of words, under the lock of the map
+    private long writeSeq;
+    private volatile long forcedSeq;
+    private final Object forceLock = new Object();
+
+    /**
+     *
+     * @param freePageMapFile
+     * @param pageNum pages at or beyond it were never written out, they are not free
+     */
+    public FreePageMap(File freePageMapFile, int pageNum) {
+        this.freePageMapFile = freePageMapFile;
+        this.freePageMap = this.read();
+        this.dirtyWords = new BitSet();
+        this.growingExtents = new HashMap<>();
+        // pages never written out are beyond the end of file, they are allocated by growing again
+        if (pageNum < this.freePageMap.length()) {
+            this.markDirty(pageNum, this.freePageMap.length());
+            this.freePageMap.clear(pageNum, this.freePageMap.length());
+        }
+        this.open();
+    }
+
+    /**
+     * Take a free page.
+     * With a hint, a page kept for growth in the extent of the hint is taken first, then a free page in that extent,
+     * then one in a wholly free extent, so that pages of a table stay physically close together
+     * @param nearPageNo a page of the same table, or Config.INVALID_PAGE_ID
+     * @return Config.INVALID_PAGE_ID if no page is free
+     */
+    public int allocate(int nearPageNo) {
+        int pageNo;
+        long seq;
+        synchronized (this) {
+            if (nearPageNo >= 0) {
+                // never marked free on disk, nothing to write
+                pageNo = this.takeGrowingPage(nearPageNo - nearPageNo % Config.EXTENT_SIZE);
+                if (pageNo != Config.INVALID_PAGE_ID) return pageNo;
+            }
+            pageNo = this.findFreePage(nearPageNo);
+            if (pageNo == Config.INVALID_PAGE_ID) return pageNo;
+            this.freePageMap.clear(pageNo);
+            this.markDirty(pageNo, pageNo + 1);
+            seq = this.writeDirtyWords();
+        }
+        // not handed out before the map without it is durable
+        this.force(seq);
+
+        return pageNo;
+    }
+
+    private int takeGrowingPage(int extentStart) {
+        Integer pageNo = this.growingExtents.get(extentStart);
+        if (pageNo == null) return Config.INVALID_PAGE_ID;
+        if (pageNo + 1 < extentStart + Config.EXTENT_SIZE) this.growingExtents.put(extentStart, pageNo + 1);
+        else this.growingExtents.remove(extentStart);
+        return pageNo;
+    }
+
+    private int findFreePage(int nearPageNo) {
+        int firstFreePageNo = this.freePageMap.nextSetBit(0);
+        if (firstFreePageNo < 0) return Config.INVALID_PAGE_ID;
+        if (nearPageNo < 0) return firstFreePageNo;
+
+        int extentStart = nearPageNo - nearPageNo % Config.EXTENT_SIZE;
+        int pageNo = this.freePageMap.nextSetBit(extentStart);
+        if (pageNo >= 0 && pageNo < extentStart + Config.EXTENT_SIZE) return pageNo;
+
+        // the extent is used up, start a wholly free one
+        pageNo = firstFreePageNo;
+        while (pageNo >= 0) {
+            extentStart = pageNo - pageNo % Config.EXTENT_SIZE;
+            if (pageNo == extentStart && this.freePageMap.nextClearBit(extentStart) >= extentStart + Config.EXTENT_SIZE)
+                return extentStart;
+            pageNo = this.freePageMap.nextSetBit(extentStart + Config.EXTENT_SIZE);
+        }
+
+        return firstFreePageNo;
+    }
+
+    /**
+     * The file grew for a table up to the end of the extent of pageNo - 1,
+     * pages from pageNo on are handed out for allocations near that extent only
+     * @param pageNo
+     */
+    public synchronized void keepForGrowth(int pageNo) {
+        if (pageNo % Config.EXTENT_SIZE == 0) return;
+        this.growingExtents.put(pageNo - pageNo % Config.EXTENT_SIZE, pageNo);
+    }
+
+    /**
+     *
+     * @param pageNo
+     * @return false if the page is already free
+     */
+    public synchronized boolean free(int pageNo) {
+        if (this.freePageMap.get(pageNo)) return false;
+        this.freePageMap.set(pageNo);
+        // written back later, a crash before that only leaks the page
+        this.markDirty(pageNo, pageNo + 1);
+        return true;
+    }
+
+    /**
+     * Pages kept for growth are not counted
+     * @return
+     */
+    public synchronized int getFreePageNum() {
+        return this.freePageMap.cardinality();
+    }
+
+    /**
+     * Make pages freed so far durable
+     */
+    public void sync() {
+        long seq;
+        synchronized (this) {
+            seq = this.writeDirtyWords();
+        }
+        this.force(seq);
+    }
+
+    /**
+     * Pages still kept for growth are freed, then the map is synced
+     */
+    public void close() {
+        synchronized (this) {
+            for (Map.Entry<Integer, Integer> growingExtent : this.growingExtents.entrySet()) {
+                int extentEnd = growingExtent.getKey() + Config.EXTENT_SIZE;
+                this.freePageMap.set(growingExtent.getValue(), extentEnd);
+                this.markDirty(growingExtent.getValue(), extentEnd);
+            }
+            this.growingExtents.clear();
+        }
+        this.sync();
+        try {
+            this.freePageMapChannel.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    public void delete() {
+        this.freePageMapFile.delete();
+    }
+
+    private void markDirty(int fromPageNo, int toPageNo) {
+        this.dirtyWords.set(fromPageNo >>> 6, ((toPageNo - 1) >>> 6) + 1);
+    }
+
+    /**
+     * Write changed words in place, under the lock of the map
+     * @return sequence number to force up to
+     */
+    private long writeDirtyWords() {
+        if (this.dirtyWords.isEmpty()) return this.writeSeq;
+        ByteBuffer word = ByteBuffer.allocate(8);
+        int wordIndex;
+        try {
+            for (wordIndex = this.dirtyWords.nextSetBit(0); wordIndex >= 0; wordIndex = this.dirtyWords.nextSetBit(wordIndex + 1)) {
+                long[] bits = this.freePageMap.get(wordIndex << 6, (wordIndex + 1) << 6).toLongArray();
+                word.clear();
+                word.putLong(0, bits.length == 0 ? 0L : bits[0]);
+                long offset = HEADER_SIZE + 8L * wordIndex;
+                while (word.hasRemaining()) offset += this.freePageMapChannel.write(word, offset);
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Unable to persist free page map.", e);
+        }
+        this.dirtyWords.clear();
+
+        return ++this.writeSeq;
+    }
+
+    /**
+     * Force words written up to seq, outside the lock of the map, so that allocations waiting at once share a force
+     * @param seq
+     */
+    private void force(long seq) {
+        if (this.forcedSeq >= seq) return;
+        synchronized (this.forceLock) {
+            if (this.forcedSeq >= seq) return;
+            long writtenSeq;
+            synchronized (this) {
+                writtenSeq = this.writeSeq;
+            }
+            try {
+                this.freePageMapChannel.force(false);
+            } catch (IOException e) {
+                throw new RuntimeException("Unable to persist free page map.", e);
+            }
+            this.forcedSeq = writtenSeq;
+        }
+    }
+
+    /**
+     * Open the map for in-place updates, a new map file is made durable along with its directory entry
+     */
+    private void open() {
+        boolean whetherNew = !this.freePageMapFile.isFile();
+        try {
+            this.freePageMapChannel = FileChannel.open(this.freePageMapFile.toPath(),
+                    StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(0, MAGIC);
+            long offset = 0;
+            while (header.hasRemaining()) offset += this.freePageMapChannel.write(header, offset);
+            if (this.whetherRewrite) {
+                this.freePageMapChannel.truncate(HEADER_SIZE);
+                this.markDirty(0, Math.max(1, this.freePageMap.length()));
+            }
+            this.writeDirtyWords();
+            this.freePageMapChannel.force(true);
+        } catch (IOException e) {
+            throw new RuntimeException("Unable to open free page map.", e);
+        }
+        if (whetherNew) syncDirectory(this.freePageMapFile.getAbsoluteFile().getParentFile());
+    }
+
+    /**
+     * Make a new directory entry durable, not every platform can sync a directory
+     * @param dir
+     */
+    private static void syncDirectory(File dir) {
+        if (dir == null) return;
+        try (FileChannel dirChannel = FileChannel.open(dir.toPath(), StandardOpenOption.READ)) {
+            dirChannel.force(true);
+        } catch (IOException e) {
+//            System.out.println("unable to sync directory " + dir);
+        }
+    }
+
+    private BitSet read() {
+        BitSet freePageMap = new BitSet();
+        this.whetherRewrite = true;
+        if (!this.freePageMapFile.isFile()) return freePageMap;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(this.freePageMapFile)))) {
+            if (this.freePageMapFile.length() < HEADER_SIZE || in.readInt() != MAGIC) return freePageMap;
+            in.readInt();
+            long[] words = new long[(int) ((this.freePageMapFile.length() - HEADER_SIZE) / 8)];
+            int i;
+            for (i = 0; i < words.length; i++) words[i] = in.readLong();
+            freePageMap = BitSet.valueOf(words);
+            this.whetherRewrite = false;
+        } catch (IOException e) {
+            // a broken map only leaks the pages it holds
+            e.printStackTrace();
+            return new BitSet();
+        }
+        return freePageMap;
+    }
+}
@@ -0,0 +1,160 @@
+package txDB.storage.disk;
+
+import txDB.Config;
+import txDB.buffer.LatencyHistogram;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Asynchronous page I/O of one database file:
+ * requests are served by a dedicated pool of I/O threads and complete through futures,
+ * so background work, e.g., a flush writing many runs of pages, keeps many requests in flight at once.
+ * At most `queueDepth` requests are queued or in flight, a submitter blocks beyond it.
+ * Reads and writes, of single pages and of runs of pages alike, are positional and run in parallel.
+ * Completion callbacks run on an I/O thread, they must not block on the engine.
+ */
+public class PageIoEngine {
+    private DiskManager diskManager;
+    private ExecutorService ioService;
+    private Semaphore queueSlots;
+    private int queueDepth;
+    private LatencyHistogram queueLatency;
+    private LatencyHistogram readLatency;
+    private LatencyHistogram writeLatency;
+
+    public PageIoEngine(DiskManager diskManager) {
+        this(diskManager, Config.IO_THREADS, Config.IO_QUEUE_DEPTH);
+    }
+
+    /**
+     *
+     * @param diskManager
+     * @param threadNum I/O threads
+     * @param queueDepth requests queued or in flight at most
+     */
+    public PageIoEngine(DiskManager diskManager, int threadNum, int queueDepth) {
+        if (threadNum < 1 || queueDepth < 1) throw new RuntimeException("I/O threads and queue depth must be positive.");
+        this.diskManager = diskManager;
+        this.queueDepth = queueDepth;
+        this.queueSlots = new Semaphore(queueDepth);
+        this.ioService = Executors.newFixedThreadPool(threadNum, runnable -> {
+            Thread thread = new Thread(runnable, "page-io");
+            // requests of a closed database are not worth keeping the process alive
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.queueLatency = new LatencyHistogram();
+        this.readLatency = new LatencyHistogram();
+        this.writeLatency = new LatencyHistogram();
+    }
+
+    /**
+     *
+     * @param pageId
+     * @param pageBuffer
+     * @return completes with false if the page is beyond the end of file
+     */
+    public CompletableFuture<Boolean> readPage(int pageId, ByteBuffer pageBuffer) {
+        return this.submit(() -> this.diskManager.readPage(pageId, pageBuffer), this.readLatency);
+    }
+
+    /**
+     *
+     * @param firstPageId
+     * @param pageBuffers
+     * @return completes with the number of pages read
+     */
+    public CompletableFuture<Integer> readPages(int firstPageId, ByteBuffer[] pageBuffers) {
+        return this.submit(() -> this.diskManager.readPages(firstPageId, pageBuffers), this.readLatency);
+    }
+
+    public CompletableFuture<Void> writePage(int pageId, ByteBuffer pageBuffer) {
+        return this.submit(() -> {
+            this.diskManager.writePage(pageId, pageBuffer);
+            return null;
+        }, this.writeLatency);
+    }
+
+    public CompletableFuture<Void> writePages(int firstPageId, ByteBuffer[] pageBuffers) {
+        return this.submit(() -> {
+            this.diskManager.writePages(firstPageId, pageBuffers);
+            return null;
+        }, this.writeLatency);
+    }
+
+    private <T> CompletableFuture<T> submit(Supplier<T> io, LatencyHistogram latency) {
+        this.queueSlots.acquireUninterruptibly();
+        long submitTime = System.nanoTime();
+        CompletableFuture<T> future = new CompletableFuture<>();
+        try {
+            this.ioService.execute(() -> {
+                long startTime = System.nanoTime();
+                this.queueLatency.record(startTime - submitTime);
+                T result;
+                try {
+                    result = io.get();
+                } catch (RuntimeException e) {
+                    this.queueSlots.release();
+                    future.completeExceptionally(e);
+                    return;
+                }
+                latency.record(System.nanoTime() - startTime);
+                // give the slot back first, a callback may submit the next request
+                this.queueSlots.release();
+                future.complete(result);
+            });
+        } catch (RejectedExecutionException e) {
+            this.queueSlots.release();
+            throw new RuntimeException("Page I/O engine is closed.", e);
+        }
+
+        return future;
+    }
+
+    public int getQueueDepth() {
+        return this.queueDepth;
+    }
+
+    /**
+     *
+     * @return number of requests queued or in flight
+     */
+    public int getPendingNum() {
+        return this.queueDepth - this.queueSlots.availablePermits();
+    }
+
+    /**
+     * Time requests wait for an I/O thread
+     * @return
+     */
+    public LatencyHistogram.Snapshot getQueueLatency() {
+        return this.queueLatency.snapshot();
+    }
+
+    public LatencyHistogram.Snapshot getReadLatency() {
+        return this.readLatency.snapshot();
+    }
+
+    public LatencyHistogram.Snapshot getWriteLatency() {
+        return this.writeLatency.snapshot();
+    }
+
+    /**
+     * Requests already submitted are finished first
+     */
+    public void close() {
+        this.ioService.shutdown();
+        try {
+            this.ioService.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,334 @@
+package txDB.storage.disk;
+
+import txDB.Config;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A named set of data files, e.g., one on each of several local disks, holding pages of the tables and indexes placed in it.
+ * Pages of a tablespace are striped across its data files by extent:
+ * extent k, Config.EXTENT_SIZE pages, goes to data file k % fileNum, so sequential I/O of a table spreads over all devices.
+ *
+ * Page ids stay global ints. A tablespace owns segments of SEGMENT_SIZE consecutive page ids,
+ * claimed from the top of the page id space down as it grows, see `DiskManager`,
+ * while the database file itself, tablespace 0, grows from page 0 up, so neither is limited but by the other.
+ * Within a tablespace, pages are numbered from 0 across its segments in the order they are claimed:
+ * | LocalSegmentNo | PageNo within the segment (SEGMENT_BITS) |
+ *
+ * Data files have no header, a page is at its own offset in its data file and reads beyond the end of file fail,
+ * the number of pages is derived from file lengths when opened. Tablespaces always use buffered I/O and pages are not compressed.
+ * Each data file has its own channel, so I/O to different devices does not contend.
+ */
+public class Tablespace {
+    public static final int DEFAULT_TABLESPACE_ID = 0;
+    public static final int MAX_TABLESPACE_ID = 127;
+    public static final int SEGMENT_BITS = 16;
+    public static final int SEGMENT_SIZE = 1 << SEGMENT_BITS;     // 256 MB of 4 KB pages
+    public static final int SEGMENT_NUM = 1 << (31 - SEGMENT_BITS);   // segments of the non-negative page ids
+
+    private int tablespaceId;
+    private String name;
+    private File[] dataFiles;
+    private FileChannel[] dataChannels;
+    private int pageSize;
+    private AtomicInteger nextPageNo;
+    private FreePageMap freePageMap;
+    // segment numbers in the page id space, in the order they are claimed
+    private volatile int[] segments;
+
+    /**
+     *
+     * @param tablespaceId
+     * @param name
+     * @param dataFiles one per device
+     * @param pageSize page size of the database
+     * @param segments segments claimed so far, in order
+     */
+    public Tablespace(int tablespaceId, String name, File[] dataFiles, int pageSize, int[] segments) {
+        if (tablespaceId <= DEFAULT_TABLESPACE_ID || tablespaceId > MAX_TABLESPACE_ID)
+            throw new RuntimeException("Tablespace id must be between 1 and " + MAX_TABLESPACE_ID + ".");
+        if (dataFiles.length == 0) throw new RuntimeException("Tablespace " + name + " has no data file.");
+        this.tablespaceId = tablespaceId;
+        this.name = name;
+        this.dataFiles = dataFiles;
+        this.pageSize = pageSize;
+        this.segments = segments;
+    }
+
+    /**
+     *
+     * @param pageNo
+     * @return global page id, the segment of the page must be claimed
+     */
+    public int pageIdOf(int pageNo) {
+        return (this.segments[pageNo >>> SEGMENT_BITS] << SEGMENT_BITS) | (pageNo & (SEGMENT_SIZE - 1));
+    }
+
+    public int[] getSegments() {
+        return this.segments;
+    }
+
+    /**
+     * The tablespace grows into another segment, which must be persisted in the catalog first
+     * @param segmentNo
+     */
+    public synchronized void addSegment(int segmentNo) {
+        int[] segments = Arrays.copyOf(this.segments, this.segments.length + 1);
+        segments[segments.length - 1] = segmentNo;
+        this.segments = segments;
+    }
+
+    /**
+     * Create data files which do not exist, then open all of them
+     * @throws IOException
+     */
+    public void open() throws IOException {
+        this.dataChannels = new FileChannel[this.dataFiles.length];
+        int i;
+        for (i = 0; i < this.dataFiles.length; i++) {
+            File dataDir = this.dataFiles[i].getParentFile();
+            if (dataDir != null && !dataDir.isDirectory() && !dataDir.mkdirs())
+                throw new IOException("Unable to create data directory " + dataDir + ".");
+            this.dataChannels[i] = new RandomAccessFile(this.dataFiles[i], "rw").getChannel();
+        }
+
+        // the page after the last one written to any data file
+        int pageNum = 0;
+        for (i = 0; i < this.dataFiles.length; i++) {
+            long localPageNum = this.dataChannels[i].size() / this.pageSize;
+            if (localPageNum == 0) continue;
+            long lastPageNo = this.pageNoAt(i, localPageNum - 1);
+            pageNum = (int) Math.max(pageNum, Math.min(lastPageNo + 1, (long) this.segments.length * SEGMENT_SIZE));
+        }
+        this.nextPageNo = new AtomicInteger(pageNum);
+        this.freePageMap = new FreePageMap(new File(this.dataFiles[0].getPath() + ".fsm"), pageNum);
+    }
+
+    /**
+     *
+     * @param fileNo
+     * @param localPageNo page number within the data file
+     * @return
+     */
+    private long pageNoAt(int fileNo, long localPageNo) {
+        long extentNo = localPageNo / Config.EXTENT_SIZE * this.dataFiles.length + fileNo;
+        return extentNo * Config.EXTENT_SIZE + localPageNo % Config.EXTENT_SIZE;
+    }
+
+    private int fileNoOf(int pageNo) {
+        return (pageNo / Config.EXTENT_SIZE) % this.dataFiles.length;
+    }
+
+    private long offsetOf(int pageNo) {
+        long localPageNo = (long) (pageNo / Config.EXTENT_SIZE / this.dataFiles.length) * Config.EXTENT_SIZE
+                + pageNo % Config.EXTENT_SIZE;
+        return localPageNo * this.pageSize;
+    }
+
+    /**
+     *
+     * @param pageNo
+     * @param pageBuffer
+     * @return false if the page is beyond the end of its data file
+     */
+    public boolean readPage(int pageNo, ByteBuffer pageBuffer) {
+        FileChannel dataChannel = this.dataChannels[this.fileNoOf(pageNo)];
+        long offset = this.offsetOf(pageNo);
+        pageBuffer.clear();
+        try {
+            int readSize;
+            while (pageBuffer.hasRemaining()
+                    && (readSize = dataChannel.read(pageBuffer, offset + pageBuffer.position())) != -1) {
+                if (readSize == 0) break;
+            }
+            if (pageBuffer.position() == 0) return false;
+            // the frame may hold data of an evicted page, clean the rest of it
+            Arrays.fill(pageBuffer.array(), pageBuffer.position(), this.pageSize, (byte) 0);
+            return true;
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+
+        return false;
+    }
+
+    public void writePage(int pageNo, ByteBuffer pageBuffer) {
+        FileChannel dataChannel = this.dataChannels[this.fileNoOf(pageNo)];
+        long offset = this.offsetOf(pageNo);
+        pageBuffer.clear();
+        try {
+            while (pageBuffer.hasRemaining()) {
+                offset += dataChannel.write(pageBuffer, offset);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * A run of pages is cut at extent boundaries, each piece is written to its data file by positional writes,
+     * so that concurrent runs do not serialize on the channel
+     * @param firstPageNo
+     * @param pageBuffers
+     */
+    public void writePages(int firstPageNo, ByteBuffer[] pageBuffers) {
+        int from = 0;
+        while (from < pageBuffers.length) {
+            int pageNo = firstPageNo + from;
+            int to = this.pieceEnd(pageNo, from, pageBuffers.length);
+            FileChannel dataChannel = this.dataChannels[this.fileNoOf(pageNo)];
+            long offset = this.offsetOf(pageNo);
+            try {
+                int i;
+                for (i = from; i < to; i++) {
+                    ByteBuffer pageBuffer = pageBuffers[i];
+                    long pageOffset = offset;
+                    while (pageBuffer.hasRemaining()) {
+                        pageOffset += dataChannel.write(pageBuffer, pageOffset);
+                    }
+                    offset += this.pageSize;
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            from = to;
+        }
+    }
+
+    /**
+     * A run of pages is cut at extent boundaries, each piece is read from its data file by positional reads
+     * @param firstPageNo
+     * @param pageBuffers
+     * @return number of pages read, the run stops at the first page beyond the end of its data file
+     */
+    public int readPages(int firstPageNo, ByteBuffer[] pageBuffers) {
+        int from = 0;
+        boolean whetherEnd = false;
+        while (from < pageBuffers.length && !whetherEnd) {
+            int pageNo = firstPageNo + from;
+            int to = this.pieceEnd(pageNo, from, pageBuffers.length);
+            FileChannel dataChannel = this.dataChannels[this.fileNoOf(pageNo)];
+            long offset = this.offsetOf(pageNo);
+            try {
+                int i;
+                for (i = from; i < to && !whetherEnd; i++) {
+                    ByteBuffer pageBuffer = pageBuffers[i];
+                    while (pageBuffer.hasRemaining()) {
+                        if (dataChannel.read(pageBuffer, offset + pageBuffer.position()) <= 0) break;
+                    }
+                    whetherEnd = pageBuffer.hasRemaining();
+                    offset += this.pageSize;
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+                whetherEnd = true;
+            }
+            from = to;
+        }
+
+        int readNum = 0;
+        for (ByteBuffer pageBuffer : pageBuffers) {
+            if (pageBuffer.position() == 0) break;
+            // the frame may hold data of an evicted page, clean the rest of it
+            Arrays.fill(pageBuffer.array(), pageBuffer.position(), this.pageSize, (byte) 0);
+            readNum++;
+        }
+        return readNum;
+    }
+
+    private int pieceEnd(int pageNo, int from, int to) {
+        // one data file holds consecutive pages of an extent only, unless it is the only one
+        if (this.dataFiles.length == 1) return to;
+        return Math.min(to, from + Config.EXTENT_SIZE - pageNo % Config.EXTENT_SIZE);
+    }
+
+    /**
+     * Allocate a page, a free page is reused before the tablespace grows.
+     * Growing for a hint takes the rest of the extent of the new page for the same table
+     * @param nearPageNo a page of the same table in this tablespace, or Config.INVALID_PAGE_ID
+     * @return Config.INVALID_PAGE_ID if the tablespace has to claim another segment first
+     */
+    public synchronized int allocatePage(int nearPageNo) {
+        int pageNo = this.freePageMap.allocate(nearPageNo);
+        if (pageNo != Config.INVALID_PAGE_ID) return pageNo;
+        pageNo = this.nextPageNo.get();
+        if (pageNo >= (long) this.segments.length * SEGMENT_SIZE) return Config.INVALID_PAGE_ID;
+
+        // segments are whole extents
+        int endPageNo = nearPageNo < 0 ? pageNo + 1 : pageNo - pageNo % Config.EXTENT_SIZE + Config.EXTENT_SIZE;
+        this.nextPageNo.set(endPageNo);
+        if (endPageNo > pageNo + 1) this.freePageMap.keepForGrowth(pageNo + 1);
+        return pageNo;
+    }
+
+    public void deAllocatePage(int pageNo) {
+        if (pageNo >= this.nextPageNo.get()) return;
+        this.freePageMap.free(pageNo);
+    }
+
+    public int getTablespaceId() {
+        return this.tablespaceId;
+    }
+
+    public String getName() {
+        return this.name;
+    }
+
+    public File[] getDataFiles() {
+        return this.dataFiles;
+    }
+
+    /**
+     * Number of pages ever allocated in the tablespace
+     * @return
+     */
+    public int getPageNum() {
+        return this.nextPageNo.get();
+    }
+
+    public int getFreePageNum() {
+        return this.freePageMap.getFreePageNum();
+    }
+
+    /**
+     * Force pages written so far in all data files
+     */
+    public void sync() {
+        if (this.dataChannels == null) return;
+        this.freePageMap.sync();
+        for (FileChannel dataChannel : this.dataChannels) {
+            try {
+                dataChannel.force(false);
+            } catch (IOException e) {
+                throw new RuntimeException("Unable to sync tablespace " + this.name + ".", e);
+            }
+        }
+    }
+
+    public void close() {
+        if (this.dataChannels == null) return;
+        this.freePageMap.close();
+        for (FileChannel dataChannel : this.dataChannels) {
+            try {
+                if (dataChannel != null) dataChannel.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        this.dataChannels = null;
+    }
+
+    /**
+     * Remove the data files and the free page map, the tablespace must be closed
+     */
+    public void delete() {
+        for (File dataFile : this.dataFiles) {
+            dataFile.delete();
+            new File(dataFile.getPath() + ".fsm").delete();
+        }
+    }
+}
@@ -7,6 +7,7 @@ import txDB.storage.page.*;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * This class is a disk-based B+ tree
@@ -16,16 +17,49 @@ public class BPlusTreeIndex<K extends Comparable<K>, V> {
     // TODO: bulk insertion needed to build a whole b+ tree
     private BufferManager bufferManager;
     private int rootPageId;
+    private int tablespaceId;
     private BPlusTreePageNode<K, V> rootPageNode;
+    // pages of nodes read by optimistic lookups without pinning, see `residentPageOf`
+    private final Map<Integer, Page> residentPages = new ConcurrentHashMap<>();
+    // copy of the node being read by an optimistic lookup, one of each thread
+    private final ThreadLocal<byte[]> nodeCopies;
     private final int MAXDEGREE;
     private final int MAXDEGREE1;
 
-    @SuppressWarnings("unchecked")
+    // serialized node without entries takes about 560 bytes, leave room for the rest
+    private static final int NODE_OVERHEAD = 1024;
+
+    /**
+     * Fan-out follows the page size of the database, so larger pages give a lower tree
+     * @param bufferManager
+     * @param rootPageId
+     * @param entrySize serialized size of one key with its value or child, e.g., about 20 bytes for Integer to Integer
+     */
+    public BPlusTreeIndex(BufferManager bufferManager, int rootPageId, int entrySize) {
+        this(bufferManager, rootPageId,
+                maxDegreeOf(bufferManager.getPageSize(), entrySize), maxDegreeOf(bufferManager.getPageSize(), entrySize));
+    }
+
     public BPlusTreeIndex(BufferManager bufferManager, int rootPageId, int maxDegree, int maxDegree1) {
+        this(bufferManager, rootPageId, maxDegree, maxDegree1, bufferManager.tablespaceIdOf(rootPageId));
+    }
+
+    /**
+     * Nodes of the tree are placed in a tablespace, an existing tree stays in the tablespace of its root
+     * @param bufferManager
+     * @param rootPageId
+     * @param maxDegree
+     * @param maxDegree1
+     * @param tablespaceId see `Tablespace`
+     */
+    @SuppressWarnings("unchecked")
+    public BPlusTreeIndex(BufferManager bufferManager, int rootPageId, int maxDegree, int maxDegree1, int tablespaceId) {
         this.bufferManager = bufferManager;
         this.rootPageId = rootPageId;
+        this.tablespaceId = rootPageId == Config.INVALID_PAGE_ID ? tablespaceId : bufferManager.tablespaceIdOf(rootPageId);
         MAXDEGREE = maxDegree;
         MAXDEGREE1 = maxDegree1;
+        this.nodeCopies = ThreadLocal.withInitial(() -> new byte[bufferManager.getPageSize()]);
         if (!isEmpty()) {
             rootPageNode = (BPlusTreePageNode<K, V>) deserializePageNode(rootPageId);
         } else {
@@ -33,6 +67,16 @@ public class BPlusTreeIndex<K extends Comparable<K>, V> {
         }
     }
 
+    /**
+     * Largest degree whose nodes still fit in a page, a node holds one entry more before it splits
+     * @param pageSize
+     * @param entrySize
+     * @return
+     */
+    public static int maxDegreeOf(int pageSize, int entrySize) {
+        return Math.max(3, (pageSize - NODE_OVERHEAD) / entrySize - 1);
+    }
+
     public int getRootPageId() {
         return this.rootPageId;
     }
@@ -86,7 +130,7 @@ public class BPlusTreeIndex<K extends Comparable<K>, V> {
     }
 
     private void startNewTree() {
-        Page rootPage = bufferManager.newPage();
+        Page rootPage = bufferManager.newPageIn(tablespaceId);
         rootPageId = rootPage.getPageId();
     }
 
@@ -112,7 +156,8 @@ public class BPlusTreeIndex<K extends Comparable<K>, V> {
                 rootPage.readLatch();
             }
             txn.pushIndexPageQueue(rootPage);
-            if (rootPageId != this.rootPageId) {
+            // a restarted insert keeps its ancestors write latched, a split may change any of them
+            if (rootPageId != this.rootPageId && txn.getTransactionState() != Transaction.TransactionState.RESTARTED) {
                 Page page = txn.popIndexPageQueue();
 //                System.out.println("Inserting " + key.toString() + " in txn " + txn.getTxnId() + ": when node with keys: " + bPlusTreePageNode.getKeys() + " get latch, then unlatch node with keys: ");
                 if (txn.getTransactionState() != Transaction.TransactionState.RESTARTED) {
@@ -122,7 +167,7 @@ public class BPlusTreeIndex<K extends Comparable<K>, V> {
 //                    System.out.println("Inserting " + key.toString() + " in txn " + txn.getTxnId() + ": release write latch");
                     page.writeUnlatch();
                 }
-                this.bufferManager.unpinPage(rootPageId, false);
+                this.bufferManager.unpinPage(page.getPageId(), false);
             }
 
             if (bPlusTreePageNode.isLeafPageNode()) {
@@ -151,11 +196,12 @@ public class BPlusTreeIndex<K extends Comparable<K>, V> {
                         splitLeafNode((BPlusTreeLeafPageNode<K, V>) bPlusTreePageNode);
                     }
 
-                    txn.popIndexPageQueue();
-                    assert txn.getIndexPageQueue().size() == 0;
-//                    System.out.println("Inserting " + key.toString() + " in txn " + txn.getTxnId() + ": release write latch");
-                    rootPage.writeUnlatch();
-                    this.bufferManager.unpinPage(rootPageId, true);
+                    Page page;
+                    while ((page = txn.popIndexPageQueue()) != null) {
+//                        System.out.println("Inserting " + key.toString() + " in txn " + txn.getTxnId() + ": release write latch");
+                        page.writeUnlatch();
+                        this.bufferManager.unpinPage(page.getPageId(), page == rootPage);
+                    }
                 }
             } else {
                 if (key.compareTo(bPlusTreePageNode.getKeys().get(0)) < 0) {
@@ -207,7 +253,7 @@ public class BPlusTreeIndex<K extends Comparable<K>, V> {
         int from = MAXDEGREE / 2, to = leftLeafPageNode.getKeys().size();
         K splitKey = leftLeafPageNode.getKeys().get(from);
 
-        Page newPage = bufferManager.newPage();
+        Page newPage = bufferManager.newPageIn(tablespaceId);
         BPlusTreeLeafPageNode<K, V> rightLeafPageNode = new BPlusTreeLeafPageNode<>(
                 leftLeafPageNode.getKeys().subList(from, to),
                 leftLeafPageNode.getValues().subList(from, to),
@@ -234,7 +280,7 @@ public class BPlusTreeIndex<K extends Comparable<K>, V> {
         if (rootPageNode.isLeafPageNode()) {
 //            System.out.println("root page node is leaf node");
             // it is the first time of splitting
-            Page leftPage = bufferManager.newPage();
+            Page leftPage = bufferManager.newPageIn(tablespaceId);
             leftLeafPageNode.setPageId(leftPage.getPageId());
             leftLeafPageNode.setParentPageId(rootPageId);
             rightLeafPageNode.setParentPageId(rootPageId);
@@ -274,7 +320,7 @@ public class BPlusTreeIndex<K extends Comparable<K>, V> {
         int from = MAXDEGREE1 / 2, keysTo = leftInnerPageNode.getKeys().size(), childrenTo = leftInnerPageNode.getChildren().size();
         K splitKey = leftInnerPageNode.getKeys().get(from);
 
-        Page newPage = bufferManager.newPage();
+        Page newPage = bufferManager.newPageIn(tablespaceId);
         BPlusTreeInnerPageNode<K, V> rightInnerPageNode = new BPlusTreeInnerPageNode<>(
                 leftInnerPageNode.getKeys().subList(from + 1, keysTo),
                 leftInnerPageNode.getChildren().subList(from + 1, childrenTo),
@@ -287,7 +333,7 @@ public class BPlusTreeIndex<K extends Comparable<K>, V> {
 
         Page leftPage;
         if (leftInnerPageNode.isRootPageNode()) {
-            leftPage = bufferManager.newPage();
+            leftPage = bufferManager.newPageIn(tablespaceId);
             leftInnerPageNode.setPageId(leftPage.getPageId());
         } else {
             leftPage = bufferManager.fetchPage(leftInnerPageNode.getPageId());
@@ -348,14 +394,103 @@ public class BPlusTreeIndex<K extends Comparable<K>, V> {
         return targetPageNode == null ? null : targetPageNode.getValue(key);
     }
 
+    /**
+     * Lookups first descend optimistically without any latch,
+     * and take read latches only if that keeps conflicting with writers
+     * @param rootPageId
+     * @param key
+     * @return
+     */
+    private BPlusTreeLeafPageNode<K, V> findHelper(int rootPageId, K key, Transaction txn) {
+        if (rootPageId == Config.INVALID_PAGE_ID) return null;
+        int i;
+        for (i = 0; i < Config.OPTIMISTIC_READ_RETRIES; i++) {
+            BPlusTreeLeafPageNode<K, V> leafPageNode = optimisticFindHelper(rootPageId, key);
+            if (leafPageNode != null) return leafPageNode;
+        }
+        return pessimisticFindHelper(rootPageId, key, txn);
+    }
+
+    /**
+     * Optimistic lock coupling: a node is copied and validated against its version,
+     * and the parent is validated again after the child is reached,
+     * so the child id followed is never from a node changed meanwhile
+     * @param rootPageId
+     * @param key
+     * @return null if any node changed during the descent
+     */
+    @SuppressWarnings("unchecked")
+    private BPlusTreeLeafPageNode<K, V> optimisticFindHelper(int rootPageId, K key) {
+        Page parentPage = null;
+        long parentVersion = 0;
+        int pageId = rootPageId;
+        byte[] pageData = this.nodeCopies.get();
+        while (true) {
+            Page page = this.residentPageOf(pageId);
+            if (page == null) return null;
+            long version = page.optimisticReadLatch();
+            System.arraycopy(page.getPageData(), 0, pageData, 0, pageData.length);
+            if (!page.validateReadLatch(version)
+                    || (parentPage != null && !parentPage.validateReadLatch(parentVersion))) {
+//                System.out.println("Finding " + key.toString() + ": page " + pageId + " changed, restart");
+                return null;
+            }
+
+            BPlusTreePageNode<K, V> pageNode = (BPlusTreePageNode<K, V>) deserializePageNode(pageData);
+            if (pageNode == null || pageNode.isLeafPageNode()) return (BPlusTreeLeafPageNode<K, V>) pageNode;
+
+            parentPage = page;
+            parentVersion = version;
+            pageId = findChildPageId((BPlusTreeInnerPageNode<K, V>) pageNode, key);
+            if (pageId == Config.INVALID_PAGE_ID) return null;
+        }
+    }
+
+    /**
+     * Page of a node as long as it stays in the buffer pool, so that optimistic lookups
+     * neither pin nodes nor take the buffer pool partition locks on the way down,
+     * a page evicted meanwhile fails validation and is fetched again by the next lookup
+     * @param pageId
+     * @return null if the page cannot be fetched
+     */
+    private Page residentPageOf(int pageId) {
+        Page page = this.residentPages.get(pageId);
+        if (page != null && !page.isEvicted()) return page;
+        if ((page = bufferManager.fetchPage(pageId)) == null) return null;
+        this.bufferManager.unpinPage(pageId, false);
+        this.residentPages.put(pageId, page);
+        return page;
+    }
+
     /**
      *
+     * @param innerPageNode
+     * @param key
+     * @return id of the child page which may hold the key
+     */
+    private int findChildPageId(BPlusTreeInnerPageNode<K, V> innerPageNode, K key) {
+        if (key.compareTo(innerPageNode.getKeys().get(0)) < 0) {
+            return innerPageNode.getChildren().get(0);
+        } else if (key.compareTo(innerPageNode.getKeys().get(innerPageNode.getKeys().size() - 1)) >= 0) {
+            return innerPageNode.getChildren().get(innerPageNode.getChildren().size() - 1);
+        } else {
+            int i;
+            for (i = 1; i < innerPageNode.getKeys().size(); i++) {
+                if (innerPageNode.getKeys().get(i).compareTo(key) > 0)
+                    return innerPageNode.getChildren().get(i);
+            }
+        }
+        return Config.INVALID_PAGE_ID;
+    }
+
+    /**
+     * Read latch coupling, the root stays read latched until the leaf is reached
      * @param rootPageId
      * @param key
      * @return
      */
     @SuppressWarnings("unchecked")
-    private BPlusTreeLeafPageNode<K, V> findHelper(int rootPageId, K key, Transaction txn) {
+    private BPlusTreeLeafPageNode<K, V> pessimisticFindHelper(int rootPageId, K key, Transaction txn) {
         if (rootPageId == Config.INVALID_PAGE_ID) return null;
         Page rootPage = bufferManager.fetchPage(rootPageId);
         rootPage.readLatch();
@@ -378,14 +513,14 @@ public class BPlusTreeIndex<K extends Comparable<K>, V> {
             return ((BPlusTreeLeafPageNode<K, V>) root);
         } else {
             if (key.compareTo(root.getKeys().get(0)) < 0) {
-                return findHelper(((BPlusTreeInnerPageNode<K, V>) root).getChildren().get(0), key, txn);
+                return pessimisticFindHelper(((BPlusTreeInnerPageNode<K, V>) root).getChildren().get(0), key, txn);
             } else if (key.compareTo(root.getKeys().get(root.getKeys().size() - 1)) >= 0) {
-                return findHelper(((BPlusTreeInnerPageNode<K, V>) root).getChildren().get(((BPlusTreeInnerPageNode<K, V>) root).getChildren().size() - 1), key, txn);
+                return pessimisticFindHelper(((BPlusTreeInnerPageNode<K, V>) root).getChildren().get(((BPlusTreeInnerPageNode<K, V>) root).getChildren().size() - 1), key, txn);
             } else {
                 int i;
                 for (i = 1; i < root.getKeys().size(); i++) {
                     if (root.getKeys().get(i).compareTo(key) > 0)
-                        return findHelper(((BPlusTreeInnerPageNode<K, V>) root).getChildren().get(i), key, txn);
+                        return pessimisticFindHelper(((BPlusTreeInnerPageNode<K, V>) root).getChildren().get(i), key, txn);
                 }
                 // TODO: bug in Binary Search
 //                int start = 1, end = root.getKeys().size() - 2;
@@ -393,12 +528,12 @@ public class BPlusTreeIndex<K extends Comparable<K>, V> {
 //                    int mid = start + (end - start) / 2;
 //                    if (root.getKeys().get(mid).compareTo(key) > 0) {
 //                        if (root.getKeys().get(mid - 1).compareTo(key) <= 0) {
-//                            return findHelper(((BPlusTreeInnerPageNode<K, V>) root).getChildren().get(mid), key, txn);
+//                            return pessimisticFindHelper(((BPlusTreeInnerPageNode<K, V>) root).getChildren().get(mid), key, txn);
 //                        } else {
 //                            end = mid - 1;
 //                        }
 //                    } else if (root.getKeys().get(mid).compareTo(key) == 0) {
-//                        return findHelper(((BPlusTreeInnerPageNode<K, V>) root).getChildren().get(mid), key, txn;
+//                        return pessimisticFindHelper(((BPlusTreeInnerPageNode<K, V>) root).getChildren().get(mid), key, txn;
 //                    } else {
 //                        start = mid + 1;
 //                    }
@@ -874,6 +1009,23 @@ public class BPlusTreeIndex<K extends Comparable<K>, V> {
         return null;
     }
 
+    /**
+     *
+     * @param pageData a copy of page data
+     * @return
+     */
+    private Object deserializePageNode(byte[] pageData) {
+        try {
+            ByteArrayInputStream bis = new ByteArrayInputStream(pageData);
+            ObjectInputStream in = new ObjectInputStream(bis);
+            return in.readObject();
+        } catch (IOException | ClassNotFoundException e) {
+            e.printStackTrace();
+        }
+
+        return null;
+    }
+
     /**
      *
      * @param pageId
@@ -893,7 +1045,7 @@ public class BPlusTreeIndex<K extends Comparable<K>, V> {
             ObjectOutput out = new ObjectOutputStream(bos);
             out.writeObject(childPageNode);
 
-            p.setPageData(bos.toByteArray());
+            setPageDataLatched(p, bos.toByteArray());
             bufferManager.unpinPage(p.getPageId(), true);
 
         } catch (IOException | ClassNotFoundException e) {
@@ -910,7 +1062,7 @@ public class BPlusTreeIndex<K extends Comparable<K>, V> {
             ByteArrayOutputStream bos = new ByteArrayOutputStream();
             ObjectOutput out = new ObjectOutputStream(bos);
             out.writeObject(pageNode);
-            page.setPageData(bos.toByteArray());
+            setPageDataLatched(page, bos.toByteArray());
             bufferManager.unpinPage(pageNode.getPageId(), true);
         } catch (IOException e) {
             e.printStackTrace();
@@ -927,13 +1079,28 @@ public class BPlusTreeIndex<K extends Comparable<K>, V> {
             ByteArrayOutputStream bos = new ByteArrayOutputStream();
             ObjectOutputStream out = new ObjectOutputStream(bos);
             out.writeObject(bPlusTreePageNode);
-            page.setPageData(bos.toByteArray());
+            setPageDataLatched(page, bos.toByteArray());
             bufferManager.unpinPage(page.getPageId(), true);
         } catch (IOException e) {
             e.printStackTrace();
         }
     }
 
+    /**
+     * Node pages change only under their write latch, which fails optimistic lookups reading them meanwhile,
+     * the latch is reentrant for a page the insert holds already
+     * @param page
+     * @param pageData
+     */
+    private void setPageDataLatched(Page page, byte[] pageData) {
+        page.writeLatch();
+        try {
+            page.setPageData(pageData);
+        } finally {
+            page.writeUnlatch();
+        }
+    }
+
     /**
      *
      * @param newPage
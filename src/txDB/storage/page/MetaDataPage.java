@@ -3,18 +3,27 @@ package txDB.storage.page;
 import txDB.storage.table.Scheme;
 import txDB.storage.table.Column;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
 import java.util.List;
 import java.util.ArrayList;
 import java.util.HashMap;
 
+/**
+ * Page 0 of the database, kept in Java serialization form.
+ * The checkpoint offset used to be the int field lastCheckpointOffset,
+ * pages written then are still read, see `readObject`, the serialVersionUID is the one computed for that class.
+ */
 public class MetaDataPage implements Serializable {
+    private static final long serialVersionUID = 4976949954814929087L;
     // TODO: should consider if page is full
     private int nextPageId;
     private int prevPageId;
     private HashMap<String, RelationMetaData> relationMetaDataMap;
     private HashMap<String, IndexMetaData> indexMetaDataMap;
-    private int lastCheckpointOffset;
+    // a field of another name, a field of the same name cannot change its type in serialization form
+    private long checkpointOffset;
     // maybe useful in future
     private List<Integer> freeList;
 
@@ -22,7 +31,7 @@ public class MetaDataPage implements Serializable {
         this.relationMetaDataMap = new HashMap<>();
         this.indexMetaDataMap = new HashMap<>();
         this.freeList = new ArrayList<>();
-        this.lastCheckpointOffset = 0;
+        this.checkpointOffset = 0;
     }
 
     public MetaDataPage(ArrayList<Integer> freeList) {
@@ -31,12 +40,33 @@ public class MetaDataPage implements Serializable {
         this.freeList = freeList;
     }
 
-    public int getLastCheckpointOffset() {
-        return lastCheckpointOffset;
+    public long getLastCheckpointOffset() {
+        return checkpointOffset;
     }
 
-    public void setLastCheckpointOffset(int lastCheckpointOffset) {
-        this.lastCheckpointOffset = lastCheckpointOffset;
+    public void setLastCheckpointOffset(long lastCheckpointOffset) {
+        this.checkpointOffset = lastCheckpointOffset;
+    }
+
+    /**
+     * A page written with the int lastCheckpointOffset has no checkpointOffset, it is taken from the int field
+     * @param in
+     * @throws IOException
+     * @throws ClassNotFoundException
+     */
+    @SuppressWarnings("unchecked")
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        ObjectInputStream.GetField fields = in.readFields();
+        this.nextPageId = fields.get("nextPageId", 0);
+        this.prevPageId = fields.get("prevPageId", 0);
+        this.relationMetaDataMap = (HashMap<String, RelationMetaData>) fields.get("relationMetaDataMap", null);
+        this.indexMetaDataMap = (HashMap<String, IndexMetaData>) fields.get("indexMetaDataMap", null);
+        this.freeList = (List<Integer>) fields.get("freeList", null);
+        if (fields.defaulted("checkpointOffset")) {
+            this.checkpointOffset = fields.get("lastCheckpointOffset", 0);
+        } else {
+            this.checkpointOffset = fields.get("checkpointOffset", 0L);
+        }
     }
 
     public void addRelationMetaData(String relationName, RelationMetaData relationMetaData) {
@@ -5,33 +5,43 @@ import txDB.Config;
 import java.io.Serializable;
 import java.nio.ByteBuffer;
 import java.util.Arrays;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.locks.StampedLock;
 
 public class Page implements Serializable {
     private int pageId;
     private boolean isDirty;
     private int pinCount;
     private byte[] pageData;
+    private transient ByteBuffer pageBuffer;
     private int lsn;
     private int recLsn;
     private boolean firstDirty;
-    private ReadWriteLock readWriteLatch;
-    private Lock readLatch;
-    private Lock writeLatch;
+    private boolean ioInProgress;
+    private boolean ioFailed;
+    private PageLatch latch;
 
     public Page() {
+        this(ByteBuffer.allocate(Config.PAGE_SIZE));
+    }
+
+    /**
+     * A page living in a buffer pool frame, page data is never reallocated,
+     * so that disk reads and writes go straight to the frame
+     * @param pageBuffer
+     */
+    public Page(ByteBuffer pageBuffer) {
         this.pageId = Config.INVALID_PAGE_ID;
-        this.pageData = new byte[Config.PAGE_SIZE];
+        this.pageBuffer = pageBuffer;
+        this.pageData = pageBuffer.array();
         this.isDirty = false;
         this.pinCount = 0;
         this.lsn = Config.INVALID_LSN;
         this.recLsn = Config.INVALID_LSN;
         this.firstDirty = true;
-        this.readWriteLatch = new ReentrantReadWriteLock();
-        this.readLatch = readWriteLatch.readLock();
-        this.writeLatch = readWriteLatch.writeLock();
+        this.ioInProgress = false;
+        this.ioFailed = false;
+        this.latch = new PageLatch();
 //        this.resetData();
     }
 
@@ -39,6 +49,15 @@ public class Page implements Serializable {
         return this.pageData;
     }
 
+    /**
+     * The frame buffer backing page data
+     * @return
+     */
+    public ByteBuffer getPageBuffer() {
+        if (this.pageBuffer == null) this.pageBuffer = ByteBuffer.wrap(this.pageData);
+        return this.pageBuffer;
+    }
+
     public int getPageId() {
         return this.pageId;
     }
@@ -69,12 +88,11 @@ public class Page implements Serializable {
 
     public void setPageData(byte[] pageData) {
         if (pageData == null) this.resetData();
-        else {
-            if (pageData.length < Config.PAGE_SIZE) {
-                ByteBuffer pageBuffer = ByteBuffer.wrap(new byte[Config.PAGE_SIZE]);
-                pageBuffer.put(pageData);
-                this.pageData = pageBuffer.array();
-            } else this.pageData = pageData;
+        else if (pageData != this.pageData) {
+            // copy into the frame instead of replacing it, the frame belongs to the buffer pool
+            int length = Math.min(pageData.length, this.pageData.length);
+            System.arraycopy(pageData, 0, this.pageData, 0, length);
+            Arrays.fill(this.pageData, length, this.pageData.length, (byte) 0);
         }
     }
 
@@ -92,19 +110,111 @@ public class Page implements Serializable {
     }
 
     public void readLatch() {
-        readLatch.lock();
+        latch.readWriteLatch.readLock().lock();
     }
 
     public void readUnlatch() {
-        readLatch.unlock();
+        latch.readWriteLatch.readLock().unlock();
     }
 
+    /**
+     * Write latch is reentrant, the version changes once the outermost write latch is taken
+     */
     public void writeLatch() {
-        writeLatch.lock();
+        latch.readWriteLatch.writeLock().lock();
+        if (latch.readWriteLatch.getWriteHoldCount() == 1) latch.writeStamp = latch.versionLatch.writeLock();
     }
 
     public void writeUnlatch() {
-        writeLatch.unlock();
+        if (latch.readWriteLatch.getWriteHoldCount() == 1) latch.versionLatch.unlockWrite(latch.writeStamp);
+        latch.readWriteLatch.writeLock().unlock();
+    }
+
+    /**
+     * Start an optimistic read, which takes no latch at all:
+     * the reader reads page data and then checks with `validateReadLatch`
+     * that no write latch was taken in between, otherwise what it read may be torn.
+     * Whatever is read must not be acted on before validation.
+     * @return version of the page, 0 if the page is write latched right now
+     */
+    public long optimisticReadLatch() {
+        return latch.versionLatch.tryOptimisticRead();
+    }
+
+    /**
+     *
+     * @param version from `optimisticReadLatch`
+     * @return whether page data is unchanged since the version was taken, and the frame still holds this page
+     */
+    public boolean validateReadLatch(long version) {
+        return version != 0 && latch.versionLatch.validate(version) && !latch.whetherEvicted;
+    }
+
+    /**
+     * Mark the page as gone from the buffer pool, its frame may hold another page from now on,
+     * so that optimistic reads of any view of it fail, which readers not pinning the page rely on
+     */
+    public void markEvicted() {
+        latch.whetherEvicted = true;
+    }
+
+    public boolean isEvicted() {
+        return latch.whetherEvicted;
+    }
+
+    /**
+     * Use the latch of another view of the same frame,
+     * so that latching either view excludes the other, and versions of both are the same
+     * @param page
+     */
+    protected void shareLatch(Page page) {
+        this.latch = page.latch;
+    }
+
+    /**
+     * Mark that page data is being read from disk,
+     * the buffer pool does the read without holding its partition lock
+     */
+    public void beginIo() {
+        synchronized (this) {
+            this.ioInProgress = true;
+            this.ioFailed = false;
+        }
+    }
+
+    public boolean isIoInProgress() {
+        synchronized (this) {
+            return this.ioInProgress;
+        }
+    }
+
+    /**
+     * Page data is ready (or the read failed), wake up threads waiting for this page
+     * @param success
+     */
+    public void endIo(boolean success) {
+        synchronized (this) {
+            this.ioInProgress = false;
+            this.ioFailed = !success;
+            this.notifyAll();
+        }
+    }
+
+    /**
+     * Wait until page data is ready, only threads fetching this very page wait here
+     * @return false if the read failed
+     */
+    public boolean waitForIo() {
+        synchronized (this) {
+            while (this.ioInProgress) {
+                try {
+                    this.wait();
+                } catch (InterruptedException e) {
+                    e.printStackTrace();
+                }
+            }
+            return !this.ioFailed;
+        }
     }
 
     public int getLsn() {
@@ -118,4 +228,22 @@ public class Page implements Serializable {
     public int getRecLsn() {
         return recLsn;
     }
+
+    /**
+     * Shared latch plus version of the page, the version is only taken in write mode
+     * while the write latch is held, to fail optimistic readers
+     */
+    private static class PageLatch implements Serializable {
+        private static final long serialVersionUID = 1L;
+        private ReentrantReadWriteLock readWriteLatch;
+        private StampedLock versionLatch;
+        private long writeStamp;
+        private transient volatile boolean whetherEvicted;
+
+        private PageLatch() {
+            this.readWriteLatch = new ReentrantReadWriteLock();
+            this.versionLatch = new StampedLock();
+            this.writeStamp = 0;
+        }
+    }
 }
@@ -54,6 +54,10 @@ public class TablePage extends Page {
     }
 
     public TablePage(Page page) {
+        // share the frame of the page, instead of allocating a new one
+        super(page.getPageBuffer());
+        // latching this view latches the frame
+        shareLatch(page);
         setPageId(page.getPageId());
         setPinCount(page.getPinCount());
         setPageData(page.getPageData());
@@ -103,6 +107,15 @@ public class TablePage extends Page {
         return pageBuffer.getInt(NEXT_PAGE_ID_OFFSET);
     }
 
+    /**
+     * Next page id read from any page holding a table page, without wrapping it
+     * @param page
+     * @return
+     */
+    public static int getNextPageId(Page page) {
+        return page.getPageBuffer().getInt(NEXT_PAGE_ID_OFFSET);
+    }
+
     /**
      *
      * @param pageId
@@ -175,6 +188,47 @@ public class TablePage extends Page {
         return new Tuple(tupleData, recordID, tupleSize, true);
     }
 
+    /**
+     * Get a tuple without the read latch, reads are validated against the page version instead.
+     * Nothing is changed before the tuple is known valid, and the shared lock is the only thing acquired.
+     * @param recordID
+     * @param txn
+     * @param lockManager
+     * @return null if the page changed during the read, or the tuple is not there,
+     *         the caller should then read again under the read latch,
+     *         unless the transaction is aborted for the shared lock
+     */
+    public Tuple getTupleOptimistic(RecordID recordID, Transaction txn, LockManager lockManager) {
+        long version = optimisticReadLatch();
+        if (version == 0) return null;
+
+        int tupleIndex = recordID.getTupleIndex();
+        // a torn tuple count may point anywhere, so check the slot is in the page first
+        if (tupleIndex < 0 || TUPLE_SIZE_START_OFFSET + tupleIndex * TUPLE_POINTER_SIZE + 4 > getPageData().length) return null;
+        int tupleCount = getTupleCount();
+        int tupleSize = getTupleSize(tupleIndex);
+        int tupleOffset = getTupleOffset(tupleIndex);
+        if (!validateReadLatch(version)
+                || tupleIndex > tupleCount
+                || tupleIsDeleted(tupleSize)
+                || tupleSize < 0
+                || tupleOffset < 0
+                || tupleOffset + tupleSize > getPageData().length)
+            return null;
+
+        if (!txn.isRecordSharedLocked(recordID)
+                && !txn.isRecordExclusiveLocked(recordID)
+                && !lockManager.acquireSharedLock(txn, recordID))
+            return null;
+
+        byte[] tupleData = new byte[tupleSize];
+        System.arraycopy(this.getPageData(), tupleOffset, tupleData, 0, tupleSize);
+        // the lock stays, reading again under the read latch does not acquire it twice
+        if (!validateReadLatch(version)) return null;
+
+        return new Tuple(tupleData, recordID, tupleSize, true);
+    }
+
     /**
      * Insert a tuple
      * @param tuple
@@ -2,9 +2,11 @@ package txDB.storage.table;
 
 import txDB.Config;
 import txDB.buffer.BufferManager;
+import txDB.buffer.BufferRing;
 import txDB.concurrency.LockManager;
 import txDB.concurrency.Transaction;
 import txDB.recovery.LogManager;
+import txDB.storage.disk.Tablespace;
 import txDB.storage.page.TablePage;
 import txDB.storage.page.Page;
 import txDB.concurrency.Transaction.TransactionState;
@@ -28,15 +30,28 @@ public class Table implements Serializable {
 
     // first page does not exist
     public Table(BufferManager bufferManager, LockManager lockManager, LogManager logManager, Transaction txn) {
+        this(bufferManager, lockManager, logManager, txn, Tablespace.DEFAULT_TABLESPACE_ID);
+    }
+
+    /**
+     * first page does not exist, pages of the table are placed in a tablespace
+     * @param bufferManager
+     * @param lockManager
+     * @param logManager
+     * @param txn
+     * @param tablespaceId see `Tablespace`
+     */
+    public Table(BufferManager bufferManager, LockManager lockManager, LogManager logManager, Transaction txn, int tablespaceId) {
         this.bufferManager = bufferManager;
         this.lockManager = lockManager;
         this.logManager = logManager;
 
-        Page firstPage = this.bufferManager.newPage();
+        // later pages are allocated near the last one, so in the same tablespace
+        Page firstPage = this.bufferManager.newPageIn(tablespaceId);
         this.firstPageId = firstPage.getPageId();
         TablePage firstTablePage = new TablePage(firstPage);
         this.bufferManager.replacePage(firstTablePage);
-        firstTablePage.initialize(firstPageId, Config.PAGE_SIZE, Config.INVALID_PAGE_ID, this.logManager, txn);
+        firstTablePage.initialize(firstPageId, this.bufferManager.getPageSize(), Config.INVALID_PAGE_ID, this.logManager, txn);
         this.bufferManager.unpinPage(firstPageId, true);
     }
 
@@ -45,7 +60,18 @@ public class Table implements Serializable {
     }
 
     public Tuple getTuple(RecordID recordID, Transaction txn) {
-        Page page = bufferManager.fetchPage(recordID.getPageId());
+        return this.getTuple(recordID, txn, null);
+    }
+
+    /**
+     *
+     * @param recordID
+     * @param txn
+     * @param bufferRing ring of a bulk scan, null for normal access
+     * @return
+     */
+    public Tuple getTuple(RecordID recordID, Transaction txn, BufferRing bufferRing) {
+        Page page = bufferManager.fetchPage(recordID.getPageId(), bufferRing);
         if (page == null) {
             // abort this transaction
             txn.setTransactionState(TransactionState.ABORTED);
@@ -53,16 +79,20 @@ public class Table implements Serializable {
         }
 
         TablePage tablePage = new TablePage(page);
-        tablePage.readLatch();
         bufferManager.replacePage(tablePage);
-        Tuple res = tablePage.getTuple(recordID, txn, lockManager);
-        tablePage.readUnlatch();
+        Tuple res = tablePage.getTupleOptimistic(recordID, txn, lockManager);
+        if (res == null && txn.getTransactionState() != TransactionState.ABORTED) {
+            // the page is being written, or the tuple is not there, read it under the read latch
+            tablePage.readLatch();
+            res = tablePage.getTuple(recordID, txn, lockManager);
+            tablePage.readUnlatch();
+        }
         bufferManager.unpinPage(recordID.getPageId(), false);
         return res;
     }
 
     public boolean insertTuple(Tuple tuple, RecordID recordID, Transaction txn) {
-        if (tuple.getTupleSize() + 32 > Config.PAGE_SIZE) {
+        if (tuple.getTupleSize() + 32 > bufferManager.getPageSize()) {
             // abort this transaction
             txn.setTransactionState(TransactionState.ABORTED);
             return false;
@@ -93,7 +123,8 @@ public class Table implements Serializable {
                 newTablePage.writeLatch();
                 bufferManager.replacePage(newTablePage);
             } else {
-                Page newPage = bufferManager.newPage();
+                // keep pages of the table close together
+                Page newPage = bufferManager.newPage(curTablePage.getPageId());
                 if (newPage == null) {
                     curTablePage.writeUnlatch();
                     bufferManager.unpinPage(curTablePage.getPageId(), false);
@@ -108,7 +139,7 @@ public class Table implements Serializable {
                 newTablePage.writeLatch();
                 bufferManager.replacePage(newTablePage);
                 curTablePage.setNextPageId(newTablePage.getPageId());
-                newTablePage.initialize(newTablePage.getPageId(), Config.PAGE_SIZE, curTablePage.getPageId(), logManager, txn);
+                newTablePage.initialize(newTablePage.getPageId(), bufferManager.getPageSize(), curTablePage.getPageId(), logManager, txn);
                 curTablePage.writeUnlatch();
                 bufferManager.unpinPage(curTablePage.getPageId(), true);
             }
@@ -124,7 +155,19 @@ public class Table implements Serializable {
     }
 
     public RecordID insertTuple(Tuple tuple, Transaction txn) {
-        if (tuple.getTupleSize() + 32 > Config.PAGE_SIZE) {
+        return this.insertTuple(tuple, txn, null);
+    }
+
+    /**
+     * Insert for a bulk load, pages the load walks through or adds to the table are recycled within a ring,
+     * so the load does not flush the working set of others
+     * @param tuple
+     * @param txn
+     * @param bufferRing ring of the bulk load, e.g., from `BufferManager.newBufferRing`, null for normal access
+     * @return
+     */
+    public RecordID insertTuple(Tuple tuple, Transaction txn, BufferRing bufferRing) {
+        if (tuple.getTupleSize() + 32 > bufferManager.getPageSize()) {
             // abort this transaction
             txn.setTransactionState(TransactionState.ABORTED);
             return null;
@@ -149,14 +192,15 @@ public class Table implements Serializable {
             if (nextPageId != Config.INVALID_PAGE_ID) {
                 curTablePage.writeUnlatch();
                 bufferManager.unpinPage(curTablePage.getPageId(), false);
-                Page newPage = bufferManager.fetchPage(nextPageId);
+                Page newPage = bufferManager.fetchPage(nextPageId, bufferRing);
                 newPage.readLatch();
                 newTablePage = new TablePage(newPage);
                 newPage.readUnlatch();
                 newTablePage.writeLatch();
                 bufferManager.replacePage(newTablePage);
             } else {
-                Page newPage = bufferManager.newPage();
+                // keep pages of the table close together
+                Page newPage = bufferManager.newPage(curTablePage.getPageId(), bufferRing);
                 if (newPage == null) {
                     curTablePage.writeUnlatch();
                     bufferManager.unpinPage(curTablePage.getPageId(), false);
@@ -171,7 +215,7 @@ public class Table implements Serializable {
                 newTablePage.writeLatch();
                 bufferManager.replacePage(newTablePage);
                 curTablePage.setNextPageId(newTablePage.getPageId());
-                newTablePage.initialize(newTablePage.getPageId(), Config.PAGE_SIZE, curTablePage.getPageId(), logManager, txn);
+                newTablePage.initialize(newTablePage.getPageId(), bufferManager.getPageSize(), curTablePage.getPageId(), logManager, txn);
                 curTablePage.writeUnlatch();
                 bufferManager.unpinPage(curTablePage.getPageId(), true);
             }